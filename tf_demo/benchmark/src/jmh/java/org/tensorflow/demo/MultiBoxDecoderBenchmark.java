@@ -0,0 +1,70 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Decoding of MultiBox location and score encodings into recognitions, per inference. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class MultiBoxDecoderBenchmark {
+  private static final int INPUT_SIZE = 224;
+
+  // The demo's MultiBox model and an SSD-sized prior set.
+  @Param({"784", "1917"})
+  public int numLocations;
+
+  private MultiBoxDecoder decoder;
+  private float[] locationEncoding;
+  private float[] scoreEncoding;
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(42);
+
+    final float[] boxPriors = new float[numLocations * 8];
+    for (int i = 0; i < boxPriors.length; i += 2) {
+      boxPriors[i] = random.nextFloat();
+      boxPriors[i + 1] = 0.1f;
+    }
+    decoder = new MultiBoxDecoder(boxPriors, INPUT_SIZE, Integer.MAX_VALUE);
+
+    locationEncoding = new float[numLocations * 4];
+    scoreEncoding = new float[numLocations];
+    for (int i = 0; i < locationEncoding.length; ++i) {
+      locationEncoding[i] = (float) random.nextGaussian();
+    }
+    for (int i = 0; i < scoreEncoding.length; ++i) {
+      scoreEncoding[i] = (float) random.nextGaussian() * 4.0f;
+    }
+  }
+
+  @Benchmark
+  public List<Classifier.Recognition> decode() {
+    return decoder.decode(locationEncoding, scoreEncoding);
+  }
+}
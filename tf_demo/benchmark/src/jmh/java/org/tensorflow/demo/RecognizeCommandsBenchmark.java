@@ -0,0 +1,98 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Smoothing of speech model outputs in RecognizeCommands, per model result. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RecognizeCommandsBenchmark {
+  // The same settings SpeechActivity uses.
+  private static final long AVERAGE_WINDOW_DURATION_MS = 500;
+  private static final float DETECTION_THRESHOLD = 0.70f;
+  private static final int SUPPRESSION_MS = 1500;
+  private static final int MINIMUM_COUNT = 3;
+  private static final long MINIMUM_TIME_BETWEEN_SAMPLES_MS = 30;
+
+  private static final int NUM_RESULT_FRAMES = 64;
+
+  // The demo's 12 labels, and larger vocabularies.
+  @Param({"12", "36", "128"})
+  public int labelCount;
+
+  private float[][] results;
+  private RecognizeCommands recognizeCommands;
+  private long timeMs;
+  private int frame;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    final List<String> labels = new ArrayList<String>();
+    labels.add("_silence_");
+    labels.add("_unknown_");
+    for (int i = 2; i < labelCount; ++i) {
+      labels.add("word" + i);
+    }
+
+    // Softmax-like outputs with one dominant label, so that detections actually fire.
+    final Random random = new Random(42);
+    results = new float[NUM_RESULT_FRAMES][labelCount];
+    for (final float[] result : results) {
+      float sum = 0.0f;
+      for (int i = 0; i < labelCount; ++i) {
+        result[i] = random.nextFloat();
+        sum += result[i];
+      }
+      result[random.nextInt(labelCount)] += sum * 4.0f;
+      sum *= 5.0f;
+      for (int i = 0; i < labelCount; ++i) {
+        result[i] /= sum;
+      }
+    }
+
+    recognizeCommands =
+        new RecognizeCommands(
+            labels,
+            AVERAGE_WINDOW_DURATION_MS,
+            DETECTION_THRESHOLD,
+            SUPPRESSION_MS,
+            MINIMUM_COUNT,
+            MINIMUM_TIME_BETWEEN_SAMPLES_MS);
+    timeMs = 0;
+    frame = 0;
+  }
+
+  @Benchmark
+  public RecognizeCommands.RecognitionResult processLatestResults() {
+    timeMs += MINIMUM_TIME_BETWEEN_SAMPLES_MS;
+    frame = (frame + 1) % NUM_RESULT_FRAMES;
+    return recognizeCommands.processLatestResults(results[frame], timeMs);
+  }
+}
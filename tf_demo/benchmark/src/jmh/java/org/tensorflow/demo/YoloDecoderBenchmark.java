@@ -0,0 +1,58 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Decoding of the raw YOLO output grid into recognitions, per inference. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class YoloDecoderBenchmark {
+  private static final int BLOCK_SIZE = 32;
+
+  // 416 and 608 give the 13x13 and 19x19 grids of the tiny and full YOLO v2 models.
+  @Param({"416", "608"})
+  public int inputSize;
+
+  private YoloDecoder decoder;
+  private float[] output;
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(42);
+    decoder = new YoloDecoder(BLOCK_SIZE, 5);
+    output = new float[decoder.getOutputSize(inputSize, inputSize)];
+    for (int i = 0; i < output.length; ++i) {
+      output[i] = (float) random.nextGaussian() * 2.0f;
+    }
+  }
+
+  @Benchmark
+  public List<Classifier.Recognition> decode() {
+    return decoder.decode(output, inputSize, inputSize);
+  }
+}
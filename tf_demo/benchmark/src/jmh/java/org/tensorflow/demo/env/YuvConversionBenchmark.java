@@ -0,0 +1,80 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Java fallback of the camera frame conversion, per frame. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class YuvConversionBenchmark {
+  @Param({"320x240", "640x480", "1280x720"})
+  public String frameSize;
+
+  private int width;
+  private int height;
+
+  private byte[] nv21;
+  private byte[] yPlane;
+  private byte[] uPlane;
+  private byte[] vPlane;
+  private int[] argb;
+
+  @Setup
+  public void setUp() {
+    final String[] dims = frameSize.split("x");
+    width = Integer.parseInt(dims[0]);
+    height = Integer.parseInt(dims[1]);
+
+    final Random random = new Random(42);
+    nv21 = new byte[ImageUtils.getYUVByteSize(width, height)];
+    random.nextBytes(nv21);
+
+    // Interleaved chroma, as most Camera2 devices deliver it: a pixel stride of 2 with U and V
+    // planes that are views one byte apart.
+    yPlane = new byte[width * height];
+    uPlane = new byte[width * height / 2];
+    vPlane = new byte[width * height / 2];
+    random.nextBytes(yPlane);
+    random.nextBytes(uPlane);
+    random.nextBytes(vPlane);
+
+    argb = new int[width * height];
+  }
+
+  @Benchmark
+  public int[] semiPlanar() {
+    ImageUtils.convertYUV420SPToARGB8888(nv21, width, height, argb);
+    return argb;
+  }
+
+  @Benchmark
+  public int[] planar() {
+    ImageUtils.convertYUV420ToARGB8888(
+        yPlane, uPlane, vPlane, width, height, width, width, 2, argb);
+    return argb;
+  }
+}
@@ -0,0 +1,81 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.tracking;
+
+import android.graphics.RectF;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * All-pairs intersection-over-union tests between candidate and tracked boxes, the inner loop of
+ * MultiBoxTracker's association. The rest of the association (replacing tracks, reusing colours,
+ * pruning overlaps) depends on the native object tracker and is not covered here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class BoxOverlapBenchmark {
+  private static final float MAX_OVERLAP = 0.8f;
+
+  @Param({"5", "20"})
+  public int trackCount;
+
+  @Param({"10", "100"})
+  public int candidateCount;
+
+  private RectF[] tracks;
+  private RectF[] candidates;
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(42);
+    tracks = randomBoxes(random, trackCount);
+    candidates = randomBoxes(random, candidateCount);
+  }
+
+  private static RectF[] randomBoxes(final Random random, final int count) {
+    final RectF[] boxes = new RectF[count];
+    for (int i = 0; i < count; ++i) {
+      final float left = random.nextFloat() * 600;
+      final float top = random.nextFloat() * 440;
+      final float width = 20 + random.nextFloat() * 100;
+      final float height = 20 + random.nextFloat() * 100;
+      boxes[i] = new RectF(left, top, left + width, top + height);
+    }
+    return boxes;
+  }
+
+  @Benchmark
+  public int allPairs() {
+    int overlapping = 0;
+    for (final RectF candidate : candidates) {
+      for (final RectF track : tracks) {
+        if (BoxOverlap.intersectionOverUnion(track, candidate) > MAX_OVERLAP) {
+          ++overlapping;
+        }
+      }
+    }
+    return overlapping;
+  }
+}
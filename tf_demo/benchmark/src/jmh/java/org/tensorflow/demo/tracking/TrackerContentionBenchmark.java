@@ -0,0 +1,180 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.tracking;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.tensorflow.demo.Classifier.Recognition;
+import org.tensorflow.demo.env.FrameTracer;
+import org.tensorflow.demo.env.ImagePyramid;
+
+/**
+ * MultiBoxTracker.draw() on the UI thread while the camera thread calls onFrame() and the
+ * inference thread calls trackResults() as fast as they can, against draw() with no writers.
+ *
+ * draw() only reads the latest published snapshot, so the contended draw should cost about what
+ * drawAlone does, and the draw thread should spend no time blocked. The blockedMs and waitedMs
+ * counters report how long, per iteration, the draw thread waited to enter a monitor and waited
+ * parked, such as on a lock; a regression that has draw() take the tracker's lock again shows up
+ * in both. Object tracking is not available on the JVM, so the writers run the path without
+ * optical flow.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Group)
+public class TrackerContentionBenchmark {
+  private static final int FRAME_WIDTH = 640;
+  private static final int FRAME_HEIGHT = 480;
+  private static final int SENSOR_ORIENTATION = 90;
+  // Enough sets of detections that consecutive results move the tracks rather than repeat.
+  private static final int RESULT_SETS = 16;
+  private static final String[] TITLES = {"FAWLeaf", "FAWFrass"};
+
+  @Param({"3", "10"})
+  public int detectionCount;
+
+  private MultiBoxTracker tracker;
+  private ImagePyramid pyramid;
+  private byte[] luminance;
+  private List<List<Recognition>> results;
+  private Canvas canvas;
+
+  private final AtomicLong timestamp = new AtomicLong();
+  // Only touched by the thread running trackResults().
+  private int resultSet;
+
+  /** Time the thread calling draw() spent blocked or waiting during an iteration. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class DrawThread {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public long blockedMs;
+    public long waitedMs;
+
+    private long blockedAtStart;
+    private long waitedAtStart;
+
+    @Setup(Level.Iteration)
+    public void start() {
+      if (THREADS.isThreadContentionMonitoringSupported()) {
+        THREADS.setThreadContentionMonitoringEnabled(true);
+      }
+      final ThreadInfo info = THREADS.getThreadInfo(Thread.currentThread().getId());
+      blockedAtStart = info.getBlockedTime();
+      waitedAtStart = info.getWaitedTime();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() {
+      final ThreadInfo info = THREADS.getThreadInfo(Thread.currentThread().getId());
+      // Times are -1 where contention monitoring is unsupported.
+      blockedMs = blockedAtStart >= 0 ? info.getBlockedTime() - blockedAtStart : -1;
+      waitedMs = waitedAtStart >= 0 ? info.getWaitedTime() - waitedAtStart : -1;
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(42);
+    luminance = new byte[FRAME_WIDTH * FRAME_HEIGHT];
+    random.nextBytes(luminance);
+    pyramid = new ImagePyramid(FRAME_WIDTH, FRAME_HEIGHT);
+    pyramid.setFrame(luminance, FRAME_WIDTH, null);
+
+    // Each object drifts a few pixels between sets of detections.
+    final RectF[] objects = new RectF[detectionCount];
+    for (int i = 0; i < detectionCount; ++i) {
+      final float width = 40 + random.nextFloat() * 80;
+      final float height = 40 + random.nextFloat() * 80;
+      final float left = random.nextFloat() * (FRAME_WIDTH - width);
+      final float top = random.nextFloat() * (FRAME_HEIGHT - height);
+      objects[i] = new RectF(left, top, left + width, top + height);
+    }
+    results = new ArrayList<List<Recognition>>(RESULT_SETS);
+    for (int set = 0; set < RESULT_SETS; ++set) {
+      final List<Recognition> recognitions = new ArrayList<Recognition>(detectionCount);
+      for (int i = 0; i < detectionCount; ++i) {
+        final RectF object = objects[i];
+        final float dx = (random.nextFloat() - 0.5f) * 4;
+        final float dy = (random.nextFloat() - 0.5f) * 4;
+        object.set(object.left + dx, object.top + dy, object.right + dx, object.bottom + dy);
+        recognitions.add(
+            new Recognition(
+                "" + i, TITLES[i % TITLES.length], 0.6f + 0.4f * random.nextFloat(),
+                new RectF(object)));
+      }
+      results.add(recognitions);
+    }
+
+    canvas = new Canvas(FRAME_HEIGHT, FRAME_WIDTH);
+    tracker = new MultiBoxTracker(new Context());
+    // As in the app, a frame and a set of detections arrive before anything is drawn.
+    onFrame();
+    trackResults();
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(1)
+  public ArrayList<Triplet> draw(final DrawThread drawThread) {
+    return tracker.draw(canvas, TITLES[0]);
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(1)
+  public void onFrame() {
+    tracker.onFrame(
+        pyramid, SENSOR_ORIENTATION, timestamp.incrementAndGet(), FrameTracer.beginFrame(-1));
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(1)
+  public void trackResults() {
+    resultSet = (resultSet + 1) % RESULT_SETS;
+    tracker.trackResults(
+        results.get(resultSet), luminance, timestamp.get(), FrameTracer.beginFrame(-1));
+  }
+
+  @Benchmark
+  public ArrayList<Triplet> drawAlone(final DrawThread drawThread) {
+    return tracker.draw(canvas, TITLES[0]);
+  }
+}
@@ -0,0 +1,283 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.replay;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.tensorflow.demo.Classifier.Recognition;
+import org.tensorflow.demo.env.FrameContext;
+import org.tensorflow.demo.env.FrameReader;
+import org.tensorflow.demo.env.FrameRecorder;
+import org.tensorflow.demo.env.FrameTracer;
+import org.tensorflow.demo.env.ImagePyramid;
+import org.tensorflow.demo.env.ImageUtils;
+import org.tensorflow.demo.env.Metrics;
+import org.tensorflow.demo.env.SplitTimer;
+import org.tensorflow.demo.tracking.MultiBoxTracker;
+
+/**
+ * Command line entry point: streams a capture file recorded by the app through the per-frame
+ * pipeline of DetectorActivity on a desktop JVM, as fast as it runs, and prints the throughput and
+ * the latency of each stage.
+ *
+ * Every frame is loaded into an ImagePyramid and tracked with MultiBoxTracker.onFrame(), then the
+ * tracked boxes are drawn onto a stand-in canvas. Every --detect_every frames the crop level is
+ * converted to RGB and a set of detections is handed to trackResults(), as a detection pass
+ * would. No model runs here, so the detections are --boxes fixed boxes spread over the frame;
+ * detector cost is measured on the device or, for the model alone, with the TensorFlow benchmark
+ * tools. YUV conversion uses the Java implementation and tracking the path without native
+ * optical flow, since the app's native library is not available on the JVM.
+ *
+ * Flags take the form --name=value and default to DetectorActivity's settings:
+ *
+ *   --crop_size      detector input size, which decides the pyramid level converted
+ *   --detect_every   frames between detection passes
+ *   --boxes          detections per pass
+ *   --loops          times to play the capture
+ *   --dump           file to write the per-stage statistics to as CSV, as stage_latency.csv
+ */
+public class CaptureReplay {
+  private static final String TITLE = "FAWLeaf";
+
+  private CaptureReplay() {}
+
+  public static void main(final String[] args) throws IOException {
+    int cropSize = 300;
+    int detectEvery = 10;
+    int boxCount = 5;
+    int loops = 1;
+    String dumpPath = null;
+    File capture = null;
+
+    for (final String arg : args) {
+      if (!arg.startsWith("--")) {
+        if (capture != null) {
+          usage("Only one capture file can be replayed at a time");
+        }
+        capture = new File(arg);
+        continue;
+      }
+      final int equals = arg.indexOf('=');
+      if (equals < 0) {
+        usage("Flag " + arg + " has no value");
+      }
+      final String name = arg.substring(2, equals);
+      final String value = arg.substring(equals + 1);
+      try {
+        if (name.equals("crop_size")) {
+          cropSize = Integer.parseInt(value);
+        } else if (name.equals("detect_every")) {
+          detectEvery = Integer.parseInt(value);
+        } else if (name.equals("boxes")) {
+          boxCount = Integer.parseInt(value);
+        } else if (name.equals("loops")) {
+          loops = Integer.parseInt(value);
+        } else if (name.equals("dump")) {
+          dumpPath = value;
+        } else {
+          usage("Unknown flag --" + name);
+        }
+      } catch (final NumberFormatException e) {
+        usage("Bad value for --" + name + ": " + value);
+      }
+    }
+    if (capture == null) {
+      usage("No capture file given");
+    }
+    if (cropSize < 1 || detectEvery < 1 || boxCount < 0 || loops < 1) {
+      usage("--crop_size, --detect_every and --loops must be positive, --boxes not negative");
+    }
+
+    final FrameReader reader = new FrameReader(capture);
+    try {
+      replay(reader, cropSize, detectEvery, boxCount, loops);
+    } finally {
+      reader.close();
+    }
+
+    if (dumpPath != null) {
+      Metrics.dump(new File(dumpPath));
+      System.out.println("Wrote " + dumpPath);
+    }
+  }
+
+  private static void replay(
+      final FrameReader reader,
+      final int cropSize,
+      final int detectEvery,
+      final int boxCount,
+      final int loops)
+      throws IOException {
+    final FrameReader.Frame frame = new FrameReader.Frame();
+    final SplitTimer timer = new SplitTimer();
+    final MultiBoxTracker tracker = new MultiBoxTracker(new Context());
+
+    ImagePyramid pyramid = null;
+    int width = 0;
+    int height = 0;
+    int cropLevel = 0;
+    Canvas canvas = null;
+    List<Recognition> detections = null;
+
+    long frames = 0;
+    long skipped = 0;
+    long trackedBoxes = 0;
+    final long startNs = System.nanoTime();
+
+    for (int loop = 0; loop < loops; ++loop) {
+      if (loop > 0) {
+        reader.rewind();
+      }
+      while (reader.next(frame)) {
+        if (pyramid == null) {
+          width = frame.width;
+          height = frame.height;
+          pyramid = new ImagePyramid(width, height);
+          cropLevel = ImagePyramid.getCoarsestLevel(width, height, cropSize, cropSize);
+          canvas =
+              frame.rotation % 180 == 90 ? new Canvas(height, width) : new Canvas(width, height);
+          detections = spreadBoxes(width, height, boxCount);
+          System.out.println(
+              String.format(
+                  "%dx%d frames, crop level %d, %d boxes every %d frames",
+                  width, height, cropLevel, boxCount, detectEvery));
+        } else if (frame.width != width || frame.height != height) {
+          // As in the app, which skips frames that do not match the preview size.
+          ++skipped;
+          continue;
+        }
+
+        final long timestamp = ++frames;
+        final FrameContext context = FrameTracer.beginFrame(-1);
+        setFrame(pyramid, frame);
+
+        timer.newSplit();
+        tracker.onFrame(pyramid, frame.rotation, timestamp, context);
+        timer.endSplit(Metrics.Stage.TRACK);
+
+        if (timestamp % detectEvery == 0) {
+          timer.newSplit();
+          pyramid.getRgb(cropLevel);
+          timer.endSplit(Metrics.Stage.CONVERT);
+          context.markConverted();
+
+          timer.newSplit();
+          tracker.trackResults(detections, pyramid.getLuminance(0), timestamp, context);
+          timer.endSplit(Metrics.Stage.TRACK);
+        }
+
+        timer.newSplit();
+        trackedBoxes += tracker.draw(canvas, TITLE).size();
+        timer.endSplit(Metrics.Stage.DRAW);
+      }
+    }
+
+    final double seconds = (System.nanoTime() - startNs) / 1.0e9;
+    if (frames == 0) {
+      System.out.println("The capture has no frames");
+      return;
+    }
+    System.out.println(
+        String.format(
+            "Replayed %d frames in %.2f s, %.1f fps, %.1f tracked boxes per frame%s",
+            frames,
+            seconds,
+            frames / seconds,
+            trackedBoxes / (double) frames,
+            skipped > 0 ? String.format(", %d frames of another size skipped", skipped) : ""));
+    final List<String> lines = new ArrayList<String>();
+    Metrics.addSummaryLines(lines);
+    for (final String line : lines) {
+      System.out.println(line);
+    }
+  }
+
+  /** Points the pyramid at the frame's planes, as CameraActivity does for a replayed frame. */
+  private static void setFrame(final ImagePyramid pyramid, final FrameReader.Frame frame) {
+    final int width = frame.width;
+    final int height = frame.height;
+    if (frame.format == FrameRecorder.FORMAT_NV21) {
+      pyramid.setFrame(
+          frame.planes[0],
+          frame.yRowStride,
+          new ImagePyramid.RgbConverter() {
+            @Override
+            public void convert(final int[] output, final boolean halfSize) {
+              ImageUtils.convertYUV420SPToARGB8888(
+                  frame.planes[0], width, height, output, halfSize);
+            }
+          });
+    } else {
+      pyramid.setFrame(
+          frame.planes[0],
+          frame.yRowStride,
+          new ImagePyramid.RgbConverter() {
+            @Override
+            public void convert(final int[] output, final boolean halfSize) {
+              ImageUtils.convertYUV420ToARGB8888(
+                  frame.planes[0],
+                  frame.planes[1],
+                  frame.planes[2],
+                  width,
+                  height,
+                  frame.yRowStride,
+                  frame.uvRowStride,
+                  frame.uvPixelStride,
+                  output,
+                  halfSize);
+            }
+          });
+    }
+  }
+
+  /** Returns count boxes of a sixth of the frame's size, on a grid across the frame. */
+  private static List<Recognition> spreadBoxes(
+      final int width, final int height, final int count) {
+    final List<Recognition> boxes = new ArrayList<Recognition>(count);
+    final int columns = (int) Math.ceil(Math.sqrt(count));
+    final int rows = columns > 0 ? (count + columns - 1) / columns : 0;
+    final float boxWidth = width / 6.0f;
+    final float boxHeight = height / 6.0f;
+    for (int i = 0; i < count; ++i) {
+      final float centerX = width * (i % columns + 0.5f) / columns;
+      final float centerY = height * (i / columns + 0.5f) / rows;
+      boxes.add(
+          new Recognition(
+              Integer.toString(i),
+              TITLE,
+              0.9f,
+              new RectF(
+                  centerX - boxWidth / 2,
+                  centerY - boxHeight / 2,
+                  centerX + boxWidth / 2,
+                  centerY + boxHeight / 2)));
+    }
+    return boxes;
+  }
+
+  private static void usage(final String message) {
+    System.err.println(message);
+    System.err.println(
+        "Usage: CaptureReplay [--crop_size=N] [--detect_every=N] [--boxes=N] [--loops=N]"
+            + " [--dump=FILE] capture");
+    System.exit(2);
+  }
+}
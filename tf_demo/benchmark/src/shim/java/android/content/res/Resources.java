@@ -0,0 +1,27 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.content.res;
+
+import android.util.DisplayMetrics;
+
+/** JVM stand-in for android.content.res.Resources, describing a display of density 1. */
+public class Resources {
+  private final DisplayMetrics displayMetrics = new DisplayMetrics();
+
+  public DisplayMetrics getDisplayMetrics() {
+    return displayMetrics;
+  }
+}
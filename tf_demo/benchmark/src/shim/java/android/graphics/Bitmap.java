@@ -0,0 +1,47 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.graphics;
+
+import java.io.OutputStream;
+
+/** JVM stand-in for the parts of android.graphics.Bitmap the benchmarked sources mention. */
+public final class Bitmap {
+  public enum CompressFormat {
+    JPEG,
+    PNG,
+    WEBP
+  }
+
+  private final int width;
+  private final int height;
+
+  private Bitmap(final int width, final int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public boolean compress(final CompressFormat format, final int quality, final OutputStream out) {
+    throw new UnsupportedOperationException("Bitmap encoding is not available on the JVM");
+  }
+}
@@ -0,0 +1,69 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.graphics;
+
+/**
+ * JVM stand-in for android.graphics.Canvas. Drawing calls are accepted and ignored, so benchmarks
+ * measure what the drawing code does around them.
+ */
+public class Canvas {
+  private final int width;
+  private final int height;
+  private int saveCount = 1;
+
+  /** Not in Android, where a canvas gets its size from the bitmap or view it draws to. */
+  public Canvas(final int width, final int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int save() {
+    return saveCount++;
+  }
+
+  public void restore() {
+    if (saveCount <= 1) {
+      throw new IllegalStateException("Underflow in restore");
+    }
+    --saveCount;
+  }
+
+  public void setMatrix(final Matrix matrix) {}
+
+  public void drawCircle(final float cx, final float cy, final float radius, final Paint paint) {}
+
+  public void drawLine(
+      final float startX, final float startY, final float stopX, final float stopY,
+      final Paint paint) {}
+
+  public void drawRect(final RectF rect, final Paint paint) {}
+
+  public void drawRect(
+      final float left, final float top, final float right, final float bottom,
+      final Paint paint) {}
+
+  public void drawRoundRect(final RectF rect, final float rx, final float ry, final Paint paint) {}
+
+  public void drawText(final String text, final float x, final float y, final Paint paint) {}
+}
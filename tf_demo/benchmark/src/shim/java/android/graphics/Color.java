@@ -0,0 +1,54 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.graphics;
+
+/** JVM stand-in for android.graphics.Color with the same colour values. */
+public class Color {
+  public static final int BLACK = 0xFF000000;
+  public static final int DKGRAY = 0xFF444444;
+  public static final int GRAY = 0xFF888888;
+  public static final int LTGRAY = 0xFFCCCCCC;
+  public static final int WHITE = 0xFFFFFFFF;
+  public static final int RED = 0xFFFF0000;
+  public static final int GREEN = 0xFF00FF00;
+  public static final int BLUE = 0xFF0000FF;
+  public static final int YELLOW = 0xFFFFFF00;
+  public static final int CYAN = 0xFF00FFFF;
+  public static final int MAGENTA = 0xFFFF00FF;
+  public static final int TRANSPARENT = 0;
+
+  /** Parses #RRGGBB or #AARRGGBB. Unlike Android's, colour names are not understood. */
+  public static int parseColor(final String colorString) {
+    if (colorString.charAt(0) != '#') {
+      throw new IllegalArgumentException("Unknown color");
+    }
+    final long color = Long.parseLong(colorString.substring(1), 16);
+    if (colorString.length() == 7) {
+      return (int) (color | 0xFF000000L);
+    } else if (colorString.length() == 9) {
+      return (int) color;
+    }
+    throw new IllegalArgumentException("Unknown color");
+  }
+
+  public static int argb(final int alpha, final int red, final int green, final int blue) {
+    return (alpha << 24) | (red << 16) | (green << 8) | blue;
+  }
+
+  public static int rgb(final int red, final int green, final int blue) {
+    return argb(0xFF, red, green, blue);
+  }
+}
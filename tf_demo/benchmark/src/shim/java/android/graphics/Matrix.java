@@ -0,0 +1,64 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.graphics;
+
+/**
+ * JVM stand-in for android.graphics.Matrix. Transformations are accepted and ignored, so it always
+ * maps as the identity: the benchmarked code paths only need the cost of building and applying
+ * one, not where points end up.
+ */
+public class Matrix {
+  public Matrix() {}
+
+  public Matrix(final Matrix src) {}
+
+  public boolean postTranslate(final float dx, final float dy) {
+    return true;
+  }
+
+  public boolean postRotate(final float degrees) {
+    return true;
+  }
+
+  public boolean postScale(final float sx, final float sy) {
+    return true;
+  }
+
+  public boolean preScale(final float sx, final float sy) {
+    return true;
+  }
+
+  public void getValues(final float[] values) {
+    values[0] = 1;
+    values[1] = 0;
+    values[2] = 0;
+    values[3] = 0;
+    values[4] = 1;
+    values[5] = 0;
+    values[6] = 0;
+    values[7] = 0;
+    values[8] = 1;
+  }
+
+  public boolean mapRect(final RectF dst, final RectF src) {
+    dst.set(src);
+    return true;
+  }
+
+  public boolean mapRect(final RectF rect) {
+    return true;
+  }
+}
@@ -0,0 +1,114 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.graphics;
+
+/**
+ * JVM stand-in for android.graphics.Paint. Colour, style, stroke width and text size can be read
+ * back; other settings are accepted and ignored, and there is no font to measure text with.
+ */
+public class Paint {
+  public enum Align {
+    LEFT,
+    CENTER,
+    RIGHT
+  }
+
+  public enum Cap {
+    BUTT,
+    ROUND,
+    SQUARE
+  }
+
+  public enum Join {
+    MITER,
+    ROUND,
+    BEVEL
+  }
+
+  public enum Style {
+    FILL,
+    STROKE,
+    FILL_AND_STROKE
+  }
+
+  private int color = Color.BLACK;
+  private Style style = Style.FILL;
+  private float strokeWidth;
+  private float textSize = 12.0f;
+
+  public int getColor() {
+    return color;
+  }
+
+  public void setColor(final int color) {
+    this.color = color;
+  }
+
+  public int getAlpha() {
+    return color >>> 24;
+  }
+
+  public void setAlpha(final int alpha) {
+    color = (color & 0x00FFFFFF) | (alpha << 24);
+  }
+
+  public Style getStyle() {
+    return style;
+  }
+
+  public void setStyle(final Style style) {
+    this.style = style;
+  }
+
+  public void setStrokeCap(final Cap cap) {}
+
+  public void setStrokeJoin(final Join join) {}
+
+  public float getStrokeWidth() {
+    return strokeWidth;
+  }
+
+  public void setStrokeWidth(final float width) {
+    strokeWidth = width;
+  }
+
+  public void setStrokeMiter(final float miter) {}
+
+  public float getTextSize() {
+    return textSize;
+  }
+
+  public void setTextSize(final float textSize) {
+    this.textSize = textSize;
+  }
+
+  public void setTextAlign(final Align align) {}
+
+  public void setAntiAlias(final boolean aa) {}
+
+  public Typeface setTypeface(final Typeface typeface) {
+    return typeface;
+  }
+
+  public PathEffect setPathEffect(final PathEffect effect) {
+    return effect;
+  }
+
+  /** Returns the bounds of the text as if every character were a textSize square. */
+  public void getTextBounds(final String text, final int start, final int end, final Rect bounds) {
+    bounds.set(0, (int) -textSize, (int) ((end - start) * textSize), 0);
+  }
+}
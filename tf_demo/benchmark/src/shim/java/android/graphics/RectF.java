@@ -0,0 +1,78 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.graphics;
+
+/** JVM stand-in for android.graphics.RectF with the same field layout and accessors. */
+public class RectF {
+  public float left;
+  public float top;
+  public float right;
+  public float bottom;
+
+  public RectF() {}
+
+  public RectF(final float left, final float top, final float right, final float bottom) {
+    this.left = left;
+    this.top = top;
+    this.right = right;
+    this.bottom = bottom;
+  }
+
+  public RectF(final RectF r) {
+    if (r != null) {
+      set(r);
+    }
+  }
+
+  public final float width() {
+    return right - left;
+  }
+
+  public final float height() {
+    return bottom - top;
+  }
+
+  public final float centerX() {
+    return (left + right) * 0.5f;
+  }
+
+  public final float centerY() {
+    return (top + bottom) * 0.5f;
+  }
+
+  public void inset(final float dx, final float dy) {
+    left += dx;
+    top += dy;
+    right -= dx;
+    bottom -= dy;
+  }
+
+  public void set(final float left, final float top, final float right, final float bottom) {
+    this.left = left;
+    this.top = top;
+    this.right = right;
+    this.bottom = bottom;
+  }
+
+  public void set(final RectF src) {
+    set(src.left, src.top, src.right, src.bottom);
+  }
+
+  @Override
+  public String toString() {
+    return "RectF(" + left + ", " + top + ", " + right + ", " + bottom + ")";
+  }
+}
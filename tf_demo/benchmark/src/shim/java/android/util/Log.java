@@ -0,0 +1,71 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * JVM stand-in for android.util.Log. Messages are discarded so that benchmarks measure the cost
+ * of producing them rather than of printing them.
+ */
+public final class Log {
+  public static final int VERBOSE = 2;
+  public static final int DEBUG = 3;
+  public static final int INFO = 4;
+  public static final int WARN = 5;
+  public static final int ERROR = 6;
+  public static final int ASSERT = 7;
+
+  private Log() {}
+
+  public static boolean isLoggable(final String tag, final int level) {
+    return false;
+  }
+
+  public static int println(final int priority, final String tag, final String msg) {
+    return msg.length();
+  }
+
+  public static int v(final String tag, final String msg) {
+    return println(VERBOSE, tag, msg);
+  }
+
+  public static int d(final String tag, final String msg) {
+    return println(DEBUG, tag, msg);
+  }
+
+  public static int i(final String tag, final String msg) {
+    return println(INFO, tag, msg);
+  }
+
+  public static int w(final String tag, final String msg) {
+    return println(WARN, tag, msg);
+  }
+
+  public static int e(final String tag, final String msg) {
+    return println(ERROR, tag, msg);
+  }
+
+  public static String getStackTraceString(final Throwable tr) {
+    if (tr == null) {
+      return "";
+    }
+    final StringWriter sw = new StringWriter();
+    tr.printStackTrace(new PrintWriter(sw));
+    return sw.toString();
+  }
+}
@@ -0,0 +1,35 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.util;
+
+/** JVM stand-in for the dimension conversion of android.util.TypedValue. */
+public class TypedValue {
+  public static final int COMPLEX_UNIT_PX = 0;
+  public static final int COMPLEX_UNIT_DIP = 1;
+  public static final int COMPLEX_UNIT_SP = 2;
+
+  public static float applyDimension(
+      final int unit, final float value, final DisplayMetrics metrics) {
+    switch (unit) {
+      case COMPLEX_UNIT_DIP:
+        return value * metrics.density;
+      case COMPLEX_UNIT_SP:
+        return value * metrics.scaledDensity;
+      default:
+        return value;
+    }
+  }
+}
@@ -40,6 +40,15 @@ JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888)(
     jintArray output, jint width, jint height, jint y_row_stride,
     jint uv_row_stride, jint uv_pixel_stride, jboolean halfSize);
 
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888Direct)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v,
+    jintArray output, jint width, jint height, jint y_row_stride,
+    jint uv_row_stride, jint uv_pixel_stride, jboolean halfSize);
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(downsampleLuminanceDirect)(
+    JNIEnv* env, jclass clazz, jobject input, jbyteArray output, jint width,
+    jint height, jint row_stride);
+
 JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToRGB565)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output, jint width,
     jint height);
@@ -91,27 +100,89 @@ JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888)(
   jboolean outputCopy = JNI_FALSE;
   jint* const o = env->GetIntArrayElements(output, &outputCopy);
 
+  jbyte* const u_buff = env->GetByteArrayElements(u, &inputCopy);
+  jbyte* const v_buff = env->GetByteArrayElements(v, &inputCopy);
+
   if (halfSize) {
-    ConvertYUV420SPToARGB8888HalfSize(reinterpret_cast<uint8_t*>(y_buff),
-                                      reinterpret_cast<uint32_t*>(o), width,
-                                      height);
+    ConvertYUV420ToARGB8888HalfSize(
+        reinterpret_cast<uint8_t*>(y_buff), reinterpret_cast<uint8_t*>(u_buff),
+        reinterpret_cast<uint8_t*>(v_buff), reinterpret_cast<uint32_t*>(o),
+        width, height, y_row_stride, uv_row_stride, uv_pixel_stride);
   } else {
-    jbyte* const u_buff = env->GetByteArrayElements(u, &inputCopy);
-    jbyte* const v_buff = env->GetByteArrayElements(v, &inputCopy);
-
     ConvertYUV420ToARGB8888(
         reinterpret_cast<uint8_t*>(y_buff), reinterpret_cast<uint8_t*>(u_buff),
         reinterpret_cast<uint8_t*>(v_buff), reinterpret_cast<uint32_t*>(o),
         width, height, y_row_stride, uv_row_stride, uv_pixel_stride);
-
-    env->ReleaseByteArrayElements(u, u_buff, JNI_ABORT);
-    env->ReleaseByteArrayElements(v, v_buff, JNI_ABORT);
   }
 
+  env->ReleaseByteArrayElements(u, u_buff, JNI_ABORT);
+  env->ReleaseByteArrayElements(v, v_buff, JNI_ABORT);
+
   env->ReleaseByteArrayElements(y, y_buff, JNI_ABORT);
   env->ReleaseIntArrayElements(output, o, 0);
 }
 
+// Reads the planes in place from direct buffers, such as those of a Camera2
+// Image, rather than from arrays they would first have to be copied into.
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888Direct)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v,
+    jintArray output, jint width, jint height, jint y_row_stride,
+    jint uv_row_stride, jint uv_pixel_stride, jboolean halfSize) {
+  const uint8_t* const y_buff =
+      static_cast<const uint8_t*>(env->GetDirectBufferAddress(y));
+  const uint8_t* const u_buff =
+      static_cast<const uint8_t*>(env->GetDirectBufferAddress(u));
+  const uint8_t* const v_buff =
+      static_cast<const uint8_t*>(env->GetDirectBufferAddress(v));
+  if (y_buff == NULL || u_buff == NULL || v_buff == NULL) {
+    return;
+  }
+
+  jboolean outputCopy = JNI_FALSE;
+  jint* const o = env->GetIntArrayElements(output, &outputCopy);
+
+  if (halfSize) {
+    ConvertYUV420ToARGB8888HalfSize(y_buff, u_buff, v_buff,
+                                    reinterpret_cast<uint32_t*>(o), width,
+                                    height, y_row_stride, uv_row_stride,
+                                    uv_pixel_stride);
+  } else {
+    ConvertYUV420ToARGB8888(y_buff, u_buff, v_buff,
+                            reinterpret_cast<uint32_t*>(o), width, height,
+                            y_row_stride, uv_row_stride, uv_pixel_stride);
+  }
+
+  env->ReleaseIntArrayElements(output, o, 0);
+}
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(downsampleLuminanceDirect)(
+    JNIEnv* env, jclass clazz, jobject input, jbyteArray output, jint width,
+    jint height, jint row_stride) {
+  const uint8_t* const in =
+      static_cast<const uint8_t*>(env->GetDirectBufferAddress(input));
+  if (in == NULL) {
+    return;
+  }
+
+  jboolean outputCopy = JNI_FALSE;
+  jbyte* const o = env->GetByteArrayElements(output, &outputCopy);
+  uint8_t* out = reinterpret_cast<uint8_t*>(o);
+
+  const int out_width = width / 2;
+  const int out_height = height / 2;
+  for (int y = 0; y < out_height; ++y) {
+    const uint8_t* row = in + 2 * y * row_stride;
+    const uint8_t* next_row = row + row_stride;
+    for (int x = 0; x < out_width; ++x) {
+      *out++ = (row[0] + row[1] + next_row[0] + next_row[1] + 2) >> 2;
+      row += 2;
+      next_row += 2;
+    }
+  }
+
+  env->ReleaseByteArrayElements(output, o, 0);
+}
+
 JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToRGB565)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output, jint width,
     jint height) {
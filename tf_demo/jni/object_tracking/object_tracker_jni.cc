@@ -16,6 +16,7 @@ limitations under the License.
 #include <android/log.h>
 #include <jni.h>
 #include <stdint.h>
+#include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
 #include <cstdint>
@@ -35,6 +36,11 @@ namespace tf_tracking {
 
 JniLongField object_tracker_field("nativeObjectTracker");
 
+// Floats written per object by getTrackedStatesNative: the bounding box as
+// left, top, right, bottom, then correlation, visibility (0 or 1) and match
+// score. Must match ObjectTracker.STATE_SIZE on the Java side.
+static const int kTrackedStateSize = 7;
+
 ObjectTracker* get_object_tracker(JNIEnv* env, jobject thiz) {
   ObjectTracker* const object_tracker =
       reinterpret_cast<ObjectTracker*>(object_tracker_field.get(env, thiz));
@@ -102,6 +108,11 @@ JNIEXPORT
 void JNICALL OBJECT_TRACKER_METHOD(getTrackedPositionNative)(
     JNIEnv* env, jobject thiz, jstring object_id, jfloatArray rect_array);
 
+JNIEXPORT
+void JNICALL OBJECT_TRACKER_METHOD(getTrackedStatesNative)(
+    JNIEnv* env, jobject thiz, jintArray handle_array, jint count,
+    jfloatArray state_array);
+
 JNIEXPORT
 void JNICALL OBJECT_TRACKER_METHOD(nextFrameNative)(JNIEnv* env, jobject thiz,
                                                     jbyteArray y_data,
@@ -114,12 +125,13 @@ void JNICALL OBJECT_TRACKER_METHOD(forgetNative)(JNIEnv* env, jobject thiz,
                                                  jstring object_id);
 
 JNIEXPORT
-jbyteArray JNICALL OBJECT_TRACKER_METHOD(getKeypointsPacked)(
-    JNIEnv* env, jobject thiz, jfloat scale_factor);
+jint JNICALL OBJECT_TRACKER_METHOD(getKeypointsPackedNative)(
+    JNIEnv* env, jobject thiz, jfloat scale_factor, jbyteArray out,
+    jint offset);
 
 JNIEXPORT
-jfloatArray JNICALL OBJECT_TRACKER_METHOD(getKeypointsNative)(
-    JNIEnv* env, jobject thiz, jboolean only_found_);
+jint JNICALL OBJECT_TRACKER_METHOD(getKeypointsNative)(
+    JNIEnv* env, jobject thiz, jboolean only_found_, jfloatArray out);
 
 JNIEXPORT
 void JNICALL OBJECT_TRACKER_METHOD(getCurrentPositionNative)(
@@ -292,6 +304,34 @@ void JNICALL OBJECT_TRACKER_METHOD(getTrackedPositionNative)(
   env->ReleaseFloatArrayElements(rect_array, rect, 0);
 }
 
+JNIEXPORT
+void JNICALL OBJECT_TRACKER_METHOD(getTrackedStatesNative)(
+    JNIEnv* env, jobject thiz, jintArray handle_array, jint count,
+    jfloatArray state_array) {
+  ObjectTracker* const object_tracker = get_object_tracker(env, thiz);
+
+  jint* const handles = env->GetIntArrayElements(handle_array, NULL);
+  jfloat* const states = env->GetFloatArrayElements(state_array, NULL);
+
+  // Objects are still keyed by string natively, but formatting the key here
+  // is far cheaper than marshalling a Java string per object per query.
+  char id_str[16];
+  for (int i = 0; i < count; ++i) {
+    snprintf(id_str, sizeof(id_str), "%d", handles[i]);
+    TrackedObject* const object = object_tracker->GetObject(id_str);
+
+    float* const state =
+        reinterpret_cast<float*>(states) + i * kTrackedStateSize;
+    object->GetPosition().CopyToArray(state);
+    state[4] = object->GetCorrelation();
+    state[5] = object->IsVisible() ? 1.0f : 0.0f;
+    state[6] = object->GetMatchScore().value;
+  }
+
+  env->ReleaseIntArrayElements(handle_array, handles, JNI_ABORT);
+  env->ReleaseFloatArrayElements(state_array, states, 0);
+}
+
 JNIEXPORT
 void JNICALL OBJECT_TRACKER_METHOD(nextFrameNative)(JNIEnv* env, jobject thiz,
                                                     jbyteArray y_data,
@@ -351,29 +391,24 @@ void JNICALL OBJECT_TRACKER_METHOD(forgetNative)(JNIEnv* env, jobject thiz,
 }
 
 JNIEXPORT
-jfloatArray JNICALL OBJECT_TRACKER_METHOD(getKeypointsNative)(
-    JNIEnv* env, jobject thiz, jboolean only_found) {
+jint JNICALL OBJECT_TRACKER_METHOD(getKeypointsNative)(
+    JNIEnv* env, jobject thiz, jboolean only_found, jfloatArray out) {
   jfloat keypoint_arr[kMaxKeypoints * kKeypointStep];
 
   const int number_of_keypoints =
       get_object_tracker(env, thiz)->GetKeypoints(only_found, keypoint_arr);
 
-  // Create and return the array that will be passed back to Java.
-  jfloatArray keypoints =
-      env->NewFloatArray(number_of_keypoints * kKeypointStep);
-  if (keypoints == NULL) {
-    LOGE("null array!");
-    return NULL;
-  }
-  env->SetFloatArrayRegion(keypoints, 0, number_of_keypoints * kKeypointStep,
+  // Copy into the caller's array, which is sized for kMaxKeypoints.
+  env->SetFloatArrayRegion(out, 0, number_of_keypoints * kKeypointStep,
                            keypoint_arr);
 
-  return keypoints;
+  return number_of_keypoints;
 }
 
 JNIEXPORT
-jbyteArray JNICALL OBJECT_TRACKER_METHOD(getKeypointsPacked)(
-    JNIEnv* env, jobject thiz, jfloat scale_factor) {
+jint JNICALL OBJECT_TRACKER_METHOD(getKeypointsPackedNative)(
+    JNIEnv* env, jobject thiz, jfloat scale_factor, jbyteArray out,
+    jint offset) {
   // 2 bytes to a uint16_t and two pairs of xy coordinates per keypoint.
   const int bytes_per_keypoint = sizeof(uint16_t) * 2 * 2;
   jbyte keypoint_arr[kMaxKeypoints * bytes_per_keypoint];
@@ -382,19 +417,12 @@ jbyteArray JNICALL OBJECT_TRACKER_METHOD(getKeypointsPacked)(
       get_object_tracker(env, thiz)->GetKeypointsPacked(
           reinterpret_cast<uint16_t*>(keypoint_arr), scale_factor);
 
-  // Create and return the array that will be passed back to Java.
-  jbyteArray keypoints =
-      env->NewByteArray(number_of_keypoints * bytes_per_keypoint);
-
-  if (keypoints == NULL) {
-    LOGE("null array!");
-    return NULL;
-  }
-
+  // Copy into the caller's array at the given offset, where it has room for
+  // kMaxKeypoints.
   env->SetByteArrayRegion(
-      keypoints, 0, number_of_keypoints * bytes_per_keypoint, keypoint_arr);
+      out, offset, number_of_keypoints * bytes_per_keypoint, keypoint_arr);
 
-  return keypoints;
+  return number_of_keypoints;
 }
 
 JNIEXPORT
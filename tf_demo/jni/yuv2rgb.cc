@@ -80,6 +80,36 @@ void ConvertYUV420ToARGB8888(const uint8_t* const yData,
   }
 }
 
+// The same as above, but downsamples each dimension to half size. Each output
+// pixel averages a 2x2 block of Y samples, which shares a single chroma sample.
+void ConvertYUV420ToARGB8888HalfSize(const uint8_t* const yData,
+                                     const uint8_t* const uData,
+                                     const uint8_t* const vData,
+                                     uint32_t* const output, const int width,
+                                     const int height, const int y_row_stride,
+                                     const int uv_row_stride,
+                                     const int uv_pixel_stride) {
+  uint32_t* out = output;
+  const int half_width = width >> 1;
+  const int half_height = height >> 1;
+
+  for (int y = 0; y < half_height; y++) {
+    const uint8_t* pY = yData + y_row_stride * (y << 1);
+
+    const int uv_row_start = uv_row_stride * y;
+    const uint8_t* pU = uData + uv_row_start;
+    const uint8_t* pV = vData + uv_row_start;
+
+    for (int x = 0; x < half_width; x++) {
+      const int nY =
+          (pY[0] + pY[1] + pY[y_row_stride] + pY[y_row_stride + 1]) >> 2;
+      pY += 2;
+      const int uv_offset = x * uv_pixel_stride;
+      *out++ = YUV2RGB(nY, pU[uv_offset], pV[uv_offset]);
+    }
+  }
+}
+
 //  Accepts a YUV 4:2:0 image with a plane of 8 bit Y samples followed by an
 //  interleaved U/V plane containing 8 bit 2x2 subsampled chroma samples,
 //  except the interleave order of U and V is reversed. Converts to a packed
@@ -32,6 +32,15 @@ void ConvertYUV420ToARGB8888(const uint8_t* const yData,
                              const int y_row_stride, const int uv_row_stride,
                              const int uv_pixel_stride);
 
+// The same as above, but downsamples each dimension to half size.
+void ConvertYUV420ToARGB8888HalfSize(const uint8_t* const yData,
+                                     const uint8_t* const uData,
+                                     const uint8_t* const vData,
+                                     uint32_t* const output, const int width,
+                                     const int height, const int y_row_stride,
+                                     const int uv_row_stride,
+                                     const int uv_pixel_stride);
+
 // Converts YUV420 semi-planar data to ARGB 8888 data using the supplied width
 // and height. The input and output must already be allocated and non-null.
 // For efficiency, no error checking is performed.
@@ -0,0 +1,291 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.speecheval;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.tensorflow.demo.RecognizeCommands;
+import org.tensorflow.demo.VoiceActivityDetector;
+
+/**
+ * Replays WAV files through the same steps SpeechActivity takes on live audio, as fast as the
+ * model runs rather than in real time, and scores the commands it detects against the ones
+ * actually spoken.
+ *
+ * Every stride of audio, the voice activity detector is fed the new samples and, unless it rules
+ * the model out, the window of audio ending there is scaled, run through the model and its scores
+ * smoothed by {@link RecognizeCommands}, timestamped with the position in the file. A command is
+ * detected when the smoother reports a new one not starting with '_', as when the app highlights
+ * it. Each file is evaluated independently with its own smoother and detector, so files are spread
+ * over a thread pool.
+ *
+ * The commands spoken in a file are listed in a file next to it with the same name and a .txt
+ * extension, one "command, time in ms" line per command, as written by TensorFlow's
+ * generate_streaming_test_wav.py; a file without one is taken to contain no commands. A detection
+ * is correct if the same command was spoken no more than the tolerance before it and has not
+ * already been matched; the latency is the time between the two.
+ */
+public class CorpusEvaluator {
+  /** Recognition settings, by default the same as SpeechActivity's. */
+  public static class Settings {
+    public int sampleRate = 16000;
+    public long windowDurationMs = 1000;
+    public long averageWindowDurationMs = 500;
+    public float detectionThreshold = 0.70f;
+    public int suppressionMs = 1500;
+    public int minimumCount = 3;
+    public long minimumTimeBetweenSamplesMs = 30;
+
+    /**
+     * How much audio the app records between model runs. On a device this is the 30 ms the
+     * recognition thread sleeps plus however long inference takes there.
+     */
+    public long strideMs = 30;
+
+    public boolean vadGating = true;
+    public long vadHangoverMs = 250;
+
+    /** How long after a command is spoken a detection of it still counts. */
+    public long toleranceMs = 750;
+  }
+
+  private static class Command {
+    final String label;
+    final long timeMs;
+
+    Command(final String label, final long timeMs) {
+      this.label = label;
+      this.timeMs = timeMs;
+    }
+  }
+
+  private final SpeechModel model;
+  private final List<String> labels;
+  private final Settings settings;
+
+  public CorpusEvaluator(
+      final SpeechModel model, final List<String> labels, final Settings settings) {
+    this.model = model;
+    this.labels = labels;
+    this.settings = settings;
+  }
+
+  /** Evaluates the files on the given number of threads and returns their combined report. */
+  public EvaluationReport evaluate(final List<File> files, final int threads)
+      throws IOException, InterruptedException {
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<EvaluationReport>> futures = new ArrayList<Future<EvaluationReport>>();
+      for (final File file : files) {
+        futures.add(
+            executor.submit(
+                new Callable<EvaluationReport>() {
+                  @Override
+                  public EvaluationReport call() throws IOException {
+                    return evaluate(file);
+                  }
+                }));
+      }
+
+      final EvaluationReport total = new EvaluationReport();
+      for (final Future<EvaluationReport> future : futures) {
+        try {
+          total.merge(future.get());
+        } catch (final ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new RuntimeException("Evaluation failed", e.getCause());
+        }
+      }
+      return total;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Evaluates a single file. */
+  public EvaluationReport evaluate(final File file) throws IOException {
+    final WavFile audio = WavFile.open(file);
+    if (audio.getSampleRate() != settings.sampleRate) {
+      throw new IOException(
+          String.format(
+              "%s is sampled at %d Hz, but the model expects %d Hz",
+              file, audio.getSampleRate(), settings.sampleRate));
+    }
+    final EvaluationReport report = new EvaluationReport();
+    final List<Command> detected = detect(audio, report);
+    final List<Command> spoken = readCommands(getCommandsFile(file));
+
+    final boolean[] matched = new boolean[spoken.size()];
+    for (final Command detection : detected) {
+      int match = -1;
+      for (int i = 0; i < spoken.size() && match < 0; ++i) {
+        final Command command = spoken.get(i);
+        if (!matched[i]
+            && command.label.equals(detection.label)
+            && command.timeMs <= detection.timeMs
+            && detection.timeMs - command.timeMs <= settings.toleranceMs) {
+          match = i;
+        }
+      }
+      if (match >= 0) {
+        matched[match] = true;
+        report.addCorrect(detection.label, detection.timeMs - spoken.get(match).timeMs);
+      } else {
+        report.addFalseAlarm(detection.label);
+      }
+    }
+    for (int i = 0; i < spoken.size(); ++i) {
+      if (!matched[i]) {
+        report.addMissed(spoken.get(i).label);
+      }
+    }
+    return report;
+  }
+
+  /**
+   * Steps through the audio as SpeechActivity's recording and recognition threads would, and
+   * returns the commands detected. Records the file and its inference counts in the report.
+   */
+  private List<Command> detect(final WavFile audio, final EvaluationReport report) {
+    final int sampleRate = audio.getSampleRate();
+    final int windowLength = (int) (sampleRate * settings.windowDurationMs / 1000);
+    final int strideLength = (int) (sampleRate * settings.strideMs / 1000);
+    final int length = audio.getLength();
+
+    final RecognizeCommands recognizeCommands =
+        new RecognizeCommands(
+            labels,
+            settings.averageWindowDurationMs,
+            settings.detectionThreshold,
+            settings.suppressionMs,
+            settings.minimumCount,
+            settings.minimumTimeBetweenSamplesMs);
+    final VoiceActivityDetector voiceActivityDetector =
+        settings.vadGating
+            ? new VoiceActivityDetector(
+                sampleRate, settings.windowDurationMs + settings.vadHangoverMs)
+            : null;
+
+    final short[] strideBuffer = new short[strideLength];
+    final short[] windowBuffer = new short[windowLength];
+    final float[] floatWindowBuffer = new float[windowLength];
+    final List<Command> detected = new ArrayList<Command>();
+    long inferences = 0;
+    long skippedInferences = 0;
+
+    for (int end = strideLength; end <= length; end += strideLength) {
+      if (voiceActivityDetector != null) {
+        audio.getSamples(end - strideLength, strideBuffer, 0, strideLength);
+        voiceActivityDetector.addSamples(strideBuffer, strideLength);
+        if (!voiceActivityDetector.isActive()) {
+          ++skippedInferences;
+          continue;
+        }
+      }
+      ++inferences;
+
+      // Before the first full window the app's recording buffer still holds zeros.
+      final int start = end - windowLength;
+      final int padding = Math.max(-start, 0);
+      for (int i = 0; i < padding; ++i) {
+        windowBuffer[i] = 0;
+      }
+      audio.getSamples(start + padding, windowBuffer, padding, windowLength - padding);
+      for (int i = 0; i < windowLength; ++i) {
+        floatWindowBuffer[i] = windowBuffer[i] / 32767.0f;
+      }
+
+      final long timeMs = (long) end * 1000 / sampleRate;
+      final RecognizeCommands.RecognitionResult result =
+          recognizeCommands.processLatestResults(model.run(floatWindowBuffer), timeMs);
+      if (result.isNewCommand && !result.foundCommand.startsWith("_")) {
+        detected.add(new Command(result.foundCommand, timeMs));
+      }
+    }
+
+    report.addFile(audio.getDurationMs(), inferences, skippedInferences);
+    return detected;
+  }
+
+  /** Returns the file listing the commands spoken in a WAV file. */
+  static File getCommandsFile(final File wavFile) {
+    final String name = wavFile.getName();
+    final int extension = name.lastIndexOf('.');
+    final String base = extension >= 0 ? name.substring(0, extension) : name;
+    return new File(wavFile.getParentFile(), base + ".txt");
+  }
+
+  /**
+   * Reads "command, time in ms" lines, skipping blank ones and labels starting with '_', and
+   * returns the commands in time order.
+   */
+  private static List<Command> readCommands(final File file) throws IOException {
+    final List<Command> commands = new ArrayList<Command>();
+    if (!file.exists()) {
+      return commands;
+    }
+    final BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        ++lineNumber;
+        line = line.trim();
+        if (line.isEmpty()) {
+          continue;
+        }
+        final int comma = line.lastIndexOf(',');
+        if (comma < 0) {
+          throw new IOException(file + ":" + lineNumber + ": expected \"command, time\"");
+        }
+        final String label = line.substring(0, comma).trim();
+        final long timeMs;
+        try {
+          timeMs = Long.parseLong(line.substring(comma + 1).trim());
+        } catch (final NumberFormatException e) {
+          throw new IOException(file + ":" + lineNumber + ": bad time", e);
+        }
+        if (!label.startsWith("_")) {
+          commands.add(new Command(label, timeMs));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    Collections.sort(
+        commands,
+        new Comparator<Command>() {
+          @Override
+          public int compare(final Command a, final Command b) {
+            return Long.compare(a.timeMs, b.timeMs);
+          }
+        });
+    return commands;
+  }
+}
@@ -0,0 +1,183 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.speecheval;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How well commands were recognized in one or more files: for each command, how often it was
+ * detected when spoken, detected when not spoken, and missed, and how long detections took. Each
+ * file's report is built on the thread that evaluated it and then merged into the corpus total.
+ */
+public class EvaluationReport {
+  /** The counts for one command. */
+  public static class CommandStats {
+    private long correct;
+    private long falseAlarms;
+    private long missed;
+    private final List<Long> latenciesMs = new ArrayList<Long>();
+
+    public long getCorrect() {
+      return correct;
+    }
+
+    public long getFalseAlarms() {
+      return falseAlarms;
+    }
+
+    public long getMissed() {
+      return missed;
+    }
+
+    /** Returns the fraction of detections that were right, or NaN if there were none. */
+    public float getPrecision() {
+      return (float) correct / (correct + falseAlarms);
+    }
+
+    /** Returns the fraction of spoken commands that were detected, or NaN if there were none. */
+    public float getRecall() {
+      return (float) correct / (correct + missed);
+    }
+
+    private void merge(final CommandStats other) {
+      correct += other.correct;
+      falseAlarms += other.falseAlarms;
+      missed += other.missed;
+      latenciesMs.addAll(other.latenciesMs);
+    }
+  }
+
+  private final Map<String, CommandStats> commands = new TreeMap<String, CommandStats>();
+  private long files;
+  private long audioMs;
+  private long inferences;
+  private long skippedInferences;
+
+  private CommandStats getStats(final String command) {
+    CommandStats stats = commands.get(command);
+    if (stats == null) {
+      stats = new CommandStats();
+      commands.put(command, stats);
+    }
+    return stats;
+  }
+
+  /** Records a detection of a command that was spoken latencyMs earlier. */
+  void addCorrect(final String command, final long latencyMs) {
+    final CommandStats stats = getStats(command);
+    ++stats.correct;
+    stats.latenciesMs.add(latencyMs);
+  }
+
+  /** Records a detection of a command that was not spoken. */
+  void addFalseAlarm(final String command) {
+    ++getStats(command).falseAlarms;
+  }
+
+  /** Records a spoken command that was not detected. */
+  void addMissed(final String command) {
+    ++getStats(command).missed;
+  }
+
+  /** Records the evaluation of a file of the given length. */
+  void addFile(final long durationMs, final long inferences, final long skippedInferences) {
+    ++files;
+    audioMs += durationMs;
+    this.inferences += inferences;
+    this.skippedInferences += skippedInferences;
+  }
+
+  /** Adds another report's counts to this one's. */
+  public void merge(final EvaluationReport other) {
+    for (final Map.Entry<String, CommandStats> entry : other.commands.entrySet()) {
+      getStats(entry.getKey()).merge(entry.getValue());
+    }
+    files += other.files;
+    audioMs += other.audioMs;
+    inferences += other.inferences;
+    skippedInferences += other.skippedInferences;
+  }
+
+  /** Returns the stats for a command, which are all zero if it never came up. */
+  public CommandStats getCommandStats(final String command) {
+    final CommandStats stats = commands.get(command);
+    return stats != null ? stats : new CommandStats();
+  }
+
+  public long getAudioMs() {
+    return audioMs;
+  }
+
+  /**
+   * Prints a table of each command's precision, recall, false alarms per hour of audio and
+   * detection latency, with a total over all of them.
+   */
+  public void print(final PrintStream out) {
+    out.println(
+        String.format(
+            "%d files, %.1f min of audio, %d inferences, %d skipped by voice activity",
+            files, audioMs / 60000.0f, inferences, skippedInferences));
+    out.println(
+        String.format(
+            "%-12s %7s %7s %7s %9s %7s %8s %8s %8s %8s",
+            "command", "correct", "false", "missed", "precision", "recall", "FA/hour",
+            "lat mean", "lat p50", "lat p90"));
+
+    final CommandStats total = new CommandStats();
+    for (final Map.Entry<String, CommandStats> entry : commands.entrySet()) {
+      printRow(out, entry.getKey(), entry.getValue());
+      total.merge(entry.getValue());
+    }
+    printRow(out, "(all)", total);
+  }
+
+  private void printRow(final PrintStream out, final String command, final CommandStats stats) {
+    final List<Long> latencies = new ArrayList<Long>(stats.latenciesMs);
+    Collections.sort(latencies);
+    long latencySum = 0;
+    for (final long latency : latencies) {
+      latencySum += latency;
+    }
+    final float hours = audioMs / 3600000.0f;
+    out.println(
+        String.format(
+            "%-12s %7d %7d %7d %9.3f %7.3f %8.2f %8s %8s %8s",
+            command,
+            stats.correct,
+            stats.falseAlarms,
+            stats.missed,
+            stats.getPrecision(),
+            stats.getRecall(),
+            stats.falseAlarms / hours,
+            latencies.isEmpty() ? "-" : Long.toString(latencySum / latencies.size()),
+            percentile(latencies, 0.5f),
+            percentile(latencies, 0.9f)));
+  }
+
+  /** Returns the nearest-rank percentile of sorted values, or "-" if there are none. */
+  private static String percentile(final List<Long> sorted, final float fraction) {
+    if (sorted.isEmpty()) {
+      return "-";
+    }
+    final int rank = (int) Math.ceil(fraction * sorted.size());
+    return Long.toString(sorted.get(Math.max(rank, 1) - 1));
+  }
+}
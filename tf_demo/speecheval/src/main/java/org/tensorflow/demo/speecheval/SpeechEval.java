@@ -0,0 +1,166 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.speecheval;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Command line entry point: evaluates the speech commands model and RecognizeCommands over the WAV
+ * files in the given files and directories and prints the per-command results.
+ *
+ * Flags take the form --name=value. --model and --labels are required; the rest default to
+ * SpeechActivity's settings, so each run shows what changing one of them would do:
+ *
+ *   --threads             files evaluated at once (default: available processors)
+ *   --average_window_ms   RecognizeCommands' averaging window
+ *   --threshold           RecognizeCommands' detection threshold
+ *   --suppression_ms      RecognizeCommands' suppression time
+ *   --minimum_count       RecognizeCommands' minimum number of results to average
+ *   --stride_ms           audio between model runs
+ *   --vad                 whether voice activity gates the model, true or false
+ *   --vad_hangover_ms     how long activity lasts after the model's window
+ *   --tolerance_ms        how late a detection may be and still count
+ */
+public class SpeechEval {
+  private SpeechEval() {}
+
+  public static void main(final String[] args) throws IOException, InterruptedException {
+    final CorpusEvaluator.Settings settings = new CorpusEvaluator.Settings();
+    String modelPath = null;
+    String labelsPath = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    final List<File> inputs = new ArrayList<File>();
+
+    for (final String arg : args) {
+      if (!arg.startsWith("--")) {
+        inputs.add(new File(arg));
+        continue;
+      }
+      final int equals = arg.indexOf('=');
+      if (equals < 0) {
+        usage("Flag " + arg + " has no value");
+      }
+      final String name = arg.substring(2, equals);
+      final String value = arg.substring(equals + 1);
+      try {
+        if (name.equals("model")) {
+          modelPath = value;
+        } else if (name.equals("labels")) {
+          labelsPath = value;
+        } else if (name.equals("threads")) {
+          threads = Integer.parseInt(value);
+        } else if (name.equals("average_window_ms")) {
+          settings.averageWindowDurationMs = Long.parseLong(value);
+        } else if (name.equals("threshold")) {
+          settings.detectionThreshold = Float.parseFloat(value);
+        } else if (name.equals("suppression_ms")) {
+          settings.suppressionMs = Integer.parseInt(value);
+        } else if (name.equals("minimum_count")) {
+          settings.minimumCount = Integer.parseInt(value);
+        } else if (name.equals("stride_ms")) {
+          settings.strideMs = Long.parseLong(value);
+        } else if (name.equals("vad")) {
+          settings.vadGating = Boolean.parseBoolean(value);
+        } else if (name.equals("vad_hangover_ms")) {
+          settings.vadHangoverMs = Long.parseLong(value);
+        } else if (name.equals("tolerance_ms")) {
+          settings.toleranceMs = Long.parseLong(value);
+        } else {
+          usage("Unknown flag --" + name);
+        }
+      } catch (final NumberFormatException e) {
+        usage("Bad value for --" + name + ": " + value);
+      }
+    }
+    if (modelPath == null || labelsPath == null) {
+      usage("--model and --labels are required");
+    }
+    if (threads < 1 || settings.strideMs < 1) {
+      usage("--threads and --stride_ms must be positive");
+    }
+
+    final List<File> files = new ArrayList<File>();
+    for (final File input : inputs) {
+      findWavFiles(input, files);
+    }
+    if (files.isEmpty()) {
+      usage("No WAV files given");
+    }
+
+    final List<String> labels = new ArrayList<String>();
+    for (final String line :
+        Files.readAllLines(new File(labelsPath).toPath(), StandardCharsets.UTF_8)) {
+      if (!line.isEmpty()) {
+        labels.add(line);
+      }
+    }
+
+    System.out.println(
+        String.format(
+            "average window %d ms, threshold %.2f, suppression %d ms, minimum count %d,"
+                + " stride %d ms, vad %b, tolerance %d ms, %d threads",
+            settings.averageWindowDurationMs, settings.detectionThreshold,
+            settings.suppressionMs, settings.minimumCount, settings.strideMs,
+            settings.vadGating, settings.toleranceMs, threads));
+
+    final TensorFlowSpeechModel model =
+        new TensorFlowSpeechModel(
+            Files.readAllBytes(new File(modelPath).toPath()), settings.sampleRate, labels.size());
+    try {
+      final long startNs = System.nanoTime();
+      final EvaluationReport report =
+          new CorpusEvaluator(model, labels, settings).evaluate(files, threads);
+      final float seconds = (System.nanoTime() - startNs) / 1.0e9f;
+
+      report.print(System.out);
+      System.out.println(
+          String.format(
+              "Evaluated in %.1f s, %.1fx real time",
+              seconds, report.getAudioMs() / 1000.0f / seconds));
+    } finally {
+      model.close();
+    }
+  }
+
+  /** Adds a WAV file, or all the WAV files under a directory in name order, to files. */
+  private static void findWavFiles(final File input, final List<File> files) {
+    if (input.isDirectory()) {
+      final File[] children = input.listFiles();
+      if (children != null) {
+        Arrays.sort(children);
+        for (final File child : children) {
+          findWavFiles(child, files);
+        }
+      }
+    } else if (input.getName().toLowerCase().endsWith(".wav")) {
+      files.add(input);
+    }
+  }
+
+  private static void usage(final String message) {
+    System.err.println(message);
+    System.err.println(
+        "Usage: SpeechEval --model=<frozen graph> --labels=<labels file> [--flag=value...]"
+            + " <WAV file or directory>...");
+    System.exit(1);
+  }
+}
@@ -0,0 +1,84 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.speecheval;
+
+import java.nio.FloatBuffer;
+import org.tensorflow.Graph;
+import org.tensorflow.Session;
+import org.tensorflow.Tensor;
+import org.tensorflow.Tensors;
+
+/**
+ * Runs the speech commands graph through the TensorFlow Java API, feeding and fetching the same
+ * tensors as SpeechActivity. A session may be run from several threads at once, so one is shared
+ * by all of them.
+ */
+public class TensorFlowSpeechModel implements SpeechModel, AutoCloseable {
+  private static final String INPUT_DATA_NAME = "decoded_sample_data:0";
+  private static final String SAMPLE_RATE_NAME = "decoded_sample_data:1";
+  private static final String OUTPUT_SCORES_NAME = "labels_softmax";
+
+  private final Graph graph;
+  private final Session session;
+  private final int sampleRate;
+  private final int labelCount;
+
+  /**
+   * @param graphDef The serialized frozen graph.
+   * @param sampleRate The sample rate of the audio the graph is fed.
+   * @param labelCount The number of scores the graph produces.
+   */
+  public TensorFlowSpeechModel(final byte[] graphDef, final int sampleRate, final int labelCount) {
+    graph = new Graph();
+    graph.importGraphDef(graphDef);
+    session = new Session(graph);
+    this.sampleRate = sampleRate;
+    this.labelCount = labelCount;
+  }
+
+  @Override
+  public float[] run(final float[] samples) {
+    final Tensor<Float> input =
+        Tensor.create(new long[] {samples.length, 1}, FloatBuffer.wrap(samples));
+    final Tensor<Integer> rate = Tensors.create(sampleRate);
+    try {
+      final Tensor<?> output =
+          session
+              .runner()
+              .feed(INPUT_DATA_NAME, input)
+              .feed(SAMPLE_RATE_NAME, rate)
+              .fetch(OUTPUT_SCORES_NAME)
+              .run()
+              .get(0);
+      try {
+        final float[] scores = new float[labelCount];
+        output.writeTo(FloatBuffer.wrap(scores));
+        return scores;
+      } finally {
+        output.close();
+      }
+    } finally {
+      input.close();
+      rate.close();
+    }
+  }
+
+  @Override
+  public void close() {
+    session.close();
+    graph.close();
+  }
+}
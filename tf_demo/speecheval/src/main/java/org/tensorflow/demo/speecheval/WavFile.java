@@ -0,0 +1,129 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.speecheval;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A mono 16-bit PCM WAV file, memory-mapped so its samples are read straight from the page cache
+ * rather than copied into the heap. The mapping stays valid after the file is closed and is freed
+ * once the buffer is no longer referenced.
+ */
+public class WavFile {
+  private static final int FORMAT_PCM = 1;
+
+  private final int sampleRate;
+  private final ShortBuffer samples;
+
+  private WavFile(final int sampleRate, final ShortBuffer samples) {
+    this.sampleRate = sampleRate;
+    this.samples = samples;
+  }
+
+  /** Maps a file, checking that it holds mono 16-bit PCM. */
+  public static WavFile open(final File file) throws IOException {
+    final MappedByteBuffer mapped;
+    final RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = input.getChannel();
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      input.close();
+    }
+    mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+    if (mapped.remaining() < 12
+        || mapped.getInt(0) != fourCC("RIFF")
+        || mapped.getInt(8) != fourCC("WAVE")) {
+      throw new IOException(file + " is not a WAV file");
+    }
+
+    // Walk the chunks for the format and the samples, skipping any others.
+    int sampleRate = -1;
+    int position = 12;
+    while (position + 8 <= mapped.limit()) {
+      final int id = mapped.getInt(position);
+      final long size = mapped.getInt(position + 4) & 0xffffffffL;
+      final int body = position + 8;
+
+      if (id == fourCC("fmt ")) {
+        final int format = mapped.getShort(body) & 0xffff;
+        final int channels = mapped.getShort(body + 2) & 0xffff;
+        final int bitsPerSample = mapped.getShort(body + 14) & 0xffff;
+        if (format != FORMAT_PCM || channels != 1 || bitsPerSample != 16) {
+          throw new IOException(
+              String.format(
+                  "%s has format %d with %d channels of %d bits, but only mono 16-bit PCM is"
+                      + " supported",
+                  file, format, channels, bitsPerSample));
+        }
+        sampleRate = mapped.getInt(body + 4);
+      } else if (id == fourCC("data")) {
+        if (sampleRate < 0) {
+          throw new IOException(file + " has samples before its format");
+        }
+        // Streamed files may leave the size unset, so take no more than is there.
+        final int length = (int) Math.min(size, mapped.limit() - body) & ~1;
+        final ByteBuffer data = mapped.duplicate();
+        data.position(body).limit(body + length);
+        // slice() resets the byte order, so set it again.
+        return new WavFile(
+            sampleRate, data.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer());
+      }
+
+      // Chunks are padded to an even length.
+      final long next = body + size + (size & 1);
+      if (next > Integer.MAX_VALUE) {
+        break;
+      }
+      position = (int) next;
+    }
+    throw new IOException(file + " has no samples");
+  }
+
+  private static int fourCC(final String id) {
+    return (id.charAt(0)) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  /** Returns the number of samples. */
+  public int getLength() {
+    return samples.limit();
+  }
+
+  /** Copies count samples starting at offset into output, starting at outputOffset. */
+  public void getSamples(
+      final int offset, final short[] output, final int outputOffset, final int count) {
+    final ShortBuffer source = samples.duplicate();
+    source.position(offset);
+    source.get(output, outputOffset, count);
+  }
+
+  /** Returns the length in milliseconds. */
+  public long getDurationMs() {
+    return (long) getLength() * 1000 / sampleRate;
+  }
+}
@@ -32,43 +32,88 @@ import android.media.ImageReader;
 import android.media.ImageReader.OnImageAvailableListener;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.os.Trace;
 import android.util.Size;
 import android.view.KeyEvent;
 import android.view.Surface;
 import android.view.WindowManager;
 import android.widget.Toast;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import org.tensorflow.demo.env.FrameContext;
+import org.tensorflow.demo.env.FrameRateGovernor;
+import org.tensorflow.demo.env.FrameReader;
+import org.tensorflow.demo.env.FrameRecorder;
+import org.tensorflow.demo.env.FrameReplayer;
+import org.tensorflow.demo.env.FrameTracer;
+import org.tensorflow.demo.env.ImagePyramid;
 import org.tensorflow.demo.env.ImageUtils;
 import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.Metrics;
 import org.tensorflow.demo.R; // Explicit import needed for internal Google builds.
 
 public abstract class CameraActivity extends Activity
-    implements OnImageAvailableListener, Camera.PreviewCallback {
+    implements OnImageAvailableListener, Camera.PreviewCallback, FrameReplayer.Listener {
   private static final Logger LOGGER = new Logger();
 
+  /**
+   * Intent extras for recording and replaying camera frames, e.g.
+   * <pre>
+   *   adb shell am start -n org.tensorflow.demo/.DetectorActivity --es record walk.yuv
+   *   adb shell am start -n org.tensorflow.demo/.DetectorActivity --es replay walk.yuv \
+   *       --ez replay_max_speed true
+   * </pre>
+   * Relative file names are resolved against /sdcard/tensorflow. While replaying, the camera is
+   * not opened at all.
+   */
+  public static final String EXTRA_RECORD = "record";
+  public static final String EXTRA_REPLAY = "replay";
+  public static final String EXTRA_REPLAY_MAX_SPEED = "replay_max_speed";
+
   private static final int PERMISSIONS_REQUEST = 1;
 
   private static final String PERMISSION_CAMERA = Manifest.permission.CAMERA;
   private static final String PERMISSION_STORAGE = Manifest.permission.WRITE_EXTERNAL_STORAGE;
 
+  // The camera is never slowed below this, so that objects move little enough between frames for
+  // the tracker to follow them.
+  private static final int MIN_TRACKING_FPS = 15;
+
   private boolean debug = false;
 
   private Handler handler;
   private HandlerThread handlerThread;
   private boolean useCamera2API;
-  private boolean isProcessingFrame = false;
+  // Whether Image.getTimestamp() is on the SystemClock.elapsedRealtimeNanos() clock.
+  private boolean sensorTimestampIsRealtime;
+  private FrameContext frameContext;
+  // Cleared from the inference thread by activities that release frames only once inference is
+  // done, while the camera keeps delivering into its other buffers.
+  private volatile boolean isProcessingFrame = false;
   private byte[][] yuvBytes = new byte[3][];
-  private int[] rgbBytes = null;
+  private ImagePyramid imagePyramid = null;
   private int yRowStride;
 
   protected int previewWidth = 0;
   protected int previewHeight = 0;
+  private int previewRotation = 0;
+
+  private File recordFile;
+  private File replayFile;
+  private boolean replayMaxSpeed;
+
+  // Guards recorder, which is written from the camera thread and closed from the UI thread.
+  private final Object recorderLock = new Object();
+  private FrameRecorder recorder;
 
   private Runnable postInferenceCallback;
-  private Runnable imageConverter;
+
+  private final FrameRateGovernor frameRateGovernor = new FrameRateGovernor(MIN_TRACKING_FPS);
 
   @Override
   protected void onCreate(final Bundle savedInstanceState) {
@@ -78,6 +123,12 @@ public abstract class CameraActivity extends Activity
 
     setContentView(R.layout.activity_camera);
 
+    final String recordName = getIntent().getStringExtra(EXTRA_RECORD);
+    final String replayName = getIntent().getStringExtra(EXTRA_REPLAY);
+    recordFile = recordName != null ? getCaptureFile(recordName) : null;
+    replayFile = replayName != null ? getCaptureFile(replayName) : null;
+    replayMaxSpeed = getIntent().getBooleanExtra(EXTRA_REPLAY_MAX_SPEED, false);
+
     if (hasPermission()) {
       setFragment();
     } else {
@@ -88,16 +139,40 @@ public abstract class CameraActivity extends Activity
   private byte[] lastPreviewFrame;
 
   protected int[] getRgbBytes() {
-    imageConverter.run();
-    return rgbBytes;
+    return imagePyramid.getRgb(0);
+  }
+
+  /** Returns the frame being processed at every resolution, each computed at most once. */
+  protected ImagePyramid getImagePyramid() {
+    return imagePyramid;
   }
 
   protected int getLuminanceStride() {
     return yRowStride;
   }
 
+  /**
+   * Returns the full resolution luminance plane. With the Camera2 API this copies the plane out of
+   * the image the first time it is called for a frame, so prefer a coarser pyramid level where one
+   * will do.
+   */
   protected byte[] getLuminance() {
-    return yuvBytes[0];
+    return imagePyramid.getLuminance(0);
+  }
+
+  /** Returns the governor of the camera frame rate, whose counters are for the overlay. */
+  protected FrameRateGovernor getFrameRateGovernor() {
+    return frameRateGovernor;
+  }
+
+  /** Returns whether frames come from a replayed capture rather than the camera. */
+  protected boolean isReplaying() {
+    return replayFile != null;
+  }
+
+  /** Returns the trace context of the frame being processed. */
+  protected FrameContext getFrameContext() {
+    return frameContext;
   }
 
   /**
@@ -106,36 +181,53 @@ public abstract class CameraActivity extends Activity
   @Override
   public void onPreviewFrame(final byte[] bytes, final Camera camera) {
     if (isProcessingFrame) {
-      LOGGER.w("Dropping frame!");
+      // Captures hold every frame the camera delivered, so a replay is not limited to the frames
+      // this device's pipeline kept up with.
+      yuvBytes[0] = bytes;
+      recordFrame(
+          SystemClock.elapsedRealtimeNanos(), FrameRecorder.FORMAT_NV21, previewWidth, 0, 0, 1);
+      FrameTracer.dropFrame(FrameTracer.Drop.CAMERA_BUSY);
+      frameRateGovernor.onFrameDropped();
+      // Straight back to the camera, which is filling the other buffers in the meantime.
+      camera.addCallbackBuffer(bytes);
       return;
     }
 
     try {
       // Initialize the storage bitmaps once when the resolution is known.
-      if (rgbBytes == null) {
+      if (imagePyramid == null) {
         Camera.Size previewSize = camera.getParameters().getPreviewSize();
         previewHeight = previewSize.height;
         previewWidth = previewSize.width;
-        rgbBytes = new int[previewWidth * previewHeight];
-        onPreviewSizeChosen(new Size(previewSize.width, previewSize.height), 90);
+        previewRotation = 90;
+        imagePyramid = new ImagePyramid(previewWidth, previewHeight);
+        onPreviewSizeChosen(new Size(previewSize.width, previewSize.height), previewRotation);
       }
     } catch (final Exception e) {
       LOGGER.e(e, "Exception!");
+      camera.addCallbackBuffer(bytes);
       return;
     }
 
     isProcessingFrame = true;
+    // The legacy API gives no capture time, so latency is measured from arrival.
+    frameContext = FrameTracer.beginFrame(-1);
     lastPreviewFrame = bytes;
     yuvBytes[0] = bytes;
     yRowStride = previewWidth;
+    recordFrame(
+        SystemClock.elapsedRealtimeNanos(), FrameRecorder.FORMAT_NV21, yRowStride, 0, 0, 1);
 
-    imageConverter =
-        new Runnable() {
+    imagePyramid.setFrame(
+        bytes,
+        yRowStride,
+        new ImagePyramid.RgbConverter() {
           @Override
-          public void run() {
-            ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
+          public void convert(final int[] output, final boolean halfSize) {
+            ImageUtils.convertYUV420SPToARGB8888(
+                bytes, previewWidth, previewHeight, output, halfSize);
           }
-        };
+        });
 
     postInferenceCallback =
         new Runnable() {
@@ -157,8 +249,8 @@ public abstract class CameraActivity extends Activity
     if (previewWidth == 0 || previewHeight == 0) {
       return;
     }
-    if (rgbBytes == null) {
-      rgbBytes = new int[previewWidth * previewHeight];
+    if (imagePyramid == null) {
+      imagePyramid = new ImagePyramid(previewWidth, previewHeight);
     }
     try {
       final Image image = reader.acquireLatestImage();
@@ -167,34 +259,57 @@ public abstract class CameraActivity extends Activity
         return;
       }
 
+      final long sensorTimestampNs = sensorTimestampIsRealtime ? image.getTimestamp() : -1;
+      final Plane[] planes = image.getPlanes();
+      final int uvRowStride = planes[1].getRowStride();
+      final int uvPixelStride = planes[1].getPixelStride();
+      // The planes are read in place until the image is closed, so they are only copied out when
+      // the recorder needs them. Frames about to be dropped are recorded too, so a replay is not
+      // limited to the frames this device's pipeline kept up with.
+      if (isRecording()) {
+        fillBytes(planes, yuvBytes);
+        recordFrame(
+            image.getTimestamp(),
+            FrameRecorder.FORMAT_YUV_420_888,
+            planes[0].getRowStride(),
+            uvRowStride,
+            uvPixelStride,
+            planes.length);
+      }
+
       if (isProcessingFrame) {
+        FrameTracer.dropFrame(FrameTracer.Drop.CAMERA_BUSY);
+        frameRateGovernor.onFrameDropped();
         image.close();
         return;
       }
       isProcessingFrame = true;
+      frameContext = FrameTracer.beginFrame(sensorTimestampNs);
       Trace.beginSection("imageAvailable");
-      final Plane[] planes = image.getPlanes();
-      fillBytes(planes, yuvBytes);
       yRowStride = planes[0].getRowStride();
-      final int uvRowStride = planes[1].getRowStride();
-      final int uvPixelStride = planes[1].getPixelStride();
 
-      imageConverter =
-          new Runnable() {
+      final ByteBuffer yBuffer = planes[0].getBuffer();
+      final ByteBuffer uBuffer = planes[1].getBuffer();
+      final ByteBuffer vBuffer = planes[2].getBuffer();
+      imagePyramid.setFrame(
+          yBuffer,
+          yRowStride,
+          new ImagePyramid.RgbConverter() {
             @Override
-            public void run() {
+            public void convert(final int[] output, final boolean halfSize) {
               ImageUtils.convertYUV420ToARGB8888(
-                  yuvBytes[0],
-                  yuvBytes[1],
-                  yuvBytes[2],
+                  yBuffer,
+                  uBuffer,
+                  vBuffer,
                   previewWidth,
                   previewHeight,
                   yRowStride,
                   uvRowStride,
                   uvPixelStride,
-                  rgbBytes);
+                  output,
+                  halfSize);
             }
-          };
+          });
 
       postInferenceCallback =
           new Runnable() {
@@ -214,6 +329,161 @@ public abstract class CameraActivity extends Activity
     Trace.endSection();
   }
 
+  /**
+   * Callback for frames replayed from a capture file, on the replay thread.
+   */
+  @Override
+  public void onReplayFrame(final FrameReplayer replayer, final FrameReader.Frame frame) {
+    if (imagePyramid == null) {
+      imagePyramid = new ImagePyramid(previewWidth, previewHeight);
+    }
+    if (frame.width != previewWidth || frame.height != previewHeight) {
+      LOGGER.w("Skipping %dx%d frame in %dx%d replay",
+          frame.width, frame.height, previewWidth, previewHeight);
+      replayer.release();
+      return;
+    }
+
+    isProcessingFrame = true;
+    // Recorded timestamps are from another session's clock, so measure from replay time.
+    frameContext = FrameTracer.beginFrame(-1);
+    for (int i = 0; i < frame.planeCount; ++i) {
+      yuvBytes[i] = frame.planes[i];
+    }
+    yRowStride = frame.yRowStride;
+
+    if (frame.format == FrameRecorder.FORMAT_NV21) {
+      imagePyramid.setFrame(
+          frame.planes[0],
+          yRowStride,
+          new ImagePyramid.RgbConverter() {
+            @Override
+            public void convert(final int[] output, final boolean halfSize) {
+              ImageUtils.convertYUV420SPToARGB8888(
+                  frame.planes[0], previewWidth, previewHeight, output, halfSize);
+            }
+          });
+    } else {
+      imagePyramid.setFrame(
+          frame.planes[0],
+          yRowStride,
+          new ImagePyramid.RgbConverter() {
+            @Override
+            public void convert(final int[] output, final boolean halfSize) {
+              ImageUtils.convertYUV420ToARGB8888(
+                  frame.planes[0],
+                  frame.planes[1],
+                  frame.planes[2],
+                  previewWidth,
+                  previewHeight,
+                  frame.yRowStride,
+                  frame.uvRowStride,
+                  frame.uvPixelStride,
+                  output,
+                  halfSize);
+            }
+          });
+    }
+
+    postInferenceCallback =
+        new Runnable() {
+          @Override
+          public void run() {
+            isProcessingFrame = false;
+            replayer.release();
+          }
+        };
+    processImage();
+  }
+
+  @Override
+  public void onReplayFinished(final FrameReplayer replayer) {
+    if (replayer.getError() != null) {
+      LOGGER.e(replayer.getError(), "Replay failed");
+    }
+    LOGGER.i("Replayed %d frames in %d ms, %.1f fps",
+        replayer.getFramesDelivered(),
+        replayer.getElapsedNanos() / 1000000,
+        replayer.getFramesPerSecond());
+    Metrics.dumpToExternalStorage("replay_latency.csv");
+    FrameTracer.dumpToExternalStorage("replay_trace.csv");
+  }
+
+  private static File getCaptureFile(final String name) {
+    final File file = new File(name);
+    if (file.isAbsolute()) {
+      return file;
+    }
+    return new File(
+        new File(Environment.getExternalStorageDirectory().getAbsolutePath(), "tensorflow"), name);
+  }
+
+  private boolean isRecording() {
+    synchronized (recorderLock) {
+      return recordFile != null;
+    }
+  }
+
+  /**
+   * Appends the frame currently held in yuvBytes to the capture file, if recording was requested.
+   * Runs on the camera thread, so it only copies the planes into the recorder's mapped window.
+   * yuvBytes is only read here, so frames being dropped may be put there while another frame is
+   * still being processed.
+   */
+  private void recordFrame(
+      final long timestampNs,
+      final int format,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int planeCount) {
+    synchronized (recorderLock) {
+      if (recordFile == null) {
+        return;
+      }
+      try {
+        if (recorder == null) {
+          final File dir = recordFile.getParentFile();
+          if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+          }
+          recorder = new FrameRecorder(recordFile);
+          LOGGER.i("Recording frames to %s", recordFile);
+        }
+        recorder.write(
+            timestampNs,
+            previewWidth,
+            previewHeight,
+            previewRotation,
+            format,
+            yRowStride,
+            uvRowStride,
+            uvPixelStride,
+            yuvBytes,
+            planeCount);
+      } catch (final IOException e) {
+        LOGGER.e(e, "Recording to %s failed, no further frames will be recorded", recordFile);
+        recordFile = null;
+        closeRecorder();
+      }
+    }
+  }
+
+  private void closeRecorder() {
+    synchronized (recorderLock) {
+      if (recorder == null) {
+        return;
+      }
+      LOGGER.i("Recorded %d frames (%d bytes)", recorder.getFrameCount(), recorder.getLength());
+      try {
+        recorder.close();
+      } catch (final IOException e) {
+        LOGGER.e(e, "Exception!");
+      }
+      recorder = null;
+    }
+  }
+
   @Override
   public synchronized void onStart() {
     LOGGER.d("onStart " + this);
@@ -239,6 +509,8 @@ public abstract class CameraActivity extends Activity
       finish();
     }
 
+    closeRecorder();
+
     handlerThread.quitSafely();
     try {
       handlerThread.join();
@@ -335,6 +607,14 @@ public abstract class CameraActivity extends Activity
 
         useCamera2API = isHardwareLevelSupported(characteristics,
             CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+          final Integer timestampSource =
+              characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+          sensorTimestampIsRealtime =
+              timestampSource != null
+                  && timestampSource
+                      == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+        }
         LOGGER.i("Camera API lv2?: %s", useCamera2API);
         return cameraId;
       }
@@ -346,6 +626,29 @@ public abstract class CameraActivity extends Activity
   }
 
   protected void setFragment() {
+    if (replayFile != null) {
+      getFragmentManager()
+          .beginTransaction()
+          .replace(
+              R.id.container,
+              new ReplayFragment(
+                  new CameraConnectionFragment.ConnectionCallback() {
+                    @Override
+                    public void onPreviewSizeChosen(final Size size, final int rotation) {
+                      previewHeight = size.getHeight();
+                      previewWidth = size.getWidth();
+                      previewRotation = rotation;
+                      CameraActivity.this.onPreviewSizeChosen(size, rotation);
+                    }
+                  },
+                  this,
+                  getLayoutId(),
+                  replayFile,
+                  !replayMaxSpeed))
+          .commit();
+      return;
+    }
+
     String cameraId = chooseCamera();
 
     Fragment fragment;
@@ -357,18 +660,23 @@ public abstract class CameraActivity extends Activity
                 public void onPreviewSizeChosen(final Size size, final int rotation) {
                   previewHeight = size.getHeight();
                   previewWidth = size.getWidth();
+                  previewRotation = rotation;
                   CameraActivity.this.onPreviewSizeChosen(size, rotation);
                 }
               },
               this,
               getLayoutId(),
-              getDesiredPreviewFrameSize());
+              getDesiredPreviewFrameSize(),
+              getMinimumAnalysisFrameSize());
 
       camera2Fragment.setCamera(cameraId);
+      camera2Fragment.setFrameRateGovernor(frameRateGovernor);
       fragment = camera2Fragment;
     } else {
-      fragment =
+      final LegacyCameraConnectionFragment legacyFragment =
           new LegacyCameraConnectionFragment(this, getLayoutId(), getDesiredPreviewFrameSize());
+      legacyFragment.setFrameRateGovernor(frameRateGovernor);
+      fragment = legacyFragment;
     }
 
     getFragmentManager()
@@ -416,12 +724,29 @@ public abstract class CameraActivity extends Activity
       debug = !debug;
       requestRender();
       onSetDebug(debug);
+      if (!debug) {
+        // Leaving debug mode is the natural end of a measurement session, so persist what was
+        // gathered while the overlay was up. The files are written off the UI thread.
+        runInBackground(
+            new Runnable() {
+              @Override
+              public void run() {
+                Metrics.dumpToExternalStorage("stage_latency.csv");
+                FrameTracer.dumpToExternalStorage("frame_trace.csv");
+              }
+            });
+      }
       return true;
     }
     return super.onKeyDown(keyCode, event);
   }
 
   protected void readyForNextImage() {
+    // Replayed frames are paced by the replayer, not the camera.
+    if (isProcessingFrame && frameContext != null && !isReplaying()) {
+      frameRateGovernor.onFrameProcessed(
+          SystemClock.elapsedRealtimeNanos() - frameContext.getArrivalNs());
+    }
     if (postInferenceCallback != null) {
       postInferenceCallback.run();
     }
@@ -445,4 +770,13 @@ public abstract class CameraActivity extends Activity
   protected abstract void onPreviewSizeChosen(final Size size, final int rotation);
   protected abstract int getLayoutId();
   protected abstract Size getDesiredPreviewFrameSize();
+
+  /**
+   * Returns the smallest frame the model can use without scaling it up. Where the camera allows,
+   * frames are then delivered from a stream of about that size rather than at the preview size.
+   * Null, the default, analyzes frames at the preview size.
+   */
+  protected Size getMinimumAnalysisFrameSize() {
+    return null;
+  }
 }
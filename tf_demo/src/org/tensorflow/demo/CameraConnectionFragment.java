@@ -43,6 +43,7 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.text.TextUtils;
+import android.util.Range;
 import android.util.Size;
 import android.util.SparseIntArray;
 import android.view.LayoutInflater;
@@ -58,6 +59,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import org.tensorflow.demo.env.FrameRateGovernor;
 import org.tensorflow.demo.env.Logger;
 import org.tensorflow.demo.R; // Explicit import needed for internal Google builds.
 
@@ -70,6 +72,18 @@ public class CameraConnectionFragment extends Fragment {
    */
   private static final int MINIMUM_PREVIEW_SIZE = 320;
 
+  /**
+   * The analysis stream must match the display's aspect ratio to within this factor, so that
+   * frame coordinates still line up with what is on screen.
+   */
+  private static final float MAX_ASPECT_RATIO_ERROR = 1.05f;
+
+  /**
+   * The cost, in units of the model input's area in pixels converted per frame, of each factor by
+   * which the analysis stream falls short of the model input and has to be scaled up for it.
+   */
+  private static final float UPSCALE_COST = 16.0f;
+
   /**
    * Conversion from screen rotation to JPEG orientation.
    */
@@ -112,7 +126,8 @@ public class CameraConnectionFragment extends Fragment {
 
   /**
    * Callback for Activities to use to initialize their data once the
-   * selected preview size is known.
+   * selected preview size is known. The size is that of the frames handed to the image listener,
+   * which may be smaller than what is displayed.
    */
   public interface ConnectionCallback {
     void onPreviewSizeChosen(Size size, int cameraRotation);
@@ -148,6 +163,27 @@ public class CameraConnectionFragment extends Fragment {
    */
   private Size previewSize;
 
+  /**
+   * The {@link android.util.Size} of the frames delivered to {@link #imageListener}.
+   */
+  private Size analysisSize;
+
+  /**
+   * Whether the display and analysis streams may differ in size, which is not the case on LEGACY
+   * hardware or after a session with two sizes failed to configure.
+   */
+  private boolean separateAnalysisStream;
+
+  /**
+   * The {minFps, maxFps} ranges the camera's auto-exposure can target.
+   */
+  private int[][] fpsRanges;
+
+  /**
+   * Lowers the frame rate to what the frame processing keeps up with, if set.
+   */
+  private FrameRateGovernor frameRateGovernor;
+
   /**
    * {@link android.hardware.camera2.CameraDevice.StateCallback}
    * is called when {@link CameraDevice} changes its state.
@@ -219,6 +255,12 @@ public class CameraConnectionFragment extends Fragment {
   /** The input size in pixels desired by TensorFlow (width and height of a square bitmap). */
   private final Size inputSize;
 
+  /**
+   * The smallest frame the model can use without scaling it up, or null to analyze frames at the
+   * preview size.
+   */
+  private final Size minAnalysisSize;
+
   /**
    * The layout identifier to inflate for this Fragment.
    */
@@ -231,11 +273,13 @@ public class CameraConnectionFragment extends Fragment {
       final ConnectionCallback connectionCallback,
       final OnImageAvailableListener imageListener,
       final int layout,
-      final Size inputSize) {
+      final Size inputSize,
+      final Size minAnalysisSize) {
     this.cameraConnectionCallback = connectionCallback;
     this.imageListener = imageListener;
     this.layout = layout;
     this.inputSize = inputSize;
+    this.minAnalysisSize = minAnalysisSize;
   }
 
   /**
@@ -306,12 +350,78 @@ public class CameraConnectionFragment extends Fragment {
     }
   }
 
+  /**
+   * Chooses the size of the stream that frames are analyzed from, given the {@code choices} of
+   * YUV sizes the camera supports. Each size whose aspect ratio matches the display's is costed as
+   * the pixels converted per frame, relative to the model input, plus {@link #UPSCALE_COST} for
+   * every factor by which it is smaller than the model input, and the cheapest one wins. The
+   * camera's own scaler does the downsizing, so a size near the model input saves converting
+   * pixels that would only be thrown away. This only holds when the model sees the whole frame:
+   * a caller that crops regions out of the frame and scales them up to the model input needs more
+   * than the model input's pixels, and should ask for a larger minSize or stay on the preview
+   * stream.
+   *
+   * @param choices The list of sizes that the camera supports for YUV output
+   * @param displaySize The size of the preview stream
+   * @param minSize The smallest frame the model can use without scaling it up
+   * @return The chosen {@code Size}, or displaySize if no size matches its aspect ratio
+   */
+  protected static Size chooseAnalysisSize(
+      final Size[] choices, final Size displaySize, final Size minSize) {
+    final float displayAspectRatio = (float) displaySize.getWidth() / displaySize.getHeight();
+    final float minArea = (float) minSize.getWidth() * minSize.getHeight();
+
+    Size chosenSize = displaySize;
+    float chosenCost = Float.MAX_VALUE;
+    for (final Size option : choices) {
+      final float aspectRatio = (float) option.getWidth() / option.getHeight();
+      final float aspectRatioError =
+          Math.max(aspectRatio / displayAspectRatio, displayAspectRatio / aspectRatio);
+      if (aspectRatioError > MAX_ASPECT_RATIO_ERROR) {
+        continue;
+      }
+
+      final float scale =
+          Math.min(
+              (float) option.getWidth() / minSize.getWidth(),
+              (float) option.getHeight() / minSize.getHeight());
+      float cost = option.getWidth() * option.getHeight() / minArea;
+      if (scale < 1.0f) {
+        cost += UPSCALE_COST * (1.0f / scale - 1.0f);
+      }
+      if (cost < chosenCost) {
+        chosenCost = cost;
+        chosenSize = option;
+      }
+    }
+
+    LOGGER.i(
+        "Analysis size for %s display and %s model input: %s (cost %.2f)",
+        displaySize, minSize, chosenSize, chosenCost);
+    return chosenSize;
+  }
+
   public static CameraConnectionFragment newInstance(
       final ConnectionCallback callback,
       final OnImageAvailableListener imageListener,
       final int layout,
       final Size inputSize) {
-    return new CameraConnectionFragment(callback, imageListener, layout, inputSize);
+    return newInstance(callback, imageListener, layout, inputSize, null);
+  }
+
+  /**
+   * Like {@link #newInstance(ConnectionCallback, OnImageAvailableListener, int, Size)}, but
+   * delivers frames from a second stream sized by {@link #chooseAnalysisSize} for a model that
+   * needs at least minAnalysisSize, where the hardware allows it.
+   */
+  public static CameraConnectionFragment newInstance(
+      final ConnectionCallback callback,
+      final OnImageAvailableListener imageListener,
+      final int layout,
+      final Size inputSize,
+      final Size minAnalysisSize) {
+    return new CameraConnectionFragment(
+        callback, imageListener, layout, inputSize, minAnalysisSize);
   }
 
   @Override
@@ -357,6 +467,10 @@ public class CameraConnectionFragment extends Fragment {
     this.cameraId = cameraId;
   }
 
+  public void setFrameRateGovernor(final FrameRateGovernor frameRateGovernor) {
+    this.frameRateGovernor = frameRateGovernor;
+  }
+
   /**
    * Sets up member variables related to camera.
    */
@@ -377,6 +491,14 @@ public class CameraConnectionFragment extends Fragment {
 
       sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
 
+      final Range<Integer>[] availableFpsRanges =
+          characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+      fpsRanges = new int[availableFpsRanges != null ? availableFpsRanges.length : 0][];
+      for (int i = 0; i < fpsRanges.length; ++i) {
+        fpsRanges[i] =
+            new int[] {availableFpsRanges[i].getLower(), availableFpsRanges[i].getUpper()};
+      }
+
       // Danger, W.R.! Attempting to use too large a preview size could  exceed the camera
       // bus' bandwidth limitation, resulting in gorgeous previews but the storage of
       // garbage capture data.
@@ -385,6 +507,19 @@ public class CameraConnectionFragment extends Fragment {
               inputSize.getWidth(),
               inputSize.getHeight());
 
+      // LEGACY devices scale streams in software, so a second size would cost more than it saves.
+      final Integer hardwareLevel =
+          characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+      separateAnalysisStream =
+          minAnalysisSize != null
+              && hardwareLevel != null
+              && hardwareLevel != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+      analysisSize =
+          separateAnalysisStream
+              ? chooseAnalysisSize(
+                  map.getOutputSizes(ImageFormat.YUV_420_888), previewSize, minAnalysisSize)
+              : previewSize;
+
       // We fit the aspect ratio of TextureView to the size of preview we picked.
       final int orientation = getResources().getConfiguration().orientation;
       if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
@@ -404,7 +539,7 @@ public class CameraConnectionFragment extends Fragment {
       throw new RuntimeException(getString(R.string.camera_error));
     }
 
-    cameraConnectionCallback.onPreviewSizeChosen(previewSize, sensorOrientation);
+    cameraConnectionCallback.onPreviewSizeChosen(analysisSize, sensorOrientation);
   }
 
   /**
@@ -433,6 +568,9 @@ public class CameraConnectionFragment extends Fragment {
   private void closeCamera() {
     try {
       cameraOpenCloseLock.acquire();
+      if (null != frameRateGovernor) {
+        frameRateGovernor.setCamera(null, null);
+      }
       if (null != captureSession) {
         captureSession.close();
         captureSession = null;
@@ -498,8 +636,10 @@ public class CameraConnectionFragment extends Fragment {
       final SurfaceTexture texture = textureView.getSurfaceTexture();
       assert texture != null;
 
-      // We configure the size of default buffer to be the size of camera preview we want.
-      texture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
+      // We configure the size of default buffer to be the size of camera preview we want. Without
+      // a separate analysis stream the display shares its size, which has the same aspect ratio.
+      final Size displaySize = separateAnalysisStream ? previewSize : analysisSize;
+      texture.setDefaultBufferSize(displaySize.getWidth(), displaySize.getHeight());
 
       // This is the output Surface we need to start preview.
       final Surface surface = new Surface(texture);
@@ -508,12 +648,13 @@ public class CameraConnectionFragment extends Fragment {
       previewRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
       previewRequestBuilder.addTarget(surface);
 
-      LOGGER.i("Opening camera preview: " + previewSize.getWidth() + "x" + previewSize.getHeight());
+      LOGGER.i("Opening camera preview: " + displaySize.getWidth() + "x" + displaySize.getHeight()
+          + ", analysis: " + analysisSize.getWidth() + "x" + analysisSize.getHeight());
 
       // Create the reader for the preview frames.
       previewReader =
           ImageReader.newInstance(
-              previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
+              analysisSize.getWidth(), analysisSize.getHeight(), ImageFormat.YUV_420_888, 2);
 
       previewReader.setOnImageAvailableListener(imageListener, backgroundHandler);
       previewRequestBuilder.addTarget(previewReader.getSurface());
@@ -547,11 +688,26 @@ public class CameraConnectionFragment extends Fragment {
                     previewRequest, captureCallback, backgroundHandler);
               } catch (final CameraAccessException e) {
                 LOGGER.e(e, "Exception!");
+                return;
+              }
+
+              if (null != frameRateGovernor && fpsRanges.length > 0) {
+                frameRateGovernor.setCamera(fpsRanges, fpsRangeSetter);
               }
             }
 
             @Override
             public void onConfigureFailed(final CameraCaptureSession cameraCaptureSession) {
+              if (separateAnalysisStream && null != cameraDevice) {
+                // Some devices reject the size combination, so retry with the display at the
+                // analysis size, which frames have already been set up for.
+                LOGGER.w("Separate analysis stream not supported, sharing its size for display");
+                separateAnalysisStream = false;
+                previewReader.close();
+                previewReader = null;
+                createCameraPreviewSession();
+                return;
+              }
               showToast("Failed");
             }
           },
@@ -561,6 +717,31 @@ public class CameraConnectionFragment extends Fragment {
     }
   }
 
+  /**
+   * Retargets the repeating preview request's auto-exposure frame rate. Runs on the image
+   * listener's thread, which is also the one the session reports to.
+   */
+  private final FrameRateGovernor.FpsRangeSetter fpsRangeSetter =
+      new FrameRateGovernor.FpsRangeSetter() {
+        @Override
+        public void setFpsRange(final int minFps, final int maxFps) {
+          if (null == captureSession) {
+            return;
+          }
+          previewRequestBuilder.set(
+              CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, new Range<Integer>(minFps, maxFps));
+          previewRequest = previewRequestBuilder.build();
+          try {
+            captureSession.setRepeatingRequest(previewRequest, captureCallback, backgroundHandler);
+          } catch (final CameraAccessException e) {
+            LOGGER.e(e, "Could not set frame rate range %d-%d", minFps, maxFps);
+          } catch (final IllegalStateException e) {
+            // The session closed in the meantime.
+            LOGGER.w("Session closed before frame rate range %d-%d was set", minFps, maxFps);
+          }
+        }
+      };
+
   /**
    * Configures the necessary {@link android.graphics.Matrix} transformation to `mTextureView`.
    * This method should be called after the camera preview size is determined in
@@ -0,0 +1,331 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import java.util.Collections;
+import java.util.List;
+import org.tensorflow.demo.env.Logger;
+
+/**
+ * A two-stage detector: a cheap gate looks at a downscaled copy of each image first, and the
+ * expensive detector only runs when the gate finds something, or every so often regardless as a
+ * safety net. The gate can be any {@link Classifier}, e.g. a small image classifier, or the
+ * detector itself resized to a reduced input size, so that one model and session serve both
+ * stages.
+ *
+ * Both stages are timed. A gate that turns out to cost more than MAX_GATE_COST_FRACTION of the
+ * detector, as happens when the detector's graph resizes every input to a fixed size, saves too
+ * little to pay for what it misses, so it is then bypassed and the detector runs alone.
+ *
+ * Safety-net runs on images the gate rejected show what gating costs: detections found on them
+ * would otherwise have been missed. In audit mode, used on replayed captures, the detector runs on
+ * every image, so the recall cost is measured over all of them while the skip counter still
+ * reports what the gate would have skipped. Not thread-safe, apart from the counters.
+ */
+public class CascadeDetector implements Classifier, Profilable {
+  private static final Logger LOGGER = new Logger();
+
+  // Runs of each stage to time before judging whether the gate pays for itself.
+  private static final int MIN_COST_SAMPLES = 10;
+  private static final float MAX_GATE_COST_FRACTION = 0.5f;
+
+  private final Classifier gate;
+  private final Classifier detector;
+  // The model both stages run on, resized for the gate, or null if the gate has its own.
+  private final TensorFlowObjectDetectionAPIModel sharedModel;
+  private final int gateInputSize;
+  private final float gateThreshold;
+  private final float detectionThreshold;
+  private final int safetyInterval;
+
+  private final Bitmap gateBitmap;
+  private final Canvas gateCanvas;
+  private final Matrix gateTransform = new Matrix();
+
+  private boolean audit = false;
+  private int imagesSinceDetection = 0;
+  private boolean detectorRan = false;
+
+  private long images;
+  private long skipped;
+  private long gateRejected;
+  private long rejectedChecked;
+  private long detections;
+  private long missedDetections;
+
+  private long gateRuns;
+  private long gateNs;
+  private long detectorRuns;
+  private long detectorNs;
+  private boolean gateBypassed = false;
+
+  /**
+   * @param gate The cheap first stage.
+   * @param gateInputSize The size of the square image the gate expects.
+   * @param gateThreshold The confidence a gate result needs to let an image through.
+   * @param detector The expensive second stage.
+   * @param detectionThreshold The confidence at which a detector result counts as a detection.
+   * @param safetyInterval Run the detector at least once every this many images.
+   */
+  public CascadeDetector(
+      final Classifier gate,
+      final int gateInputSize,
+      final float gateThreshold,
+      final Classifier detector,
+      final float detectionThreshold,
+      final int safetyInterval) {
+    this(gate, gateInputSize, gateThreshold, detector, null, detectionThreshold, safetyInterval);
+  }
+
+  /**
+   * A cascade whose gate is the detector itself, fed a gateInputSize image. The model's input size
+   * is switched for each gate run and restored afterwards.
+   */
+  public CascadeDetector(
+      final TensorFlowObjectDetectionAPIModel detector,
+      final int gateInputSize,
+      final float gateThreshold,
+      final float detectionThreshold,
+      final int safetyInterval) {
+    this(
+        detector, gateInputSize, gateThreshold, detector, detector, detectionThreshold,
+        safetyInterval);
+  }
+
+  private CascadeDetector(
+      final Classifier gate,
+      final int gateInputSize,
+      final float gateThreshold,
+      final Classifier detector,
+      final TensorFlowObjectDetectionAPIModel sharedModel,
+      final float detectionThreshold,
+      final int safetyInterval) {
+    this.gate = gate;
+    this.sharedModel = sharedModel;
+    this.gateInputSize = gateInputSize;
+    this.gateThreshold = gateThreshold;
+    this.detector = detector;
+    this.detectionThreshold = detectionThreshold;
+    this.safetyInterval = safetyInterval;
+    gateBitmap = Bitmap.createBitmap(gateInputSize, gateInputSize, Config.ARGB_8888);
+    gateCanvas = new Canvas(gateBitmap);
+  }
+
+  /** Runs the detector on every image, to measure what the gate would have missed. */
+  public void setAudit(final boolean audit) {
+    this.audit = audit;
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    if (isGateBypassed()) {
+      synchronized (this) {
+        ++images;
+      }
+      detectorRan = true;
+      imagesSinceDetection = 0;
+      final List<Recognition> results = runDetector(bitmap);
+      countDetections(results, true);
+      return results;
+    }
+
+    final long gateStartNs = System.nanoTime();
+    gateTransform.setScale(
+        (float) gateBitmap.getWidth() / bitmap.getWidth(),
+        (float) gateBitmap.getHeight() / bitmap.getHeight());
+    gateCanvas.drawBitmap(bitmap, gateTransform, null);
+    final List<Recognition> gateResults;
+    if (sharedModel != null) {
+      final int inputSize = sharedModel.getInputSize();
+      sharedModel.setInputSize(gateInputSize);
+      try {
+        gateResults = gate.recognizeImage(gateBitmap);
+      } finally {
+        sharedModel.setInputSize(inputSize);
+      }
+    } else {
+      gateResults = gate.recognizeImage(gateBitmap);
+    }
+    final boolean passed = maxConfidence(gateResults) >= gateThreshold;
+    final long gateElapsedNs = System.nanoTime() - gateStartNs;
+
+    ++imagesSinceDetection;
+    final boolean safetyNet = imagesSinceDetection >= safetyInterval;
+    synchronized (this) {
+      ++images;
+      ++gateRuns;
+      gateNs += gateElapsedNs;
+      if (!passed) {
+        ++gateRejected;
+        if (!safetyNet) {
+          ++skipped;
+        }
+      }
+    }
+    detectorRan = passed || safetyNet || audit;
+    if (!detectorRan) {
+      return Collections.emptyList();
+    }
+
+    imagesSinceDetection = 0;
+    final List<Recognition> results = runDetector(bitmap);
+    countDetections(results, passed);
+    checkGateCost();
+    return results;
+  }
+
+  private List<Recognition> runDetector(final Bitmap bitmap) {
+    final long startNs = System.nanoTime();
+    final List<Recognition> results = detector.recognizeImage(bitmap);
+    final long elapsedNs = System.nanoTime() - startNs;
+    synchronized (this) {
+      ++detectorRuns;
+      detectorNs += elapsedNs;
+    }
+    return results;
+  }
+
+  /** Bypasses the gate once both stages are timed and it costs too much of the detector's time. */
+  private synchronized void checkGateCost() {
+    if (gateBypassed || audit || gateRuns < MIN_COST_SAMPLES || detectorRuns < MIN_COST_SAMPLES) {
+      return;
+    }
+    final float gateMs = getGateMs();
+    final float detectorMs = getDetectorMs();
+    if (gateMs > MAX_GATE_COST_FRACTION * detectorMs) {
+      LOGGER.w(
+          "Gate takes %.1f ms against %.1f ms for the detector, running the detector alone",
+          gateMs, detectorMs);
+      gateBypassed = true;
+    }
+  }
+
+  private synchronized boolean isGateBypassed() {
+    return gateBypassed;
+  }
+
+  /** Returns the mean time a gate run takes, including the downscale, in milliseconds. */
+  public synchronized float getGateMs() {
+    return gateRuns > 0 ? gateNs / 1.0e6f / gateRuns : 0.0f;
+  }
+
+  /** Returns the mean time a detector run takes, in milliseconds. */
+  public synchronized float getDetectorMs() {
+    return detectorRuns > 0 ? detectorNs / 1.0e6f / detectorRuns : 0.0f;
+  }
+
+  private synchronized void countDetections(
+      final List<Recognition> results, final boolean passed) {
+    int count = 0;
+    for (final Recognition result : results) {
+      if (result.getConfidence() >= detectionThreshold) {
+        ++count;
+      }
+    }
+    detections += count;
+    if (!passed) {
+      ++rejectedChecked;
+      missedDetections += count;
+      if (count > 0) {
+        LOGGER.d("Gate rejected an image with %d detections", count);
+      }
+    }
+  }
+
+  private static float maxConfidence(final List<Recognition> results) {
+    float max = 0.0f;
+    for (final Recognition result : results) {
+      if (result.getConfidence() != null) {
+        max = Math.max(max, result.getConfidence());
+      }
+    }
+    return max;
+  }
+
+  /** Returns whether the detector ran on the last image, rather than just the gate. */
+  public boolean didDetectorRun() {
+    return detectorRan;
+  }
+
+  /** Returns how many images the detector was, or in audit mode would have been, skipped on. */
+  public synchronized long getSkippedCount() {
+    return skipped;
+  }
+
+  public synchronized long getImageCount() {
+    return images;
+  }
+
+  /**
+   * Returns the fraction of detections the detector found on images the gate rejected. In audit
+   * mode this is the recall lost to gating; otherwise it is estimated from the safety-net runs
+   * only, and understates the loss by roughly the share of rejected images that were skipped.
+   */
+  public synchronized float getRecallCost() {
+    return detections > 0 ? (float) missedDetections / detections : 0.0f;
+  }
+
+  /** Appends the skip and recall counts, for the overlay or the log. */
+  public synchronized void addSummaryLines(final List<String> lines) {
+    lines.add(
+        String.format(
+            "cascade skipped %d/%d, gate rejected %d", skipped, images, gateRejected));
+    lines.add(
+        String.format(
+            "cascade missed %d/%d detections on %d checked rejects, recall cost %.1f%%",
+            missedDetections, detections, rejectedChecked, getRecallCost() * 100));
+    lines.add(
+        String.format(
+            "cascade gate %.1f ms, detector %.1f ms%s",
+            getGateMs(), getDetectorMs(), gateBypassed ? ", gate bypassed" : ""));
+  }
+
+  @Override
+  public void enableStatLogging(final boolean debug) {
+    if (gate != detector) {
+      gate.enableStatLogging(debug);
+    }
+    detector.enableStatLogging(debug);
+  }
+
+  @Override
+  public String getStatString() {
+    return detector.getStatString();
+  }
+
+  /**
+   * Profiles the detector only, which is where the time goes. A gate sharing the detector's model
+   * is profiled along with it.
+   */
+  @Override
+  public void setOpProfile(final OpProfile profile) {
+    if (detector instanceof Profilable) {
+      ((Profilable) detector).setOpProfile(profile);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (gate != detector) {
+      gate.close();
+    }
+    detector.close();
+  }
+}
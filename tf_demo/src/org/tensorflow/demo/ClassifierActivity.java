@@ -31,9 +31,13 @@ import android.view.Surface;
 import java.util.List;
 import java.util.Vector;
 import org.tensorflow.demo.OverlayView.DrawCallback;
+import org.tensorflow.demo.env.BitmapPool;
 import org.tensorflow.demo.env.BorderedText;
 import org.tensorflow.demo.env.ImageUtils;
 import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.Metrics;
+import org.tensorflow.demo.env.PublishedBitmap;
+import org.tensorflow.demo.env.SplitTimer;
 import org.tensorflow.demo.R; // Explicit import needed for internal Google builds.
 
 public class ClassifierActivity extends CameraActivity implements OnImageAvailableListener {
@@ -45,7 +49,9 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
 
   private Bitmap rgbFrameBitmap = null;
   private Bitmap croppedBitmap = null;
-  private Bitmap cropCopyBitmap = null;
+  private final BitmapPool bitmapPool = new BitmapPool(2);
+  // What the classifier last saw, for the debug overlay.
+  private final PublishedBitmap cropCopyBitmap = new PublishedBitmap(bitmapPool);
 
   private long lastProcessingTimeMs;
 
@@ -81,15 +87,24 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
 
   private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
 
+  // Runs to collect per-op timings for each time debug mode is turned on. The profile is written
+  // to op_profile.csv when debug mode is turned off.
+  private static final int OP_PROFILE_RUNS = 50;
+  private static final int OP_PROFILE_OVERLAY_ROWS = 5;
+
 
   private Integer sensorOrientation;
   private Classifier classifier;
   private Matrix frameToCropTransform;
   private Matrix cropToFrameTransform;
 
+  // Set when debug mode is toggled and read while drawing the overlay, on different threads.
+  private volatile OpProfile opProfile;
+
 
   private BorderedText borderedText;
 
+  private final SplitTimer frameTimer = new SplitTimer();
 
   @Override
   protected int getLayoutId() {
@@ -101,6 +116,11 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
     return DESIRED_PREVIEW_SIZE;
   }
 
+  @Override
+  protected Size getMinimumAnalysisFrameSize() {
+    return new Size(INPUT_SIZE, INPUT_SIZE);
+  }
+
   private static final float TEXT_SIZE_DIP = 10;
 
   @Override
@@ -150,9 +170,12 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
 
   @Override
   protected void processImage() {
+    frameTimer.newSplit();
     rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+    frameTimer.endSplit(Metrics.Stage.CONVERT);
     final Canvas canvas = new Canvas(croppedBitmap);
     canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+    frameTimer.endSplit(Metrics.Stage.CROP);
 
     // For examining the actual TF input.
     if (SAVE_PREVIEW_BITMAP) {
@@ -166,7 +189,7 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
             final List<Classifier.Recognition> results = classifier.recognizeImage(croppedBitmap);
             lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
             LOGGER.i("Detect: %s", results);
-            cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
+            cropCopyBitmap.publishCopyOf(croppedBitmap);
             if (resultsView == null) {
               resultsView = (ResultsView) findViewById(R.id.results);
             }
@@ -180,13 +203,45 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
   @Override
   public void onSetDebug(boolean debug) {
     classifier.enableStatLogging(debug);
+    if (debug) {
+      opProfile = new OpProfile(OP_PROFILE_RUNS);
+      setOpProfile(opProfile);
+    } else {
+      setOpProfile(null);
+      final OpProfile profile = opProfile;
+      opProfile = null;
+      if (profile != null && profile.getRunCount() > 0) {
+        // Off the UI thread, like the other dumps.
+        runInBackground(
+            new Runnable() {
+              @Override
+              public void run() {
+                profile.dumpToExternalStorage("op_profile.csv");
+              }
+            });
+      }
+    }
+  }
+
+  private void setOpProfile(final OpProfile profile) {
+    if (classifier instanceof Profilable) {
+      ((Profilable) classifier).setOpProfile(profile);
+    }
   }
 
   private void renderDebug(final Canvas canvas) {
     if (!isDebug()) {
       return;
     }
-    final Bitmap copy = cropCopyBitmap;
+    final Bitmap copy = cropCopyBitmap.lock();
+    try {
+      renderDebug(canvas, copy);
+    } finally {
+      cropCopyBitmap.unlock();
+    }
+  }
+
+  private void renderDebug(final Canvas canvas, final Bitmap copy) {
     if (copy != null) {
       final Matrix matrix = new Matrix();
       final float scaleFactor = 2;
@@ -205,11 +260,18 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
         }
       }
 
+      final OpProfile profile = opProfile;
+      if (profile != null) {
+        profile.addSummaryLines(lines, OP_PROFILE_OVERLAY_ROWS);
+      }
+
       lines.add("Frame: " + previewWidth + "x" + previewHeight);
       lines.add("Crop: " + copy.getWidth() + "x" + copy.getHeight());
       lines.add("View: " + canvas.getWidth() + "x" + canvas.getHeight());
       lines.add("Rotation: " + sensorOrientation);
       lines.add("Inference time: " + lastProcessingTimeMs + "ms");
+      Metrics.addSummaryLines(lines);
+      Logger.addSummaryLines(lines);
 
       borderedText.drawLines(canvas, 10, canvas.getHeight() - 10, lines);
     }
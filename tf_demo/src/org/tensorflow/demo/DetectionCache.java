@@ -0,0 +1,177 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.graphics.RectF;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.tensorflow.demo.Classifier.Recognition;
+
+/**
+ * Remembers full-frame detection results by a perceptual signature of the frame, so that a scene
+ * the detector has recently seen does not have to go through inference again.
+ *
+ * The signature is a 64-bit difference hash of the luminance plane: the frame is reduced to a
+ * 9x8 grid of block means, and each bit records whether a block is brighter than its right-hand
+ * neighbour. Frames whose signatures differ in at most a few bits are treated as the same scene.
+ * Entries are evicted least recently used first. Thread-safe.
+ */
+public class DetectionCache {
+  private static final int HASH_WIDTH = 9;
+  private static final int HASH_HEIGHT = 8;
+
+  // Only every SAMPLE_STEP-th pixel of every SAMPLE_STEP-th row is read.
+  private static final int SAMPLE_STEP = 4;
+
+  /** Cached results of one detection pass. */
+  public static class Entry {
+    private final long timestamp;
+    private final List<Recognition> results;
+
+    Entry(final long timestamp, final List<Recognition> results) {
+      this.timestamp = timestamp;
+      this.results = results;
+    }
+
+    /** Returns the timestamp of the frame the results were detected on. */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    /** Returns the results, in the coordinates of the frame they were detected on. */
+    public List<Recognition> getResults() {
+      return results;
+    }
+  }
+
+  private final int maxDistance;
+  private final long maxAge;
+  private final LinkedHashMap<Long, Entry> entries;
+
+  private long hits;
+  private long misses;
+
+  /**
+   * @param capacity The number of scenes to remember.
+   * @param maxDistance The number of signature bits in which two frames may differ and still be
+   *     treated as the same scene.
+   * @param maxAge How many timestamps an entry stays usable for.
+   */
+  public DetectionCache(final int capacity, final int maxDistance, final long maxAge) {
+    this.maxDistance = maxDistance;
+    this.maxAge = maxAge;
+    this.entries =
+        new LinkedHashMap<Long, Entry>(capacity, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(final Map.Entry<Long, Entry> eldest) {
+            return size() > capacity;
+          }
+        };
+  }
+
+  /** Computes the signature of a luminance plane. */
+  public static long computeSignature(
+      final byte[] luminance, final int width, final int height, final int rowStride) {
+    final int blockWidth = width / HASH_WIDTH;
+    final int blockHeight = height / HASH_HEIGHT;
+
+    long signature = 0;
+    for (int blockY = 0; blockY < HASH_HEIGHT; ++blockY) {
+      int previousMean = 0;
+      for (int blockX = 0; blockX < HASH_WIDTH; ++blockX) {
+        int sum = 0;
+        int count = 0;
+        for (int y = blockY * blockHeight; y < (blockY + 1) * blockHeight; y += SAMPLE_STEP) {
+          final int rowOffset = y * rowStride;
+          for (int x = blockX * blockWidth; x < (blockX + 1) * blockWidth; x += SAMPLE_STEP) {
+            sum += luminance[rowOffset + x] & 0xff;
+            ++count;
+          }
+        }
+        final int mean = count > 0 ? sum / count : 0;
+        if (blockX > 0) {
+          signature = (signature << 1) | (previousMean > mean ? 1 : 0);
+        }
+        previousMean = mean;
+      }
+    }
+    return signature;
+  }
+
+  /**
+   * Returns the most similar usable entry for a frame, or null if there is none. Entries older
+   * than the maximum age are dropped along the way.
+   */
+  public synchronized Entry lookup(final long signature, final long timestamp) {
+    Long bestKey = null;
+    int bestDistance = maxDistance + 1;
+    final Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      final Map.Entry<Long, Entry> candidate = it.next();
+      if (timestamp - candidate.getValue().timestamp > maxAge) {
+        it.remove();
+        continue;
+      }
+      final int distance = Long.bitCount(candidate.getKey() ^ signature);
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        bestKey = candidate.getKey();
+      }
+    }
+
+    if (bestKey == null) {
+      ++misses;
+      return null;
+    }
+    ++hits;
+    // Also marks the entry as recently used.
+    return entries.get(bestKey);
+  }
+
+  /** Stores the results detected on a frame, replacing any entry with the same signature. */
+  public synchronized void put(
+      final long signature, final long timestamp, final List<Recognition> results) {
+    // The locations are copied too, as callers go on to remap the results' locations in place.
+    final List<Recognition> copies = new ArrayList<Recognition>(results.size());
+    for (final Recognition result : results) {
+      final RectF location = result.getLocation();
+      copies.add(
+          new Recognition(
+              result.getId(),
+              result.getTitle(),
+              result.getConfidence(),
+              location != null ? new RectF(location) : null));
+    }
+    entries.put(signature, new Entry(timestamp, copies));
+  }
+
+  /** Returns how many lookups were answered from the cache, i.e. inferences skipped. */
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  public synchronized float getHitRate() {
+    final long lookups = hits + misses;
+    return lookups > 0 ? (float) hits / lookups : 0.0f;
+  }
+}
@@ -16,6 +16,7 @@
 
 package org.tensorflow.demo;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
@@ -45,15 +46,27 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.Vector;
 import org.tensorflow.demo.OverlayView.DrawCallback;
+import org.tensorflow.demo.env.BitmapPool;
 import org.tensorflow.demo.env.BorderedText;
+import org.tensorflow.demo.env.FrameContext;
+import org.tensorflow.demo.env.FrameQualityGate;
+import org.tensorflow.demo.env.FrameReplayer;
+import org.tensorflow.demo.env.FrameTracer;
+import org.tensorflow.demo.env.ImagePyramid;
 import org.tensorflow.demo.env.ImageUtils;
 import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.Metrics;
+import org.tensorflow.demo.env.PublishedBitmap;
+import org.tensorflow.demo.env.ResolutionController;
+import org.tensorflow.demo.env.SceneChangeDetector;
+import org.tensorflow.demo.env.SplitTimer;
 import org.tensorflow.demo.tracking.MultiBoxTracker;
 import org.tensorflow.demo.R; // Explicit import needed for internal Google builds.
 import org.tensorflow.demo.tracking.Tuple;
@@ -132,6 +145,61 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
   private static final boolean MAINTAIN_ASPECT = MODE == DetectorMode.YOLO;
 
+  // Between full-frame passes, only re-detect around tracks whose correlation has decayed, each
+  // region cropped at the detector's full input size. A full-frame pass still runs every
+  // FULL_DETECTION_INTERVAL frames, when nothing is tracked, when too many tracks need refreshing,
+  // or when an untracked part of the scene changes by more than SCENE_CHANGE_THRESHOLD.
+  private static final boolean ROI_DETECTION = true;
+  private static final int FULL_DETECTION_INTERVAL = 30;
+  private static final int SCENE_CHANGE_THRESHOLD = 12;
+  private static final int MAX_DETECTION_REGIONS = 3;
+  // Context added around a track on each side, as a fraction of its size, and the smallest region
+  // cropped, as a fraction of the frame's shorter side.
+  private static final float REGION_MARGIN = 0.25f;
+  private static final float MIN_REGION_FRACTION = 0.5f;
+
+  // Full-frame results are reused, moved along with the tracked motion, for frames whose luminance
+  // signature is within RESULT_CACHE_TOLERANCE bits of one of the last RESULT_CACHE_SIZE scenes
+  // detected in the past RESULT_CACHE_MAX_AGE frames.
+  private static final boolean RESULT_CACHE = true;
+  private static final int RESULT_CACHE_SIZE = 8;
+  private static final int RESULT_CACHE_TOLERANCE = 4;
+  private static final int RESULT_CACHE_MAX_AGE = 150;
+
+  // Full-frame passes of the TF_OD_API model first run the same model as a gate at
+  // CASCADE_GATE_INPUT_SIZE, and only run it at full size if the gate finds something with at
+  // least CASCADE_GATE_THRESHOLD confidence, or after CASCADE_SAFETY_INTERVAL passes without. If
+  // the gate turns out to cost more than half a full pass, it is bypassed.
+  private static final boolean CASCADE = true;
+  private static final int CASCADE_GATE_INPUT_SIZE = 150;
+  private static final float CASCADE_GATE_THRESHOLD = 0.2f;
+  private static final int CASCADE_SAFETY_INTERVAL = 10;
+
+  // Frames whose half-size luminance has a Laplacian variance under MIN_SHARPNESS, or more than
+  // MAX_CLIPPED_FRACTION of it crushed to black or blown out to white, are tracked but not
+  // detected on, as walking while scanning leaves many frames that only yield junk detections.
+  // After QUALITY_MAX_CONSECUTIVE_REJECTS rejects in a row, a failing frame is detected on anyway,
+  // so tracks are still refreshed in a scene that never passes.
+  private static final boolean QUALITY_GATE = true;
+  private static final float MIN_SHARPNESS = 40.0f;
+  private static final float MAX_CLIPPED_FRACTION = 0.6f;
+  private static final int QUALITY_MAX_CONSECUTIVE_REJECTS = 15;
+
+  // In TF_OD_API mode, the full-frame input size is stepped through TF_OD_API_INPUT_SIZES to keep
+  // detection within DETECTION_TARGET_MS.
+  private static final boolean DYNAMIC_INPUT_SIZE = true;
+  private static final int[] TF_OD_API_INPUT_SIZES = {192, 224, 256, 300, 384};
+  private static final long DETECTION_TARGET_MS = 250;
+
+  // Time the TF_OD_API model under each session threading configuration on first launch, and use
+  // the fastest from the next launch on. The pipeline is paused while the tuner runs.
+  private static final boolean TUNE_SESSION = true;
+
+  // Runs of the detector to collect per-op timings for each time debug mode is turned on. The
+  // profile is written to op_profile.csv once complete, or when debug mode is turned off.
+  private static final int OP_PROFILE_RUNS = 50;
+  private static final int OP_PROFILE_OVERLAY_ROWS = 5;
+
   private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
 
   private static final boolean SAVE_PREVIEW_BITMAP = false;
@@ -140,25 +208,58 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
   private Integer sensorOrientation;
 
   private Classifier detector;
+  // Wraps detector for full-frame passes, or null.
+  private CascadeDetector cascade;
+  // The detector again if its input size can change, with what picks the size, or null.
+  private TensorFlowObjectDetectionAPIModel resizableDetector;
+  private ResolutionController resolutionController;
+
+  private volatile OpProfile opProfile;
+  private OpProfile savedOpProfile;
 
   private long lastProcessingTimeMs;
   private Bitmap rgbFrameBitmap = null;
   private Bitmap croppedBitmap = null;
-  private Bitmap cropCopyBitmap = null;
+  // Holds crops of every input size in use, and the copies made for the overlay.
+  private final BitmapPool bitmapPool = new BitmapPool(4);
+  // The last full-frame detector input with its detections outlined, for the debug overlay.
+  private final PublishedBitmap cropCopyBitmap = new PublishedBitmap(bitmapPool);
 
   private boolean computingDetection = false;
+  // Set while the session tuner has the CPU to itself.
+  private volatile boolean tuningSession = false;
 
   private long timestamp = 0;
 
   private Matrix frameToCropTransform;
   private Matrix cropToFrameTransform;
 
+  // The coarsest pyramid level a full-frame crop can be scaled from without upsampling, and, if
+  // that is not the full frame, the bitmap holding it and its transform to the crop.
+  private int cropLevel;
+  private Bitmap levelFrameBitmap;
+  private final Matrix levelToCropTransform = new Matrix();
+
   private MultiBoxTracker tracker;
 
   private byte[] luminanceCopy;
 
+  private final SceneChangeDetector sceneChangeDetector = new SceneChangeDetector();
+
+  private final FrameQualityGate qualityGate =
+      new FrameQualityGate(MIN_SHARPNESS, MAX_CLIPPED_FRACTION, QUALITY_MAX_CONSECUTIVE_REJECTS);
+  private int framesSinceFullDetection = 0;
+
+  private final DetectionCache detectionCache =
+      new DetectionCache(RESULT_CACHE_SIZE, RESULT_CACHE_TOLERANCE, RESULT_CACHE_MAX_AGE);
+
   private BorderedText borderedText;
 
+  // One timer per thread that touches the pipeline: camera, inference and UI.
+  private final SplitTimer frameTimer = new SplitTimer();
+  private final SplitTimer inferenceTimer = new SplitTimer();
+  private final SplitTimer drawTimer = new SplitTimer();
+
   public String groundTruthClass;
 
   // All counts below have inclusive upper bounds only
@@ -370,9 +471,33 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
       cropSize = MB_INPUT_SIZE;
     } else {
       try {
+        final SessionOptions tunedOptions = SessionTuner.load(this, TF_OD_API_MODEL_FILE);
+        final SessionOptions sessionOptions =
+            tunedOptions != null ? tunedOptions : SessionOptions.DEFAULT;
         detector = TensorFlowObjectDetectionAPIModel.create(
-            getAssets(), TF_OD_API_MODEL_FILE, TF_OD_API_LABELS_FILE, TF_OD_API_INPUT_SIZE);
+            getAssets(), TF_OD_API_MODEL_FILE, TF_OD_API_LABELS_FILE, TF_OD_API_INPUT_SIZE,
+            sessionOptions);
         cropSize = TF_OD_API_INPUT_SIZE;
+        if (TUNE_SESSION && tunedOptions == null) {
+          tuneSession();
+        }
+        if (CASCADE) {
+          // The gate is the detector's own model and session, resized for each gate run.
+          cascade =
+              new CascadeDetector(
+                  (TensorFlowObjectDetectionAPIModel) detector, CASCADE_GATE_INPUT_SIZE,
+                  CASCADE_GATE_THRESHOLD, MINIMUM_CONFIDENCE_TF_OD_API, CASCADE_SAFETY_INTERVAL);
+          // Replayed captures measure what the gate costs rather than saving time.
+          cascade.setAudit(isReplaying());
+        }
+        if (DYNAMIC_INPUT_SIZE) {
+          resizableDetector = (TensorFlowObjectDetectionAPIModel) detector;
+          resolutionController =
+              new ResolutionController(
+                  TF_OD_API_INPUT_SIZES,
+                  Arrays.binarySearch(TF_OD_API_INPUT_SIZES, TF_OD_API_INPUT_SIZE),
+                  DETECTION_TARGET_MS);
+        }
       } catch (final IOException e) {
         LOGGER.e("Exception initializing classifier!", e);
         Toast toast =
@@ -391,16 +516,7 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
     rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-    croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
-
-    frameToCropTransform =
-        ImageUtils.getTransformationMatrix(
-            previewWidth, previewHeight,
-            cropSize, cropSize,
-            sensorOrientation, MAINTAIN_ASPECT);
-
-    cropToFrameTransform = new Matrix();
-    frameToCropTransform.invert(cropToFrameTransform);
+    setCropSize(cropSize);
 
     trackingOverlay = (OverlayView) findViewById(R.id.tracking_overlay);
     final Lock lock = new ReentrantLock();
@@ -409,7 +525,9 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
           @Override
           public void drawCallback(final Canvas canvas) {
             boolean triggerCount;
+            drawTimer.newSplit();
             ArrayList<Triplet> conTrips = tracker.draw(canvas, groundTruthClass); // look into draw callback api
+            drawTimer.endSplit(Metrics.Stage.DRAW);
 
             // Comparing detection set against last set of detections to determine whether to count new set or not
             // Detections that are repeated from the last set will not be double counted
@@ -486,8 +604,7 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
             if (!isDebug()) {
               return;
             }
-            final Bitmap copy = cropCopyBitmap;
-            if (copy == null) {
+            if (cropCopyBitmap.isEmpty()) {
               return;
             }
             // Color 'tint' for volume down stats overlay
@@ -526,6 +643,37 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
             lines.add("80 to 90: " + String.valueOf(interval8) + " " + String.valueOf(cinterval8) + " " + Float.toString(per8));
             lines.add("90 to 100: " + String.valueOf(interval9) + " " + String.valueOf(cinterval9) + " " + Float.toString(per9));
 
+            lines.add("");
+            Metrics.addSummaryLines(lines);
+            Logger.addSummaryLines(lines);
+            FrameTracer.addSummaryLines(lines);
+            getFrameRateGovernor().addSummaryLines(lines);
+            if (QUALITY_GATE) {
+              qualityGate.addSummaryLines(lines);
+            }
+            if (cascade != null) {
+              cascade.addSummaryLines(lines);
+            }
+            if (resolutionController != null) {
+              lines.add(
+                  String.format(
+                      "input %d avg %.0f ms",
+                      resolutionController.getSize(), resolutionController.getAverageMs()));
+            }
+            lines.add(
+                String.format(
+                    "objects %d reacquired %d",
+                    tracker.getUniqueObjectCount(), tracker.getReacquiredCount()));
+            if (RESULT_CACHE) {
+              lines.add(
+                  String.format(
+                      "cache hit %.0f%% skipped %d",
+                      detectionCache.getHitRate() * 100, detectionCache.getHitCount()));
+            }
+            final OpProfile profile = opProfile;
+            if (profile != null) {
+              profile.addSummaryLines(lines, OP_PROFILE_OVERLAY_ROWS);
+            }
 
             borderedText.drawLines(canvas, 10, canvas.getHeight() - 10, lines);
 
@@ -533,6 +681,66 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         });
   }
 
+  /**
+   * Finds the fastest session threading for the TF_OD_API model on a thread of its own, for the
+   * next launch to use. Frames are dropped on arrival until it is done, so that conversion,
+   * tracking and detection neither queue behind the tuner nor skew its timings.
+   */
+  private void tuneSession() {
+    final Context context = getApplicationContext();
+    tuningSession = true;
+    new Thread(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              SessionTuner.tune(
+                  context,
+                  TF_OD_API_MODEL_FILE,
+                  TF_OD_API_INPUT_SIZE,
+                  new SessionTuner.Factory() {
+                    @Override
+                    public Classifier create(final SessionOptions options) throws IOException {
+                      return TensorFlowObjectDetectionAPIModel.create(
+                          context.getAssets(), TF_OD_API_MODEL_FILE, TF_OD_API_LABELS_FILE,
+                          TF_OD_API_INPUT_SIZE, options);
+                    }
+                  });
+            } catch (final IOException e) {
+              LOGGER.e(e, "Session tuning failed");
+            } finally {
+              tuningSession = false;
+            }
+          }
+        },
+        "session-tuner").start();
+  }
+
+  private void setCropSize(final int cropSize) {
+    bitmapPool.release(croppedBitmap);
+    croppedBitmap = bitmapPool.acquire(cropSize, cropSize, Config.ARGB_8888);
+
+    frameToCropTransform =
+        ImageUtils.getTransformationMatrix(
+            previewWidth, previewHeight,
+            cropSize, cropSize,
+            sensorOrientation, MAINTAIN_ASPECT);
+
+    cropToFrameTransform = new Matrix();
+    frameToCropTransform.invert(cropToFrameTransform);
+
+    cropLevel = ImagePyramid.getCoarsestLevel(previewWidth, previewHeight, cropSize, cropSize);
+    bitmapPool.release(levelFrameBitmap);
+    levelFrameBitmap = null;
+    if (cropLevel > 0) {
+      levelFrameBitmap =
+          bitmapPool.acquire(
+              previewWidth >> cropLevel, previewHeight >> cropLevel, Config.ARGB_8888);
+      levelToCropTransform.set(frameToCropTransform);
+      levelToCropTransform.preScale(1 << cropLevel, 1 << cropLevel);
+    }
+  }
+
   // Deep comparison of conPairs and lastSet contents to check for repeated detections
   private Boolean compare(ArrayList<Triplet> conTrips, ArrayList<Triplet> lastSet) {
 
@@ -568,67 +776,170 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
   protected void processImage() {
     ++timestamp;
     final long currTimestamp = timestamp;
-    byte[] originalLuminance = getLuminance();
-    tracker.onFrame(
-        previewWidth,
-        previewHeight,
-        getLuminanceStride(),
-        sensorOrientation,
-        originalLuminance,
-        timestamp);
+    final FrameContext frame = getFrameContext();
+    if (tuningSession) {
+      frame.markDropped(FrameTracer.Drop.PAUSED);
+      readyForNextImage();
+      return;
+    }
+    final ImagePyramid pyramid = getImagePyramid();
+    frameTimer.newSplit();
+    tracker.onFrame(pyramid, sensorOrientation, timestamp, frame);
+    frameTimer.endSplit(Metrics.Stage.TRACK);
     trackingOverlay.postInvalidate();
 
     // No mutex needed as this method is not reentrant.
     if (computingDetection) {
+      frame.markDropped(FrameTracer.Drop.DETECTOR_BUSY);
+      readyForNextImage();
+      return;
+    }
+
+    if (QUALITY_GATE
+        && !qualityGate
+            .evaluate(
+                pyramid.getLuminance(1),
+                pyramid.getWidth(1),
+                pyramid.getHeight(1),
+                pyramid.getLuminanceStride(1))
+            .isAccepted()) {
+      // The tracker has already moved its boxes along; leave them to it until a better frame.
+      frame.markDropped(FrameTracer.Drop.LOW_QUALITY);
       readyForNextImage();
       return;
     }
-    computingDetection = true;
-    LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
 
-    rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+    if (resolutionController != null
+        && resolutionController.getSize() != croppedBitmap.getWidth()) {
+      // The inference thread is idle, so the buffers it uses can be swapped out.
+      final int cropSize = resolutionController.getSize();
+      LOGGER.i("Changing detector input size to %d", cropSize);
+      setCropSize(cropSize);
+      resizableDetector.setInputSize(cropSize);
+    }
 
+    // Null for a full-frame pass.
+    final List<RectF> regions = selectDetectionRegions(pyramid);
+    if (regions != null && regions.isEmpty()) {
+      // Every track is holding up and nothing new has appeared.
+      readyForNextImage();
+      return;
+    }
+
+    final boolean useCache = RESULT_CACHE && regions == null;
+    final long signature =
+        useCache
+            // The tracker has already built the half-size level, and its pixels are averages.
+            ? DetectionCache.computeSignature(
+                pyramid.getLuminance(1),
+                pyramid.getWidth(1),
+                pyramid.getHeight(1),
+                pyramid.getLuminanceStride(1))
+            : 0;
+    if (useCache) {
+      final DetectionCache.Entry cached = detectionCache.lookup(signature, currTimestamp);
+      if (cached != null) {
+        trackCachedResults(cached, getLuminance(), currTimestamp, frame);
+        readyForNextImage();
+        return;
+      }
+    }
+
+    computingDetection = true;
+    LOGGER.i("Preparing image %d for detection in bg thread.", currTimestamp);
+
+    // Regions are scaled up from the full frame; a full-frame crop only needs its level.
+    final int level = regions != null ? 0 : cropLevel;
+    final Bitmap levelBitmap = level == 0 ? rgbFrameBitmap : levelFrameBitmap;
+    frameTimer.newSplit();
+    levelBitmap.setPixels(
+        pyramid.getRgb(level), 0, pyramid.getWidth(level),
+        0, 0, pyramid.getWidth(level), pyramid.getHeight(level));
+    frameTimer.endSplit(Metrics.Stage.CONVERT);
+    frame.markConverted();
+
+    // The full size luminance is only needed from here on, so Camera2 frames skip copying it out
+    // of the image for frames that go no further.
+    final byte[] originalLuminance = getLuminance();
     if (luminanceCopy == null) {
       luminanceCopy = new byte[originalLuminance.length];
     }
     System.arraycopy(originalLuminance, 0, luminanceCopy, 0, originalLuminance.length);
     readyForNextImage();
 
+    if (regions != null) {
+      frame.markQueued();
+      runInBackground(
+          new Runnable() {
+            @Override
+            public void run() {
+              LOGGER.i("Running detection on %d regions of image %d", regions.size(), currTimestamp);
+              frame.markInferenceStarted();
+              final long startTime = SystemClock.uptimeMillis();
+              final List<Classifier.Recognition> mappedRecognitions = detectRegions(regions);
+              lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+              frame.markInferenceFinished();
+
+              inferenceTimer.newSplit();
+              tracker.refreshResults(mappedRecognitions, luminanceCopy, currTimestamp, frame);
+              inferenceTimer.endSplit(Metrics.Stage.TRACK);
+              trackingOverlay.postInvalidate();
+
+              requestRender();
+              computingDetection = false;
+            }
+          });
+      return;
+    }
+
+    frameTimer.newSplit();
     final Canvas canvas = new Canvas(croppedBitmap);
-    canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+    canvas.drawBitmap(
+        levelBitmap, level == 0 ? frameToCropTransform : levelToCropTransform, null);
+    frameTimer.endSplit(Metrics.Stage.CROP);
     // For examining the actual TF input.
     if (SAVE_PREVIEW_BITMAP) {
       ImageUtils.saveBitmap(croppedBitmap);
     }
 
+    frame.markQueued();
     runInBackground(
         new Runnable() {
           @Override
           public void run() {
-            LOGGER.i("Running detection on image " + currTimestamp);
+            LOGGER.i("Running detection on image %d", currTimestamp);
+            frame.markInferenceStarted();
             final long startTime = SystemClock.uptimeMillis();
-            final List<Classifier.Recognition> results = detector.recognizeImage(croppedBitmap);
+            final List<Classifier.Recognition> results =
+                (cascade != null ? cascade : detector).recognizeImage(croppedBitmap);
             lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+            // Passes the cascade cut short say nothing about the detector's cost at this size.
+            if (resolutionController != null && (cascade == null || cascade.didDetectorRun())) {
+              resolutionController.addSample(lastProcessingTimeMs);
+            }
+            frame.markInferenceFinished();
+            final OpProfile profile = opProfile;
+            if (profile != null && profile.isComplete()) {
+              saveOpProfile(profile);
+            }
+
+            if (cascade != null && !cascade.didDetectorRun()) {
+              // The gate's empty list only means the detector was skipped, not that the scene is
+              // empty: leave the tracks to optical flow and cache nothing, as for a frame failing
+              // the quality gate.
+              frame.markDropped(FrameTracer.Drop.GATED);
+              computingDetection = false;
+              return;
+            }
 
-            cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-            final Canvas canvas = new Canvas(cropCopyBitmap);
+            final Bitmap cropCopy = bitmapPool.copyOf(croppedBitmap);
+            final Canvas canvas = new Canvas(cropCopy);
             final Paint paint = new Paint();
             paint.setColor(Color.RED);
             paint.setStyle(Style.STROKE);
             paint.setStrokeWidth(2.0f);
 
-            float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-            switch (MODE) {
-              case TF_OD_API:
-                minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-                break;
-              case MULTIBOX:
-                minimumConfidence = MINIMUM_CONFIDENCE_MULTIBOX;
-                break;
-              case YOLO:
-                minimumConfidence = MINIMUM_CONFIDENCE_YOLO;
-                break;
-            }
+            final float minimumConfidence = getMinimumConfidence();
 
             final List<Classifier.Recognition> mappedRecognitions =
                 new LinkedList<Classifier.Recognition>();
@@ -658,8 +969,14 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                 mappedRecognitions.add(result);
               }
             }
+            cropCopyBitmap.publish(cropCopy);
+            if (useCache) {
+              detectionCache.put(signature, currTimestamp, mappedRecognitions);
+            }
 
-            tracker.trackResults(mappedRecognitions, luminanceCopy, currTimestamp);
+            inferenceTimer.newSplit();
+            tracker.trackResults(mappedRecognitions, luminanceCopy, currTimestamp, frame);
+            inferenceTimer.endSplit(Metrics.Stage.TRACK);
             trackingOverlay.postInvalidate();
 
             requestRender();
@@ -668,6 +985,150 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         });
   }
 
+  /**
+   * Hands the results cached for an earlier frame of the same scene to the tracker in place of a
+   * detection pass, after moving them by the motion tracked since.
+   */
+  private void trackCachedResults(
+      final DetectionCache.Entry cached,
+      final byte[] luminance,
+      final long currTimestamp,
+      final FrameContext frame) {
+    final List<Classifier.Recognition> results =
+        new ArrayList<Classifier.Recognition>(cached.getResults().size());
+    for (final Classifier.Recognition result : cached.getResults()) {
+      results.add(
+          new Classifier.Recognition(
+              result.getId(),
+              result.getTitle(),
+              result.getConfidence(),
+              tracker.getCurrentPosition(result.getLocation(), cached.getTimestamp())));
+    }
+
+    frameTimer.newSplit();
+    tracker.trackResults(results, luminance, currTimestamp, frame);
+    frameTimer.endSplit(Metrics.Stage.TRACK);
+    trackingOverlay.postInvalidate();
+  }
+
+  private static float getMinimumConfidence() {
+    switch (MODE) {
+      case MULTIBOX:
+        return MINIMUM_CONFIDENCE_MULTIBOX;
+      case YOLO:
+        return MINIMUM_CONFIDENCE_YOLO;
+      default:
+        return MINIMUM_CONFIDENCE_TF_OD_API;
+    }
+  }
+
+  /**
+   * Decides what the next detection pass looks at: null for the whole frame, otherwise the
+   * frame-space regions around decaying tracks, which is empty if no track needs refreshing.
+   */
+  private List<RectF> selectDetectionRegions(final ImagePyramid pyramid) {
+    if (!ROI_DETECTION) {
+      return null;
+    }
+
+    // Cell means are as good from the half-size level, which the tracker has already built.
+    final List<RectF> tracked = tracker.getTrackedRegions();
+    final int sceneChange =
+        sceneChangeDetector.update(
+            pyramid.getLuminance(1),
+            pyramid.getWidth(1),
+            pyramid.getHeight(1),
+            pyramid.getLuminanceStride(1),
+            tracked,
+            2.0f);
+
+    ++framesSinceFullDetection;
+    List<RectF> regions = null;
+    if (tracked != null
+        && !tracked.isEmpty()
+        && framesSinceFullDetection < FULL_DETECTION_INTERVAL
+        && sceneChange <= SCENE_CHANGE_THRESHOLD) {
+      regions = mergeRegions(tracker.getRegionsToRefresh());
+      if (regions.size() > MAX_DETECTION_REGIONS) {
+        regions = null;
+      }
+    }
+    if (regions == null) {
+      framesSinceFullDetection = 0;
+    }
+    return regions;
+  }
+
+  /**
+   * Grows each track's box into a square with some context around it, at least
+   * MIN_REGION_FRACTION of the frame, and merges squares that overlap.
+   */
+  private List<RectF> mergeRegions(final List<RectF> boxes) {
+    final List<RectF> regions = new ArrayList<RectF>(boxes.size());
+    for (final RectF box : boxes) {
+      final RectF region = toSquareRegion(box);
+      boolean merged = false;
+      for (int i = 0; i < regions.size(); ++i) {
+        final RectF other = regions.get(i);
+        if (RectF.intersects(region, other)) {
+          other.union(region);
+          regions.set(i, toSquareRegion(other));
+          merged = true;
+          break;
+        }
+      }
+      if (!merged) {
+        regions.add(region);
+      }
+    }
+    return regions;
+  }
+
+  private RectF toSquareRegion(final RectF box) {
+    final float frameSide = Math.min(previewWidth, previewHeight);
+    float side = Math.max(box.width(), box.height()) * (1 + 2 * REGION_MARGIN);
+    side = Math.max(side, frameSide * MIN_REGION_FRACTION);
+    side = Math.min(side, frameSide);
+
+    final float left = Math.max(0, Math.min(box.centerX() - side / 2, previewWidth - side));
+    final float top = Math.max(0, Math.min(box.centerY() - side / 2, previewHeight - side));
+    return new RectF(left, top, left + side, top + side);
+  }
+
+  /**
+   * Runs the detector on each region of rgbFrameBitmap in turn, scaled up to the detector's input
+   * size, and returns the confident results in frame coordinates.
+   */
+  private List<Classifier.Recognition> detectRegions(final List<RectF> regions) {
+    final float minimumConfidence = getMinimumConfidence();
+    final List<Classifier.Recognition> mappedRecognitions =
+        new LinkedList<Classifier.Recognition>();
+    final Canvas canvas = new Canvas(croppedBitmap);
+    final Matrix regionToFrame = new Matrix();
+    for (final RectF region : regions) {
+      inferenceTimer.newSplit();
+      final Matrix frameToRegion =
+          ImageUtils.getTransformationMatrix(
+              (int) region.width(), (int) region.height(),
+              croppedBitmap.getWidth(), croppedBitmap.getHeight(),
+              sensorOrientation, MAINTAIN_ASPECT);
+      frameToRegion.preTranslate(-region.left, -region.top);
+      frameToRegion.invert(regionToFrame);
+      canvas.drawBitmap(rgbFrameBitmap, frameToRegion, null);
+      inferenceTimer.endSplit(Metrics.Stage.CROP);
+
+      for (final Classifier.Recognition result : detector.recognizeImage(croppedBitmap)) {
+        final RectF location = result.getLocation();
+        if (location != null && result.getConfidence() >= minimumConfidence) {
+          regionToFrame.mapRect(location);
+          result.setLocation(location);
+          mappedRecognitions.add(result);
+        }
+      }
+    }
+    return mappedRecognitions;
+  }
+
   @Override
   protected int getLayoutId() {
     return R.layout.camera_connection_fragment_tracking;
@@ -678,8 +1139,83 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     return DESIRED_PREVIEW_SIZE;
   }
 
+  @Override
+  protected Size getMinimumAnalysisFrameSize() {
+    // ROI passes crop small regions out of the frame and scale them up to the full input size, so
+    // they need every pixel of the preview-size frame; a model-sized stream would leave them a few
+    // dozen pixels to upsample.
+    if (ROI_DETECTION) {
+      return null;
+    }
+    // Otherwise enough for the largest input the resolution controller can step up to.
+    final int size;
+    switch (MODE) {
+      case MULTIBOX:
+        size = MB_INPUT_SIZE;
+        break;
+      case YOLO:
+        size = YOLO_INPUT_SIZE;
+        break;
+      default:
+        size = TF_OD_API_INPUT_SIZES[TF_OD_API_INPUT_SIZES.length - 1];
+    }
+    return new Size(size, size);
+  }
+
   @Override
   public void onSetDebug(final boolean debug) {
     detector.enableStatLogging(debug);
+    if (debug) {
+      opProfile = new OpProfile(OP_PROFILE_RUNS);
+      setOpProfile(opProfile);
+    } else {
+      setOpProfile(null);
+      final OpProfile profile = opProfile;
+      opProfile = null;
+      if (profile != null) {
+        // Off the UI thread, like the other dumps.
+        runInBackground(
+            new Runnable() {
+              @Override
+              public void run() {
+                saveOpProfile(profile);
+              }
+            });
+      }
+    }
+  }
+
+  private void setOpProfile(final OpProfile profile) {
+    if (detector instanceof Profilable) {
+      ((Profilable) detector).setOpProfile(profile);
+    }
+  }
+
+  /** Writes the profile out once, whichever of completion and leaving debug mode comes first. */
+  private void saveOpProfile(final OpProfile profile) {
+    synchronized (this) {
+      if (profile == savedOpProfile || profile.getRunCount() == 0) {
+        return;
+      }
+      savedOpProfile = profile;
+    }
+    profile.dumpToExternalStorage("op_profile.csv");
+    final List<String> lines = new ArrayList<String>();
+    profile.addSummaryLines(lines, OP_PROFILE_OVERLAY_ROWS);
+    for (final String line : lines) {
+      LOGGER.i("%s", line);
+    }
+  }
+
+  @Override
+  public void onReplayFinished(final FrameReplayer replayer) {
+    super.onReplayFinished(replayer);
+    if (cascade != null) {
+      final List<String> lines = new ArrayList<String>();
+      cascade.addSummaryLines(lines);
+      for (final String line : lines) {
+        LOGGER.i("%s", line);
+      }
+    }
   }
 }
@@ -0,0 +1,236 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.content.res.AssetManager;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.tensorflow.Graph;
+import org.tensorflow.Operation;
+import org.tensorflow.Session;
+import org.tensorflow.Tensor;
+import org.tensorflow.contrib.android.RunStats;
+import org.tensorflow.demo.env.Logger;
+import org.tensorflow.types.UInt8;
+
+/**
+ * The feed/run/fetch subset of TensorFlowInferenceInterface that the models here use, on a session
+ * created with {@link SessionOptions}. TensorFlowInferenceInterface always creates its session
+ * with the default options, so it cannot be configured. Not thread-safe.
+ */
+final class InferenceSession {
+  private static final Logger LOGGER = new Logger();
+
+  private static final String ASSET_FILE_PREFIX = "file:///android_asset/";
+
+  static {
+    try {
+      System.loadLibrary("tensorflow_inference");
+    } catch (final UnsatisfiedLinkError e) {
+      // Already loaded, or linked into another library.
+      LOGGER.w("Failed to load tensorflow_inference: %s", e.getMessage());
+    }
+  }
+
+  private final Graph graph;
+  private final Session session;
+  private Session.Runner runner;
+
+  private final List<Tensor<?>> feedTensors = new ArrayList<Tensor<?>>();
+  private final List<String> fetchNames = new ArrayList<String>();
+  private List<Tensor<?>> fetchTensors = Collections.emptyList();
+
+  private RunStats runStats;
+  private volatile OpProfile opProfile;
+
+  /**
+   * @param model An asset, as file:///android_asset/name or a bare asset name, or a file path.
+   */
+  InferenceSession(
+      final AssetManager assetManager, final String model, final SessionOptions options) {
+    final byte[] graphDef;
+    try {
+      graphDef = readModel(assetManager, model);
+    } catch (final IOException e) {
+      throw new RuntimeException("Failed to load model from '" + model + "'", e);
+    }
+
+    graph = new Graph();
+    graph.importGraphDef(graphDef);
+    session = new Session(graph, options.toConfigProto());
+    runner = session.runner();
+    LOGGER.i("Loaded %s with %s", model, options);
+  }
+
+  private static byte[] readModel(final AssetManager assetManager, final String model)
+      throws IOException {
+    final boolean hasAssetPrefix = model.startsWith(ASSET_FILE_PREFIX);
+    InputStream input;
+    try {
+      input =
+          assetManager.open(hasAssetPrefix ? model.substring(ASSET_FILE_PREFIX.length()) : model);
+    } catch (final IOException e) {
+      if (hasAssetPrefix) {
+        throw e;
+      }
+      input = new FileInputStream(model);
+    }
+
+    try {
+      final ByteArrayOutputStream output =
+          new ByteArrayOutputStream(Math.max(input.available(), 0));
+      final byte[] buffer = new byte[16384];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        output.write(buffer, 0, read);
+      }
+      return output.toByteArray();
+    } finally {
+      input.close();
+    }
+  }
+
+  Graph graph() {
+    return graph;
+  }
+
+  Operation graphOperation(final String operationName) {
+    final Operation operation = graph.operation(operationName);
+    if (operation == null) {
+      throw new RuntimeException("Node '" + operationName + "' does not exist in model");
+    }
+    return operation;
+  }
+
+  void feed(final String inputName, final float[] src, final long... dims) {
+    addFeed(inputName, Tensor.create(dims, FloatBuffer.wrap(src)));
+  }
+
+  void feed(final String inputName, final int[] src, final long... dims) {
+    addFeed(inputName, Tensor.create(dims, IntBuffer.wrap(src)));
+  }
+
+  /** Feeds the bytes as a uint8 tensor. src may be longer than dims need; the rest is ignored. */
+  void feed(final String inputName, final byte[] src, final long... dims) {
+    long length = 1;
+    for (final long dim : dims) {
+      length *= dim;
+    }
+    addFeed(inputName, Tensor.create(UInt8.class, dims, ByteBuffer.wrap(src, 0, (int) length)));
+  }
+
+  private void addFeed(final String inputName, final Tensor<?> tensor) {
+    runner.feed(inputName, tensor);
+    feedTensors.add(tensor);
+  }
+
+  /** Runs the graph up to the given outputs, collecting per-op statistics if asked to. */
+  void run(final String[] outputNames, final boolean enableStats) {
+    closeFetches();
+    for (final String outputName : outputNames) {
+      fetchNames.add(outputName);
+      runner.fetch(outputName);
+    }
+
+    // Set from the UI thread.
+    final OpProfile profile = opProfile;
+    final boolean profiling = profile != null && !profile.isComplete();
+    try {
+      if (enableStats || profiling) {
+        final Session.Run run = runner.setOptions(RunStats.runOptions()).runAndFetchMetadata();
+        fetchTensors = run.outputs;
+        if (enableStats) {
+          if (runStats == null) {
+            runStats = new RunStats();
+          }
+          runStats.add(run.metadata);
+        }
+        if (profiling) {
+          profile.add(run.metadata, graph);
+        }
+      } else {
+        fetchTensors = runner.run();
+      }
+    } finally {
+      closeFeeds();
+      runner = session.runner();
+    }
+  }
+
+  void fetch(final String outputName, final float[] dst) {
+    getTensor(outputName).writeTo(FloatBuffer.wrap(dst));
+  }
+
+  void fetch(final String outputName, final int[] dst) {
+    getTensor(outputName).writeTo(IntBuffer.wrap(dst));
+  }
+
+  private Tensor<?> getTensor(final String outputName) {
+    final int index = fetchNames.indexOf(outputName);
+    if (index < 0) {
+      throw new RuntimeException(
+          "Node '" + outputName + "' was not provided to run(), so it cannot be read");
+    }
+    return fetchTensors.get(index);
+  }
+
+  /**
+   * Collects per-op timings of the following runs into the profile, until it is complete, whether
+   * or not stats are enabled for them. Pass null to stop.
+   */
+  void setOpProfile(final OpProfile opProfile) {
+    this.opProfile = opProfile;
+  }
+
+  /** Returns a summary of the statistics collected by runs with stats enabled, if any. */
+  String getStatString() {
+    return runStats == null ? "" : runStats.summary();
+  }
+
+  void close() {
+    closeFeeds();
+    closeFetches();
+    session.close();
+    graph.close();
+    if (runStats != null) {
+      runStats.close();
+      runStats = null;
+    }
+  }
+
+  private void closeFeeds() {
+    for (final Tensor<?> tensor : feedTensors) {
+      tensor.close();
+    }
+    feedTensors.clear();
+  }
+
+  private void closeFetches() {
+    for (final Tensor<?> tensor : fetchTensors) {
+      tensor.close();
+    }
+    fetchTensors = Collections.emptyList();
+    fetchNames.clear();
+  }
+}
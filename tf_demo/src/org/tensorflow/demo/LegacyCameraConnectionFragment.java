@@ -32,6 +32,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import java.io.IOException;
 import java.util.List;
+import org.tensorflow.demo.env.FrameRateGovernor;
 import org.tensorflow.demo.env.ImageUtils;
 import org.tensorflow.demo.env.Logger;
 import org.tensorflow.demo.R; // Explicit import needed for internal Google builds.
@@ -39,8 +40,20 @@ import org.tensorflow.demo.R; // Explicit import needed for internal Google buil
 public class LegacyCameraConnectionFragment extends Fragment {
   private Camera camera;
   private static final Logger LOGGER = new Logger();
+
+  /**
+   * The default number of preview buffers: one being processed, one being filled by the camera and
+   * one spare, so the camera keeps delivering while a frame is in flight.
+   */
+  private static final int DEFAULT_NUM_BUFFERS = 3;
+
   private Camera.PreviewCallback imageListener;
   private Size desiredSize;
+  private final int numBuffers;
+  private FrameRateGovernor frameRateGovernor;
+  // The camera's supported preview ranges as it reports them, in frames per 1000 seconds, in the
+  // same order as the whole-fps copies handed to the governor.
+  private int[][] supportedFpsRanges;
 
   /**
    * The layout identifier to inflate for this Fragment.
@@ -49,11 +62,67 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
   public LegacyCameraConnectionFragment(
       final Camera.PreviewCallback imageListener, final int layout, final Size desiredSize) {
+    this(imageListener, layout, desiredSize, DEFAULT_NUM_BUFFERS);
+  }
+
+  /**
+   * @param numBuffers The number of preview buffers to give the camera. The listener must hand
+   *     every buffer it receives back with {@link Camera#addCallbackBuffer}, whether it processes
+   *     the frame or drops it, or the camera runs dry and stops delivering.
+   */
+  public LegacyCameraConnectionFragment(
+      final Camera.PreviewCallback imageListener,
+      final int layout,
+      final Size desiredSize,
+      final int numBuffers) {
     this.imageListener = imageListener;
     this.layout = layout;
     this.desiredSize = desiredSize;
+    this.numBuffers = numBuffers;
+  }
+
+  /** Lowers the preview frame rate to what the frame processing keeps up with. */
+  public void setFrameRateGovernor(final FrameRateGovernor frameRateGovernor) {
+    this.frameRateGovernor = frameRateGovernor;
   }
 
+  /**
+   * Applies a preview frame rate range. The camera was opened on the UI thread, so this runs there
+   * along with the preview callbacks.
+   */
+  private final FrameRateGovernor.FpsRangeSetter fpsRangeSetter =
+      new FrameRateGovernor.FpsRangeSetter() {
+        @Override
+        public void setFpsRange(final int minFps, final int maxFps) {
+          if (camera == null || supportedFpsRanges == null) {
+            return;
+          }
+          // The legacy API counts frames per 1000 seconds, and only takes ranges it reported, which
+          // need not be whole frames per second: apply the one the governor's choice came from.
+          int[] supported = null;
+          for (final int[] range : supportedFpsRanges) {
+            if (range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] / 1000 == minFps
+                && range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / 1000 == maxFps) {
+              supported = range;
+              break;
+            }
+          }
+          if (supported == null) {
+            LOGGER.e("Preview frame rate range %d-%d is not supported", minFps, maxFps);
+            return;
+          }
+          try {
+            final Camera.Parameters parameters = camera.getParameters();
+            parameters.setPreviewFpsRange(
+                supported[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                supported[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+            camera.setParameters(parameters);
+          } catch (final RuntimeException e) {
+            LOGGER.e(e, "Could not set preview frame rate range %d-%d", minFps, maxFps);
+          }
+        }
+      };
+
   /**
    * Conversion from screen rotation to JPEG orientation.
    */
@@ -102,11 +171,33 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
           camera.setPreviewCallbackWithBuffer(imageListener);
           Camera.Size s = camera.getParameters().getPreviewSize();
-          camera.addCallbackBuffer(new byte[ImageUtils.getYUVByteSize(s.height, s.width)]);
+          final int bufferSize = ImageUtils.getYUVByteSize(s.width, s.height);
+          for (int j = 0; j < numBuffers; ++j) {
+            camera.addCallbackBuffer(new byte[bufferSize]);
+          }
+          LOGGER.i("Added %d preview buffers of %d bytes", numBuffers, bufferSize);
 
           textureView.setAspectRatio(s.height, s.width);
 
           camera.startPreview();
+
+          if (frameRateGovernor != null) {
+            final List<int[]> supportedRanges =
+                camera.getParameters().getSupportedPreviewFpsRange();
+            if (supportedRanges != null && !supportedRanges.isEmpty()) {
+              supportedFpsRanges = supportedRanges.toArray(new int[supportedRanges.size()][]);
+              final int[][] ranges = new int[supportedFpsRanges.length][];
+              for (int j = 0; j < ranges.length; ++j) {
+                final int[] range = supportedFpsRanges[j];
+                ranges[j] =
+                    new int[] {
+                      range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] / 1000,
+                      range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / 1000
+                    };
+              }
+              frameRateGovernor.setCamera(ranges, fpsRangeSetter);
+            }
+          }
         }
 
         @Override
@@ -193,6 +284,10 @@ public class LegacyCameraConnectionFragment extends Fragment {
   }
 
   protected void stopCamera() {
+    if (frameRateGovernor != null) {
+      frameRateGovernor.setCamera(null, null);
+    }
+    supportedFpsRanges = null;
     if (camera != null) {
       camera.stopPreview();
       camera.setPreviewCallback(null);
@@ -0,0 +1,123 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.graphics.RectF;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.tensorflow.demo.Classifier.Recognition;
+import org.tensorflow.demo.env.Logger;
+
+/**
+ * Decodes MultiBox location and score encodings against the model's box priors.
+ *
+ * Kept apart from {@link TensorFlowMultiBoxDetector} so that it only depends on plain arrays,
+ * which lets the benchmark module exercise it on a desktop JVM. Not thread-safe.
+ */
+final class MultiBoxDecoder {
+  private static final Logger LOGGER = new Logger();
+
+  private static final Comparator<Recognition> BY_CONFIDENCE =
+      new Comparator<Recognition>() {
+        @Override
+        public int compare(final Recognition lhs, final Recognition rhs) {
+          // Intentionally reversed to put high confidence at the head of the queue.
+          return Float.compare(rhs.getConfidence(), lhs.getConfidence());
+        }
+      };
+
+  private final float[] boxPriors;
+  private final int numLocations;
+  private final int inputSize;
+  private final int maxResults;
+
+  // Decoded outputs, reused across frames.
+  private final float[] locations;
+  private final float[] scores;
+
+  /**
+   * @param boxPriors Mean and std for each corner of each location, 8 values per location.
+   * @param inputSize The input size the normalized locations are scaled back to.
+   * @param maxResults The maximum number of recognitions to return.
+   */
+  MultiBoxDecoder(final float[] boxPriors, final int inputSize, final int maxResults) {
+    this.boxPriors = boxPriors;
+    this.numLocations = boxPriors.length / 8;
+    this.inputSize = inputSize;
+    this.maxResults = maxResults;
+    this.locations = new float[numLocations * 4];
+    this.scores = new float[numLocations];
+  }
+
+  int getNumLocations() {
+    return numLocations;
+  }
+
+  private void decodeLocationsEncoding(final float[] locationEncoding) {
+    boolean nonZero = false;
+    for (int i = 0; i < numLocations; ++i) {
+      for (int j = 0; j < 4; ++j) {
+        final float currEncoding = locationEncoding[4 * i + j];
+        nonZero = nonZero || currEncoding != 0.0f;
+
+        final float mean = boxPriors[i * 8 + j * 2];
+        final float stdDev = boxPriors[i * 8 + j * 2 + 1];
+        float currentLocation = currEncoding * stdDev + mean;
+        currentLocation = Math.max(currentLocation, 0.0f);
+        currentLocation = Math.min(currentLocation, 1.0f);
+        locations[4 * i + j] = currentLocation;
+      }
+    }
+
+    if (!nonZero) {
+      LOGGER.w("No non-zero encodings; check log for inference errors.");
+    }
+  }
+
+  private void decodeScoresEncoding(final float[] scoresEncoding) {
+    for (int i = 0; i < numLocations; ++i) {
+      scores[i] = 1 / ((float) (1 + Math.exp(-scoresEncoding[i])));
+    }
+  }
+
+  /** Decodes the two output tensors of one inference. */
+  List<Recognition> decode(final float[] locationEncoding, final float[] scoresEncoding) {
+    decodeLocationsEncoding(locationEncoding);
+    decodeScoresEncoding(scoresEncoding);
+
+    // Find the best detections.
+    final PriorityQueue<Recognition> pq = new PriorityQueue<Recognition>(1, BY_CONFIDENCE);
+
+    // Scale them back to the input size.
+    for (int i = 0; i < numLocations; ++i) {
+      final RectF detection =
+          new RectF(
+              locations[4 * i] * inputSize,
+              locations[4 * i + 1] * inputSize,
+              locations[4 * i + 2] * inputSize,
+              locations[4 * i + 3] * inputSize);
+      pq.add(new Recognition("" + i, null, scores[i], detection));
+    }
+
+    final ArrayList<Recognition> recognitions = new ArrayList<Recognition>();
+    for (int i = 0; i < Math.min(pq.size(), maxResults); ++i) {
+      recognitions.add(pq.poll());
+    }
+    return recognitions;
+  }
+}
@@ -0,0 +1,488 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.tensorflow.Graph;
+import org.tensorflow.Operation;
+import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.Metrics;
+
+/**
+ * Per-op timings of a fixed number of model runs, aggregated by node and by op type.
+ *
+ * Each run's RunMetadata is decoded directly, rather than going through the formatted summary
+ * RunStats produces, and the time of every node is taken from its start to the end of its last
+ * output. The Android inference library does not ship the generated protocol buffer classes, so
+ * the few StepStats fields used here are decoded by hand.
+ *
+ * Runs are added from the inference thread while the overlay reads the tables, so all methods
+ * are synchronized.
+ */
+public class OpProfile {
+  private static final Logger LOGGER = new Logger();
+
+  // RunMetadata.step_stats, StepStats.dev_stats and DeviceStepStats.node_stats.
+  private static final int STEP_STATS = 1;
+  private static final int DEV_STATS = 1;
+  private static final int NODE_STATS = 2;
+  // NodeExecStats fields.
+  private static final int NODE_NAME = 1;
+  private static final int ALL_END_REL_MICROS = 5;
+  private static final int TIMELINE_LABEL = 8;
+
+  private static final int WIRETYPE_VARINT = 0;
+  private static final int WIRETYPE_FIXED64 = 1;
+  private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+  private static final int WIRETYPE_FIXED32 = 5;
+
+  private static final String UNKNOWN_TYPE = "unknown";
+
+  /** One row of a profile table. Times are in microseconds. */
+  public static class Entry {
+    private final String name;
+    private final String type;
+    private final int nodeCount;
+    private final double meanMicros;
+    private final long p95Micros;
+    private final float share;
+
+    Entry(
+        final String name,
+        final String type,
+        final int nodeCount,
+        final double meanMicros,
+        final long p95Micros,
+        final float share) {
+      this.name = name;
+      this.type = type;
+      this.nodeCount = nodeCount;
+      this.meanMicros = meanMicros;
+      this.p95Micros = p95Micros;
+      this.share = share;
+    }
+
+    /** Returns the node name, or the op type for rows of the op type table. */
+    public String getName() {
+      return name;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    /** Returns how many nodes the row covers, which is 1 for rows of the node table. */
+    public int getNodeCount() {
+      return nodeCount;
+    }
+
+    public double getMeanMicros() {
+      return meanMicros;
+    }
+
+    public long getP95Micros() {
+      return p95Micros;
+    }
+
+    /** Returns the fraction of the mean total op time spent in this row. */
+    public float getShare() {
+      return share;
+    }
+  }
+
+  // Per-run times of one node, or of all nodes of one op type.
+  private static class Samples {
+    final String type;
+    final long[] micros;
+    int nodeCount;
+
+    Samples(final String type, final int runs) {
+      this.type = type;
+      this.micros = new long[runs];
+    }
+  }
+
+  private final int runs;
+  private final Map<String, Samples> nodes = new LinkedHashMap<String, Samples>();
+  private final Map<String, Samples> types = new HashMap<String, Samples>();
+  private final long[] totals;
+  private int runCount;
+
+  /** @param runs The number of runs to collect before the profile is complete. */
+  public OpProfile(final int runs) {
+    this.runs = runs;
+    this.totals = new long[runs];
+  }
+
+  public synchronized int getRunCount() {
+    return runCount;
+  }
+
+  public int getRequestedRuns() {
+    return runs;
+  }
+
+  public synchronized boolean isComplete() {
+    return runCount >= runs;
+  }
+
+  /**
+   * Adds the timings of one run, looking up the op type of each node in the graph. Does nothing
+   * once the profile is complete.
+   *
+   * @param runMetadata A serialized RunMetadata from a run with full tracing enabled.
+   */
+  synchronized void add(final byte[] runMetadata, final Graph graph) {
+    if (runCount >= runs) {
+      return;
+    }
+    final Map<String, Long> nodeTimes = new HashMap<String, Long>();
+    final Map<String, String> labels = new HashMap<String, String>();
+    parseRunMetadata(runMetadata, nodeTimes, labels);
+
+    for (final Map.Entry<String, Long> nodeTime : nodeTimes.entrySet()) {
+      final String name = nodeTime.getKey();
+      final long micros = nodeTime.getValue();
+      Samples node = nodes.get(name);
+      if (node == null) {
+        node = new Samples(getType(graph, name, labels.get(name)), runs);
+        node.nodeCount = 1;
+        nodes.put(name, node);
+
+        Samples type = types.get(node.type);
+        if (type == null) {
+          type = new Samples(node.type, runs);
+          types.put(node.type, type);
+        }
+        ++type.nodeCount;
+      }
+      node.micros[runCount] += micros;
+      types.get(node.type).micros[runCount] += micros;
+      totals[runCount] += micros;
+    }
+    ++runCount;
+  }
+
+  private static String getType(final Graph graph, final String name, final String label) {
+    final Operation operation = graph != null ? graph.operation(name) : null;
+    if (operation != null) {
+      return operation.type();
+    }
+    // Nodes the runtime adds, e.g. _SOURCE, are not in the graph. Their timeline label has the
+    // form "name = Type(inputs)".
+    if (label != null) {
+      final int start = label.indexOf(" = ");
+      final int end = label.indexOf('(', start + 3);
+      if (start >= 0 && end > start + 3) {
+        return label.substring(start + 3, end);
+      }
+    }
+    return UNKNOWN_TYPE;
+  }
+
+  /** Returns the nodes, slowest first. */
+  public synchronized List<Entry> getNodeTable() {
+    return getTable(nodes);
+  }
+
+  /** Returns the op types with the time of all their nodes summed, slowest first. */
+  public synchronized List<Entry> getTypeTable() {
+    return getTable(types);
+  }
+
+  /** Returns the mean total time of all ops per run, in microseconds. */
+  public synchronized double getMeanTotalMicros() {
+    return mean(totals, runCount);
+  }
+
+  private List<Entry> getTable(final Map<String, Samples> samples) {
+    final double meanTotal = getMeanTotalMicros();
+    final List<Entry> table = new ArrayList<Entry>(samples.size());
+    for (final Map.Entry<String, Samples> entry : samples.entrySet()) {
+      final Samples sample = entry.getValue();
+      final double meanMicros = mean(sample.micros, runCount);
+      table.add(
+          new Entry(
+              entry.getKey(),
+              sample.type,
+              sample.nodeCount,
+              meanMicros,
+              p95(sample.micros, runCount),
+              meanTotal > 0 ? (float) (meanMicros / meanTotal) : 0.0f));
+    }
+    Collections.sort(
+        table,
+        new Comparator<Entry>() {
+          @Override
+          public int compare(final Entry lhs, final Entry rhs) {
+            return Double.compare(rhs.meanMicros, lhs.meanMicros);
+          }
+        });
+    return table;
+  }
+
+  private static double mean(final long[] values, final int count) {
+    if (count == 0) {
+      return 0.0;
+    }
+    long sum = 0;
+    for (int i = 0; i < count; ++i) {
+      sum += values[i];
+    }
+    return (double) sum / count;
+  }
+
+  // There are only as many samples as runs, so the percentile is taken exactly.
+  private static long p95(final long[] values, final int count) {
+    if (count == 0) {
+      return 0;
+    }
+    final long[] sorted = Arrays.copyOf(values, count);
+    Arrays.sort(sorted);
+    return sorted[(int) Math.ceil(0.95 * count) - 1];
+  }
+
+  /** Appends the progress and the slowest op types, for the overlay. */
+  public synchronized void addSummaryLines(final List<String> lines, final int maxRows) {
+    lines.add(
+        String.format(
+            "op profile %d/%d runs, %.1f ms of ops",
+            runCount, runs, getMeanTotalMicros() / 1000.0));
+    final List<Entry> table = getTypeTable();
+    for (int i = 0; i < Math.min(maxRows, table.size()); ++i) {
+      final Entry entry = table.get(i);
+      lines.add(
+          String.format(
+              "  %-16s x%-3d %6.2f p95 %6.2f ms %4.1f%%",
+              entry.getName(),
+              entry.getNodeCount(),
+              entry.getMeanMicros() / 1000.0,
+              entry.getP95Micros() / 1000.0,
+              entry.getShare() * 100.0f));
+    }
+  }
+
+  /**
+   * Writes the op type table followed by the node table as CSV, each slowest first, after a
+   * total row.
+   */
+  public synchronized void dump(final File file) throws IOException {
+    final PrintWriter writer = new PrintWriter(new FileOutputStream(file));
+    try {
+      writer.println("table,name,op_type,nodes,runs,mean_us,p95_us,share");
+      writer.printf(
+          "total,,,%d,%d,%.1f,%d,1.0000%n",
+          nodes.size(), runCount, getMeanTotalMicros(), p95(totals, runCount));
+      dumpTable(writer, "op_type", getTypeTable());
+      dumpTable(writer, "node", getNodeTable());
+    } finally {
+      writer.close();
+    }
+  }
+
+  private void dumpTable(final PrintWriter writer, final String label, final List<Entry> table) {
+    for (final Entry entry : table) {
+      writer.printf(
+          "%s,%s,%s,%d,%d,%.1f,%d,%.4f%n",
+          label,
+          entry.getName(),
+          entry.getType(),
+          entry.getNodeCount(),
+          runCount,
+          entry.getMeanMicros(),
+          entry.getP95Micros(),
+          entry.getShare());
+    }
+  }
+
+  /** Dumps the profile next to the stage statistics, logging rather than throwing on failure. */
+  public void dumpToExternalStorage(final String filename) {
+    final File dir = Metrics.getOutputDir();
+    if (dir == null) {
+      return;
+    }
+    final File file = new File(dir, filename);
+    try {
+      dump(file);
+      LOGGER.i("Wrote op profile to %s", file);
+    } catch (final IOException e) {
+      LOGGER.e(e, "Failed to write op profile to %s", file);
+    }
+  }
+
+  /**
+   * Collects the time of every node in the RunMetadata, summed over devices, and its timeline
+   * label if it has one.
+   */
+  static void parseRunMetadata(
+      final byte[] runMetadata,
+      final Map<String, Long> nodeTimes,
+      final Map<String, String> labels) {
+    final Reader metadata = new Reader(runMetadata, 0, runMetadata.length);
+    while (metadata.hasMore()) {
+      final int tag = metadata.readTag();
+      if (tag >>> 3 != STEP_STATS || (tag & 7) != WIRETYPE_LENGTH_DELIMITED) {
+        metadata.skip(tag);
+        continue;
+      }
+      final Reader stepStats = metadata.readMessage();
+      while (stepStats.hasMore()) {
+        final int stepTag = stepStats.readTag();
+        if (stepTag >>> 3 != DEV_STATS || (stepTag & 7) != WIRETYPE_LENGTH_DELIMITED) {
+          stepStats.skip(stepTag);
+          continue;
+        }
+        final Reader devStats = stepStats.readMessage();
+        while (devStats.hasMore()) {
+          final int devTag = devStats.readTag();
+          if (devTag >>> 3 != NODE_STATS || (devTag & 7) != WIRETYPE_LENGTH_DELIMITED) {
+            devStats.skip(devTag);
+            continue;
+          }
+          parseNodeExecStats(devStats.readMessage(), nodeTimes, labels);
+        }
+      }
+    }
+  }
+
+  private static void parseNodeExecStats(
+      final Reader nodeStats, final Map<String, Long> nodeTimes, final Map<String, String> labels) {
+    String name = null;
+    String label = null;
+    long micros = 0;
+    while (nodeStats.hasMore()) {
+      final int tag = nodeStats.readTag();
+      final int field = tag >>> 3;
+      if (field == NODE_NAME && (tag & 7) == WIRETYPE_LENGTH_DELIMITED) {
+        name = nodeStats.readString();
+      } else if (field == TIMELINE_LABEL && (tag & 7) == WIRETYPE_LENGTH_DELIMITED) {
+        label = nodeStats.readString();
+      } else if (field == ALL_END_REL_MICROS && (tag & 7) == WIRETYPE_VARINT) {
+        micros = nodeStats.readVarint();
+      } else {
+        nodeStats.skip(tag);
+      }
+    }
+    if (name == null) {
+      return;
+    }
+    final Long previous = nodeTimes.get(name);
+    nodeTimes.put(name, previous != null ? previous + micros : micros);
+    if (label != null) {
+      labels.put(name, label);
+    }
+  }
+
+  // Reads protocol buffer wire format from a slice of a byte array.
+  private static class Reader {
+    private final byte[] bytes;
+    private final int end;
+    private int position;
+
+    Reader(final byte[] bytes, final int start, final int end) {
+      this.bytes = bytes;
+      this.position = start;
+      this.end = end;
+    }
+
+    boolean hasMore() {
+      return position < end;
+    }
+
+    int readTag() {
+      return (int) readVarint();
+    }
+
+    long readVarint() {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        final byte b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Malformed varint");
+    }
+
+    Reader readMessage() {
+      final int length = readLength();
+      final Reader message = new Reader(bytes, position, position + length);
+      position += length;
+      return message;
+    }
+
+    String readString() {
+      final int length = readLength();
+      final String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return value;
+    }
+
+    void skip(final int tag) {
+      switch (tag & 7) {
+        case WIRETYPE_VARINT:
+          readVarint();
+          break;
+        case WIRETYPE_FIXED64:
+          advance(8);
+          break;
+        case WIRETYPE_LENGTH_DELIMITED:
+          advance(readLength());
+          break;
+        case WIRETYPE_FIXED32:
+          advance(4);
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported wire type " + (tag & 7));
+      }
+    }
+
+    private int readLength() {
+      final long length = readVarint();
+      if (length < 0 || length > end - position) {
+        throw new IllegalArgumentException("Truncated message");
+      }
+      return (int) length;
+    }
+
+    private void advance(final int count) {
+      if (count > end - position) {
+        throw new IllegalArgumentException("Truncated message");
+      }
+      position += count;
+    }
+
+    private byte readByte() {
+      if (position >= end) {
+        throw new IllegalArgumentException("Truncated message");
+      }
+      return bytes[position++];
+    }
+  }
+}
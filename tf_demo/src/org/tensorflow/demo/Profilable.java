@@ -0,0 +1,28 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+/**
+ * A model whose TensorFlow runs can be profiled op by op. Kept apart from {@link Classifier} so
+ * that the interface stays free of TensorFlow types.
+ */
+public interface Profilable {
+  /**
+   * Collects per-op timings of the following runs into the profile, until it is complete. Pass
+   * null to stop.
+   */
+  void setOpProfile(final OpProfile profile);
+}
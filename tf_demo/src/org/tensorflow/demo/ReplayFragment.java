@@ -0,0 +1,128 @@
+package org.tensorflow.demo;
+
+/*
+ * Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.app.Fragment;
+import android.os.Bundle;
+import android.util.Size;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import java.io.File;
+import java.io.IOException;
+import org.tensorflow.demo.env.FrameReader;
+import org.tensorflow.demo.env.FrameReplayer;
+import org.tensorflow.demo.env.Logger;
+
+/**
+ * Drop-in replacement for the camera fragments that plays back a capture file recorded by
+ * {@link org.tensorflow.demo.env.FrameRecorder} instead of opening a camera.
+ */
+public class ReplayFragment extends Fragment {
+  private static final Logger LOGGER = new Logger();
+
+  private final CameraConnectionFragment.ConnectionCallback cameraConnectionCallback;
+  private final FrameReplayer.Listener frameListener;
+  private final File captureFile;
+  private final boolean realTime;
+
+  /**
+   * The layout identifier to inflate for this Fragment.
+   */
+  private final int layout;
+
+  private FrameReader reader;
+  private FrameReplayer replayer;
+  private Thread replayThread;
+
+  public ReplayFragment(
+      final CameraConnectionFragment.ConnectionCallback connectionCallback,
+      final FrameReplayer.Listener frameListener,
+      final int layout,
+      final File captureFile,
+      final boolean realTime) {
+    this.cameraConnectionCallback = connectionCallback;
+    this.frameListener = frameListener;
+    this.layout = layout;
+    this.captureFile = captureFile;
+    this.realTime = realTime;
+  }
+
+  @Override
+  public View onCreateView(
+      final LayoutInflater inflater, final ViewGroup container, final Bundle savedInstanceState) {
+    return inflater.inflate(layout, container, false);
+  }
+
+  @Override
+  public void onResume() {
+    super.onResume();
+    try {
+      reader = new FrameReader(captureFile);
+
+      // Peek at the first frame so the activity can size its buffers before any frame arrives,
+      // just as it would after the camera reported its preview size.
+      final FrameReader.Frame first = new FrameReader.Frame();
+      if (!reader.next(first)) {
+        LOGGER.w("%s contains no frames", captureFile);
+        closeReader();
+        return;
+      }
+      reader.rewind();
+      cameraConnectionCallback.onPreviewSizeChosen(
+          new Size(first.width, first.height), first.rotation);
+    } catch (final IOException e) {
+      LOGGER.e(e, "Could not open capture %s", captureFile);
+      closeReader();
+      return;
+    }
+
+    LOGGER.i("Replaying %s (%s)", captureFile, realTime ? "recorded speed" : "maximum speed");
+    replayer = new FrameReplayer(reader, frameListener, realTime, false);
+    replayThread = new Thread(replayer, "replay");
+    replayThread.start();
+  }
+
+  @Override
+  public void onPause() {
+    if (replayer != null) {
+      replayer.stop();
+      replayThread.interrupt();
+      try {
+        replayThread.join();
+      } catch (final InterruptedException e) {
+        LOGGER.e(e, "Exception!");
+      }
+      replayer = null;
+      replayThread = null;
+    }
+    closeReader();
+    super.onPause();
+  }
+
+  private void closeReader() {
+    if (reader == null) {
+      return;
+    }
+    try {
+      reader.close();
+    } catch (final IOException e) {
+      LOGGER.e(e, "Exception!");
+    }
+    reader = null;
+  }
+}
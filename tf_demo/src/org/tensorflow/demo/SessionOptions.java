@@ -0,0 +1,127 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Threading and graph optimization settings for a TensorFlow session.
+ *
+ * The Android inference library does not ship the generated protocol buffer classes, so the few
+ * ConfigProto fields used here are encoded by hand.
+ */
+public class SessionOptions {
+  /** Leaves every setting to the runtime. */
+  public static final SessionOptions DEFAULT = new SessionOptions(0, 0, true);
+
+  // ConfigProto field numbers.
+  private static final int INTRA_OP_PARALLELISM_THREADS = 2;
+  private static final int INTER_OP_PARALLELISM_THREADS = 5;
+  private static final int GRAPH_OPTIONS = 10;
+  // GraphOptions.optimizer_options, and OptimizerOptions.opt_level.
+  private static final int OPTIMIZER_OPTIONS = 3;
+  private static final int OPT_LEVEL = 3;
+  // OptimizerOptions.Level.L0, which turns off common subexpression elimination and constant
+  // folding.
+  private static final int LEVEL_L0 = -1;
+
+  private static final int WIRETYPE_VARINT = 0;
+  private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+  private final int intraOpThreads;
+  private final int interOpThreads;
+  private final boolean optimizeGraph;
+
+  /**
+   * @param intraOpThreads Threads used to parallelize a single op, or 0 for the runtime default.
+   * @param interOpThreads Threads used to run independent ops at once, or 0 for the runtime
+   *     default.
+   * @param optimizeGraph Whether the runtime may fold constants and eliminate common
+   *     subexpressions before running the graph.
+   */
+  public SessionOptions(
+      final int intraOpThreads, final int interOpThreads, final boolean optimizeGraph) {
+    this.intraOpThreads = intraOpThreads;
+    this.interOpThreads = interOpThreads;
+    this.optimizeGraph = optimizeGraph;
+  }
+
+  public int getIntraOpThreads() {
+    return intraOpThreads;
+  }
+
+  public int getInterOpThreads() {
+    return interOpThreads;
+  }
+
+  public boolean getOptimizeGraph() {
+    return optimizeGraph;
+  }
+
+  /** Returns the serialized ConfigProto to create a session with. */
+  byte[] toConfigProto() {
+    final ByteArrayOutputStream config = new ByteArrayOutputStream();
+    if (intraOpThreads > 0) {
+      writeTag(config, INTRA_OP_PARALLELISM_THREADS, WIRETYPE_VARINT);
+      writeVarint(config, intraOpThreads);
+    }
+    if (interOpThreads > 0) {
+      writeTag(config, INTER_OP_PARALLELISM_THREADS, WIRETYPE_VARINT);
+      writeVarint(config, interOpThreads);
+    }
+    if (!optimizeGraph) {
+      final ByteArrayOutputStream optimizerOptions = new ByteArrayOutputStream();
+      writeTag(optimizerOptions, OPT_LEVEL, WIRETYPE_VARINT);
+      writeVarint(optimizerOptions, LEVEL_L0);
+
+      final ByteArrayOutputStream graphOptions = new ByteArrayOutputStream();
+      writeMessage(graphOptions, OPTIMIZER_OPTIONS, optimizerOptions);
+      writeMessage(config, GRAPH_OPTIONS, graphOptions);
+    }
+    return config.toByteArray();
+  }
+
+  private static void writeTag(
+      final ByteArrayOutputStream out, final int fieldNumber, final int wireType) {
+    writeVarint(out, (fieldNumber << 3) | wireType);
+  }
+
+  private static void writeMessage(
+      final ByteArrayOutputStream out, final int fieldNumber, final ByteArrayOutputStream message) {
+    writeTag(out, fieldNumber, WIRETYPE_LENGTH_DELIMITED);
+    writeVarint(out, message.size());
+    out.write(message.toByteArray(), 0, message.size());
+  }
+
+  // Negative values are sign-extended to 64 bits, as protocol buffers do for int32 and enums.
+  private static void writeVarint(final ByteArrayOutputStream out, final long value) {
+    long remaining = value;
+    while ((remaining & ~0x7FL) != 0) {
+      out.write((int) ((remaining & 0x7F) | 0x80));
+      remaining >>>= 7;
+    }
+    out.write((int) remaining);
+  }
+
+  @Override
+  public String toString() {
+    return "intra-op threads "
+        + intraOpThreads
+        + ", inter-op threads "
+        + interOpThreads
+        + (optimizeGraph ? "" : ", unoptimized");
+  }
+}
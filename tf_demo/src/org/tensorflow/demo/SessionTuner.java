@@ -0,0 +1,152 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.os.Build;
+import android.os.SystemClock;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.Metrics;
+
+/**
+ * Finds the fastest session threading for a model on this device by timing each candidate on a
+ * blank image, and remembers the result per model and OS build so later launches can use it
+ * straight away.
+ */
+public final class SessionTuner {
+  private static final Logger LOGGER = new Logger();
+
+  private static final String PREFERENCES_NAME = "session_tuning";
+
+  private static final int WARMUP_RUNS = 1;
+  private static final int TIMED_RUNS = 3;
+
+  /** Creates the model under test with the given options. */
+  public interface Factory {
+    Classifier create(SessionOptions options) throws IOException;
+  }
+
+  private SessionTuner() {}
+
+  private static String getKey(final String model) {
+    // The fingerprint changes with the device and with every OS update.
+    return model + "@" + Build.FINGERPRINT;
+  }
+
+  /** Returns the options tuned earlier for the model on this device, or null. */
+  public static SessionOptions load(final Context context, final String model) {
+    final SharedPreferences preferences =
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    final String key = getKey(model);
+    if (!preferences.contains(key + ".intra")) {
+      return null;
+    }
+    return new SessionOptions(
+        preferences.getInt(key + ".intra", 0),
+        preferences.getInt(key + ".inter", 0),
+        preferences.getBoolean(key + ".optimize", true));
+  }
+
+  /**
+   * Times every candidate configuration, stores the fastest for {@link #load} and returns it. This
+   * loads the model once per candidate and runs it several times, so it takes seconds. Run it on a
+   * thread of its own while the pipeline is paused, so that neither waits for the other and the
+   * timings are not skewed by other work. Samples the models record on that thread are kept out
+   * of {@link Metrics}.
+   *
+   * @param inputSize The size of the square blank image to run the model on.
+   */
+  public static SessionOptions tune(
+      final Context context, final String model, final int inputSize, final Factory factory)
+      throws IOException {
+    final Bitmap input = Bitmap.createBitmap(inputSize, inputSize, Config.ARGB_8888);
+    SessionOptions best = SessionOptions.DEFAULT;
+    long bestMs = Long.MAX_VALUE;
+    Metrics.setIgnoredThread(Thread.currentThread());
+    try {
+      for (final SessionOptions candidate :
+          getCandidates(Runtime.getRuntime().availableProcessors())) {
+        final long ms = time(factory, candidate, input);
+        LOGGER.i("%s: %d ms", candidate, ms);
+        if (ms < bestMs) {
+          bestMs = ms;
+          best = candidate;
+        }
+      }
+    } finally {
+      Metrics.setIgnoredThread(null);
+      input.recycle();
+    }
+
+    LOGGER.i("Fastest configuration for %s is %s at %d ms", model, best, bestMs);
+    final String key = getKey(model);
+    context
+        .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+        .edit()
+        .putInt(key + ".intra", best.getIntraOpThreads())
+        .putInt(key + ".inter", best.getInterOpThreads())
+        .putBoolean(key + ".optimize", best.getOptimizeGraph())
+        .apply();
+    return best;
+  }
+
+  /** Returns the median latency of the model with the given options, in milliseconds. */
+  private static long time(
+      final Factory factory, final SessionOptions options, final Bitmap input)
+      throws IOException {
+    final Classifier classifier = factory.create(options);
+    try {
+      for (int i = 0; i < WARMUP_RUNS; ++i) {
+        classifier.recognizeImage(input);
+      }
+      final long[] times = new long[TIMED_RUNS];
+      for (int i = 0; i < TIMED_RUNS; ++i) {
+        final long start = SystemClock.uptimeMillis();
+        classifier.recognizeImage(input);
+        times[i] = SystemClock.uptimeMillis() - start;
+      }
+      Arrays.sort(times);
+      return times[TIMED_RUNS / 2];
+    } finally {
+      classifier.close();
+    }
+  }
+
+  /**
+   * Returns the runtime defaults followed by intra-op thread counts up to the number of cores,
+   * each with one or two inter-op threads.
+   */
+  static List<SessionOptions> getCandidates(final int cores) {
+    final List<SessionOptions> candidates = new ArrayList<SessionOptions>();
+    candidates.add(SessionOptions.DEFAULT);
+    for (int intraOpThreads = 1; intraOpThreads <= cores; intraOpThreads *= 2) {
+      candidates.add(new SessionOptions(intraOpThreads, 1, true));
+      candidates.add(new SessionOptions(intraOpThreads, 2, true));
+    }
+    if (Integer.bitCount(cores) != 1) {
+      candidates.add(new SessionOptions(cores, 1, true));
+      candidates.add(new SessionOptions(cores, 2, true));
+    }
+    return candidates;
+  }
+}
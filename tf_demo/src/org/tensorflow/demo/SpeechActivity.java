@@ -77,6 +77,13 @@ public class SpeechActivity extends Activity {
   private static final String SAMPLE_RATE_NAME = "decoded_sample_data:1";
   private static final String OUTPUT_SCORES_NAME = "labels_softmax";
 
+  // Only run the model while the voice activity detector has heard speech within the last
+  // SAMPLE_DURATION_MS + VAD_HANGOVER_MS, that is anywhere in the model's window or just before.
+  // Listening stats are logged every STATS_INTERVAL_MS.
+  private static final boolean VAD_GATING = true;
+  private static final long VAD_HANGOVER_MS = 250;
+  private static final long STATS_INTERVAL_MS = 10000;
+
   // UI elements.
   private static final int REQUEST_RECORD_AUDIO = 13;
   private Button quitButton;
@@ -95,6 +102,8 @@ public class SpeechActivity extends Activity {
   private List<String> labels = new ArrayList<String>();
   private List<String> displayedLabels = new ArrayList<>();
   private RecognizeCommands recognizeCommands = null;
+  private final VoiceActivityDetector voiceActivityDetector =
+      new VoiceActivityDetector(SAMPLE_RATE, SAMPLE_DURATION_MS + VAD_HANGOVER_MS);
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -230,6 +239,9 @@ public class SpeechActivity extends Activity {
     // Loop, gathering audio data and copying it to a round-robin buffer.
     while (shouldContinue) {
       int numberRead = record.read(audioBuffer, 0, audioBuffer.length);
+      if (numberRead > 0) {
+        voiceActivityDetector.addSamples(audioBuffer, numberRead);
+      }
       int maxLength = recordingBuffer.length;
       int newRecordingOffset = recordingOffset + numberRead;
       int secondCopyLength = Math.max(0, newRecordingOffset - maxLength);
@@ -280,12 +292,31 @@ public class SpeechActivity extends Activity {
 
     short[] inputBuffer = new short[RECORDING_LENGTH];
     float[] floatInputBuffer = new float[RECORDING_LENGTH];
-    float[] outputScores = new float[labels.size()];
     String[] outputScoresNames = new String[] {OUTPUT_SCORES_NAME};
     int[] sampleRateList = new int[] {SAMPLE_RATE};
 
+    long inferences = 0;
+    long skippedInferences = 0;
+    long inferenceNs = 0;
+    final long startNs = System.nanoTime();
+    long nextStatsNs = startNs + STATS_INTERVAL_MS * 1000000;
+
     // Loop, grabbing recorded data and running the recognition model on it.
     while (shouldContinueRecognition) {
+      final long iterationStartNs = System.nanoTime();
+      if (iterationStartNs >= nextStatsNs) {
+        logListeningStats(inferences, skippedInferences, inferenceNs, iterationStartNs - startNs);
+        nextStatsNs += STATS_INTERVAL_MS * 1000000;
+      }
+
+      // Nothing but background noise in the window, so the model would only say _silence_.
+      if (VAD_GATING && !voiceActivityDetector.isActive()) {
+        ++skippedInferences;
+        sleepBetweenSamples();
+        continue;
+      }
+      ++inferences;
+
       // The recording thread places data in this round-robin buffer, so lock to
       // make sure there's no writing happening and then copy it to our own
       // local version.
@@ -306,11 +337,14 @@ public class SpeechActivity extends Activity {
         floatInputBuffer[i] = inputBuffer[i] / 32767.0f;
       }
 
-      // Run the model.
+      // Run the model. RecognizeCommands keeps the scores it is given to average them with later
+      // ones, so each run needs its own array.
+      final float[] outputScores = new float[labels.size()];
       inferenceInterface.feed(SAMPLE_RATE_NAME, sampleRateList);
       inferenceInterface.feed(INPUT_DATA_NAME, floatInputBuffer, RECORDING_LENGTH, 1);
       inferenceInterface.run(outputScoresNames);
       inferenceInterface.fetch(OUTPUT_SCORES_NAME, outputScores);
+      inferenceNs += System.nanoTime() - iterationStartNs;
 
       // Use the smoother to figure out if we've had a real recognition event.
       long currentTime = System.currentTimeMillis();
@@ -344,14 +378,40 @@ public class SpeechActivity extends Activity {
               }
             }
           });
-      try {
-        // We don't need to run too frequently, so snooze for a bit.
-        Thread.sleep(MINIMUM_TIME_BETWEEN_SAMPLES_MS);
-      } catch (InterruptedException e) {
-        // Ignore
-      }
+      sleepBetweenSamples();
     }
 
+    logListeningStats(inferences, skippedInferences, inferenceNs, System.nanoTime() - startNs);
     Log.v(LOG_TAG, "End recognition");
   }
+
+  private static void sleepBetweenSamples() {
+    try {
+      // We don't need to run too frequently, so snooze for a bit.
+      Thread.sleep(MINIMUM_TIME_BETWEEN_SAMPLES_MS);
+    } catch (InterruptedException e) {
+      // Ignore
+    }
+  }
+
+  /**
+   * Logs how many model runs the voice activity detector let through and skipped, and the duty
+   * cycle: the fraction of the time spent preparing input for and running the model.
+   */
+  private void logListeningStats(
+      final long inferences,
+      final long skippedInferences,
+      final long inferenceNs,
+      final long elapsedNs) {
+    final long total = inferences + skippedInferences;
+    Log.i(
+        LOG_TAG,
+        String.format(
+            "Ran %d of %d inferences (%d skipped), duty cycle %.1f%%, speech in %.1f%% of audio",
+            inferences,
+            total,
+            skippedInferences,
+            elapsedNs > 0 ? 100.0f * inferenceNs / elapsedNs : 0.0f,
+            100.0f * voiceActivityDetector.getSpeechFraction()));
+  }
 }
@@ -47,13 +47,17 @@ import android.widget.Toast;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Vector;
 import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
 import org.tensorflow.demo.OverlayView.DrawCallback;
+import org.tensorflow.demo.env.BitmapPool;
 import org.tensorflow.demo.env.BorderedText;
 import org.tensorflow.demo.env.ImageUtils;
 import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.PublishedBitmap;
+import org.tensorflow.demo.env.ResolutionController;
 import org.tensorflow.demo.R; // Explicit import needed for internal Google builds.
 
 /**
@@ -81,20 +85,31 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
 
   private static final int[] SIZES = {128, 192, 256, 384, 512, 720};
 
+  // Until a size is picked with the size button, the size is stepped through SIZES to keep each
+  // frame within TARGET_FRAME_MS.
+  private static final long TARGET_FRAME_MS = 100;
+
   private static final Size DESIRED_PREVIEW_SIZE = new Size(1280, 720);
 
   // Start at a medium size, but let the user step up through smaller sizes so they don't get
   // immediately stuck processing a large image.
+  // -1 while the size is picked automatically.
   private int desiredSizeIndex = -1;
   private int desiredSize = 256;
   private int initializedSize = 0;
 
+  private final ResolutionController resolutionController =
+      new ResolutionController(SIZES, Arrays.binarySearch(SIZES, desiredSize), TARGET_FRAME_MS);
+
   private Integer sensorOrientation;
 
   private long lastProcessingTimeMs;
   private Bitmap rgbFrameBitmap = null;
   private Bitmap croppedBitmap = null;
-  private Bitmap cropCopyBitmap = null;
+  // Holds crops of the sizes in use, and the copies made for display.
+  private final BitmapPool bitmapPool = new BitmapPool(4);
+  // The last stylize input, for the debug overlay.
+  private final PublishedBitmap cropCopyBitmap = new PublishedBitmap(bitmapPool);
 
   private final float[] styleVals = new float[NUM_STYLES];
   private int[] intValues;
@@ -102,7 +117,8 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
 
   private int frameNum = 0;
 
-  private Bitmap textureCopyBitmap;
+  // The last stylized image, for display and saving.
+  private final PublishedBitmap textureCopyBitmap = new PublishedBitmap(bitmapPool);
 
   private Matrix frameToCropTransform;
   private Matrix cropToFrameTransform;
@@ -266,14 +282,19 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
               setMeasuredDimension(getMeasuredWidth(), getMeasuredWidth());
             }
           };
-      sizeButton.setText("" + desiredSize);
+      sizeButton.setText("auto");
       sizeButton.setOnClickListener(
           new OnClickListener() {
             @Override
             public void onClick(final View v) {
-              desiredSizeIndex = (desiredSizeIndex + 1) % SIZES.length;
-              desiredSize = SIZES[desiredSizeIndex];
-              sizeButton.setText("" + desiredSize);
+              // Cycles through the sizes and then back to automatic.
+              desiredSizeIndex = (desiredSizeIndex + 2) % (SIZES.length + 1) - 1;
+              if (desiredSizeIndex < 0) {
+                sizeButton.setText("auto");
+              } else {
+                desiredSize = SIZES[desiredSizeIndex];
+                sizeButton.setText("" + desiredSize);
+              }
               sizeButton.postInvalidate();
             }
           });
@@ -293,14 +314,19 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
           new OnClickListener() {
             @Override
             public void onClick(final View v) {
-              if (textureCopyBitmap != null) {
-                // TODO(andrewharp): Save as jpeg with guaranteed unique filename.
-                ImageUtils.saveBitmap(textureCopyBitmap, "stylized" + frameNum + ".png");
-                Toast.makeText(
-                        StylizeActivity.this,
-                        "Saved image to: /sdcard/tensorflow/" + "stylized" + frameNum + ".png",
-                        Toast.LENGTH_LONG)
-                    .show();
+              final Bitmap texture = textureCopyBitmap.lock();
+              try {
+                if (texture != null) {
+                  // TODO(andrewharp): Save as jpeg with guaranteed unique filename.
+                  ImageUtils.saveBitmap(texture, "stylized" + frameNum + ".png");
+                  Toast.makeText(
+                          StylizeActivity.this,
+                          "Saved image to: /sdcard/tensorflow/" + "stylized" + frameNum + ".png",
+                          Toast.LENGTH_LONG)
+                      .show();
+                }
+              } finally {
+                textureCopyBitmap.unlock();
               }
             }
           });
@@ -442,8 +468,13 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
     }
   }
 
+  // Only called while no stylize pass is running, so the old crop can go back to the pool.
   private void resetPreviewBuffers() {
-    croppedBitmap = Bitmap.createBitmap(desiredSize, desiredSize, Config.ARGB_8888);
+    if (rgbFrameBitmap == null) {
+      rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
+    }
+    bitmapPool.release(croppedBitmap);
+    croppedBitmap = bitmapPool.acquire(desiredSize, desiredSize, Config.ARGB_8888);
 
     frameToCropTransform = ImageUtils.getTransformationMatrix(
         previewWidth, previewHeight,
@@ -459,23 +490,15 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
 
   @Override
   protected void processImage() {
+    final boolean autoSize = desiredSizeIndex < 0;
+    if (autoSize) {
+      desiredSize = resolutionController.getSize();
+    }
     if (desiredSize != initializedSize) {
       LOGGER.i(
           "Initializing at size preview size %dx%d, stylize size %d",
           previewWidth, previewHeight, desiredSize);
-
-      rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-      croppedBitmap = Bitmap.createBitmap(desiredSize, desiredSize, Config.ARGB_8888);
-      frameToCropTransform = ImageUtils.getTransformationMatrix(
-          previewWidth, previewHeight,
-          desiredSize, desiredSize,
-          sensorOrientation, true);
-
-      cropToFrameTransform = new Matrix();
-      frameToCropTransform.invert(cropToFrameTransform);
-      intValues = new int[desiredSize * desiredSize];
-      floatValues = new float[desiredSize * desiredSize * 3];
-      initializedSize = desiredSize;
+      resetPreviewBuffers();
     }
     rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
     final Canvas canvas = new Canvas(croppedBitmap);
@@ -490,18 +513,19 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
         new Runnable() {
           @Override
           public void run() {
-            cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
+            cropCopyBitmap.publishCopyOf(croppedBitmap);
             final long startTime = SystemClock.uptimeMillis();
             stylizeImage(croppedBitmap);
             lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
-            textureCopyBitmap = Bitmap.createBitmap(croppedBitmap);
+            if (autoSize) {
+              // The new size, if any, takes effect at the start of the next frame.
+              resolutionController.addSample(lastProcessingTimeMs);
+            }
+            textureCopyBitmap.publishCopyOf(croppedBitmap);
             requestRender();
             readyForNextImage();
           }
         });
-    if (desiredSize != initializedSize) {
-      resetPreviewBuffers();
-    }
   }
 
   private void stylizeImage(final Bitmap bitmap) {
@@ -553,7 +577,17 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
 
   private void renderDebug(final Canvas canvas) {
     // TODO(andrewharp): move result display to its own View instead of using debug overlay.
-    final Bitmap texture = textureCopyBitmap;
+    final Bitmap texture = textureCopyBitmap.lock();
+    final Bitmap copy = cropCopyBitmap.lock();
+    try {
+      renderDebug(canvas, texture, copy);
+    } finally {
+      cropCopyBitmap.unlock();
+      textureCopyBitmap.unlock();
+    }
+  }
+
+  private void renderDebug(final Canvas canvas, final Bitmap texture, final Bitmap copy) {
     if (texture != null) {
       final Matrix matrix = new Matrix();
       final float scaleFactor =
@@ -570,7 +604,6 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
       return;
     }
 
-    final Bitmap copy = cropCopyBitmap;
     if (copy == null) {
       return;
     }
@@ -597,7 +630,7 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
     lines.add("View: " + canvas.getWidth() + "x" + canvas.getHeight());
     lines.add("Rotation: " + sensorOrientation);
     lines.add("Inference time: " + lastProcessingTimeMs + "ms");
-    lines.add("Desired size: " + desiredSize);
+    lines.add("Desired size: " + (desiredSizeIndex < 0 ? "auto " : "") + desiredSize);
     lines.add("Initialized size: " + initializedSize);
 
     borderedText.drawLines(canvas, 10, canvas.getHeight() - 10, lines);
@@ -28,10 +28,12 @@ import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Vector;
 import org.tensorflow.Operation;
-import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+import org.tensorflow.demo.env.ImageUtils;
+import org.tensorflow.demo.env.Metrics;
+import org.tensorflow.demo.env.SplitTimer;
 
 /** A classifier specialized to label images using TensorFlow. */
-public class TensorFlowImageClassifier implements Classifier {
+public class TensorFlowImageClassifier implements Classifier, Profilable {
   private static final String TAG = "TensorFlowImageClassifier";
 
   // Only return this many results with at least this confidence.
@@ -54,7 +56,9 @@ public class TensorFlowImageClassifier implements Classifier {
 
   private boolean logStats = false;
 
-  private TensorFlowInferenceInterface inferenceInterface;
+  private final SplitTimer timer = new SplitTimer();
+
+  private InferenceSession inferenceInterface;
 
   private TensorFlowImageClassifier() {}
 
@@ -80,6 +84,33 @@ public class TensorFlowImageClassifier implements Classifier {
       float imageStd,
       String inputName,
       String outputName) {
+    return create(
+        assetManager,
+        modelFilename,
+        labelFilename,
+        inputSize,
+        imageMean,
+        imageStd,
+        inputName,
+        outputName,
+        SessionOptions.DEFAULT);
+  }
+
+  /**
+   * Initializes a TensorFlow session with the given options for classifying images.
+   *
+   * @see #create(AssetManager, String, String, int, int, float, String, String)
+   */
+  public static Classifier create(
+      AssetManager assetManager,
+      String modelFilename,
+      String labelFilename,
+      int inputSize,
+      int imageMean,
+      float imageStd,
+      String inputName,
+      String outputName,
+      SessionOptions options) {
     TensorFlowImageClassifier c = new TensorFlowImageClassifier();
     c.inputName = inputName;
     c.outputName = outputName;
@@ -100,7 +131,7 @@ public class TensorFlowImageClassifier implements Classifier {
       throw new RuntimeException("Problem reading label file!" , e);
     }
 
-    c.inferenceInterface = new TensorFlowInferenceInterface(assetManager, modelFilename);
+    c.inferenceInterface = new InferenceSession(assetManager, modelFilename, options);
 
     // The shape of the output is [N, NUM_CLASSES], where N is the batch size.
     final Operation operation = c.inferenceInterface.graphOperation(outputName);
@@ -125,6 +156,8 @@ public class TensorFlowImageClassifier implements Classifier {
 
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    timer.newSplit();
+
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
 
@@ -132,28 +165,26 @@ public class TensorFlowImageClassifier implements Classifier {
     // Preprocess the image data from 0-255 int to normalized float based
     // on the provided parameters.
     bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-    for (int i = 0; i < intValues.length; ++i) {
-      final int val = intValues[i];
-      floatValues[i * 3 + 0] = (((val >> 16) & 0xFF) - imageMean) / imageStd;
-      floatValues[i * 3 + 1] = (((val >> 8) & 0xFF) - imageMean) / imageStd;
-      floatValues[i * 3 + 2] = ((val & 0xFF) - imageMean) / imageStd;
-    }
+    ImageUtils.normalizePixels(intValues, floatValues, imageMean, imageStd);
     Trace.endSection();
 
     // Copy the input data into TensorFlow.
     Trace.beginSection("feed");
     inferenceInterface.feed(inputName, floatValues, 1, inputSize, inputSize, 3);
     Trace.endSection();
+    timer.endSplit(Metrics.Stage.FEED);
 
     // Run the inference call.
     Trace.beginSection("run");
     inferenceInterface.run(outputNames, logStats);
     Trace.endSection();
+    timer.endSplit(Metrics.Stage.RUN);
 
     // Copy the output Tensor back into the output array.
     Trace.beginSection("fetch");
     inferenceInterface.fetch(outputName, outputs);
     Trace.endSection();
+    timer.endSplit(Metrics.Stage.FETCH);
 
     // Find the best classifications.
     PriorityQueue<Recognition> pq =
@@ -179,6 +210,8 @@ public class TensorFlowImageClassifier implements Classifier {
       recognitions.add(pq.poll());
     }
     Trace.endSection(); // "recognizeImage"
+
+    timer.endSplit(Metrics.Stage.DECODE);
     return recognitions;
   }
 
@@ -192,6 +225,11 @@ public class TensorFlowImageClassifier implements Classifier {
     return inferenceInterface.getStatString();
   }
 
+  @Override
+  public void setOpProfile(final OpProfile profile) {
+    inferenceInterface.setOpProfile(profile);
+  }
+
   @Override
   public void close() {
     inferenceInterface.close();
@@ -17,28 +17,26 @@ package org.tensorflow.demo;
 
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.RectF;
 import android.os.Trace;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
 import java.util.StringTokenizer;
 import org.tensorflow.Graph;
 import org.tensorflow.Operation;
-import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+import org.tensorflow.demo.env.ImageUtils;
 import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.Metrics;
+import org.tensorflow.demo.env.SplitTimer;
 
 /**
  * A detector for general purpose object detection as described in Scalable Object Detection using
  * Deep Neural Networks (https://arxiv.org/abs/1312.2249).
  */
-public class TensorFlowMultiBoxDetector implements Classifier {
+public class TensorFlowMultiBoxDetector implements Classifier, Profilable {
   private static final Logger LOGGER = new Logger();
 
   // Only return this many results.
@@ -53,16 +51,18 @@ public class TensorFlowMultiBoxDetector implements Classifier {
   // Pre-allocated buffers.
   private int[] intValues;
   private float[] floatValues;
-  private float[] outputLocations;
-  private float[] outputScores;
+  private float[] outputLocationsEncoding;
+  private float[] outputScoresEncoding;
   private String[] outputNames;
   private int numLocations;
 
   private boolean logStats = false;
 
-  private TensorFlowInferenceInterface inferenceInterface;
+  private final SplitTimer timer = new SplitTimer();
 
-  private float[] boxPriors;
+  private InferenceSession inferenceInterface;
+
+  private MultiBoxDecoder decoder;
 
   /**
    * Initializes a native TensorFlow session for classifying images.
@@ -85,9 +85,36 @@ public class TensorFlowMultiBoxDetector implements Classifier {
       final String inputName,
       final String outputLocationsName,
       final String outputScoresName) {
+    return create(
+        assetManager,
+        modelFilename,
+        locationFilename,
+        imageMean,
+        imageStd,
+        inputName,
+        outputLocationsName,
+        outputScoresName,
+        SessionOptions.DEFAULT);
+  }
+
+  /**
+   * Initializes a TensorFlow session with the given options for classifying images.
+   *
+   * @see #create(AssetManager, String, String, int, float, String, String, String)
+   */
+  public static Classifier create(
+      final AssetManager assetManager,
+      final String modelFilename,
+      final String locationFilename,
+      final int imageMean,
+      final float imageStd,
+      final String inputName,
+      final String outputLocationsName,
+      final String outputScoresName,
+      final SessionOptions options) {
     final TensorFlowMultiBoxDetector d = new TensorFlowMultiBoxDetector();
 
-    d.inferenceInterface = new TensorFlowInferenceInterface(assetManager, modelFilename);
+    d.inferenceInterface = new InferenceSession(assetManager, modelFilename, options);
 
     final Graph g = d.inferenceInterface.graph();
 
@@ -111,10 +138,10 @@ public class TensorFlowMultiBoxDetector implements Classifier {
     }
     d.numLocations = (int) outputOp.output(0).shape().size(1);
 
-    d.boxPriors = new float[d.numLocations * 8];
+    final float[] boxPriors = new float[d.numLocations * 8];
 
     try {
-      d.loadCoderOptions(assetManager, locationFilename, d.boxPriors);
+      d.loadCoderOptions(assetManager, locationFilename, boxPriors);
     } catch (final IOException e) {
       throw new RuntimeException("Error initializing box priors from " + locationFilename);
     }
@@ -123,8 +150,9 @@ public class TensorFlowMultiBoxDetector implements Classifier {
     d.outputNames = new String[] {outputLocationsName, outputScoresName};
     d.intValues = new int[d.inputSize * d.inputSize];
     d.floatValues = new float[d.inputSize * d.inputSize * 3];
-    d.outputScores = new float[d.numLocations];
-    d.outputLocations = new float[d.numLocations * 4];
+    d.outputScoresEncoding = new float[d.numLocations];
+    d.outputLocationsEncoding = new float[d.numLocations * 4];
+    d.decoder = new MultiBoxDecoder(boxPriors, d.inputSize, MAX_RESULTS);
 
     return d;
   }
@@ -168,39 +196,10 @@ public class TensorFlowMultiBoxDetector implements Classifier {
     }
   }
 
-  private float[] decodeLocationsEncoding(final float[] locationEncoding) {
-    final float[] locations = new float[locationEncoding.length];
-    boolean nonZero = false;
-    for (int i = 0; i < numLocations; ++i) {
-      for (int j = 0; j < 4; ++j) {
-        final float currEncoding = locationEncoding[4 * i + j];
-        nonZero = nonZero || currEncoding != 0.0f;
-
-        final float mean = boxPriors[i * 8 + j * 2];
-        final float stdDev = boxPriors[i * 8 + j * 2 + 1];
-        float currentLocation = currEncoding * stdDev + mean;
-        currentLocation = Math.max(currentLocation, 0.0f);
-        currentLocation = Math.min(currentLocation, 1.0f);
-        locations[4 * i + j] = currentLocation;
-      }
-    }
-
-    if (!nonZero) {
-      LOGGER.w("No non-zero encodings; check log for inference errors.");
-    }
-    return locations;
-  }
-
-  private float[] decodeScoresEncoding(final float[] scoresEncoding) {
-    final float[] scores = new float[scoresEncoding.length];
-    for (int i = 0; i < scoresEncoding.length; ++i) {
-      scores[i] = 1 / ((float) (1 + Math.exp(-scoresEncoding[i])));
-    }
-    return scores;
-  }
-
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    timer.newSplit();
+
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
 
@@ -209,62 +208,33 @@ public class TensorFlowMultiBoxDetector implements Classifier {
     // on the provided parameters.
     bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
 
-    for (int i = 0; i < intValues.length; ++i) {
-      floatValues[i * 3 + 0] = (((intValues[i] >> 16) & 0xFF) - imageMean) / imageStd;
-      floatValues[i * 3 + 1] = (((intValues[i] >> 8) & 0xFF) - imageMean) / imageStd;
-      floatValues[i * 3 + 2] = ((intValues[i] & 0xFF) - imageMean) / imageStd;
-    }
+    ImageUtils.normalizePixels(intValues, floatValues, imageMean, imageStd);
     Trace.endSection(); // preprocessBitmap
 
     // Copy the input data into TensorFlow.
     Trace.beginSection("feed");
     inferenceInterface.feed(inputName, floatValues, 1, inputSize, inputSize, 3);
     Trace.endSection();
+    timer.endSplit(Metrics.Stage.FEED);
 
     // Run the inference call.
     Trace.beginSection("run");
     inferenceInterface.run(outputNames, logStats);
     Trace.endSection();
+    timer.endSplit(Metrics.Stage.RUN);
 
     // Copy the output Tensor back into the output array.
     Trace.beginSection("fetch");
-    final float[] outputScoresEncoding = new float[numLocations];
-    final float[] outputLocationsEncoding = new float[numLocations * 4];
     inferenceInterface.fetch(outputNames[0], outputLocationsEncoding);
     inferenceInterface.fetch(outputNames[1], outputScoresEncoding);
     Trace.endSection();
+    timer.endSplit(Metrics.Stage.FETCH);
 
-    outputLocations = decodeLocationsEncoding(outputLocationsEncoding);
-    outputScores = decodeScoresEncoding(outputScoresEncoding);
-
-    // Find the best detections.
-    final PriorityQueue<Recognition> pq =
-        new PriorityQueue<Recognition>(
-            1,
-            new Comparator<Recognition>() {
-              @Override
-              public int compare(final Recognition lhs, final Recognition rhs) {
-                // Intentionally reversed to put high confidence at the head of the queue.
-                return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-              }
-            });
-
-    // Scale them back to the input size.
-    for (int i = 0; i < outputScores.length; ++i) {
-      final RectF detection =
-          new RectF(
-              outputLocations[4 * i] * inputSize,
-              outputLocations[4 * i + 1] * inputSize,
-              outputLocations[4 * i + 2] * inputSize,
-              outputLocations[4 * i + 3] * inputSize);
-      pq.add(new Recognition("" + i, null, outputScores[i], detection));
-    }
-
-    final ArrayList<Recognition> recognitions = new ArrayList<Recognition>();
-    for (int i = 0; i < Math.min(pq.size(), MAX_RESULTS); ++i) {
-      recognitions.add(pq.poll());
-    }
+    final List<Recognition> recognitions =
+        decoder.decode(outputLocationsEncoding, outputScoresEncoding);
     Trace.endSection(); // "recognizeImage"
+
+    timer.endSplit(Metrics.Stage.DECODE);
     return recognitions;
   }
 
@@ -278,6 +248,11 @@ public class TensorFlowMultiBoxDetector implements Classifier {
     return inferenceInterface.getStatString();
   }
 
+  @Override
+  public void setOpProfile(final OpProfile profile) {
+    inferenceInterface.setOpProfile(profile);
+  }
+
   @Override
   public void close() {
     inferenceInterface.close();
@@ -30,14 +30,15 @@ import java.util.PriorityQueue;
 import java.util.Vector;
 import org.tensorflow.Graph;
 import org.tensorflow.Operation;
-import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
 import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.Metrics;
+import org.tensorflow.demo.env.SplitTimer;
 
 /**
  * Wrapper for frozen detection models trained using the Tensorflow Object Detection API:
  * github.com/tensorflow/models/tree/master/research/object_detection
  */
-public class TensorFlowObjectDetectionAPIModel implements Classifier {
+public class TensorFlowObjectDetectionAPIModel implements Classifier, Profilable {
   private static final Logger LOGGER = new Logger();
 
   // Only return this many results.
@@ -59,7 +60,9 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
 
   private boolean logStats = false;
 
-  private TensorFlowInferenceInterface inferenceInterface;
+  private final SplitTimer timer = new SplitTimer();
+
+  private InferenceSession inferenceInterface;
 
   /**
    * Initializes a native TensorFlow session for classifying images.
@@ -73,6 +76,20 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
       final String modelFilename,
       final String labelFilename,
       final int inputSize) throws IOException {
+    return create(assetManager, modelFilename, labelFilename, inputSize, SessionOptions.DEFAULT);
+  }
+
+  /**
+   * Initializes a TensorFlow session with the given options for classifying images.
+   *
+   * @see #create(AssetManager, String, String, int)
+   */
+  public static Classifier create(
+      final AssetManager assetManager,
+      final String modelFilename,
+      final String labelFilename,
+      final int inputSize,
+      final SessionOptions options) throws IOException {
     final TensorFlowObjectDetectionAPIModel d = new TensorFlowObjectDetectionAPIModel();
 
     InputStream labelsInput = null;
@@ -82,13 +99,13 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
     br = new BufferedReader(new InputStreamReader(labelsInput));
     String line;
     while ((line = br.readLine()) != null) {
-      LOGGER.w(line);
       d.labels.add(line);
     }
     br.close();
+    LOGGER.i("Read %d labels from %s", d.labels.size(), actualFilename);
 
 
-    d.inferenceInterface = new TensorFlowInferenceInterface(assetManager, modelFilename);
+    d.inferenceInterface = new InferenceSession(assetManager, modelFilename, options);
 
     final Graph g = d.inferenceInterface.graph();
 
@@ -101,7 +118,6 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
     if (inputOp == null) {
       throw new RuntimeException("Failed to find input Node '" + d.inputName + "'");
     }
-    d.inputSize = inputSize;
     // The outputScoresName node has a shape of [N, NumLocations], where N
     // is the batch size.
     final Operation outputOp1 = g.operation("detection_scores");
@@ -120,8 +136,7 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
     // Pre-allocate buffers.
     d.outputNames = new String[] {"detection_boxes", "detection_scores",
                                   "detection_classes", "num_detections"};
-    d.intValues = new int[d.inputSize * d.inputSize];
-    d.byteValues = new byte[d.inputSize * d.inputSize * 3];
+    d.setInputSize(inputSize);
     d.outputScores = new float[MAX_RESULTS];
     d.outputLocations = new float[MAX_RESULTS * 4];
     d.outputClasses = new float[MAX_RESULTS];
@@ -131,8 +146,28 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
 
   private TensorFlowObjectDetectionAPIModel() {}
 
+  /**
+   * Changes the size of the square images this model is fed. The image tensor of Object Detection
+   * API graphs has no fixed height or width, so any size works. The buffers only grow, so
+   * switching back and forth between sizes allocates nothing. Must not be called while an image is
+   * being recognized.
+   */
+  public void setInputSize(final int inputSize) {
+    this.inputSize = inputSize;
+    if (intValues == null || intValues.length < inputSize * inputSize) {
+      intValues = new int[inputSize * inputSize];
+      byteValues = new byte[inputSize * inputSize * 3];
+    }
+  }
+
+  public int getInputSize() {
+    return inputSize;
+  }
+
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    timer.newSplit();
+
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
 
@@ -141,7 +176,7 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
     // on the provided parameters.
     bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
 
-    for (int i = 0; i < intValues.length; ++i) {
+    for (int i = 0; i < inputSize * inputSize; ++i) {
       byteValues[i * 3 + 2] = (byte) (intValues[i] & 0xFF);
       byteValues[i * 3 + 1] = (byte) ((intValues[i] >> 8) & 0xFF);
       byteValues[i * 3 + 0] = (byte) ((intValues[i] >> 16) & 0xFF);
@@ -152,11 +187,13 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
     Trace.beginSection("feed");
     inferenceInterface.feed(inputName, byteValues, 1, inputSize, inputSize, 3);
     Trace.endSection();
+    timer.endSplit(Metrics.Stage.FEED);
 
     // Run the inference call.
     Trace.beginSection("run");
     inferenceInterface.run(outputNames, logStats);
     Trace.endSection();
+    timer.endSplit(Metrics.Stage.RUN);
 
     // Copy the output Tensor back into the output array.
     Trace.beginSection("fetch");
@@ -169,6 +206,7 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
     inferenceInterface.fetch(outputNames[2], outputClasses);
     inferenceInterface.fetch(outputNames[3], outputNumDetections);
     Trace.endSection();
+    timer.endSplit(Metrics.Stage.FETCH);
 
     // Find the best detections.
     final PriorityQueue<Recognition> pq =
@@ -199,6 +237,8 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
       recognitions.add(pq.poll());
     }
     Trace.endSection(); // "recognizeImage"
+
+    timer.endSplit(Metrics.Stage.DECODE);
     return recognitions;
   }
 
@@ -212,6 +252,11 @@ public class TensorFlowObjectDetectionAPIModel implements Classifier {
     return inferenceInterface.getStatString();
   }
 
+  @Override
+  public void setOpProfile(final OpProfile profile) {
+    inferenceInterface.setOpProfile(profile);
+  }
+
   @Override
   public void close() {
     inferenceInterface.close();
@@ -0,0 +1,138 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+/**
+ * Decides cheaply whether recent audio could hold speech, so the recognition model only runs when
+ * there is something for it to hear.
+ *
+ * Samples are fed in as they are read and split into short frames. Each frame's energy is compared
+ * to a running estimate of the background noise, which follows quiet frames closely and loud ones
+ * only slowly. A frame counts as speech if it is well above the noise and either crosses zero
+ * rarely, as voiced sounds do, or is loud enough to be an unvoiced consonant rather than hiss.
+ * Activity is then held for a hangover period after the last speech frame. Samples are added
+ * from the recording thread and activity is read from the recognition thread, so all methods are
+ * synchronized.
+ */
+public class VoiceActivityDetector {
+  // Length of the frames samples are judged in.
+  private static final int FRAME_MS = 20;
+
+  // How far above the noise floor a frame's energy must be to count, and how far for a frame that
+  // crosses zero as often as noise does.
+  private static final float ENERGY_RATIO = 4.0f;
+  private static final float NOISY_ENERGY_RATIO = 16.0f;
+
+  // The fraction of adjacent sample pairs that may change sign in a voiced frame.
+  private static final float MAX_VOICED_ZERO_CROSSING_RATE = 0.25f;
+
+  // Mean square sample value, on the 16-bit scale, the noise floor never drops below, so that
+  // digital silence does not make every sound count.
+  private static final float MIN_NOISE_ENERGY = 100.0f;
+
+  // Weights of a new frame in the noise estimate when it is quieter and when it is louder.
+  private static final float NOISE_FALL = 0.2f;
+  private static final float NOISE_RISE = 0.005f;
+
+  private final int frameSamples;
+  private final long hangoverSamples;
+
+  // The frame being accumulated.
+  private int frameCount;
+  private double frameEnergy;
+  private int frameCrossings;
+  private short previousSample;
+
+  private float noiseEnergy = MIN_NOISE_ENERGY;
+
+  private long totalSamples;
+  // Samples seen when the last speech frame ended, or less than -hangoverSamples for never.
+  private long lastSpeechSample;
+
+  private long frames;
+  private long speechFrames;
+
+  /**
+   * @param sampleRate The sample rate of the audio, in Hz.
+   * @param hangoverMs How long activity lasts after the last speech frame. To cover a model that
+   *     looks at a window of audio, this should include the window's length.
+   */
+  public VoiceActivityDetector(final int sampleRate, final long hangoverMs) {
+    frameSamples = sampleRate * FRAME_MS / 1000;
+    hangoverSamples = sampleRate * hangoverMs / 1000;
+    lastSpeechSample = -hangoverSamples - 1;
+  }
+
+  /** Adds the next count samples of the recording. */
+  public synchronized void addSamples(final short[] samples, final int count) {
+    for (int i = 0; i < count; ++i) {
+      final short sample = samples[i];
+      frameEnergy += sample * sample;
+      if ((sample < 0) != (previousSample < 0)) {
+        ++frameCrossings;
+      }
+      previousSample = sample;
+
+      if (++frameCount == frameSamples) {
+        endFrame(totalSamples + i + 1);
+      }
+    }
+    totalSamples += count;
+  }
+
+  /** Judges the frame just completed, which ends after the given number of samples overall. */
+  private void endFrame(final long endSample) {
+    final float energy = (float) (frameEnergy / frameCount);
+    final float zeroCrossingRate = (float) frameCrossings / frameCount;
+
+    if (frames == 0) {
+      // The first frame sets the noise floor outright, as the slow rise would take seconds to get
+      // there from the minimum.
+      noiseEnergy = Math.max(MIN_NOISE_ENERGY, energy);
+    }
+    final boolean speech =
+        energy > ENERGY_RATIO * noiseEnergy
+            && (zeroCrossingRate <= MAX_VOICED_ZERO_CROSSING_RATE
+                || energy > NOISY_ENERGY_RATIO * noiseEnergy);
+    if (speech) {
+      lastSpeechSample = endSample;
+      ++speechFrames;
+    }
+
+    final float weight = energy < noiseEnergy ? NOISE_FALL : NOISE_RISE;
+    noiseEnergy = Math.max(MIN_NOISE_ENERGY, noiseEnergy + weight * (energy - noiseEnergy));
+    ++frames;
+
+    frameCount = 0;
+    frameEnergy = 0;
+    frameCrossings = 0;
+  }
+
+  /** Returns whether speech was heard within the hangover period. */
+  public synchronized boolean isActive() {
+    return totalSamples - lastSpeechSample <= hangoverSamples;
+  }
+
+  /** Returns the fraction of frames so far that sounded like speech. */
+  public synchronized float getSpeechFraction() {
+    return frames > 0 ? (float) speechFrames / frames : 0.0f;
+  }
+
+  /** Returns the current background noise energy, as a mean square 16-bit sample value. */
+  public synchronized float getNoiseEnergy() {
+    return noiseEnergy;
+  }
+}
@@ -0,0 +1,185 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.graphics.RectF;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.tensorflow.demo.Classifier.Recognition;
+import org.tensorflow.demo.env.Logger;
+
+/**
+ * Turns the raw output grid of a YOLO model into ranked recognitions.
+ *
+ * Kept apart from {@link TensorFlowYoloDetector} so that it only depends on plain arrays, which
+ * lets the benchmark module exercise it on a desktop JVM. Not thread-safe.
+ */
+final class YoloDecoder {
+  private static final Logger LOGGER = new Logger();
+
+  static final int NUM_CLASSES = 20;
+
+  static final int NUM_BOXES_PER_BLOCK = 5;
+
+  private static final int VALUES_PER_BOX = NUM_CLASSES + 5;
+
+  // TODO(andrewharp): allow loading anchors and classes
+  // from files.
+  private static final double[] ANCHORS = {
+    1.08, 1.19,
+    3.42, 4.41,
+    6.63, 11.38,
+    9.42, 5.11,
+    16.62, 10.52
+  };
+
+  private static final String[] LABELS = {
+    "aeroplane",
+    "bicycle",
+    "bird",
+    "boat",
+    "bottle",
+    "bus",
+    "car",
+    "cat",
+    "chair",
+    "cow",
+    "diningtable",
+    "dog",
+    "horse",
+    "motorbike",
+    "person",
+    "pottedplant",
+    "sheep",
+    "sofa",
+    "train",
+    "tvmonitor"
+  };
+
+  private static final Comparator<Recognition> BY_CONFIDENCE =
+      new Comparator<Recognition>() {
+        @Override
+        public int compare(final Recognition lhs, final Recognition rhs) {
+          // Intentionally reversed to put high confidence at the head of the queue.
+          return Float.compare(rhs.getConfidence(), lhs.getConfidence());
+        }
+      };
+
+  private final int blockSize;
+  private final int maxResults;
+
+  // Class scores of the box being decoded, reused for every box.
+  private final float[] classes = new float[NUM_CLASSES];
+
+  YoloDecoder(final int blockSize, final int maxResults) {
+    this.blockSize = blockSize;
+    this.maxResults = maxResults;
+  }
+
+  /** Returns the number of floats the model outputs for an image of the given size. */
+  int getOutputSize(final int imageWidth, final int imageHeight) {
+    return (imageWidth / blockSize) * (imageHeight / blockSize) * VALUES_PER_BOX
+        * NUM_BOXES_PER_BLOCK;
+  }
+
+  private static float expit(final float x) {
+    return (float) (1. / (1. + Math.exp(-x)));
+  }
+
+  private static void softmax(final float[] vals) {
+    float max = Float.NEGATIVE_INFINITY;
+    for (final float val : vals) {
+      max = Math.max(max, val);
+    }
+    float sum = 0.0f;
+    for (int i = 0; i < vals.length; ++i) {
+      vals[i] = (float) Math.exp(vals[i] - max);
+      sum += vals[i];
+    }
+    for (int i = 0; i < vals.length; ++i) {
+      vals[i] = vals[i] / sum;
+    }
+  }
+
+  /** Decodes the output of one inference on an image of the given size. */
+  List<Recognition> decode(final float[] output, final int imageWidth, final int imageHeight) {
+    final int gridWidth = imageWidth / blockSize;
+    final int gridHeight = imageHeight / blockSize;
+
+    // Find the best detections.
+    final PriorityQueue<Recognition> pq = new PriorityQueue<Recognition>(1, BY_CONFIDENCE);
+
+    for (int y = 0; y < gridHeight; ++y) {
+      for (int x = 0; x < gridWidth; ++x) {
+        for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b) {
+          final int offset =
+              (gridWidth * (NUM_BOXES_PER_BLOCK * VALUES_PER_BOX)) * y
+                  + (NUM_BOXES_PER_BLOCK * VALUES_PER_BOX) * x
+                  + VALUES_PER_BOX * b;
+
+          final float confidence = expit(output[offset + 4]);
+
+          int detectedClass = -1;
+          float maxClass = 0;
+
+          for (int c = 0; c < NUM_CLASSES; ++c) {
+            classes[c] = output[offset + 5 + c];
+          }
+          softmax(classes);
+
+          for (int c = 0; c < NUM_CLASSES; ++c) {
+            if (classes[c] > maxClass) {
+              detectedClass = c;
+              maxClass = classes[c];
+            }
+          }
+
+          final float confidenceInClass = maxClass * confidence;
+          if (confidenceInClass > 0.01) {
+            // Only candidates that survive the threshold are worth placing.
+            final float xPos = (x + expit(output[offset + 0])) * blockSize;
+            final float yPos = (y + expit(output[offset + 1])) * blockSize;
+
+            final float w = (float) (Math.exp(output[offset + 2]) * ANCHORS[2 * b + 0]) * blockSize;
+            final float h = (float) (Math.exp(output[offset + 3]) * ANCHORS[2 * b + 1]) * blockSize;
+
+            final RectF rect =
+                new RectF(
+                    Math.max(0, xPos - w / 2),
+                    Math.max(0, yPos - h / 2),
+                    Math.min(imageWidth - 1, xPos + w / 2),
+                    Math.min(imageHeight - 1, yPos + h / 2));
+
+            if (LOGGER.isLoggable(Log.VERBOSE)) {
+              LOGGER.v(
+                  "%s (%d) %f %s", LABELS[detectedClass], detectedClass, confidenceInClass, rect);
+            }
+            pq.add(new Recognition("" + offset, LABELS[detectedClass], confidenceInClass, rect));
+          }
+        }
+      }
+    }
+
+    final ArrayList<Recognition> recognitions = new ArrayList<Recognition>();
+    for (int i = 0; i < Math.min(pq.size(), maxResults); ++i) {
+      recognitions.add(pq.poll());
+    }
+    return recognitions;
+  }
+}
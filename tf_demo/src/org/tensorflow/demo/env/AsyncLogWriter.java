@@ -0,0 +1,220 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.util.Log;
+import java.util.IllegalFormatException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring buffer of pending log entries, drained by a single background thread.
+ *
+ * Producers claim a preallocated entry, fill in the raw format string and arguments, and
+ * publish it. Formatting and the call into the platform log happen on the writer thread, so the
+ * camera and inference threads only pay for a few field stores. When the ring is full new
+ * entries are dropped and counted rather than blocking the caller.
+ */
+final class AsyncLogWriter implements Runnable {
+  static final int MAX_ARGS = 6;
+
+  private static final int CAPACITY = 1024;
+  private static final int MASK = CAPACITY - 1;
+
+  // Upper bound on how long a published entry can sit unnoticed if a wakeup is missed.
+  private static final long IDLE_PARK_NS = 50 * 1000 * 1000;
+
+  static final byte KIND_OBJECT = 0;
+  static final byte KIND_LONG = 1;
+  static final byte KIND_DOUBLE = 2;
+
+  /** A reusable log record. Fields are written by one producer, then read by the writer. */
+  static final class Entry {
+    private volatile boolean published;
+
+    int priority;
+    String tag;
+    String prefix;
+    String format;
+    Throwable throwable;
+
+    int argCount;
+    final byte[] kinds = new byte[MAX_ARGS];
+    final long[] longs = new long[MAX_ARGS];
+    final double[] doubles = new double[MAX_ARGS];
+    final Object[] objects = new Object[MAX_ARGS];
+
+    void addLong(final long value) {
+      kinds[argCount] = KIND_LONG;
+      longs[argCount++] = value;
+    }
+
+    void addDouble(final double value) {
+      kinds[argCount] = KIND_DOUBLE;
+      doubles[argCount++] = value;
+    }
+
+    void addObject(final Object value) {
+      kinds[argCount] = KIND_OBJECT;
+      // Mutable arguments such as RectF are captured now, since they may change before the
+      // writer thread gets around to formatting them.
+      objects[argCount++] = isImmutable(value) ? value : String.valueOf(value);
+    }
+
+    private static boolean isImmutable(final Object value) {
+      return value == null
+          || value instanceof String
+          || value instanceof Number
+          || value instanceof Boolean
+          || value instanceof Character
+          || value instanceof Enum;
+    }
+
+    String formatMessage() {
+      if (argCount == 0) {
+        return prefix + format;
+      }
+      final Object[] args = new Object[argCount];
+      for (int i = 0; i < argCount; ++i) {
+        switch (kinds[i]) {
+          case KIND_LONG:
+            args[i] = longs[i];
+            break;
+          case KIND_DOUBLE:
+            args[i] = doubles[i];
+            break;
+          default:
+            args[i] = objects[i];
+        }
+      }
+      try {
+        return prefix + String.format(format, args);
+      } catch (final IllegalFormatException e) {
+        return prefix + format + " (bad format: " + e.getMessage() + ")";
+      }
+    }
+
+    void clear() {
+      tag = null;
+      prefix = null;
+      format = null;
+      throwable = null;
+      for (int i = 0; i < argCount; ++i) {
+        objects[i] = null;
+      }
+      argCount = 0;
+    }
+  }
+
+  private static AsyncLogWriter instance;
+
+  private final Entry[] entries = new Entry[CAPACITY];
+
+  // Next sequence number to hand out to a producer.
+  private final AtomicLong head = new AtomicLong();
+  // Next sequence number the writer will consume.
+  private volatile long tail;
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  private final Thread thread;
+  private volatile boolean idle;
+
+  private AsyncLogWriter() {
+    for (int i = 0; i < CAPACITY; ++i) {
+      entries[i] = new Entry();
+    }
+    thread = new Thread(this, "logger");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+  }
+
+  static synchronized AsyncLogWriter getInstance() {
+    if (instance == null) {
+      instance = new AsyncLogWriter();
+      instance.thread.start();
+    }
+    return instance;
+  }
+
+  /**
+   * Claims an entry to fill, or returns null if the ring is full. Every non-null entry must be
+   * handed back through {@link #publish(Entry)}.
+   */
+  Entry claim(
+      final int priority, final String tag, final String prefix, final String format,
+      final Throwable throwable) {
+    while (true) {
+      final long sequence = head.get();
+      if (sequence - tail >= CAPACITY) {
+        dropped.incrementAndGet();
+        return null;
+      }
+      if (head.compareAndSet(sequence, sequence + 1)) {
+        final Entry entry = entries[(int) (sequence & MASK)];
+        entry.priority = priority;
+        entry.tag = tag;
+        entry.prefix = prefix;
+        entry.format = format;
+        entry.throwable = throwable;
+        entry.argCount = 0;
+        return entry;
+      }
+    }
+  }
+
+  void publish(final Entry entry) {
+    entry.published = true;
+    if (idle) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  /** Returns how many entries have been discarded because the ring was full. */
+  long getDroppedCount() {
+    return dropped.get();
+  }
+
+  @Override
+  public void run() {
+    while (true) {
+      final long sequence = tail;
+      final Entry entry = entries[(int) (sequence & MASK)];
+      if (!entry.published) {
+        idle = true;
+        if (!entry.published) {
+          LockSupport.parkNanos(this, IDLE_PARK_NS);
+        }
+        idle = false;
+        continue;
+      }
+
+      write(entry);
+
+      entry.clear();
+      entry.published = false;
+      tail = sequence + 1;
+    }
+  }
+
+  private static void write(final Entry entry) {
+    String message = entry.formatMessage();
+    if (entry.throwable != null) {
+      message += '\n' + Log.getStackTraceString(entry.throwable);
+    }
+    Log.println(entry.priority, entry.tag, message);
+  }
+}
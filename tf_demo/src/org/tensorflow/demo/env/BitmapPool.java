@@ -0,0 +1,122 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps released bitmaps for reuse, so buffers that are needed on every frame, or again after a
+ * size change, are not allocated anew each time.
+ *
+ * A bitmap is handed out only for the exact size and config it was created with. At most
+ * maxFree bitmaps are kept; beyond that, released bitmaps are recycled. Bitmaps must not be used
+ * after they have been released. Safe to use from any thread.
+ */
+public class BitmapPool {
+  private static final Logger LOGGER = new Logger();
+
+  // Overwrites the destination, alpha included, rather than blending into it.
+  private static final Paint COPY_PAINT = new Paint();
+
+  static {
+    COPY_PAINT.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+  }
+
+  private final int maxFree;
+  // Few sizes are in use at any time, so a linear search beats hashing a key per call.
+  private final List<Bitmap> free = new ArrayList<Bitmap>();
+
+  private long allocations;
+  private long reuses;
+
+  /** @param maxFree The number of released bitmaps to keep for reuse. */
+  public BitmapPool(final int maxFree) {
+    this.maxFree = maxFree;
+  }
+
+  /** Returns a mutable bitmap of the given size and config, with undefined contents. */
+  public Bitmap acquire(final int width, final int height, final Config config) {
+    synchronized (this) {
+      for (int i = free.size() - 1; i >= 0; --i) {
+        final Bitmap bitmap = free.get(i);
+        if (bitmap.getWidth() == width
+            && bitmap.getHeight() == height
+            && bitmap.getConfig() == config) {
+          free.remove(i);
+          ++reuses;
+          return bitmap;
+        }
+      }
+      ++allocations;
+    }
+    LOGGER.v("Allocating %dx%d %s bitmap", width, height, config);
+    return Bitmap.createBitmap(width, height, config);
+  }
+
+  /** Returns a bitmap to the pool. Does nothing for null. */
+  public void release(final Bitmap bitmap) {
+    if (bitmap == null || bitmap.isRecycled()) {
+      return;
+    }
+    Bitmap evicted = null;
+    synchronized (this) {
+      free.add(bitmap);
+      if (free.size() > maxFree) {
+        // The oldest is the least likely to still be wanted.
+        evicted = free.remove(0);
+      }
+    }
+    if (evicted != null) {
+      evicted.recycle();
+    }
+  }
+
+  /** Returns a pooled copy of the bitmap, to be released by whoever ends up with it. */
+  public Bitmap copyOf(final Bitmap source) {
+    final Bitmap copy = acquire(source.getWidth(), source.getHeight(), source.getConfig());
+    new Canvas(copy).drawBitmap(source, 0, 0, COPY_PAINT);
+    return copy;
+  }
+
+  /** Recycles every pooled bitmap. Bitmaps currently acquired are unaffected. */
+  public void clear() {
+    final List<Bitmap> evicted;
+    synchronized (this) {
+      evicted = new ArrayList<Bitmap>(free);
+      free.clear();
+    }
+    for (final Bitmap bitmap : evicted) {
+      bitmap.recycle();
+    }
+  }
+
+  /** Returns how many bitmaps acquire() had to allocate. */
+  public synchronized long getAllocationCount() {
+    return allocations;
+  }
+
+  /** Returns how many bitmaps acquire() took from the pool. */
+  public synchronized long getReuseCount() {
+    return reuses;
+  }
+}
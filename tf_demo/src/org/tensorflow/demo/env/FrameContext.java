@@ -0,0 +1,150 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.os.SystemClock;
+
+/**
+ * Follows a single camera frame through the pipeline, from sensor exposure to the overlay draw
+ * that first shows its results.
+ *
+ * Contexts are created by {@link FrameTracer#beginFrame(long)}. Each mark is set at most once,
+ * by whichever thread reaches that point, using the SystemClock.elapsedRealtimeNanos() clock; a
+ * mark that was never reached reads as 0.
+ */
+public final class FrameContext {
+  private final long id;
+  private final long sensorTimestampNs;
+  private final long arrivalNs;
+
+  private volatile long convertedNs;
+  private volatile long queuedNs;
+  private volatile long inferenceStartNs;
+  private volatile long inferenceEndNs;
+  private volatile long trackedNs;
+  private volatile long drawnNs;
+  private volatile long resultsDrawnNs;
+
+  private volatile FrameTracer.Drop drop;
+
+  FrameContext(final long id, final long sensorTimestampNs, final long arrivalNs) {
+    this.id = id;
+    this.sensorTimestampNs = sensorTimestampNs;
+    this.arrivalNs = arrivalNs;
+  }
+
+  private static long now() {
+    return SystemClock.elapsedRealtimeNanos();
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * Returns when the sensor captured the frame, or the arrival time if the camera's timestamps
+   * are not on the elapsedRealtime clock.
+   */
+  public long getSensorTimestampNs() {
+    return sensorTimestampNs;
+  }
+
+  public long getArrivalNs() {
+    return arrivalNs;
+  }
+
+  public long getConvertedNs() {
+    return convertedNs;
+  }
+
+  public long getQueuedNs() {
+    return queuedNs;
+  }
+
+  public long getInferenceStartNs() {
+    return inferenceStartNs;
+  }
+
+  public long getInferenceEndNs() {
+    return inferenceEndNs;
+  }
+
+  public long getTrackedNs() {
+    return trackedNs;
+  }
+
+  public long getDrawnNs() {
+    return drawnNs;
+  }
+
+  public long getResultsDrawnNs() {
+    return resultsDrawnNs;
+  }
+
+  /** Returns the first reason this frame fell out of the pipeline, or null. */
+  public FrameTracer.Drop getDrop() {
+    return drop;
+  }
+
+  /** The frame has been converted to RGB. */
+  public void markConverted() {
+    convertedNs = now();
+  }
+
+  /** The frame has been handed to the inference thread. */
+  public void markQueued() {
+    queuedNs = now();
+  }
+
+  /** The inference thread has picked the frame up. */
+  public void markInferenceStarted() {
+    inferenceStartNs = now();
+    FrameTracer.onInferenceStarted(this);
+  }
+
+  public void markInferenceFinished() {
+    inferenceEndNs = now();
+  }
+
+  /** The frame's detections have been handed to the tracker. */
+  public void markTracked() {
+    trackedNs = now();
+  }
+
+  /** The overlay has drawn tracked positions for this frame. Only the first call counts. */
+  public void markDrawn() {
+    if (drawnNs == 0) {
+      drawnNs = now();
+      FrameTracer.onDrawn(this);
+    }
+  }
+
+  /** The overlay has drawn the detections made on this frame. Only the first call counts. */
+  public void markResultsDrawn() {
+    if (resultsDrawnNs == 0) {
+      resultsDrawnNs = now();
+      FrameTracer.onResultsDrawn(this);
+    }
+  }
+
+  /** The frame fell out of the pipeline. Only the first reason is kept and counted. */
+  public synchronized void markDropped(final FrameTracer.Drop reason) {
+    if (drop == null) {
+      drop = reason;
+      FrameTracer.onDropped(reason);
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.util.List;
+
+/**
+ * Rejects frames too blurred or too badly exposed for detection to find anything worth tracking.
+ *
+ * Sharpness is the variance of the 4-neighbour Laplacian, which collapses when motion blur or
+ * defocus smears out edges. Exposure comes from a coarse luminance histogram: a frame fails if too
+ * much of it is crushed into the darkest bin or blown out into the brightest. Both are gathered in
+ * one pass over every SAMPLE_STEP-th pixel of every SAMPLE_STEP-th row, into preallocated
+ * counters. So that a scene that is simply low in texture, or a steady dark or bright one, does
+ * not shut detection out for good, a frame is forced through after a run of rejects. Frames are
+ * evaluated on the camera thread while the overlay reads the statistics, so all methods are
+ * synchronized.
+ */
+public class FrameQualityGate {
+  /** The outcome of evaluating a frame. */
+  public enum Verdict {
+    PASS("pass"),
+    BLURRED("blurred"),
+    UNDEREXPOSED("dark"),
+    OVEREXPOSED("bright"),
+    /** The frame failed, but was let through after too many rejects in a row. */
+    FORCED("forced");
+
+    private final String label;
+
+    Verdict(final String label) {
+      this.label = label;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+
+    /** Returns whether the frame should be passed on. */
+    public boolean isAccepted() {
+      return this == PASS || this == FORCED;
+    }
+  }
+
+  private static final Verdict[] VERDICTS = Verdict.values();
+
+  // Only every SAMPLE_STEP-th pixel of every SAMPLE_STEP-th row is read, with its neighbours.
+  private static final int SAMPLE_STEP = 4;
+
+  // Luminance histogram bins; the first and last count as crushed and blown out.
+  private static final int HISTOGRAM_BINS = 16;
+  private static final int BIN_SHIFT = 4;
+
+  private final int[] histogram = new int[HISTOGRAM_BINS];
+  private final long[] verdictCounts = new long[VERDICTS.length];
+
+  private float minSharpness;
+  private float maxClippedFraction;
+  private final int maxConsecutiveRejects;
+  private int consecutiveRejects;
+
+  private float lastSharpness;
+  private float lastDarkFraction;
+  private float lastBrightFraction;
+
+  /**
+   * @param minSharpness The variance of the Laplacian below which a frame counts as blurred.
+   * @param maxClippedFraction The fraction of samples in the darkest or in the brightest
+   *     histogram bin above which a frame counts as badly exposed.
+   * @param maxConsecutiveRejects How many frames in a row may be rejected before the next failing
+   *     one is forced through.
+   */
+  public FrameQualityGate(
+      final float minSharpness, final float maxClippedFraction, final int maxConsecutiveRejects) {
+    this.minSharpness = minSharpness;
+    this.maxClippedFraction = maxClippedFraction;
+    this.maxConsecutiveRejects = maxConsecutiveRejects;
+  }
+
+  /** Evaluates a luminance plane, such as a level of an {@link ImagePyramid}. */
+  public synchronized Verdict evaluate(
+      final byte[] luminance, final int width, final int height, final int rowStride) {
+    for (int i = 0; i < HISTOGRAM_BINS; ++i) {
+      histogram[i] = 0;
+    }
+
+    long sum = 0;
+    long sumSquares = 0;
+    int count = 0;
+    // Starting one pixel in keeps every neighbour inside the plane. Each sampled row is shifted by
+    // one pixel from the last, so edges that line up with the grid are not all missed.
+    for (int y = 1, row = 0; y < height - 1; y += SAMPLE_STEP, ++row) {
+      final int rowOffset = y * rowStride;
+      for (int x = 1 + row % SAMPLE_STEP; x < width - 1; x += SAMPLE_STEP) {
+        final int index = rowOffset + x;
+        final int center = luminance[index] & 0xff;
+        final int laplacian =
+            4 * center
+                - (luminance[index - 1] & 0xff)
+                - (luminance[index + 1] & 0xff)
+                - (luminance[index - rowStride] & 0xff)
+                - (luminance[index + rowStride] & 0xff);
+        sum += laplacian;
+        sumSquares += laplacian * laplacian;
+        ++histogram[center >> BIN_SHIFT];
+        ++count;
+      }
+    }
+
+    if (count == 0) {
+      return record(Verdict.PASS);
+    }
+    final float mean = (float) sum / count;
+    lastSharpness = (float) sumSquares / count - mean * mean;
+    lastDarkFraction = (float) histogram[0] / count;
+    lastBrightFraction = (float) histogram[HISTOGRAM_BINS - 1] / count;
+
+    if (lastDarkFraction > maxClippedFraction) {
+      return record(Verdict.UNDEREXPOSED);
+    }
+    if (lastBrightFraction > maxClippedFraction) {
+      return record(Verdict.OVEREXPOSED);
+    }
+    if (lastSharpness < minSharpness) {
+      return record(Verdict.BLURRED);
+    }
+    return record(Verdict.PASS);
+  }
+
+  private Verdict record(final Verdict verdict) {
+    Verdict result = verdict;
+    if (verdict == Verdict.PASS) {
+      consecutiveRejects = 0;
+    } else if (consecutiveRejects >= maxConsecutiveRejects) {
+      consecutiveRejects = 0;
+      result = Verdict.FORCED;
+    } else {
+      ++consecutiveRejects;
+    }
+    ++verdictCounts[result.ordinal()];
+    return result;
+  }
+
+  public synchronized float getMinSharpness() {
+    return minSharpness;
+  }
+
+  public synchronized void setMinSharpness(final float minSharpness) {
+    this.minSharpness = minSharpness;
+  }
+
+  public synchronized float getMaxClippedFraction() {
+    return maxClippedFraction;
+  }
+
+  public synchronized void setMaxClippedFraction(final float maxClippedFraction) {
+    this.maxClippedFraction = maxClippedFraction;
+  }
+
+  /** Returns the variance of the Laplacian of the last frame evaluated. */
+  public synchronized float getLastSharpness() {
+    return lastSharpness;
+  }
+
+  public synchronized long getCount(final Verdict verdict) {
+    return verdictCounts[verdict.ordinal()];
+  }
+
+  /** Appends the last frame's measurements and the count of each verdict, for the overlay. */
+  public synchronized void addSummaryLines(final List<String> lines) {
+    lines.add(
+        String.format(
+            "quality sharp %.0f/%.0f dark %.2f bright %.2f/%.2f",
+            lastSharpness, minSharpness, lastDarkFraction, lastBrightFraction,
+            maxClippedFraction));
+    final StringBuilder counts = new StringBuilder("gate");
+    for (final Verdict verdict : VERDICTS) {
+      counts.append(' ').append(verdict.getLabel()).append(' ').append(getCount(verdict));
+    }
+    lines.add(counts.toString());
+  }
+}
@@ -0,0 +1,182 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.util.List;
+
+/**
+ * Caps the camera's frame rate at what the frame-processing thread can keep up with, so that the
+ * camera does not capture, process and convert frames that are only dropped because the previous
+ * one is still being worked on.
+ *
+ * The time from a frame's arrival to its release is smoothed with an exponential moving average,
+ * which gives the rate the pipeline can sustain. Every EVALUATION_FRAMES frames, the highest
+ * supported frame rate range whose maximum stays under HEADROOM of that rate is chosen, but never
+ * one below the minimum the tracker needs to follow motion between frames. Since processing time
+ * does not depend on the camera rate, the cap rises again as soon as processing speeds up, for
+ * instance once inference stops competing for the CPU.
+ *
+ * Frames are reported from the camera thread, while ranges are set and the counters read from
+ * others, so all methods are synchronized.
+ */
+public class FrameRateGovernor {
+  private static final Logger LOGGER = new Logger();
+
+  /** Applies a frame rate range to the camera. */
+  public interface FpsRangeSetter {
+    /** Called on the thread that reports processed frames. */
+    void setFpsRange(int minFps, int maxFps);
+  }
+
+  // Weight of the newest sample in the moving average.
+  private static final float SMOOTHING = 0.1f;
+
+  // Fraction of the sustainable rate the camera may run at, leaving room for jitter.
+  private static final float HEADROOM = 0.9f;
+
+  // Frames to collect between decisions.
+  private static final int EVALUATION_FRAMES = 30;
+
+  private final int minFps;
+
+  private int[][] ranges;
+  private FpsRangeSetter setter;
+  private int currentRange = -1;
+
+  private float averageProcessingNs;
+  private int framesSinceEvaluation;
+
+  private long processedFrames;
+  private long droppedFrames;
+
+  /** @param minFps The lowest frame rate that still keeps the tracker fed. */
+  public FrameRateGovernor(final int minFps) {
+    this.minFps = minFps;
+  }
+
+  /**
+   * Attaches the governor to an opened camera.
+   *
+   * @param ranges The camera's supported {minFps, maxFps} ranges, or null when the camera closes.
+   * @param setter Applies one of them, or null when the camera closes.
+   */
+  public synchronized void setCamera(final int[][] ranges, final FpsRangeSetter setter) {
+    this.ranges = ranges;
+    this.setter = setter;
+    currentRange = -1;
+    framesSinceEvaluation = 0;
+  }
+
+  /** Records that the camera thread took the given time to get through a frame. */
+  public synchronized void onFrameProcessed(final long processingNs) {
+    averageProcessingNs =
+        processedFrames == 0
+            ? processingNs
+            : averageProcessingNs + SMOOTHING * (processingNs - averageProcessingNs);
+    ++processedFrames;
+
+    if (++framesSinceEvaluation < EVALUATION_FRAMES || ranges == null || setter == null) {
+      return;
+    }
+    framesSinceEvaluation = 0;
+
+    final int range = chooseRange(ranges, HEADROOM * getSustainableFps(), minFps);
+    if (range < 0 || range == currentRange) {
+      return;
+    }
+    currentRange = range;
+    LOGGER.i(
+        "Camera frame rate %d-%d fps for %.1f ms per frame",
+        ranges[range][0], ranges[range][1], averageProcessingNs / 1.0e6f);
+    setter.setFpsRange(ranges[range][0], ranges[range][1]);
+  }
+
+  /** Records a frame that arrived while the previous one was still being processed. */
+  public synchronized void onFrameDropped() {
+    ++droppedFrames;
+  }
+
+  /** Returns the frame rate the processing thread is keeping up with, or 0 before any frames. */
+  public synchronized float getSustainableFps() {
+    return averageProcessingNs > 0 ? 1.0e9f / averageProcessingNs : 0.0f;
+  }
+
+  public synchronized long getProcessedFrameCount() {
+    return processedFrames;
+  }
+
+  public synchronized long getDroppedFrameCount() {
+    return droppedFrames;
+  }
+
+  /** Appends the current range, sustainable rate and frame counts, for the overlay. */
+  public synchronized void addSummaryLines(final List<String> lines) {
+    final String range =
+        currentRange >= 0
+            ? ranges[currentRange][0] + "-" + ranges[currentRange][1]
+            : "default";
+    lines.add(
+        String.format(
+            "fps %s sustain %.1f processed %d dropped %d",
+            range, getSustainableFps(), processedFrames, droppedFrames));
+  }
+
+  /**
+   * Picks the range with the highest maximum between minFps and targetFps. Failing that, it picks
+   * the lowest maximum above minFps, or the highest one below it. Of ranges with the same maximum,
+   * the one with the lowest minimum that is still at least minFps is preferred, which lets
+   * exposure stretch in low light without starving the tracker.
+   *
+   * @return The index of the chosen range, or -1 if there are none.
+   */
+  static int chooseRange(final int[][] ranges, final float targetFps, final int minFps) {
+    final float target = Math.max(targetFps, minFps);
+    int best = -1;
+    for (int i = 0; i < ranges.length; ++i) {
+      if (best < 0 || isBetter(ranges[i], ranges[best], target, minFps)) {
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  private static boolean isBetter(
+      final int[] range, final int[] best, final float target, final int minFps) {
+    if (range[1] != best[1]) {
+      final boolean fits = range[1] <= target && range[1] >= minFps;
+      final boolean bestFits = best[1] <= target && best[1] >= minFps;
+      if (fits != bestFits) {
+        return fits;
+      }
+      if (fits) {
+        return range[1] > best[1];
+      }
+      // Nothing fits, so the slowest range that keeps the tracker fed, or else the fastest.
+      final boolean fed = range[1] >= minFps;
+      final boolean bestFed = best[1] >= minFps;
+      if (fed != bestFed) {
+        return fed;
+      }
+      return fed ? range[1] < best[1] : range[1] > best[1];
+    }
+    final boolean floorOk = range[0] >= minFps;
+    final boolean bestFloorOk = best[0] >= minFps;
+    if (floorOk != bestFloorOk) {
+      return floorOk;
+    }
+    return floorOk ? range[0] < best[0] : range[0] > best[0];
+  }
+}
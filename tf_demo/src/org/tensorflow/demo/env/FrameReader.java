@@ -0,0 +1,150 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads frames back from a capture file written by {@link FrameRecorder}.
+ *
+ * Has no Android dependencies, so captures can also be decoded on a desktop JVM.
+ */
+public final class FrameReader implements Closeable {
+  private static final long WINDOW_SIZE = 32L * 1024 * 1024;
+
+  /** One decoded frame. Plane arrays are reused between calls to {@link #next(Frame)}. */
+  public static final class Frame {
+    public long timestampNs;
+    public int width;
+    public int height;
+    public int rotation;
+    public int format;
+    public int yRowStride;
+    public int uvRowStride;
+    public int uvPixelStride;
+    public int planeCount;
+    public final byte[][] planes = new byte[FrameRecorder.MAX_PLANES][];
+  }
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long size;
+
+  private MappedByteBuffer window;
+  private long windowStart;
+  private boolean exhausted;
+
+  public FrameReader(final File path) throws IOException {
+    file = new RandomAccessFile(path, "r");
+    channel = file.getChannel();
+    size = channel.size();
+
+    if (!ensureAvailable(FrameRecorder.FILE_HEADER_SIZE)) {
+      close();
+      throw new IOException(path + " is too short to be a capture file");
+    }
+    final int magic = window.getInt();
+    final int version = window.getInt();
+    if (magic != FrameRecorder.MAGIC || version != FrameRecorder.VERSION) {
+      close();
+      throw new IOException(
+          String.format("%s is not a version %d capture file", path, FrameRecorder.VERSION));
+    }
+  }
+
+  /**
+   * Reads the next frame into the given holder.
+   *
+   * @return false once the end of the capture is reached.
+   */
+  public boolean next(final Frame frame) throws IOException {
+    if (exhausted || !ensureAvailable(4)) {
+      exhausted = true;
+      return false;
+    }
+    final int recordLength = window.getInt();
+    // A zero length is an unfinished record, or the unused tail of a recording that never closed.
+    if (recordLength < FrameRecorder.RECORD_HEADER_SIZE || !ensureAvailable(recordLength)) {
+      exhausted = true;
+      return false;
+    }
+
+    frame.timestampNs = window.getLong();
+    frame.width = window.getInt();
+    frame.height = window.getInt();
+    frame.rotation = window.getInt();
+    frame.format = window.getInt();
+    frame.yRowStride = window.getInt();
+    frame.uvRowStride = window.getInt();
+    frame.uvPixelStride = window.getInt();
+    frame.planeCount = window.getInt();
+    if (frame.planeCount < 1 || frame.planeCount > FrameRecorder.MAX_PLANES) {
+      throw new IOException("Corrupt capture record, plane count " + frame.planeCount);
+    }
+
+    for (int i = 0; i < frame.planeCount; ++i) {
+      final int length = window.getInt();
+      if (length < 0 || length > window.remaining()) {
+        throw new IOException("Corrupt capture record, plane length " + length);
+      }
+      if (frame.planes[i] == null || frame.planes[i].length != length) {
+        frame.planes[i] = new byte[length];
+      }
+      window.get(frame.planes[i]);
+    }
+    return true;
+  }
+
+  /** Seeks back to the first frame. */
+  public void rewind() throws IOException {
+    map(FrameRecorder.FILE_HEADER_SIZE, 0);
+    exhausted = false;
+  }
+
+  private boolean ensureAvailable(final int bytes) throws IOException {
+    if (window != null && window.remaining() >= bytes) {
+      return true;
+    }
+    final long position = window == null ? 0 : windowStart + window.position();
+    if (position + bytes > size) {
+      return false;
+    }
+    map(position, bytes);
+    return true;
+  }
+
+  private void map(final long position, final int minBytes) throws IOException {
+    windowStart = position;
+    window =
+        channel.map(
+            FileChannel.MapMode.READ_ONLY,
+            position,
+            Math.min(Math.max(WINDOW_SIZE, minBytes), size - position));
+    window.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    file.close();
+  }
+}
@@ -0,0 +1,156 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends raw camera frames to a capture file that {@link FrameReader} can play back.
+ *
+ * The file is written through a sliding memory-mapped window, so recording a frame is a copy of
+ * its planes into page cache with no per-frame system calls; the kernel writes the pages back in
+ * its own time. All values are little-endian. The layout is a file header followed by records:
+ *
+ * <pre>
+ *   int magic, int version
+ *   repeated:
+ *     int recordLength            (bytes following this field)
+ *     long timestampNs
+ *     int width, height, rotation, format
+ *     int yRowStride, uvRowStride, uvPixelStride
+ *     int planeCount
+ *     repeated planeCount times: int length, byte[length]
+ * </pre>
+ *
+ * The record length is written last, so a record cut short by a crash reads as zero and marks the
+ * end of the capture. Not thread-safe.
+ */
+public final class FrameRecorder implements Closeable {
+  static final int MAGIC = 0x46434654; // "TFCF"
+  static final int VERSION = 1;
+
+  static final int FILE_HEADER_SIZE = 8;
+  static final int RECORD_HEADER_SIZE = 8 + 8 * 4;
+  static final int MAX_PLANES = 3;
+
+  /** A single interleaved plane as delivered by android.hardware.Camera. */
+  public static final int FORMAT_NV21 = 0;
+  /** Three planes as delivered by android.media.ImageReader. */
+  public static final int FORMAT_YUV_420_888 = 1;
+
+  // Size of each mapping. Larger windows mean fewer remaps but more address space held at once.
+  private static final long WINDOW_SIZE = 32L * 1024 * 1024;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+
+  private MappedByteBuffer window;
+  private long windowStart;
+
+  private int frameCount;
+
+  public FrameRecorder(final File path) throws IOException {
+    file = new RandomAccessFile(path, "rw");
+    file.setLength(0);
+    channel = file.getChannel();
+
+    ensureCapacity(FILE_HEADER_SIZE);
+    window.putInt(MAGIC);
+    window.putInt(VERSION);
+  }
+
+  /**
+   * Appends one frame.
+   *
+   * @param planes The plane data; only the first planeCount entries are written, each in full.
+   */
+  public void write(
+      final long timestampNs,
+      final int width,
+      final int height,
+      final int rotation,
+      final int format,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final byte[][] planes,
+      final int planeCount)
+      throws IOException {
+    if (planeCount < 1 || planeCount > MAX_PLANES) {
+      throw new IllegalArgumentException("Unsupported plane count " + planeCount);
+    }
+
+    int recordLength = RECORD_HEADER_SIZE;
+    for (int i = 0; i < planeCount; ++i) {
+      recordLength += 4 + planes[i].length;
+    }
+    ensureCapacity(4 + recordLength);
+
+    final int lengthOffset = window.position();
+    window.putInt(0);
+    window.putLong(timestampNs);
+    window.putInt(width);
+    window.putInt(height);
+    window.putInt(rotation);
+    window.putInt(format);
+    window.putInt(yRowStride);
+    window.putInt(uvRowStride);
+    window.putInt(uvPixelStride);
+    window.putInt(planeCount);
+    for (int i = 0; i < planeCount; ++i) {
+      window.putInt(planes[i].length);
+      window.put(planes[i]);
+    }
+    window.putInt(lengthOffset, recordLength);
+    ++frameCount;
+  }
+
+  public int getFrameCount() {
+    return frameCount;
+  }
+
+  /** Returns the number of bytes written so far, including the file header. */
+  public long getLength() {
+    return windowStart + window.position();
+  }
+
+  private void ensureCapacity(final int bytes) throws IOException {
+    if (window != null && window.remaining() >= bytes) {
+      return;
+    }
+    // Mapping past the end of the file grows it; the slack is trimmed again in close().
+    windowStart = window == null ? 0 : getLength();
+    window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, Math.max(WINDOW_SIZE, bytes));
+    window.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** Trims the unused tail of the last window and closes the file. */
+  @Override
+  public void close() throws IOException {
+    try {
+      channel.truncate(getLength());
+    } finally {
+      window = null;
+      file.close();
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.io.IOException;
+
+/**
+ * Feeds the frames of a capture file to a listener, standing in for the camera.
+ *
+ * Unlike a camera, the replayer never drops a frame: it waits for the listener to release each
+ * frame before reading the next, so every run sees the same frame sequence. In real-time mode the
+ * frames are additionally held back to their recorded spacing; otherwise they are delivered as
+ * fast as the listener consumes them, which measures pipeline throughput. Run it on a thread of
+ * its own. Has no Android dependencies.
+ */
+public final class FrameReplayer implements Runnable {
+  /** Receives replayed frames on the replay thread. */
+  public interface Listener {
+    /**
+     * Called for each frame. The frame and its planes stay valid until
+     * {@link FrameReplayer#release()} is called, from any thread.
+     */
+    void onReplayFrame(FrameReplayer replayer, FrameReader.Frame frame);
+
+    /** Called once the capture is exhausted, replay was stopped or reading failed. */
+    void onReplayFinished(FrameReplayer replayer);
+  }
+
+  private final FrameReader reader;
+  private final Listener listener;
+  private final boolean realTime;
+  private final boolean loop;
+
+  private final Object lock = new Object();
+  private boolean pending;
+
+  private volatile boolean running = true;
+
+  private volatile int framesDelivered;
+  private volatile long elapsedNs;
+  private volatile IOException error;
+
+  public FrameReplayer(
+      final FrameReader reader,
+      final Listener listener,
+      final boolean realTime,
+      final boolean loop) {
+    this.reader = reader;
+    this.listener = listener;
+    this.realTime = realTime;
+    this.loop = loop;
+  }
+
+  /** Hands the current frame back, letting the replayer move on to the next one. */
+  public void release() {
+    synchronized (lock) {
+      pending = false;
+      lock.notifyAll();
+    }
+  }
+
+  /** Asks the replay loop to finish after the frame in flight, if any. */
+  public void stop() {
+    running = false;
+    release();
+  }
+
+  @Override
+  public void run() {
+    final FrameReader.Frame frame = new FrameReader.Frame();
+    final long startNs = System.nanoTime();
+
+    // Replay time origin; reset whenever the capture loops around.
+    long firstTimestampNs = -1;
+    long scheduleStartNs = 0;
+
+    try {
+      while (running) {
+        if (!reader.next(frame)) {
+          if (!loop || framesDelivered == 0) {
+            break;
+          }
+          reader.rewind();
+          firstTimestampNs = -1;
+          continue;
+        }
+
+        if (realTime) {
+          if (firstTimestampNs < 0) {
+            firstTimestampNs = frame.timestampNs;
+            scheduleStartNs = System.nanoTime();
+          } else {
+            final long waitNs =
+                scheduleStartNs + (frame.timestampNs - firstTimestampNs) - System.nanoTime();
+            if (waitNs > 0) {
+              Thread.sleep(waitNs / 1000000, (int) (waitNs % 1000000));
+            }
+          }
+        }
+
+        synchronized (lock) {
+          pending = true;
+        }
+        listener.onReplayFrame(this, frame);
+        synchronized (lock) {
+          while (pending && running) {
+            lock.wait();
+          }
+        }
+        ++framesDelivered;
+      }
+    } catch (final IOException e) {
+      error = e;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      elapsedNs = System.nanoTime() - startNs;
+      listener.onReplayFinished(this);
+    }
+  }
+
+  public int getFramesDelivered() {
+    return framesDelivered;
+  }
+
+  /** Wall time of the whole replay, valid once the listener has been told it finished. */
+  public long getElapsedNanos() {
+    return elapsedNs;
+  }
+
+  public double getFramesPerSecond() {
+    return elapsedNs == 0 ? 0.0 : framesDelivered * 1e9 / elapsedNs;
+  }
+
+  /** Returns the error that ended the replay early, or null. */
+  public IOException getError() {
+    return error;
+  }
+}
@@ -0,0 +1,238 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.os.SystemClock;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Process-wide end-to-end latency tracing of camera frames.
+ *
+ * Where {@link Metrics} times the individual stages, this follows each frame as a whole: how old
+ * it was when it reached the app, how long it waited for the inference thread, and how old it was
+ * when the overlay drew it. The "drawn" times are taken when the overlay issues its draw, so they
+ * exclude the final composition and scan-out. The last {@link #TRACE_CAPACITY} frames are kept
+ * for export.
+ */
+public final class FrameTracer {
+  private static final Logger LOGGER = new Logger();
+
+  /** Ways a frame can fall out of the pipeline before its results are shown. */
+  public enum Drop {
+    /** The camera delivered the frame while the previous one was still being processed. */
+    CAMERA_BUSY("camera"),
+    /** The frame was tracked, but detection was still busy with an earlier frame. */
+    DETECTOR_BUSY("detector"),
+    /** The frame was tracked, but was too blurred or badly exposed to run detection on. */
+    LOW_QUALITY("quality"),
+    /** The frame was tracked, but the cascade's gate found nothing to run the detector for. */
+    GATED("gated"),
+    /** A newer frame was tracked before the overlay got to draw this one. */
+    NOT_DRAWN("undrawn"),
+    /** The pipeline was paused, for instance while the detector's session was being tuned. */
+    PAUSED("paused");
+
+    private final String label;
+
+    Drop(final String label) {
+      this.label = label;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+  }
+
+  private static final int TRACE_CAPACITY = 1024;
+  private static final int TRACE_MASK = TRACE_CAPACITY - 1;
+
+  private static final Drop[] DROPS = Drop.values();
+
+  private static final AtomicLong NEXT_ID = new AtomicLong();
+  // Frames dropped on arrival, which are counted without being traced.
+  private static final AtomicLong UNTRACED_FRAMES = new AtomicLong();
+  private static final AtomicReferenceArray<FrameContext> TRACE =
+      new AtomicReferenceArray<FrameContext>(TRACE_CAPACITY);
+  private static final AtomicLongArray DROP_COUNTS = new AtomicLongArray(DROPS.length);
+
+  // Sensor exposure to arrival in the app.
+  private static final LatencyHistogram CAPTURE = new LatencyHistogram();
+  // Hand-off to the inference thread to inference starting.
+  private static final LatencyHistogram QUEUE = new LatencyHistogram();
+  // Sensor exposure to the overlay drawing tracked positions for the frame.
+  private static final LatencyHistogram DISPLAY = new LatencyHistogram();
+  // Sensor exposure to the overlay drawing the frame's detections.
+  private static final LatencyHistogram RESULTS = new LatencyHistogram();
+
+  private FrameTracer() {}
+
+  /**
+   * Starts tracing a frame that has just arrived.
+   *
+   * @param sensorTimestampNs When the sensor captured the frame on the elapsedRealtime clock, or
+   *     a negative value if unknown, in which case the arrival time stands in for it.
+   */
+  public static FrameContext beginFrame(final long sensorTimestampNs) {
+    final long arrivalNs = SystemClock.elapsedRealtimeNanos();
+    final long id = NEXT_ID.getAndIncrement();
+    final FrameContext context =
+        new FrameContext(id, sensorTimestampNs >= 0 ? sensorTimestampNs : arrivalNs, arrivalNs);
+    TRACE.set((int) (id & TRACE_MASK), context);
+    if (sensorTimestampNs >= 0) {
+      CAPTURE.record((arrivalNs - sensorTimestampNs) / 1000);
+    }
+    return context;
+  }
+
+  static void onInferenceStarted(final FrameContext context) {
+    if (context.getQueuedNs() != 0) {
+      QUEUE.record((context.getInferenceStartNs() - context.getQueuedNs()) / 1000);
+    }
+  }
+
+  static void onDrawn(final FrameContext context) {
+    DISPLAY.record((context.getDrawnNs() - context.getSensorTimestampNs()) / 1000);
+  }
+
+  static void onResultsDrawn(final FrameContext context) {
+    RESULTS.record((context.getResultsDrawnNs() - context.getSensorTimestampNs()) / 1000);
+  }
+
+  static void onDropped(final Drop reason) {
+    DROP_COUNTS.incrementAndGet(reason.ordinal());
+  }
+
+  /**
+   * Counts a frame dropped as soon as it arrived, such as one the camera delivered while the
+   * previous frame was still being processed. Such frames get no context or id, so dropping them
+   * allocates nothing.
+   */
+  public static void dropFrame(final Drop reason) {
+    UNTRACED_FRAMES.incrementAndGet();
+    onDropped(reason);
+  }
+
+  /** Returns the number of frames that have arrived, traced or not. */
+  public static long getFrameCount() {
+    return NEXT_ID.get() + UNTRACED_FRAMES.get();
+  }
+
+  public static long getDropCount(final Drop reason) {
+    return DROP_COUNTS.get(reason.ordinal());
+  }
+
+  /** Appends frame and drop counts and the end-to-end latency percentiles, for the overlay. */
+  public static void addSummaryLines(final List<String> lines) {
+    final StringBuilder drops = new StringBuilder();
+    drops.append("frames ").append(getFrameCount()).append(" dropped");
+    for (final Drop drop : DROPS) {
+      drops.append(' ').append(drop.getLabel()).append(' ').append(getDropCount(drop));
+    }
+    lines.add(drops.toString());
+
+    final long[] snapshot = new long[LatencyHistogram.NUM_BUCKETS];
+    addSummaryLine(lines, "capture", CAPTURE, snapshot);
+    addSummaryLine(lines, "queue", QUEUE, snapshot);
+    addSummaryLine(lines, "display", DISPLAY, snapshot);
+    addSummaryLine(lines, "boxes", RESULTS, snapshot);
+  }
+
+  private static void addSummaryLine(
+      final List<String> lines,
+      final String label,
+      final LatencyHistogram histogram,
+      final long[] snapshot) {
+    final long count = histogram.snapshot(snapshot);
+    if (count == 0) {
+      return;
+    }
+    lines.add(
+        String.format(
+            "%-7s p50 %5.1f p95 %5.1f p99 %5.1f ms",
+            label,
+            LatencyHistogram.valueAtQuantile(snapshot, count, 0.50) / 1000.0,
+            LatencyHistogram.valueAtQuantile(snapshot, count, 0.95) / 1000.0,
+            LatencyHistogram.valueAtQuantile(snapshot, count, 0.99) / 1000.0));
+  }
+
+  public static void reset() {
+    for (int i = 0; i < DROPS.length; ++i) {
+      DROP_COUNTS.set(i, 0);
+    }
+    CAPTURE.reset();
+    QUEUE.reset();
+    DISPLAY.reset();
+    RESULTS.reset();
+  }
+
+  /**
+   * Writes the retained frames as CSV, oldest first. Times are elapsedRealtime nanoseconds, with
+   * 0 for points a frame never reached.
+   */
+  public static void dump(final File file) throws IOException {
+    final PrintWriter writer = new PrintWriter(new FileOutputStream(file));
+    try {
+      writer.println(
+          "frame,sensor_ns,arrival_ns,converted_ns,queued_ns,inference_start_ns,"
+              + "inference_end_ns,tracked_ns,drawn_ns,results_drawn_ns,dropped");
+      final long end = NEXT_ID.get();
+      for (long id = Math.max(0, end - TRACE_CAPACITY); id < end; ++id) {
+        final FrameContext context = TRACE.get((int) (id & TRACE_MASK));
+        if (context == null || context.getId() != id) {
+          continue;
+        }
+        final Drop drop = context.getDrop();
+        writer.printf(
+            "%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%s%n",
+            id,
+            context.getSensorTimestampNs(),
+            context.getArrivalNs(),
+            context.getConvertedNs(),
+            context.getQueuedNs(),
+            context.getInferenceStartNs(),
+            context.getInferenceEndNs(),
+            context.getTrackedNs(),
+            context.getDrawnNs(),
+            context.getResultsDrawnNs(),
+            drop != null ? drop.getLabel() : "");
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /** Dumps the trace next to the stage statistics, logging rather than throwing on failure. */
+  public static void dumpToExternalStorage(final String filename) {
+    final File dir = Metrics.getOutputDir();
+    if (dir == null) {
+      return;
+    }
+    final File file = new File(dir, filename);
+    try {
+      dump(file);
+      LOGGER.i("Wrote frame trace to %s", file);
+    } catch (final IOException e) {
+      LOGGER.e(e, "Failed to write frame trace to %s", file);
+    }
+  }
+}
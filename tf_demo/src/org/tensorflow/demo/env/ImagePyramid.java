@@ -0,0 +1,248 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Luminance and ARGB versions of the current camera frame at successively halved resolutions,
+ * so the tracker, the detector crop and the image checks share one downscale per level instead
+ * of each making their own.
+ *
+ * Level 0 is the full frame, whose luminance is the camera's own plane, or a copy made on demand
+ * when that plane is a buffer. Each further level halves both dimensions, rounding down. Levels
+ * are built on first use after {@link #setFrame}: a luminance level averages 2x2 blocks of the
+ * level above, and RGB comes straight from the YUV planes at full or half size, or from the level
+ * above beyond that. The buffers are allocated once and reused for every frame. Meant for the
+ * thread that delivers frames; the arrays returned are only valid until the next frame.
+ */
+public class ImagePyramid {
+  /** The number of levels, down to an eighth of the frame size. */
+  public static final int NUM_LEVELS = 4;
+
+  /** Converts the current frame's YUV planes to ARGB. */
+  public interface RgbConverter {
+    /**
+     * @param output A (width / 2) x (height / 2) array if halfSize is set, otherwise a full size
+     *     one.
+     */
+    void convert(int[] output, boolean halfSize);
+  }
+
+  private final int[] widths = new int[NUM_LEVELS];
+  private final int[] heights = new int[NUM_LEVELS];
+
+  private final byte[][] luminance = new byte[NUM_LEVELS][];
+  private int rowStride;
+
+  // The current frame's luminance plane when given as a buffer, and the array level 0 is copied
+  // into from it if anyone asks for that level as an array.
+  private ByteBuffer luminanceBuffer;
+  private byte[] luminanceBufferCopy;
+  private final int[][] rgb = new int[NUM_LEVELS][];
+
+  private RgbConverter converter;
+
+  // The frame each level was last built for. Frames count from 1, so 0 means never.
+  private long frame;
+  private final long[] luminanceFrames = new long[NUM_LEVELS];
+  private final long[] rgbFrames = new long[NUM_LEVELS];
+
+  public ImagePyramid(final int width, final int height) {
+    for (int level = 0; level < NUM_LEVELS; ++level) {
+      widths[level] = width >> level;
+      heights[level] = height >> level;
+    }
+  }
+
+  /**
+   * Makes the given frame the current one. The luminance plane is used in place and must not
+   * change until the next frame; the converter is called at most twice per frame.
+   */
+  public void setFrame(
+      final byte[] luminance, final int rowStride, final RgbConverter converter) {
+    ++frame;
+    this.luminance[0] = luminance;
+    this.rowStride = rowStride;
+    this.converter = converter;
+    luminanceBuffer = null;
+    luminanceFrames[0] = frame;
+  }
+
+  /**
+   * Like {@link #setFrame(byte[], int, RgbConverter)}, but with the luminance plane in a buffer,
+   * such as a Camera2 Image plane's, which must stay valid until the next frame. Level 1 is built
+   * straight from the buffer, so the full size plane is only copied out if level 0's luminance is
+   * asked for.
+   */
+  public void setFrame(
+      final ByteBuffer luminance, final int rowStride, final RgbConverter converter) {
+    ++frame;
+    luminanceBuffer = luminance;
+    this.rowStride = rowStride;
+    this.converter = converter;
+  }
+
+  /**
+   * Returns the coarsest level of a width x height frame that is still at least minWidth x
+   * minHeight, so a scaled copy of that size loses nothing over one from the full frame.
+   */
+  public static int getCoarsestLevel(
+      final int width, final int height, final int minWidth, final int minHeight) {
+    int level = 0;
+    while (level + 1 < NUM_LEVELS
+        && width >> (level + 1) >= minWidth
+        && height >> (level + 1) >= minHeight) {
+      ++level;
+    }
+    return level;
+  }
+
+  /** Returns the level that is downsampled by the given factor, or -1 if there is none. */
+  public static int getLevelForFactor(final int factor) {
+    for (int level = 0; level < NUM_LEVELS; ++level) {
+      if (1 << level == factor) {
+        return level;
+      }
+    }
+    return -1;
+  }
+
+  public int getWidth(final int level) {
+    return widths[level];
+  }
+
+  public int getHeight(final int level) {
+    return heights[level];
+  }
+
+  /** Returns the row stride of a luminance level: the camera's for level 0, the width otherwise. */
+  public int getLuminanceStride(final int level) {
+    return level == 0 ? rowStride : widths[level];
+  }
+
+  public byte[] getLuminance(final int level) {
+    buildLuminance(level);
+    return luminance[level];
+  }
+
+  /** Returns the ARGB pixels of a level, with a row stride of its width. */
+  public int[] getRgb(final int level) {
+    buildRgb(level);
+    return rgb[level];
+  }
+
+  private void buildLuminance(final int level) {
+    if (luminanceFrames[level] == frame) {
+      return;
+    }
+    if (level == 0) {
+      copyLuminanceBuffer();
+      return;
+    }
+    final int width = widths[level];
+    final int height = heights[level];
+    if (luminance[level] == null) {
+      luminance[level] = new byte[width * height];
+    }
+    final byte[] output = luminance[level];
+
+    if (level == 1 && luminanceBuffer != null && luminanceFrames[0] != frame) {
+      ImageUtils.downsampleLuminance(luminanceBuffer, widths[0], heights[0], rowStride, output);
+      luminanceFrames[level] = frame;
+      return;
+    }
+
+    buildLuminance(level - 1);
+    final byte[] input = luminance[level - 1];
+    final int inputStride = getLuminanceStride(level - 1);
+
+    for (int y = 0, out = 0; y < height; ++y) {
+      int in = 2 * y * inputStride;
+      for (int x = 0; x < width; ++x, in += 2) {
+        output[out++] =
+            (byte)
+                (((input[in] & 0xff)
+                        + (input[in + 1] & 0xff)
+                        + (input[in + inputStride] & 0xff)
+                        + (input[in + inputStride + 1] & 0xff)
+                        + 2)
+                    >> 2);
+      }
+    }
+    luminanceFrames[level] = frame;
+  }
+
+  /** Copies the current frame's luminance buffer into level 0, keeping its row stride. */
+  private void copyLuminanceBuffer() {
+    // Like the native code, read from the start of the buffer whatever its position.
+    final int size = luminanceBuffer.limit();
+    if (luminanceBufferCopy == null || luminanceBufferCopy.length < size) {
+      luminanceBufferCopy = new byte[size];
+    }
+    final int position = luminanceBuffer.position();
+    luminanceBuffer.position(0);
+    luminanceBuffer.get(luminanceBufferCopy, 0, size);
+    luminanceBuffer.position(position);
+    luminance[0] = luminanceBufferCopy;
+    luminanceFrames[0] = frame;
+  }
+
+  private void buildRgb(final int level) {
+    if (rgbFrames[level] == frame) {
+      return;
+    }
+    final int width = widths[level];
+    final int height = heights[level];
+    if (rgb[level] == null) {
+      rgb[level] = new int[width * height];
+    }
+    final int[] output = rgb[level];
+
+    if (level == 0) {
+      converter.convert(output, false);
+    } else if (level == 1 && rgbFrames[0] != frame) {
+      // Cheaper than converting the full frame first.
+      converter.convert(output, true);
+    } else {
+      buildRgb(level - 1);
+      final int[] input = rgb[level - 1];
+      final int inputStride = widths[level - 1];
+      for (int y = 0, out = 0; y < height; ++y) {
+        int in = 2 * y * inputStride;
+        for (int x = 0; x < width; ++x, in += 2) {
+          output[out++] =
+              averageArgb(
+                  input[in], input[in + 1], input[in + inputStride], input[in + inputStride + 1]);
+        }
+      }
+    }
+    rgbFrames[level] = frame;
+  }
+
+  private static int averageArgb(final int a, final int b, final int c, final int d) {
+    // Red and blue, then alpha and green, each pair summed in one go with room to carry.
+    final int redBlue =
+        (a & 0xff00ff) + (b & 0xff00ff) + (c & 0xff00ff) + (d & 0xff00ff) + 0x20002;
+    final int alphaGreen =
+        ((a >>> 8) & 0xff00ff)
+            + ((b >>> 8) & 0xff00ff)
+            + ((c >>> 8) & 0xff00ff)
+            + ((d >>> 8) & 0xff00ff)
+            + 0x20002;
+    return ((redBlue >> 2) & 0xff00ff) | (((alphaGreen >> 2) & 0xff00ff) << 8);
+  }
+}
@@ -20,6 +20,7 @@ import android.graphics.Matrix;
 import android.os.Environment;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Utility class for manipulating images.
@@ -98,14 +99,32 @@ public class ImageUtils {
   // Always prefer the native implementation if available.
   private static boolean useNativeConversion = true;
 
+  // The direct buffer entry points are tracked separately, as they may be missing from an older
+  // build of the library that still has the array ones.
+  private static boolean useNativeDirectConversion = true;
+
   public static void convertYUV420SPToARGB8888(
       byte[] input,
       int width,
       int height,
       int[] output) {
+    convertYUV420SPToARGB8888(input, width, height, output, false);
+  }
+
+  /**
+   * Like {@link #convertYUV420SPToARGB8888(byte[], int, int, int[])}, but if halfSize is set,
+   * writes a (width / 2) x (height / 2) image in which each pixel averages a 2x2 block of
+   * luminance samples.
+   */
+  public static void convertYUV420SPToARGB8888(
+      final byte[] input,
+      final int width,
+      final int height,
+      final int[] output,
+      final boolean halfSize) {
     if (useNativeConversion) {
       try {
-        ImageUtils.convertYUV420SPToARGB8888(input, output, width, height, false);
+        ImageUtils.convertYUV420SPToARGB8888(input, output, width, height, halfSize);
         return;
       } catch (UnsatisfiedLinkError e) {
         LOGGER.w(
@@ -116,6 +135,22 @@ public class ImageUtils {
 
     // Java implementation of YUV420SP to ARGB8888 converting
     final int frameSize = width * height;
+    if (halfSize) {
+      for (int j = 0, op = 0; j < height / 2; j++) {
+        int yp = 2 * j * width;
+        int uvp = frameSize + j * width;
+        for (int i = 0; i < width / 2; i++, yp += 2) {
+          final int y =
+              ((0xff & input[yp]) + (0xff & input[yp + 1])
+                      + (0xff & input[yp + width]) + (0xff & input[yp + width + 1]))
+                  >> 2;
+          final int v = 0xff & input[uvp++];
+          final int u = 0xff & input[uvp++];
+          output[op++] = YUV2RGB(y, u, v);
+        }
+      }
+      return;
+    }
     for (int j = 0, yp = 0; j < height; j++) {
       int uvp = frameSize + (j >> 1) * width;
       int u = 0;
@@ -168,10 +203,31 @@ public class ImageUtils {
       int uvRowStride,
       int uvPixelStride,
       int[] out) {
+    convertYUV420ToARGB8888(
+        yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride, out, false);
+  }
+
+  /**
+   * Like {@link #convertYUV420ToARGB8888(byte[], byte[], byte[], int, int, int, int, int, int[])},
+   * but if halfSize is set, writes a (width / 2) x (height / 2) image in which each pixel
+   * averages a 2x2 block of luminance samples.
+   */
+  public static void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final boolean halfSize) {
     if (useNativeConversion) {
       try {
         convertYUV420ToARGB8888(
-            yData, uData, vData, out, width, height, yRowStride, uvRowStride, uvPixelStride, false);
+            yData, uData, vData, out, width, height, yRowStride, uvRowStride, uvPixelStride,
+            halfSize);
         return;
       } catch (UnsatisfiedLinkError e) {
         LOGGER.w(
@@ -180,6 +236,23 @@ public class ImageUtils {
       }
     }
 
+    if (halfSize) {
+      int op = 0;
+      for (int j = 0; j < height / 2; j++) {
+        int pY = yRowStride * 2 * j;
+        final int pUV = uvRowStride * j;
+        for (int i = 0; i < width / 2; i++, pY += 2) {
+          final int y =
+              ((0xff & yData[pY]) + (0xff & yData[pY + 1])
+                      + (0xff & yData[pY + yRowStride]) + (0xff & yData[pY + yRowStride + 1]))
+                  >> 2;
+          final int uvOffset = pUV + i * uvPixelStride;
+          out[op++] = YUV2RGB(y, 0xff & uData[uvOffset], 0xff & vData[uvOffset]);
+        }
+      }
+      return;
+    }
+
     int yp = 0;
     for (int j = 0; j < height; j++) {
       int pY = yRowStride * j;
@@ -196,6 +269,130 @@ public class ImageUtils {
     }
   }
 
+  /**
+   * Like {@link #convertYUV420ToARGB8888(byte[], byte[], byte[], int, int, int, int, int, int[],
+   * boolean)}, but reads the planes straight out of buffers such as those of a Camera2 Image, so
+   * they need not be copied to arrays first. Direct buffers are handed to native code as they are;
+   * other buffers are read in Java. Offsets are taken from the start of each buffer, whatever its
+   * position, and no buffer's position is changed.
+   */
+  public static void convertYUV420ToARGB8888(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final boolean halfSize) {
+    if (useNativeDirectConversion && yData.isDirect() && uData.isDirect() && vData.isDirect()) {
+      try {
+        convertYUV420ToARGB8888Direct(
+            yData, uData, vData, out, width, height, yRowStride, uvRowStride, uvPixelStride,
+            halfSize);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w(
+            "Native direct YUV420 -> RGB implementation not found, "
+                + "falling back to Java implementation");
+        useNativeDirectConversion = false;
+      }
+    }
+
+    if (halfSize) {
+      int op = 0;
+      for (int j = 0; j < height / 2; j++) {
+        int pY = yRowStride * 2 * j;
+        final int pUV = uvRowStride * j;
+        for (int i = 0; i < width / 2; i++, pY += 2) {
+          final int y =
+              ((0xff & yData.get(pY)) + (0xff & yData.get(pY + 1))
+                      + (0xff & yData.get(pY + yRowStride))
+                      + (0xff & yData.get(pY + yRowStride + 1)))
+                  >> 2;
+          final int uvOffset = pUV + i * uvPixelStride;
+          out[op++] = YUV2RGB(y, 0xff & uData.get(uvOffset), 0xff & vData.get(uvOffset));
+        }
+      }
+      return;
+    }
+
+    int yp = 0;
+    for (int j = 0; j < height; j++) {
+      final int pY = yRowStride * j;
+      final int pUV = uvRowStride * (j >> 1);
+      for (int i = 0; i < width; i++) {
+        final int uvOffset = pUV + (i >> 1) * uvPixelStride;
+        out[yp++] =
+            YUV2RGB(
+                0xff & yData.get(pY + i), 0xff & uData.get(uvOffset), 0xff & vData.get(uvOffset));
+      }
+    }
+  }
+
+  /**
+   * Halves a luminance plane in each dimension by averaging 2x2 blocks, reading it straight out of
+   * a buffer as {@link #convertYUV420ToARGB8888(ByteBuffer, ByteBuffer, ByteBuffer, int, int, int,
+   * int, int, int[], boolean)} does.
+   *
+   * @param output A pre-allocated array of (width / 2) x (height / 2) bytes, with a row stride of
+   *     width / 2.
+   */
+  public static void downsampleLuminance(
+      final ByteBuffer input,
+      final int width,
+      final int height,
+      final int rowStride,
+      final byte[] output) {
+    if (useNativeDirectConversion && input.isDirect()) {
+      try {
+        downsampleLuminanceDirect(input, output, width, height, rowStride);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w(
+            "Native direct luminance downsampling not found, falling back to Java implementation");
+        useNativeDirectConversion = false;
+      }
+    }
+
+    final int outputWidth = width / 2;
+    final int outputHeight = height / 2;
+    for (int y = 0, out = 0; y < outputHeight; ++y) {
+      int in = 2 * y * rowStride;
+      for (int x = 0; x < outputWidth; ++x, in += 2) {
+        output[out++] =
+            (byte)
+                (((input.get(in) & 0xff)
+                        + (input.get(in + 1) & 0xff)
+                        + (input.get(in + rowStride) & 0xff)
+                        + (input.get(in + rowStride + 1) & 0xff)
+                        + 2)
+                    >> 2);
+      }
+    }
+  }
+
+
+  /**
+   * Unpacks ARGB 8888 pixels into interleaved RGB floats, normalized as (value - mean) / std.
+   * This is the preprocessing step shared by the float-input models.
+   *
+   * @param pixels The ARGB 8:8:8:8 input pixels.
+   * @param output A pre-allocated array of at least 3 * pixels.length floats.
+   * @param mean The value subtracted from every channel.
+   * @param std The value every channel is divided by after subtracting the mean.
+   */
+  public static void normalizePixels(
+      final int[] pixels, final float[] output, final float mean, final float std) {
+    for (int i = 0; i < pixels.length; ++i) {
+      final int val = pixels[i];
+      output[i * 3 + 0] = (((val >> 16) & 0xFF) - mean) / std;
+      output[i * 3 + 1] = (((val >> 8) & 0xFF) - mean) / std;
+      output[i * 3 + 2] = ((val & 0xFF) - mean) / std;
+    }
+  }
 
   /**
    * Converts YUV420 semi-planar data to ARGB 8888 data using the supplied width and height. The
@@ -237,6 +434,29 @@ public class ImageUtils {
       int uvPixelStride,
       boolean halfSize);
 
+  /**
+   * Like {@link #convertYUV420ToARGB8888(byte[], byte[], byte[], int[], int, int, int, int, int,
+   * boolean)}, but on direct buffers, which native code reads in place.
+   */
+  private static native void convertYUV420ToARGB8888Direct(
+      ByteBuffer y,
+      ByteBuffer u,
+      ByteBuffer v,
+      int[] output,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      boolean halfSize);
+
+  /**
+   * Averages 2x2 blocks of a luminance plane in a direct buffer into a (width / 2) x (height / 2)
+   * array.
+   */
+  private static native void downsampleLuminanceDirect(
+      ByteBuffer input, byte[] output, int width, int height, int rowStride);
+
   /**
    * Converts YUV420 semi-planar data to RGB 565 data using the supplied width
    * and height. The input and output must already be allocated and non-null.
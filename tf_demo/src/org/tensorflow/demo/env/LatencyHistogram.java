@@ -0,0 +1,148 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, log-linear histogram of durations in microseconds.
+ *
+ * Values are bucketed by their power of two, and each power of two is split into
+ * SUB_BUCKET_COUNT linear sub-buckets, giving a relative error of at most 1/16 over the whole
+ * range. Recording is lock-free and allocation-free, so it is safe to call from the camera,
+ * inference and UI threads at once. Percentiles are only computed when someone asks for them.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+  // Anything at or above 2^MAX_EXPONENT us (~71 minutes) lands in the last bucket.
+  private static final int MAX_EXPONENT = 32;
+  private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+  static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  static int bucketIndex(final long micros) {
+    final long value = micros < 0 ? 0 : (micros > MAX_VALUE ? MAX_VALUE : micros);
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & SUB_BUCKET_MASK;
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  static long bucketLowerBound(final int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    final int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+    final int subBucket = index & SUB_BUCKET_MASK;
+    return ((long) (SUB_BUCKET_COUNT + subBucket)) << (exponent - SUB_BUCKET_BITS);
+  }
+
+  static long bucketWidth(final int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return 1;
+    }
+    final int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+    return 1L << (exponent - SUB_BUCKET_BITS);
+  }
+
+  /** Records a single duration. Never allocates and never blocks. */
+  public void record(final long micros) {
+    counts.incrementAndGet(bucketIndex(micros));
+    totalCount.incrementAndGet();
+    totalMicros.addAndGet(micros);
+
+    long currentMax = maxMicros.get();
+    while (micros > currentMax && !maxMicros.compareAndSet(currentMax, micros)) {
+      currentMax = maxMicros.get();
+    }
+  }
+
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  public long getMaxMicros() {
+    return maxMicros.get();
+  }
+
+  public double getMeanMicros() {
+    final long count = totalCount.get();
+    return count == 0 ? 0.0 : (double) totalMicros.get() / count;
+  }
+
+  /**
+   * Copies the current bucket counts into the given array, which must hold at least
+   * {@link #NUM_BUCKETS} entries, and returns the total of the copied counts. The copy is not
+   * atomic with respect to concurrent writers, which is fine for reporting purposes.
+   */
+  long snapshot(final long[] into) {
+    long total = 0;
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      into[i] = counts.get(i);
+      total += into[i];
+    }
+    return total;
+  }
+
+  /**
+   * Returns the approximate value at the given quantile (0..1) of a snapshot taken with
+   * {@link #snapshot(long[])}, interpolating linearly within the matching bucket.
+   */
+  static double valueAtQuantile(final long[] snapshot, final long total, final double quantile) {
+    if (total == 0) {
+      return 0.0;
+    }
+    final double rank = Math.max(1.0, Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      final long count = snapshot[i];
+      if (count == 0) {
+        continue;
+      }
+      if (seen + count >= rank) {
+        final double fraction = (rank - seen) / count;
+        return bucketLowerBound(i) + fraction * bucketWidth(i);
+      }
+      seen += count;
+    }
+    return bucketLowerBound(NUM_BUCKETS - 1);
+  }
+
+  public double getValueAtQuantile(final double quantile) {
+    final long[] snapshot = new long[NUM_BUCKETS];
+    return valueAtQuantile(snapshot, snapshot(snapshot), quantile);
+  }
+
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      counts.set(i, 0);
+    }
+    totalCount.set(0);
+    totalMicros.set(0);
+    maxMicros.set(0);
+  }
+}
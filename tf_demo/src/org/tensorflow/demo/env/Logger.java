@@ -18,10 +18,19 @@ package org.tensorflow.demo.env;
 import android.util.Log;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Wrapper for the platform log function, allows convenient message prefixing and log disabling.
+ *
+ * Level checks happen before any formatting, and formatting itself is deferred to a background
+ * writer thread (see {@link AsyncLogWriter}) unless asynchronous logging has been turned off.
+ * Errors are always written synchronously so they survive a crash. If the writer falls behind,
+ * further messages are dropped and counted rather than written on the calling thread. The
+ * fixed-arity overloads taking primitives exist so that hot call sites don't allocate a varargs
+ * array or box their arguments when the message is filtered out.
  */
 public final class Logger {
   private static final String DEFAULT_TAG = "tensorflow";
@@ -30,6 +39,12 @@ public final class Logger {
   // Classes to be ignored when examining the stack trace
   private static final Set<String> IGNORED_CLASS_NAMES;
 
+  // Message prefixes already derived from a class name, so each class pays for it once.
+  private static final ConcurrentHashMap<String, String> PREFIX_CACHE =
+      new ConcurrentHashMap<String, String>();
+
+  private static volatile boolean asyncEnabled = true;
+
   static {
     IGNORED_CLASS_NAMES = new HashSet<String>(3);
     IGNORED_CLASS_NAMES.add("dalvik.system.VMStack");
@@ -41,13 +56,16 @@ public final class Logger {
   private final String messagePrefix;
   private int minLogLevel = DEFAULT_MIN_LOG_LEVEL;
 
+  // Indexed by log priority (Log.VERBOSE == 2 .. Log.ASSERT == 7).
+  private final boolean[] loggable = new boolean[Log.ASSERT + 1];
+
   /**
    * Creates a Logger using the class name as the message prefix.
    *
    * @param clazz the simple name of this class is used as the message prefix.
    */
   public Logger(final Class<?> clazz) {
-    this(clazz.getSimpleName());
+    this(getPrefixForClassName(clazz.getName()));
   }
 
   /**
@@ -71,6 +89,7 @@ public final class Logger {
     this.tag = tag;
     final String prefix = messagePrefix == null ? getCallerSimpleName() : messagePrefix;
     this.messagePrefix = (prefix.length() > 0) ? prefix + ": " : prefix;
+    updateLoggable();
   }
 
   /**
@@ -85,15 +104,43 @@ public final class Logger {
    */
   public Logger(final int minLogLevel) {
     this(DEFAULT_TAG, null);
-    this.minLogLevel = minLogLevel;
+    setMinLogLevel(minLogLevel);
+  }
+
+  /**
+   * Routes non-error messages through the background writer when enabled (the default), or
+   * writes them on the calling thread otherwise.
+   */
+  public static void setAsyncEnabled(final boolean enabled) {
+    asyncEnabled = enabled;
+  }
+
+  /**
+   * Adds a line with how many messages have been dropped because the background writer could not
+   * keep up, if any have.
+   */
+  public static void addSummaryLines(final List<String> lines) {
+    final long dropped = AsyncLogWriter.getInstance().getDroppedCount();
+    if (dropped > 0) {
+      lines.add(String.format("log dropped %d", dropped));
+    }
   }
 
   public void setMinLogLevel(final int minLogLevel) {
     this.minLogLevel = minLogLevel;
+    updateLoggable();
+  }
+
+  // Log.isLoggable() reads a system property, which is far too slow to do per message, so the
+  // answer is cached whenever the minimum level changes.
+  private void updateLoggable() {
+    for (int level = Log.VERBOSE; level <= Log.ASSERT; ++level) {
+      loggable[level] = level >= minLogLevel || Log.isLoggable(tag, level);
+    }
   }
 
   public boolean isLoggable(final int logLevel) {
-    return logLevel >= minLogLevel || Log.isLoggable(tag, logLevel);
+    return loggable[logLevel];
   }
 
   /**
@@ -116,76 +163,245 @@ public final class Logger {
     for (final StackTraceElement elem : stackTrace) {
       final String className = elem.getClassName();
       if (!IGNORED_CLASS_NAMES.contains(className)) {
-        // We're only interested in the simple name of the class, not the complete package.
-        final String[] classParts = className.split("\\.");
-        return classParts[classParts.length - 1];
+        return getPrefixForClassName(className);
       }
     }
 
     return Logger.class.getSimpleName();
   }
 
+  private static String getPrefixForClassName(final String className) {
+    String prefix = PREFIX_CACHE.get(className);
+    if (prefix == null) {
+      // We're only interested in the simple name of the class, not the complete package.
+      prefix = className.substring(className.lastIndexOf('.') + 1);
+      PREFIX_CACHE.putIfAbsent(className, prefix);
+    }
+    return prefix;
+  }
+
   private String toMessage(final String format, final Object... args) {
     return messagePrefix + (args.length > 0 ? String.format(format, args) : format);
   }
 
+  private void logNow(final int priority, final Throwable t, final String message) {
+    Log.println(
+        priority, tag, t == null ? message : message + '\n' + Log.getStackTraceString(t));
+  }
+
+  private static boolean isAsync(final int priority) {
+    return asyncEnabled && priority < Log.ERROR;
+  }
+
+  // Null if the writer's ring is full, in which case the message is dropped, and counted, rather
+  // than formatted and written on the calling thread.
+  private AsyncLogWriter.Entry claim(final int priority, final Throwable t, final String format) {
+    return AsyncLogWriter.getInstance().claim(priority, tag, messagePrefix, format, t);
+  }
+
+  private void log(
+      final int priority, final Throwable t, final String format, final Object[] args) {
+    if (!isAsync(priority) || args.length > AsyncLogWriter.MAX_ARGS) {
+      logNow(priority, t, toMessage(format, args));
+      return;
+    }
+    final AsyncLogWriter.Entry entry = claim(priority, t, format);
+    if (entry == null) {
+      return;
+    }
+    for (final Object arg : args) {
+      entry.addObject(arg);
+    }
+    AsyncLogWriter.getInstance().publish(entry);
+  }
+
+  private void log(final int priority, final String format, final long a) {
+    if (!isAsync(priority)) {
+      logNow(priority, null, toMessage(format, a));
+      return;
+    }
+    final AsyncLogWriter.Entry entry = claim(priority, null, format);
+    if (entry == null) {
+      return;
+    }
+    entry.addLong(a);
+    AsyncLogWriter.getInstance().publish(entry);
+  }
+
+  private void log(final int priority, final String format, final long a, final long b) {
+    if (!isAsync(priority)) {
+      logNow(priority, null, toMessage(format, a, b));
+      return;
+    }
+    final AsyncLogWriter.Entry entry = claim(priority, null, format);
+    if (entry == null) {
+      return;
+    }
+    entry.addLong(a);
+    entry.addLong(b);
+    AsyncLogWriter.getInstance().publish(entry);
+  }
+
+  private void log(final int priority, final String format, final double a) {
+    if (!isAsync(priority)) {
+      logNow(priority, null, toMessage(format, a));
+      return;
+    }
+    final AsyncLogWriter.Entry entry = claim(priority, null, format);
+    if (entry == null) {
+      return;
+    }
+    entry.addDouble(a);
+    AsyncLogWriter.getInstance().publish(entry);
+  }
+
   public void v(final String format, final Object... args) {
     if (isLoggable(Log.VERBOSE)) {
-      Log.v(tag, toMessage(format, args));
+      log(Log.VERBOSE, null, format, args);
     }
   }
 
   public void v(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.VERBOSE)) {
-      Log.v(tag, toMessage(format, args), t);
+      log(Log.VERBOSE, t, format, args);
+    }
+  }
+
+  public void v(final String format, final long a) {
+    if (isLoggable(Log.VERBOSE)) {
+      log(Log.VERBOSE, format, a);
+    }
+  }
+
+  public void v(final String format, final long a, final long b) {
+    if (isLoggable(Log.VERBOSE)) {
+      log(Log.VERBOSE, format, a, b);
+    }
+  }
+
+  public void v(final String format, final double a) {
+    if (isLoggable(Log.VERBOSE)) {
+      log(Log.VERBOSE, format, a);
     }
   }
 
   public void d(final String format, final Object... args) {
     if (isLoggable(Log.DEBUG)) {
-      Log.d(tag, toMessage(format, args));
+      log(Log.DEBUG, null, format, args);
     }
   }
 
   public void d(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.DEBUG)) {
-      Log.d(tag, toMessage(format, args), t);
+      log(Log.DEBUG, t, format, args);
+    }
+  }
+
+  public void d(final String format, final long a) {
+    if (isLoggable(Log.DEBUG)) {
+      log(Log.DEBUG, format, a);
+    }
+  }
+
+  public void d(final String format, final long a, final long b) {
+    if (isLoggable(Log.DEBUG)) {
+      log(Log.DEBUG, format, a, b);
+    }
+  }
+
+  public void d(final String format, final double a) {
+    if (isLoggable(Log.DEBUG)) {
+      log(Log.DEBUG, format, a);
     }
   }
 
   public void i(final String format, final Object... args) {
     if (isLoggable(Log.INFO)) {
-      Log.i(tag, toMessage(format, args));
+      log(Log.INFO, null, format, args);
     }
   }
 
   public void i(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.INFO)) {
-      Log.i(tag, toMessage(format, args), t);
+      log(Log.INFO, t, format, args);
+    }
+  }
+
+  public void i(final String format, final long a) {
+    if (isLoggable(Log.INFO)) {
+      log(Log.INFO, format, a);
+    }
+  }
+
+  public void i(final String format, final long a, final long b) {
+    if (isLoggable(Log.INFO)) {
+      log(Log.INFO, format, a, b);
+    }
+  }
+
+  public void i(final String format, final double a) {
+    if (isLoggable(Log.INFO)) {
+      log(Log.INFO, format, a);
     }
   }
 
   public void w(final String format, final Object... args) {
     if (isLoggable(Log.WARN)) {
-      Log.w(tag, toMessage(format, args));
+      log(Log.WARN, null, format, args);
     }
   }
 
   public void w(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.WARN)) {
-      Log.w(tag, toMessage(format, args), t);
+      log(Log.WARN, t, format, args);
+    }
+  }
+
+  public void w(final String format, final long a) {
+    if (isLoggable(Log.WARN)) {
+      log(Log.WARN, format, a);
+    }
+  }
+
+  public void w(final String format, final long a, final long b) {
+    if (isLoggable(Log.WARN)) {
+      log(Log.WARN, format, a, b);
+    }
+  }
+
+  public void w(final String format, final double a) {
+    if (isLoggable(Log.WARN)) {
+      log(Log.WARN, format, a);
     }
   }
 
   public void e(final String format, final Object... args) {
     if (isLoggable(Log.ERROR)) {
-      Log.e(tag, toMessage(format, args));
+      log(Log.ERROR, null, format, args);
     }
   }
 
   public void e(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.ERROR)) {
-      Log.e(tag, toMessage(format, args), t);
+      log(Log.ERROR, t, format, args);
+    }
+  }
+
+  public void e(final String format, final long a) {
+    if (isLoggable(Log.ERROR)) {
+      log(Log.ERROR, format, a);
+    }
+  }
+
+  public void e(final String format, final long a, final long b) {
+    if (isLoggable(Log.ERROR)) {
+      log(Log.ERROR, format, a, b);
+    }
+  }
+
+  public void e(final String format, final double a) {
+    if (isLoggable(Log.ERROR)) {
+      log(Log.ERROR, format, a);
     }
   }
 }
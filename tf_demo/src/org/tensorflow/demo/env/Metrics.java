@@ -0,0 +1,203 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.os.Environment;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Process-wide latency histograms for the named stages of the camera pipeline.
+ *
+ * Each stage keeps one histogram of wall-clock time and one of thread CPU time. Recording is a
+ * handful of atomic increments; all formatting is deferred until the debug overlay asks for
+ * summary lines or the stats are dumped to disk.
+ */
+public final class Metrics {
+  private static final Logger LOGGER = new Logger();
+
+  /** The stages of the pipeline that are timed. */
+  public enum Stage {
+    CONVERT("convert"),
+    CROP("crop"),
+    FEED("feed"),
+    RUN("run"),
+    FETCH("fetch"),
+    DECODE("decode"),
+    TRACK("track"),
+    DRAW("draw");
+
+    private final String label;
+
+    Stage(final String label) {
+      this.label = label;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+  }
+
+  private static final Stage[] STAGES = Stage.values();
+
+  private static final LatencyHistogram[] WALL = new LatencyHistogram[STAGES.length];
+  private static final LatencyHistogram[] CPU = new LatencyHistogram[STAGES.length];
+
+  static {
+    for (int i = 0; i < STAGES.length; ++i) {
+      WALL[i] = new LatencyHistogram();
+      CPU[i] = new LatencyHistogram();
+    }
+  }
+
+  // Samples from this thread are not recorded, or null to record all of them.
+  private static volatile Thread ignoredThread;
+
+  private Metrics() {}
+
+  /**
+   * Stops recording samples taken on the given thread, such as one timing a model outside the
+   * pipeline, so they do not skew the pipeline's statistics. Pass null to record all threads again.
+   */
+  public static void setIgnoredThread(final Thread thread) {
+    ignoredThread = thread;
+  }
+
+  /**
+   * Records one sample for a stage.
+   *
+   * @param stage The stage that was measured.
+   * @param wallMicros Elapsed wall-clock time in microseconds.
+   * @param cpuMicros Elapsed thread CPU time in microseconds, or a negative value if unavailable.
+   */
+  public static void record(final Stage stage, final long wallMicros, final long cpuMicros) {
+    if (Thread.currentThread() == ignoredThread) {
+      return;
+    }
+    WALL[stage.ordinal()].record(wallMicros);
+    if (cpuMicros >= 0) {
+      CPU[stage.ordinal()].record(cpuMicros);
+    }
+  }
+
+  public static LatencyHistogram getWallHistogram(final Stage stage) {
+    return WALL[stage.ordinal()];
+  }
+
+  public static LatencyHistogram getCpuHistogram(final Stage stage) {
+    return CPU[stage.ordinal()];
+  }
+
+  public static void reset() {
+    for (int i = 0; i < STAGES.length; ++i) {
+      WALL[i].reset();
+      CPU[i].reset();
+    }
+  }
+
+  /**
+   * Appends one line per stage that has samples, giving wall p50/p95/p99 and CPU p50 in
+   * milliseconds. Intended for the debug overlay.
+   */
+  public static void addSummaryLines(final List<String> lines) {
+    final long[] wallSnapshot = new long[LatencyHistogram.NUM_BUCKETS];
+    final long[] cpuSnapshot = new long[LatencyHistogram.NUM_BUCKETS];
+    for (final Stage stage : STAGES) {
+      final long wallCount = WALL[stage.ordinal()].snapshot(wallSnapshot);
+      if (wallCount == 0) {
+        continue;
+      }
+      final long cpuCount = CPU[stage.ordinal()].snapshot(cpuSnapshot);
+      lines.add(
+          String.format(
+              "%-7s p50 %5.1f p95 %5.1f p99 %5.1f cpu %5.1f ms",
+              stage.getLabel(),
+              LatencyHistogram.valueAtQuantile(wallSnapshot, wallCount, 0.50) / 1000.0,
+              LatencyHistogram.valueAtQuantile(wallSnapshot, wallCount, 0.95) / 1000.0,
+              LatencyHistogram.valueAtQuantile(wallSnapshot, wallCount, 0.99) / 1000.0,
+              LatencyHistogram.valueAtQuantile(cpuSnapshot, cpuCount, 0.50) / 1000.0));
+    }
+  }
+
+  /** Writes the full per-stage statistics as CSV to the given file. */
+  public static void dump(final File file) throws IOException {
+    final long[] snapshot = new long[LatencyHistogram.NUM_BUCKETS];
+    final PrintWriter writer = new PrintWriter(new FileOutputStream(file));
+    try {
+      writer.println("stage,clock,count,mean_us,p50_us,p95_us,p99_us,max_us");
+      for (final Stage stage : STAGES) {
+        dumpHistogram(writer, stage.getLabel(), "wall", WALL[stage.ordinal()], snapshot);
+        dumpHistogram(writer, stage.getLabel(), "cpu", CPU[stage.ordinal()], snapshot);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Dumps the statistics to the same directory ImageUtils.saveBitmap() uses, logging rather than
+   * throwing on failure.
+   */
+  public static void dumpToExternalStorage(final String filename) {
+    final File dir = getOutputDir();
+    if (dir == null) {
+      return;
+    }
+    final File file = new File(dir, filename);
+    try {
+      dump(file);
+      LOGGER.i("Wrote stage latencies to %s", file);
+    } catch (final IOException e) {
+      LOGGER.e(e, "Failed to write stage latencies to %s", file);
+    }
+  }
+
+  /** Returns the directory statistics are dumped to, creating it if needed, or null on failure. */
+  public static File getOutputDir() {
+    final File dir =
+        new File(Environment.getExternalStorageDirectory().getAbsolutePath(), "tensorflow");
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      LOGGER.w("Could not create %s", dir);
+      return null;
+    }
+    return dir;
+  }
+
+  private static void dumpHistogram(
+      final PrintWriter writer,
+      final String stage,
+      final String clock,
+      final LatencyHistogram histogram,
+      final long[] snapshot) {
+    final long count = histogram.snapshot(snapshot);
+    if (count == 0) {
+      return;
+    }
+    writer.printf(
+        "%s,%s,%d,%.1f,%.1f,%.1f,%.1f,%d%n",
+        stage,
+        clock,
+        count,
+        histogram.getMeanMicros(),
+        LatencyHistogram.valueAtQuantile(snapshot, count, 0.50),
+        LatencyHistogram.valueAtQuantile(snapshot, count, 0.95),
+        LatencyHistogram.valueAtQuantile(snapshot, count, 0.99),
+        histogram.getMaxMicros());
+  }
+}
@@ -0,0 +1,96 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.graphics.Bitmap;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A double-buffered bitmap handed from a producer thread to readers such as the overlay.
+ *
+ * The producer fills a bitmap from the pool and publishes it; the bitmap it replaces goes back to
+ * the pool as soon as no reader holds it. Readers bracket their use with {@link #lock()} and
+ * {@link #unlock()}, so a bitmap is never reused while it is being drawn, and the producer never
+ * waits for them.
+ */
+public class PublishedBitmap {
+  private final BitmapPool pool;
+
+  private Bitmap front;
+  private int readers;
+  // Replaced fronts that may still be held, released by the last reader to unlock.
+  private final List<Bitmap> retired = new ArrayList<Bitmap>(2);
+
+  public PublishedBitmap(final BitmapPool pool) {
+    this.pool = pool;
+  }
+
+  /** Publishes a pooled copy of the bitmap. */
+  public void publishCopyOf(final Bitmap source) {
+    publish(pool.copyOf(source));
+  }
+
+  /** Makes the bitmap, which must come from the pool, the one readers see. */
+  public void publish(final Bitmap bitmap) {
+    final Bitmap released;
+    synchronized (this) {
+      if (readers > 0) {
+        if (front != null) {
+          retired.add(front);
+        }
+        released = null;
+      } else {
+        released = front;
+      }
+      front = bitmap;
+    }
+    pool.release(released);
+  }
+
+  /**
+   * Returns the latest published bitmap, or null, and keeps it from being reused until
+   * {@link #unlock()}. Must be paired with unlock() whatever it returns.
+   */
+  public synchronized Bitmap lock() {
+    ++readers;
+    return front;
+  }
+
+  public void unlock() {
+    final Bitmap[] released;
+    synchronized (this) {
+      if (--readers > 0 || retired.isEmpty()) {
+        return;
+      }
+      released = retired.toArray(new Bitmap[retired.size()]);
+      retired.clear();
+    }
+    for (final Bitmap bitmap : released) {
+      pool.release(bitmap);
+    }
+  }
+
+  /** Returns whether anything has been published yet, without locking it. */
+  public synchronized boolean isEmpty() {
+    return front == null;
+  }
+
+  /** Drops the published bitmap, returning it to the pool once no reader holds it. */
+  public void clear() {
+    publish(null);
+  }
+}
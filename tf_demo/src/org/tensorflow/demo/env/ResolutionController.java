@@ -0,0 +1,101 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+/**
+ * Picks a model input size from a fixed ladder so that inference stays within a latency budget.
+ *
+ * Latencies are smoothed with an exponential moving average. The size steps down once the average
+ * exceeds the target, and steps up only once the average, scaled by the growth in pixel count,
+ * predicts the next size would still come in under UP_HEADROOM of the target. The gap between the
+ * two conditions, plus a settling period after every change during which samples are only
+ * collected, keeps the size from oscillating between neighbouring steps.
+ *
+ * Samples are added from the inference thread and the size is read from the camera thread, so all
+ * methods are synchronized.
+ */
+public class ResolutionController {
+  private static final Logger LOGGER = new Logger();
+
+  // Weight of the newest sample in the moving average.
+  private static final float SMOOTHING = 0.2f;
+
+  // Fraction of the target the predicted latency at the next size up must stay under.
+  private static final float UP_HEADROOM = 0.8f;
+
+  // Samples to collect after a change before acting again.
+  private static final int SETTLE_SAMPLES = 5;
+
+  private final int[] sizes;
+  private final long targetMs;
+
+  private int index;
+  private float averageMs;
+  private int samplesSinceChange;
+
+  /**
+   * @param sizes The input sizes to choose from, in increasing order.
+   * @param initialIndex The index of the size to start at.
+   * @param targetMs The latency budget per inference, in milliseconds.
+   */
+  public ResolutionController(final int[] sizes, final int initialIndex, final long targetMs) {
+    this.sizes = sizes;
+    this.index = initialIndex;
+    this.targetMs = targetMs;
+  }
+
+  public synchronized int getSize() {
+    return sizes[index];
+  }
+
+  /** Returns the smoothed latency at the current size, in milliseconds. */
+  public synchronized float getAverageMs() {
+    return averageMs;
+  }
+
+  /**
+   * Adds the latency of one inference at the current size.
+   *
+   * @return Whether the size has changed as a result.
+   */
+  public synchronized boolean addSample(final long latencyMs) {
+    averageMs =
+        samplesSinceChange == 0 ? latencyMs : averageMs + SMOOTHING * (latencyMs - averageMs);
+    if (++samplesSinceChange < SETTLE_SAMPLES) {
+      return false;
+    }
+
+    if (averageMs > targetMs && index > 0) {
+      return setIndex(index - 1);
+    }
+    if (index < sizes.length - 1) {
+      final float scale = (float) sizes[index + 1] / sizes[index];
+      if (averageMs * scale * scale < targetMs * UP_HEADROOM) {
+        return setIndex(index + 1);
+      }
+    }
+    return false;
+  }
+
+  private boolean setIndex(final int newIndex) {
+    LOGGER.i(
+        "Average latency %.1f ms against a target of %d ms, input size %d -> %d",
+        averageMs, targetMs, sizes[index], sizes[newIndex]);
+    index = newIndex;
+    samplesSinceChange = 0;
+    return true;
+  }
+}
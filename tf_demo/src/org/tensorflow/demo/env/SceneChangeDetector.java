@@ -0,0 +1,114 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.graphics.RectF;
+import java.util.List;
+
+/**
+ * Coarse check for motion in the parts of the scene that are not already being tracked.
+ *
+ * The luminance plane is reduced to a grid of sparsely sampled cell means, and each update
+ * reports the largest change of any cell since the previous update. Cells overlapped by a tracked
+ * region are skipped, so only something new appearing (or the camera moving) registers. Not
+ * thread-safe.
+ */
+public class SceneChangeDetector {
+  private static final int GRID_SIZE = 16;
+
+  // Only every SAMPLE_STEP-th pixel of every SAMPLE_STEP-th row is read.
+  private static final int SAMPLE_STEP = 4;
+
+  private int[] previous = new int[GRID_SIZE * GRID_SIZE];
+  private int[] current = new int[GRID_SIZE * GRID_SIZE];
+  private boolean hasPrevious = false;
+
+  /**
+   * Samples a new frame and returns the largest change in mean luminance (0-255) of any cell
+   * outside the ignored regions since the last call, or Integer.MAX_VALUE for the first frame.
+   *
+   * @param ignoredRegions Regions in frame coordinates whose cells should not count, or null.
+   * @param regionScale The size of the frame the regions are in over the size of the luminance
+   *     plane, such as 2 for the half-size level of an {@link ImagePyramid}.
+   */
+  public int update(
+      final byte[] luminance,
+      final int width,
+      final int height,
+      final int rowStride,
+      final List<RectF> ignoredRegions,
+      final float regionScale) {
+    final int cellWidth = width / GRID_SIZE;
+    final int cellHeight = height / GRID_SIZE;
+
+    for (int cellY = 0; cellY < GRID_SIZE; ++cellY) {
+      for (int cellX = 0; cellX < GRID_SIZE; ++cellX) {
+        int sum = 0;
+        int count = 0;
+        for (int y = cellY * cellHeight; y < (cellY + 1) * cellHeight; y += SAMPLE_STEP) {
+          final int rowOffset = y * rowStride;
+          for (int x = cellX * cellWidth; x < (cellX + 1) * cellWidth; x += SAMPLE_STEP) {
+            sum += luminance[rowOffset + x] & 0xff;
+            ++count;
+          }
+        }
+        current[cellY * GRID_SIZE + cellX] = count > 0 ? sum / count : 0;
+      }
+    }
+
+    int maxChange = Integer.MAX_VALUE;
+    if (hasPrevious) {
+      maxChange = 0;
+      for (int cellY = 0; cellY < GRID_SIZE; ++cellY) {
+        for (int cellX = 0; cellX < GRID_SIZE; ++cellX) {
+          if (isIgnored(ignoredRegions, regionScale, cellX, cellY, cellWidth, cellHeight)) {
+            continue;
+          }
+          final int index = cellY * GRID_SIZE + cellX;
+          maxChange = Math.max(maxChange, Math.abs(current[index] - previous[index]));
+        }
+      }
+    }
+
+    final int[] swap = previous;
+    previous = current;
+    current = swap;
+    hasPrevious = true;
+    return maxChange;
+  }
+
+  private static boolean isIgnored(
+      final List<RectF> regions,
+      final float regionScale,
+      final int cellX,
+      final int cellY,
+      final int cellWidth,
+      final int cellHeight) {
+    if (regions == null) {
+      return false;
+    }
+    final float left = cellX * cellWidth * regionScale;
+    final float top = cellY * cellHeight * regionScale;
+    final float right = left + cellWidth * regionScale;
+    final float bottom = top + cellHeight * regionScale;
+    for (final RectF region : regions) {
+      if (region.intersects(left, top, right, bottom)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -15,36 +15,39 @@ limitations under the License.
 
 package org.tensorflow.demo.env;
 
+import android.os.Debug;
 import android.os.SystemClock;
 
 /**
  * A simple utility timer for measuring CPU time and wall-clock splits.
+ *
+ * Splits are recorded into the {@link Metrics} histogram of the given stage rather than logged,
+ * so a timer can be kept around and reused every frame without allocating. A SplitTimer is not
+ * thread-safe; give each thread that times work its own instance.
  */
 public class SplitTimer {
-  private final Logger logger;
+  private long lastWallTimeNs;
+  private long lastCpuTimeNs;
 
-  private long lastWallTime;
-  private long lastCpuTime;
-
-  public SplitTimer(final String name) {
-    logger = new Logger(name);
+  public SplitTimer() {
     newSplit();
   }
 
   public void newSplit() {
-    lastWallTime = SystemClock.uptimeMillis();
-    lastCpuTime = SystemClock.currentThreadTimeMillis();
+    lastWallTimeNs = SystemClock.elapsedRealtimeNanos();
+    lastCpuTimeNs = Debug.threadCpuTimeNanos();
   }
 
-  public void endSplit(final String splitName) {
-    final long currWallTime = SystemClock.uptimeMillis();
-    final long currCpuTime = SystemClock.currentThreadTimeMillis();
+  public void endSplit(final Metrics.Stage stage) {
+    final long currWallTimeNs = SystemClock.elapsedRealtimeNanos();
+    final long currCpuTimeNs = Debug.threadCpuTimeNanos();
 
-    logger.i(
-        "%s: cpu=%dms wall=%dms",
-        splitName, currCpuTime - lastCpuTime, currWallTime - lastWallTime);
+    // threadCpuTimeNanos() returns -1 where thread timing is unsupported.
+    final long cpuMicros =
+        currCpuTimeNs >= 0 && lastCpuTimeNs >= 0 ? (currCpuTimeNs - lastCpuTimeNs) / 1000 : -1;
+    Metrics.record(stage, (currWallTimeNs - lastWallTimeNs) / 1000, cpuMicros);
 
-    lastWallTime = currWallTime;
-    lastCpuTime = currCpuTime;
+    lastWallTimeNs = currWallTimeNs;
+    lastCpuTimeNs = currCpuTimeNs;
   }
 }
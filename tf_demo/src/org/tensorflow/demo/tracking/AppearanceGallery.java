@@ -0,0 +1,207 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.tracking;
+
+import android.graphics.RectF;
+
+/**
+ * Remembers what recently lost tracks looked like, so that an object coming back into view can
+ * be recognized as one seen before rather than counted again.
+ *
+ * An appearance is a small luminance thumbnail of the object's box, normalized to zero mean and
+ * unit length like the native tracker's kNormalizedThumbnailSize thumbnails, so the dot product of
+ * two appearances is their normalized cross-correlation. All descriptors live in one flat array,
+ * so matching is a single pass of dot products over contiguous memory. Entries are dropped after
+ * a while, and the oldest goes first when the gallery is full. Not thread-safe.
+ */
+final class AppearanceGallery {
+  /** The side of the thumbnail, as kNormalizedThumbnailSize in config.h. */
+  static final int THUMBNAIL_SIZE = 11;
+
+  /** The number of floats in a descriptor. */
+  static final int DESCRIPTOR_SIZE = THUMBNAIL_SIZE * THUMBNAIL_SIZE;
+
+  // Below this standard deviation a thumbnail is too flat to tell anything apart.
+  private static final float MIN_STD = 2.0f;
+
+  private final int capacity;
+  private final long maxAge;
+
+  private final float[] descriptors;
+  private final String[] titles;
+  private final int[] ids;
+  private final long[] lostTimestamps;
+  private int size;
+
+  /**
+   * @param capacity The number of lost tracks to remember.
+   * @param maxAge How long to remember a lost track, in timestamp units.
+   */
+  AppearanceGallery(final int capacity, final long maxAge) {
+    this.capacity = capacity;
+    this.maxAge = maxAge;
+    descriptors = new float[capacity * DESCRIPTOR_SIZE];
+    titles = new String[capacity];
+    ids = new int[capacity];
+    lostTimestamps = new long[capacity];
+  }
+
+  /**
+   * Computes the appearance of a box in a luminance frame into out, which must hold
+   * DESCRIPTOR_SIZE floats. Each thumbnail pixel averages four samples of its cell.
+   *
+   * @return False if the box is outside the frame or too flat to describe, leaving out undefined.
+   */
+  static boolean describe(
+      final byte[] luminance,
+      final int width,
+      final int height,
+      final int rowStride,
+      final RectF box,
+      final float[] out) {
+    final float left = Math.max(box.left, 0);
+    final float top = Math.max(box.top, 0);
+    final float right = Math.min(box.right, width - 1);
+    final float bottom = Math.min(box.bottom, height - 1);
+    if (right <= left || bottom <= top) {
+      return false;
+    }
+
+    final float cellWidth = (right - left) / THUMBNAIL_SIZE;
+    final float cellHeight = (bottom - top) / THUMBNAIL_SIZE;
+    float sum = 0;
+    for (int y = 0; y < THUMBNAIL_SIZE; ++y) {
+      final int y0 = (int) (top + (y + 0.25f) * cellHeight) * rowStride;
+      final int y1 = (int) (top + (y + 0.75f) * cellHeight) * rowStride;
+      for (int x = 0; x < THUMBNAIL_SIZE; ++x) {
+        final int x0 = (int) (left + (x + 0.25f) * cellWidth);
+        final int x1 = (int) (left + (x + 0.75f) * cellWidth);
+        final float value =
+            ((luminance[y0 + x0] & 0xFF)
+                    + (luminance[y0 + x1] & 0xFF)
+                    + (luminance[y1 + x0] & 0xFF)
+                    + (luminance[y1 + x1] & 0xFF))
+                / 4.0f;
+        out[y * THUMBNAIL_SIZE + x] = value;
+        sum += value;
+      }
+    }
+
+    final float mean = sum / DESCRIPTOR_SIZE;
+    float sumSquares = 0;
+    for (int i = 0; i < DESCRIPTOR_SIZE; ++i) {
+      out[i] -= mean;
+      sumSquares += out[i] * out[i];
+    }
+    if (sumSquares < MIN_STD * MIN_STD * DESCRIPTOR_SIZE) {
+      return false;
+    }
+    final float scale = (float) (1.0 / Math.sqrt(sumSquares));
+    for (int i = 0; i < DESCRIPTOR_SIZE; ++i) {
+      out[i] *= scale;
+    }
+    return true;
+  }
+
+  /** Remembers a track lost at the given time, evicting the oldest entry if full. */
+  void add(final float[] descriptor, final String title, final int id, final long timestamp) {
+    if (size == capacity) {
+      removeAt(getOldest());
+    }
+    System.arraycopy(descriptor, 0, descriptors, size * DESCRIPTOR_SIZE, DESCRIPTOR_SIZE);
+    titles[size] = title;
+    ids[size] = id;
+    lostTimestamps[size] = timestamp;
+    ++size;
+  }
+
+  /**
+   * Finds the lost track of the given class that looks most like the descriptor, forgets it and
+   * returns its id, or returns -1 if none correlates by at least minCorrelation. Entries older
+   * than the gallery's maximum age as of the given time are dropped first.
+   */
+  int take(
+      final float[] descriptor,
+      final String title,
+      final float minCorrelation,
+      final long timestamp) {
+    evictBefore(timestamp - maxAge);
+
+    int best = -1;
+    float bestCorrelation = minCorrelation;
+    for (int entry = 0; entry < size; ++entry) {
+      final int offset = entry * DESCRIPTOR_SIZE;
+      float correlation = 0;
+      for (int i = 0; i < DESCRIPTOR_SIZE; ++i) {
+        correlation += descriptors[offset + i] * descriptor[i];
+      }
+      if (correlation >= bestCorrelation && titles[entry].equals(title)) {
+        bestCorrelation = correlation;
+        best = entry;
+      }
+    }
+    if (best < 0) {
+      return -1;
+    }
+    final int id = ids[best];
+    removeAt(best);
+    return id;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void clear() {
+    for (int entry = 0; entry < size; ++entry) {
+      titles[entry] = null;
+    }
+    size = 0;
+  }
+
+  private void evictBefore(final long timestamp) {
+    for (int entry = size - 1; entry >= 0; --entry) {
+      if (lostTimestamps[entry] < timestamp) {
+        removeAt(entry);
+      }
+    }
+  }
+
+  private int getOldest() {
+    int oldest = 0;
+    for (int entry = 1; entry < size; ++entry) {
+      if (lostTimestamps[entry] < lostTimestamps[oldest]) {
+        oldest = entry;
+      }
+    }
+    return oldest;
+  }
+
+  /** Moves the last entry into the given slot, which keeps the descriptors contiguous. */
+  private void removeAt(final int entry) {
+    final int last = size - 1;
+    if (entry != last) {
+      System.arraycopy(
+          descriptors, last * DESCRIPTOR_SIZE, descriptors, entry * DESCRIPTOR_SIZE,
+          DESCRIPTOR_SIZE);
+      titles[entry] = titles[last];
+      ids[entry] = ids[last];
+      lostTimestamps[entry] = lostTimestamps[last];
+    }
+    titles[last] = null;
+    size = last;
+  }
+}
@@ -0,0 +1,161 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.tracking;
+
+import android.graphics.RectF;
+
+/**
+ * A constant-velocity Kalman filter over a box's center and size.
+ *
+ * Each of center x, center y, width and height is filtered on its own as a value and a rate of
+ * change, which keeps every step to a handful of multiplications on primitive arrays. Nothing is
+ * allocated after construction. Time is measured in whatever the timestamps count, frames in
+ * DetectorActivity, and the noise parameters are per that unit. Not thread-safe.
+ */
+final class BoxKalmanFilter {
+  private static final int CENTER_X = 0;
+  private static final int CENTER_Y = 1;
+  private static final int WIDTH = 2;
+  private static final int HEIGHT = 3;
+  private static final int NUM_AXES = 4;
+
+  // The smallest size the filter lets a box shrink to.
+  private static final float MIN_SIZE = 1.0f;
+
+  // Standard deviations of the unmodelled acceleration of the center and of the size.
+  private final float centerAcceleration;
+  private final float sizeAcceleration;
+
+  private final float[] value = new float[NUM_AXES];
+  private final float[] rate = new float[NUM_AXES];
+  // The symmetric 2x2 covariance of (value, rate) per axis.
+  private final float[] valueVariance = new float[NUM_AXES];
+  private final float[] covariance = new float[NUM_AXES];
+  private final float[] rateVariance = new float[NUM_AXES];
+
+  private long timestamp;
+
+  BoxKalmanFilter(final float centerAcceleration, final float sizeAcceleration) {
+    this.centerAcceleration = centerAcceleration;
+    this.sizeAcceleration = sizeAcceleration;
+  }
+
+  /**
+   * Starts over at the given box, at rest.
+   *
+   * @param std The standard deviation of the box's coordinates.
+   * @param rateStd The standard deviation of their rates of change, as nothing is known of them.
+   */
+  void reset(final RectF box, final long timestamp, final float std, final float rateStd) {
+    value[CENTER_X] = box.centerX();
+    value[CENTER_Y] = box.centerY();
+    value[WIDTH] = box.width();
+    value[HEIGHT] = box.height();
+    for (int axis = 0; axis < NUM_AXES; ++axis) {
+      rate[axis] = 0.0f;
+      valueVariance[axis] = std * std;
+      covariance[axis] = 0.0f;
+      rateVariance[axis] = rateStd * rateStd;
+    }
+    this.timestamp = timestamp;
+  }
+
+  /** Moves the estimate forward to the given time. Does nothing for earlier times. */
+  void predict(final long timestamp) {
+    final float dt = timestamp - this.timestamp;
+    if (dt <= 0) {
+      return;
+    }
+    this.timestamp = timestamp;
+
+    final float dt2 = dt * dt;
+    for (int axis = 0; axis < NUM_AXES; ++axis) {
+      final float q = axis < WIDTH ? centerAcceleration : sizeAcceleration;
+      final float q2 = q * q;
+
+      value[axis] += rate[axis] * dt;
+
+      // P = F P F' + Q, with F = [1 dt; 0 1] and Q the discrete white noise acceleration model.
+      final float p00 = valueVariance[axis];
+      final float p01 = covariance[axis];
+      final float p11 = rateVariance[axis];
+      valueVariance[axis] = p00 + 2 * dt * p01 + dt2 * p11 + q2 * dt2 * dt2 / 4;
+      covariance[axis] = p01 + dt * p11 + q2 * dt2 * dt / 2;
+      rateVariance[axis] = p11 + q2 * dt2;
+    }
+    value[WIDTH] = Math.max(value[WIDTH], MIN_SIZE);
+    value[HEIGHT] = Math.max(value[HEIGHT], MIN_SIZE);
+  }
+
+  /**
+   * Folds in a measurement of the box at the current time.
+   *
+   * @param std The standard deviation of the measured coordinates.
+   */
+  void update(final RectF box, final float std) {
+    final float r = std * std;
+    updateAxis(CENTER_X, box.centerX(), r);
+    updateAxis(CENTER_Y, box.centerY(), r);
+    updateAxis(WIDTH, box.width(), r);
+    updateAxis(HEIGHT, box.height(), r);
+    value[WIDTH] = Math.max(value[WIDTH], MIN_SIZE);
+    value[HEIGHT] = Math.max(value[HEIGHT], MIN_SIZE);
+  }
+
+  private void updateAxis(final int axis, final float measured, final float r) {
+    final float p00 = valueVariance[axis];
+    final float p01 = covariance[axis];
+    final float p11 = rateVariance[axis];
+
+    // Only the value is observed, so H = [1 0] and the gain is the first column of P over S.
+    final float s = p00 + r;
+    final float k0 = p00 / s;
+    final float k1 = p01 / s;
+    final float innovation = measured - value[axis];
+
+    value[axis] += k0 * innovation;
+    rate[axis] += k1 * innovation;
+
+    valueVariance[axis] = (1 - k0) * p00;
+    covariance[axis] = (1 - k0) * p01;
+    rateVariance[axis] = p11 - k1 * p01;
+  }
+
+  /** Writes the current estimate of the box to out. */
+  void getBox(final RectF out) {
+    final float halfWidth = value[WIDTH] / 2;
+    final float halfHeight = value[HEIGHT] / 2;
+    out.set(
+        value[CENTER_X] - halfWidth,
+        value[CENTER_Y] - halfHeight,
+        value[CENTER_X] + halfWidth,
+        value[CENTER_Y] + halfHeight);
+  }
+
+  /** Returns the standard deviation of the center along its less certain axis. */
+  float getCenterStd() {
+    return (float) Math.sqrt(Math.max(valueVariance[CENTER_X], valueVariance[CENTER_Y]));
+  }
+
+  /** Returns the smaller of the estimated width and height. */
+  float getMinSide() {
+    return Math.min(value[WIDTH], value[HEIGHT]);
+  }
+
+  long getTimestamp() {
+    return timestamp;
+  }
+}
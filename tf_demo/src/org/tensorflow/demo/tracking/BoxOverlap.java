@@ -0,0 +1,44 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.tracking;
+
+import android.graphics.RectF;
+
+/**
+ * Overlap measures used when associating new detections with existing tracks.
+ */
+final class BoxOverlap {
+  private BoxOverlap() {}
+
+  /**
+   * Returns the intersection over union of two boxes, or 0 if they do not intersect. Unlike
+   * RectF.setIntersect() this needs no scratch rectangle, so it is free to call for every pair of
+   * tracks and candidates.
+   */
+  static float intersectionOverUnion(final RectF a, final RectF b) {
+    final float left = Math.max(a.left, b.left);
+    final float top = Math.max(a.top, b.top);
+    final float right = Math.min(a.right, b.right);
+    final float bottom = Math.min(a.bottom, b.bottom);
+    if (left >= right || top >= bottom) {
+      return 0.0f;
+    }
+
+    final float intersectArea = (right - left) * (bottom - top);
+    final float totalArea = a.width() * a.height() + b.width() * b.height() - intersectArea;
+    return intersectArea / totalArea;
+  }
+}
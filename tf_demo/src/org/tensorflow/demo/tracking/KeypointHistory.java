@@ -0,0 +1,86 @@
+/* Copyright 2018 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.tracking;
+
+/**
+ * A fixed-capacity ring of packed keypoint deltas, one slot per frame, all in a single byte array
+ * that native code writes into directly. Once full, each new frame overwrites the oldest.
+ * Nothing is allocated after construction. Not thread-safe; ObjectTracker guards it.
+ */
+final class KeypointHistory {
+  private final int frameCapacity;
+  private final int slotBytes;
+
+  private final byte[] data;
+  private final long[] timestamps;
+  private final int[] lengths;
+
+  // Slot of the oldest frame, and the number of frames held.
+  private int first;
+  private int count;
+
+  /**
+   * @param frameCapacity The number of frames to keep.
+   * @param slotBytes The most bytes a single frame can take.
+   */
+  KeypointHistory(final int frameCapacity, final int slotBytes) {
+    this.frameCapacity = frameCapacity;
+    this.slotBytes = slotBytes;
+    data = new byte[frameCapacity * slotBytes];
+    timestamps = new long[frameCapacity];
+    lengths = new int[frameCapacity];
+  }
+
+  /** Returns the array native code fills. */
+  byte[] getData() {
+    return data;
+  }
+
+  /** Returns the offset in {@link #getData()} at which the next frame is to be written. */
+  int getNextOffset() {
+    return ((first + count) % frameCapacity) * slotBytes;
+  }
+
+  /** Records the frame just written at {@link #getNextOffset()}, evicting the oldest if full. */
+  void commit(final long timestamp, final int length) {
+    final int slot = (first + count) % frameCapacity;
+    timestamps[slot] = timestamp;
+    lengths[slot] = length;
+    if (count < frameCapacity) {
+      ++count;
+    } else {
+      first = (first + 1) % frameCapacity;
+    }
+  }
+
+  /**
+   * Hands the frames up to and including the given timestamp to the consumer, oldest first, and
+   * drops them from the history. The consumer sees the history's own array, so it must copy
+   * anything it needs to keep before returning.
+   *
+   * @return The number of frames consumed.
+   */
+  int poll(final long endTimestamp, final ObjectTracker.FlowDataConsumer consumer) {
+    int polled = 0;
+    while (count > 0 && timestamps[first] <= endTimestamp) {
+      consumer.onFlowData(timestamps[first], data, first * slotBytes, lengths[first]);
+      first = (first + 1) % frameCapacity;
+      --count;
+      ++polled;
+    }
+    return polled;
+  }
+}
@@ -26,7 +26,6 @@ import android.graphics.Paint.Join;
 import android.graphics.Paint.Style;
 import android.graphics.RectF;
 import android.text.TextUtils;
-import android.util.Log;
 import android.util.TypedValue;
 import android.widget.Toast;
 
@@ -34,11 +33,15 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.tensorflow.demo.Classifier.Recognition;
 import org.tensorflow.demo.env.BorderedText;
+import org.tensorflow.demo.env.FrameContext;
+import org.tensorflow.demo.env.FrameTracer;
+import org.tensorflow.demo.env.ImagePyramid;
 import org.tensorflow.demo.env.ImageUtils;
 import org.tensorflow.demo.env.Logger;
 import org.tensorflow.demo.tracking.Tuple;
@@ -48,9 +51,24 @@ import org.tensorflow.demo.tracking.Tuple;
 /**
  * A tracker wrapping ObjectTracker that also handles non-max suppression and matching existing
  * objects to new detections.
+ *
+ * Tracking state is changed on the camera and inference threads under this object's monitor.
+ * Each change ends by publishing an immutable snapshot of what there is to draw, and the drawing
+ * methods only read the latest snapshot, so the UI thread never waits for optical flow or for
+ * new detections to be matched.
+ *
+ * Each track also runs a constant-velocity Kalman filter that fuses detections with optical flow.
+ * Its estimate is what gets drawn and what region-of-interest detection is scheduled around, and
+ * it carries a track through frames where flow is lost, or, without object tracking, between
+ * detections. A track is dropped once the filter is too unsure of where it is, rather than on
+ * the first bad flow result.
+ *
+ * Lost tracks are remembered by appearance for a while. A new track that looks like one of them
+ * of the same class takes over its identity, so an object leaving the view and coming back is
+ * counted once.
  */
 public class MultiBoxTracker {
-  private final Logger logger = new Logger();
+  private static final Logger logger = new Logger();
   private static int CLASS_1_COLOR = Color.RED; // CBSD
   private static int CLASS_2_COLOR = Color.MAGENTA; // CMD
   private static int CLASS_3_COLOR = Color.GREEN; // CGM
@@ -82,11 +100,33 @@ public class MultiBoxTracker {
   // Allow replacement of the tracked box with new results if
   // correlation has dropped below this level.
   private static final float MARGINAL_CORRELATION = 0.75f;
-  // Consider object to be lost if correlation falls below this threshold.
+  // Below this correlation optical flow is not used at all, and tracks coast on their motion model.
   private static final float MIN_CORRELATION = 0.1f;
   // Maximum percentage of a box that can be overlapped by another box at detection time. Otherwise
   // the lower scored box (new or old) will be removed.
   private static final float MAX_OVERLAP = 0.8f;
+  // Minimum overlap for a detection to update a track's filter when there is no optical flow.
+  private static final float MIN_MATCH_OVERLAP = 0.3f;
+
+  // Motion model of the track filters, in preview frame pixels and frames: the standard
+  // deviations of the acceleration of a box's center and of its size, and of the velocity of a
+  // box just detected.
+  private static final float CENTER_ACCELERATION = 2.0f;
+  private static final float SIZE_ACCELERATION = 0.5f;
+  private static final float INITIAL_VELOCITY_STD = 10.0f;
+  // Measurement noise of a detection, and of optical flow at a correlation of 1. Flow grows
+  // noisier in inverse proportion to its correlation.
+  private static final float DETECTION_STD = 4.0f;
+  private static final float FLOW_STD = 2.0f;
+  // Consider object to be lost once the standard deviation of its center exceeds this fraction of
+  // its smaller side.
+  private static final float MAX_CENTER_STD_FRACTION = 0.5f;
+
+  // How many lost tracks to remember, and for how many frames: about ten seconds at camera rate.
+  private static final int LOST_TRACK_CAPACITY = 16;
+  private static final long MAX_LOST_FRAMES = 300;
+  // Minimum normalized cross-correlation with a lost track's appearance to take over its identity.
+  private static final float MIN_REACQUIRE_CORRELATION = 0.8f;
   private static float DISPLAY_THRESHOLD = 0.2f;
   private static final float DETECTION_THRESHOLD = 0.1f;
   private static final float TEXT_SIZE_DISPLAY = 11;
@@ -121,19 +161,85 @@ public class MultiBoxTracker {
     float detectionConfidence;
     int color;
     String title;
+    final BoxKalmanFilter filter = new BoxKalmanFilter(CENTER_ACCELERATION, SIZE_ACCELERATION);
+    // The filter's estimate as of the last frame.
+    final RectF position = new RectF();
+    // Stays the same for as long as the object is recognized as the same, across lost tracks.
+    int id;
+    final float[] appearance = new float[AppearanceGallery.DESCRIPTOR_SIZE];
+    boolean hasAppearance;
+
+    boolean isLost() {
+      return filter.getCenterStd() > MAX_CENTER_STD_FRACTION * filter.getMinSide();
+    }
   }
 
   private final List<TrackedRecognition> trackedObjects = new LinkedList<TrackedRecognition>();
 
+  private final AppearanceGallery lostTracks =
+      new AppearanceGallery(LOST_TRACK_CAPACITY, MAX_LOST_FRAMES);
+
+  // Written under this object's monitor, read without it for the debug overlay.
+  private volatile int uniqueObjectCount;
+  private volatile int reacquiredCount;
+
+  /** A tracked object as it is to be drawn, taken when the snapshot was published. */
+  private static class RenderedBox {
+    final String title;
+    final float detectionConfidence;
+    // Where the object was detected and where it is tracked to now, in preview frame coordinates.
+    final RectF location;
+    final RectF position;
+    final float correlation;
+
+    RenderedBox(
+        final String title,
+        final float detectionConfidence,
+        final RectF location,
+        final RectF position,
+        final float correlation) {
+      this.title = title;
+      this.detectionConfidence = detectionConfidence;
+      this.location = location;
+      this.position = position;
+      this.correlation = correlation;
+    }
+  }
+
+  /** Everything the drawing methods read. Never modified once published. */
+  private static class RenderSnapshot {
+    final List<RenderedBox> boxes;
+    final List<Triplet<String, Float, RectF>> screenRects;
+
+    RenderSnapshot(
+        final List<RenderedBox> boxes, final List<Triplet<String, Float, RectF>> screenRects) {
+      this.boxes = boxes;
+      this.screenRects = screenRects;
+    }
+  }
+
+  private final AtomicReference<RenderSnapshot> renderSnapshot =
+      new AtomicReference<RenderSnapshot>(
+          new RenderSnapshot(
+              new ArrayList<RenderedBox>(0), new ArrayList<Triplet<String, Float, RectF>>(0)));
+
+  // Scratch space for mapping snapshot boxes to the canvas on the UI thread.
+  private final RectF drawRect = new RectF();
+  // Scratch space for reading optical flow positions in onFrame().
+  private final RectF flowPosition = new RectF();
+
   private final Paint boxPaint = new Paint();
 
   private final float textSizePx;
   private final BorderedText borderedText;
 
-  private Matrix frameToCanvasMatrix;
+  // Replaced, never modified, by draw() on the UI thread.
+  private volatile Matrix frameToCanvasMatrix;
 
   private int frameWidth;
   private int frameHeight;
+  private int frameRowStride;
+  private long lastFrameTimestamp;
 
   private int sensorOrientation;
   private Context context;
@@ -222,15 +328,19 @@ public class MultiBoxTracker {
     return frameToCanvasMatrix;
   }
 
-  public synchronized void drawDebug(final Canvas canvas) {
-    Log.d("myInfoTag","IN DRAW DEBUG");
+  public void drawDebug(final Canvas canvas) {
+    final RenderSnapshot snapshot = renderSnapshot.get();
+    final Matrix frameToCanvas = getFrameToCanvasMatrix();
+    if (frameToCanvas == null) {
+      return;
+    }
     final Paint boxPaint = new Paint();
     boxPaint.setAlpha(10);
     boxPaint.setStyle(Style.STROKE);
     boxPaint.setStrokeWidth(DETECTION_BOX_LINE_THICKNESS);
     boxPaint.setPathEffect(new DashPathEffect(new float[] {DASH_LENGTH, DASH_GAP}, 0));
 
-    for (final Triplet<String, Float, RectF> detection : screenRects) {
+    for (final Triplet<String, Float, RectF> detection : snapshot.screenRects) {
         final RectF rect = detection.getThird();
         final String className = detection.getFirst();
         final Float confidence = detection.getSecond();
@@ -268,35 +378,126 @@ public class MultiBoxTracker {
 
     }
 
-    // Draw correlations.
-    for (final TrackedRecognition recognition : trackedObjects) {
-      final ObjectTracker.TrackedObject trackedObject = recognition.trackedObject;
-
-      final RectF trackedPos = trackedObject.getTrackedPositionInPreviewFrame();
+    final ObjectTracker tracker = objectTracker;
+    if (tracker == null) {
+      return;
+    }
 
-      if (getFrameToCanvasMatrix().mapRect(trackedPos)) {
-        final String labelString = String.format("%.2f", trackedObject.getCurrentCorrelation());
-        borderedText.drawText(canvas, trackedPos.right, trackedPos.bottom, labelString);
+    // Draw correlations.
+    for (final RenderedBox box : snapshot.boxes) {
+      if (frameToCanvas.mapRect(drawRect, box.position)) {
+        final String labelString = String.format("%.2f", box.correlation);
+        borderedText.drawText(canvas, drawRect.right, drawRect.bottom, labelString);
       }
     }
 
-    final Matrix matrix = getFrameToCanvasMatrix();
-    objectTracker.drawDebug(canvas, matrix);
+    // Unlike the rest, this takes the ObjectTracker's own lock, so it can wait for optical flow.
+    // It only runs for the debug overlay.
+    tracker.drawDebug(canvas, frameToCanvas);
   }
 
   public synchronized void trackResults(
-      final List<Recognition> results, final byte[] frame, final long timestamp) {
+      final List<Recognition> results,
+      final byte[] frame,
+      final long timestamp,
+      final FrameContext context) {
     //logger.i("Processing %d results from %d", results.size(), timestamp);
-    processResults(timestamp, results, frame);
+    processResults(timestamp, results, frame, false);
+    context.markTracked();
+    resultsToDraw.set(context);
+    publishRenderSnapshot();
+  }
+
+  /**
+   * Like {@link #trackResults}, but for detections made on regions returned by
+   * {@link #getRegionsToRefresh()} rather than on the whole frame: tracks elsewhere are left
+   * alone, even if there are no results at all.
+   */
+  public synchronized void refreshResults(
+      final List<Recognition> results,
+      final byte[] frame,
+      final long timestamp,
+      final FrameContext context) {
+    processResults(timestamp, results, frame, true);
+    context.markTracked();
+    resultsToDraw.set(context);
+    publishRenderSnapshot();
+  }
+
+  /**
+   * Moves a preview-frame box detected on the frame with the given timestamp to where the motion
+   * tracked since then puts it now. Returns the box as is if object tracking is not available.
+   */
+  public synchronized RectF getCurrentPosition(final RectF position, final long timestamp) {
+    if (objectTracker == null) {
+      return new RectF(position);
+    }
+    return objectTracker.getCurrentPosition(timestamp, position);
   }
 
-  public synchronized ArrayList<Triplet> draw(final Canvas canvas, final String groundTruthClass) {
+  /**
+   * Returns the preview-frame positions of all tracked objects, or null if object tracking is not
+   * available.
+   */
+  public synchronized List<RectF> getTrackedRegions() {
+    if (objectTracker == null) {
+      return null;
+    }
+    final List<RectF> regions = new ArrayList<RectF>(trackedObjects.size());
+    for (final TrackedRecognition recognition : trackedObjects) {
+      regions.add(new RectF(recognition.position));
+    }
+    return regions;
+  }
+
+  /**
+   * Returns the preview-frame positions of tracked objects whose correlation has decayed enough
+   * that a new detection would replace them, or null if object tracking is not available. This
+   * includes tracks coasting without optical flow. Each box is where the track's filter predicts
+   * the object, grown by twice the standard deviation of that prediction, so the region still
+   * covers the object if the prediction is off.
+   */
+  public synchronized List<RectF> getRegionsToRefresh() {
+    if (objectTracker == null) {
+      return null;
+    }
+    final List<RectF> regions = new ArrayList<RectF>();
+    for (final TrackedRecognition recognition : trackedObjects) {
+      if (recognition.trackedObject.getCurrentCorrelation() <= MARGINAL_CORRELATION) {
+        final RectF region = new RectF(recognition.position);
+        final float margin = 2 * recognition.filter.getCenterStd();
+        region.inset(-margin, -margin);
+        regions.add(region);
+      }
+    }
+    return regions;
+  }
+
+  /** Publishes what the tracked objects look like now, for the drawing methods. */
+  private void publishRenderSnapshot() {
+    final List<RenderedBox> boxes = new ArrayList<RenderedBox>(trackedObjects.size());
+    for (final TrackedRecognition recognition : trackedObjects) {
+      final ObjectTracker.TrackedObject trackedObject = recognition.trackedObject;
+      boxes.add(
+          new RenderedBox(
+              recognition.title,
+              recognition.detectionConfidence,
+              new RectF(recognition.location),
+              new RectF(recognition.position),
+              trackedObject != null ? trackedObject.getCurrentCorrelation() : 1.0f));
+    }
+    renderSnapshot.set(
+        new RenderSnapshot(boxes, new ArrayList<Triplet<String, Float, RectF>>(screenRects)));
+  }
+
+  /** Draws the latest published snapshot. Never waits for the tracking threads. */
+  public ArrayList<Triplet> draw(final Canvas canvas, final String groundTruthClass) {
     ArrayList<Triplet> conVals = new ArrayList<Triplet>();
     final boolean rotated = sensorOrientation % 180 == 90;
     final float multiplier =
         Math.min(canvas.getHeight() / (float) (rotated ? frameWidth : frameHeight),
                  canvas.getWidth() / (float) (rotated ? frameHeight : frameWidth));
-    frameToCanvasMatrix =
+    final Matrix frameToCanvas =
         ImageUtils.getTransformationMatrix(
             frameWidth,
             frameHeight,
@@ -304,18 +505,15 @@ public class MultiBoxTracker {
             (int) (multiplier * (rotated ? frameWidth : frameHeight)),
             sensorOrientation,
             false);
-    for (final TrackedRecognition recognition : trackedObjects) {
+    frameToCanvasMatrix = frameToCanvas;
+    for (final RenderedBox recognition : renderSnapshot.get().boxes) {
         final String className = recognition.title;
         final Float confidence = recognition.detectionConfidence;
 
         boolean correct = false;
 
-        final RectF trackedPos =
-          (objectTracker != null)
-              ? recognition.trackedObject.getTrackedPositionInPreviewFrame()
-              : new RectF(recognition.location);
-        final float width = recognition.location.width();
-        final float height = recognition.location.height();
+        final RectF trackedPos = drawRect;
+        trackedPos.set(recognition.position);
 
         if (confidence >= 0.5) {
             if (className.equals(groundTruthClass)) { // put parameter
@@ -327,7 +525,7 @@ public class MultiBoxTracker {
             }
         }
 
-      getFrameToCanvasMatrix().mapRect(trackedPos);
+      frameToCanvas.mapRect(trackedPos);
       final float cornerSize = Math.min(trackedPos.width(), trackedPos.height()) / 8.0f;
 
       // Now lets get ready to draw the box and cooresponding label.
@@ -371,18 +569,41 @@ public class MultiBoxTracker {
           borderedText.drawText(canvas, trackedPos.left + cornerSize, trackedPos.bottom, labelString);
       }
     }
+
+    final FrameContext drawnFrame = frameToDraw.getAndSet(null);
+    if (drawnFrame != null) {
+      drawnFrame.markDrawn();
+    }
+    final FrameContext drawnResults = resultsToDraw.getAndSet(null);
+    if (drawnResults != null) {
+      drawnResults.markResultsDrawn();
+    }
       return conVals;
   }
 
   private boolean initialized = false;
 
+  // Frames whose tracked positions, respectively detections, have not been drawn yet.
+  private final AtomicReference<FrameContext> frameToDraw = new AtomicReference<FrameContext>();
+  private final AtomicReference<FrameContext> resultsToDraw = new AtomicReference<FrameContext>();
+
+  /**
+   * Tracks the frame currently held by the pyramid. Optical flow runs on the pyramid level the
+   * tracker works at, so the frame is not downsampled again for it.
+   */
   public synchronized void onFrame(
-      final int w,
-      final int h,
-      final int rowStride,
+      final ImagePyramid pyramid,
       final int sensorOrienation,
-      final byte[] frame,
-      final long timestamp) {
+      final long timestamp,
+      final FrameContext context) {
+    final int w = pyramid.getWidth(0);
+    final int h = pyramid.getHeight(0);
+    final int rowStride = pyramid.getLuminanceStride(0);
+    final FrameContext undrawnFrame = frameToDraw.getAndSet(context);
+    if (undrawnFrame != null) {
+      undrawnFrame.markDropped(FrameTracer.Drop.NOT_DRAWN);
+    }
+
     if (objectTracker == null && !initialized) {
       ObjectTracker.clearInstance();
 
@@ -390,6 +611,7 @@ public class MultiBoxTracker {
       objectTracker = ObjectTracker.getInstance(w, h, rowStride, true);
       frameWidth = w;
       frameHeight = h;
+      frameRowStride = rowStride;
       this.sensorOrientation = sensorOrienation;
       initialized = true;
 
@@ -404,32 +626,106 @@ public class MultiBoxTracker {
 
     }
 
-    if (objectTracker == null) {
-      return;
-    }
+    lastFrameTimestamp = timestamp;
 
-    objectTracker.nextFrame(frame, null, timestamp, null, true);
+    if (objectTracker != null) {
+      final int level = ImagePyramid.getLevelForFactor(ObjectTracker.getDownsampleFactor());
+      if (level >= 0) {
+        objectTracker.nextDownsampledFrame(
+            pyramid.getLuminance(level), pyramid.getLuminanceStride(level), null, timestamp,
+            null, true);
+      } else {
+        objectTracker.nextFrame(pyramid.getLuminance(0), null, timestamp, null, true);
+      }
+    }
 
-    // Clean up any objects not worth tracking any more.
+    // Move every track's filter to this frame, fold in the optical flow where it can be trusted,
+    // and clean up any objects not worth tracking any more.
     final LinkedList<TrackedRecognition> copyList =
         new LinkedList<TrackedRecognition>(trackedObjects);
     for (final TrackedRecognition recognition : copyList) {
       final ObjectTracker.TrackedObject trackedObject = recognition.trackedObject;
-      final float correlation = trackedObject.getCurrentCorrelation();
-      if (correlation < MIN_CORRELATION) {
-        logger.v("Removing tracked object %s because NCC is %.2f", trackedObject, correlation);
-        trackedObject.stopTracking();
-        trackedObjects.remove(recognition);
-        if (shownDetections.contains(recognition.title)) {
-            numTracked--;
-        }
-        availableColors.add(recognition.color);
+      final float correlation =
+          trackedObject != null ? trackedObject.getCurrentCorrelation() : 0.0f;
+      recognition.filter.predict(timestamp);
+      if (correlation >= MIN_CORRELATION) {
+        recognition.filter.update(
+            trackedObject.getTrackedPositionInPreviewFrame(flowPosition), FLOW_STD / correlation);
+      }
+      recognition.filter.getBox(recognition.position);
+
+      if (recognition.isLost()) {
+        logger.v(
+            "Removing tracked object %s because its center is uncertain by %.1f, NCC is %.2f",
+            trackedObject,
+            recognition.filter.getCenterStd(),
+            correlation);
+        rememberLostTrack(recognition);
+        removeTrack(recognition);
+      } else if (trackedObject != null && correlation < MIN_CORRELATION) {
+        // Have optical flow look for the object where the motion model expects it to be.
+        trackedObject.setCurrentPosition(recognition.position);
       }
     }
+    publishRenderSnapshot();
+  }
+
+  /** Returns how many distinct objects have been tracked, counting reacquired ones once. */
+  public int getUniqueObjectCount() {
+    return uniqueObjectCount;
+  }
+
+  /** Returns how many new tracks were recognized as objects lost earlier. */
+  public int getReacquiredCount() {
+    return reacquiredCount;
+  }
+
+  private void rememberLostTrack(final TrackedRecognition recognition) {
+    if (recognition.hasAppearance) {
+      lostTracks.add(recognition.appearance, recognition.title, recognition.id, lastFrameTimestamp);
+    }
+  }
+
+  /**
+   * Describes what a new track looks like in the given frame, and gives it the identity of a lost
+   * track it matches, or a new one.
+   */
+  private void identify(
+      final TrackedRecognition recognition, final byte[] frame, final long timestamp) {
+    recognition.hasAppearance =
+        AppearanceGallery.describe(
+            frame, frameWidth, frameHeight, frameRowStride, recognition.location,
+            recognition.appearance);
+    if (recognition.hasAppearance) {
+      final int id =
+          lostTracks.take(
+              recognition.appearance, recognition.title, MIN_REACQUIRE_CORRELATION, timestamp);
+      if (id >= 0) {
+        logger.v("Reacquired object %d (%s)", id, recognition.title);
+        recognition.id = id;
+        ++reacquiredCount;
+        return;
+      }
+    }
+    recognition.id = uniqueObjectCount++;
+  }
+
+  private void removeTrack(final TrackedRecognition recognition) {
+    if (recognition.trackedObject != null) {
+      recognition.trackedObject.stopTracking();
+    }
+    trackedObjects.remove(recognition);
+    if (shownDetections.contains(recognition.title)) {
+        numTracked--;
+    }
+    availableColors.add(recognition.color);
   }
 
   private void processResults(
-      final long timestamp, final List<Recognition> results, final byte[] originalFrame) {
+      final long timestamp,
+      final List<Recognition> results,
+      final byte[] originalFrame,
+      final boolean partial) {
     final List<Triplet<String, Float, Recognition>> rectsToTrack = new LinkedList<Triplet<String, Float, Recognition>>();
 
     screenRects.clear();
@@ -444,45 +740,35 @@ public class MultiBoxTracker {
       final RectF detectionScreenRect = new RectF();
       rgbFrameToScreen.mapRect(detectionScreenRect, detectionFrameRect);
 
-      logger.v(
-          "Result! Frame: " + result.getLocation() + " mapped to screen:" + detectionScreenRect);
+      logger.v("Result! Frame: %s mapped to screen: %s", detectionFrameRect, detectionScreenRect);
 
       screenRects.add(new Triplet<String, Float, RectF>(result.getTitle(), result.getConfidence(), detectionScreenRect));
 
       if (detectionFrameRect.width() < MIN_SIZE || detectionFrameRect.height() < MIN_SIZE || (detectionFrameRect.width() > MAX_SIZE && detectionFrameRect.height() > MAX_SIZE)) {
-        logger.w("Degenerate rectangle! " + detectionFrameRect);
+        logger.w("Degenerate rectangle! %s", detectionFrameRect);
         continue;
       }
 
       rectsToTrack.add(new Triplet<String, Float, Recognition>(result.getTitle(), result.getConfidence(), result));
     }
 
-    if (rectsToTrack.isEmpty()) {
-      //logger.i("Nothing to track, aborting.");
-        trackedObjects.clear();
-        numTracked = 0;
-        return;
+    if (objectTracker == null) {
+      matchDetections(timestamp, rectsToTrack, originalFrame);
+      return;
     }
 
-    if (objectTracker == null) {
-      trackedObjects.clear();
-      numTracked = 0;
-      for (final Triplet<String,Float, Recognition> potential : rectsToTrack) {
-        final TrackedRecognition trackedRecognition = new TrackedRecognition();
-        trackedRecognition.detectionConfidence = potential.getSecond();
-        trackedRecognition.location = new RectF(potential.getThird().getLocation());
-        trackedRecognition.trackedObject = null;
-        trackedRecognition.title = potential.getThird().getTitle();
-        trackedRecognition.color = COLORS[trackedObjects.size()];
-        trackedObjects.add(trackedRecognition);
-        if (shownDetections.contains(trackedRecognition.title)) {
-            numTracked++;
+    if (rectsToTrack.isEmpty()) {
+      //logger.i("Nothing to track, aborting.");
+        if (partial) {
+          return;
         }
-        if (trackedObjects.size() >= COLORS.length) {
-          break;
+        for (final TrackedRecognition recognition :
+            new ArrayList<TrackedRecognition>(trackedObjects)) {
+          rememberLostTrack(recognition);
+          removeTrack(recognition);
         }
-      }
-      return;
+        numTracked = 0;
+        return;
     }
 
     logger.i("%d rects to track", rectsToTrack.size());
@@ -491,6 +777,55 @@ public class MultiBoxTracker {
     }
   }
 
+  /**
+   * Without optical flow, detections are the only measurements. Each one updates the filter of the
+   * track of the same class it overlaps most, or starts a new track. Tracks left without a
+   * detection coast until onFrame() finds them lost.
+   */
+  private void matchDetections(
+      final long timestamp,
+      final List<Triplet<String, Float, Recognition>> rectsToTrack,
+      final byte[] frame) {
+    for (final Triplet<String, Float, Recognition> potential : rectsToTrack) {
+      final Recognition result = potential.getThird();
+      final RectF detection = result.getLocation();
+
+      TrackedRecognition match = null;
+      float maxOverlap = MIN_MATCH_OVERLAP;
+      for (final TrackedRecognition trackedRecognition : trackedObjects) {
+        final float overlap =
+            BoxOverlap.intersectionOverUnion(trackedRecognition.position, detection);
+        if (overlap >= maxOverlap && trackedRecognition.title.equals(result.getTitle())) {
+          maxOverlap = overlap;
+          match = trackedRecognition;
+        }
+      }
+
+      if (match != null) {
+        // The filter is already at the latest frame, a little past the detection; treating the
+        // detection as current only lags by the detector's latency.
+        match.filter.update(detection, DETECTION_STD);
+        match.location = new RectF(detection);
+      } else if (!availableColors.isEmpty()) {
+        match = new TrackedRecognition();
+        match.title = result.getTitle();
+        match.location = new RectF(detection);
+        match.color = availableColors.poll();
+        match.filter.reset(detection, timestamp, DETECTION_STD, INITIAL_VELOCITY_STD);
+        match.filter.predict(lastFrameTimestamp);
+        identify(match, frame, timestamp);
+        trackedObjects.add(match);
+        if (shownDetections.contains(match.title)) {
+            numTracked++;
+        }
+      } else {
+        continue;
+      }
+      match.detectionConfidence = potential.getSecond();
+      match.filter.getBox(match.position);
+    }
+  }
+
   private void handleDetection(
       final byte[] frameCopy, final long timestamp, final Triplet<String, Float, Recognition> potential) {
     final ObjectTracker.TrackedObject potentialObject =
@@ -517,20 +852,15 @@ public class MultiBoxTracker {
 
     // Look for intersections that will be overridden by this object or an intersection that would
     // prevent this one from being placed.
+    final RectF b = potentialObject.getTrackedPositionInPreviewFrame();
     for (final TrackedRecognition trackedRecognition : trackedObjects) {
-      final RectF a = trackedRecognition.trackedObject.getTrackedPositionInPreviewFrame();
-      final RectF b = potentialObject.getTrackedPositionInPreviewFrame();
-      final RectF intersection = new RectF();
-      final boolean intersects = intersection.setIntersect(a, b);
-
-      final float intersectArea = intersection.width() * intersection.height();
-      final float totalArea = a.width() * a.height() + b.width() * b.height() - intersectArea;
-      final float intersectOverUnion = intersectArea / totalArea;
+      final RectF a = trackedRecognition.position;
+      final float intersectOverUnion = BoxOverlap.intersectionOverUnion(a, b);
 
       // If there is an intersection with this currently tracked box above the maximum overlap
       // percentage allowed, either the new recognition needs to be dismissed or the old
       // recognition needs to be removed and possibly replaced with the new one.
-      if (intersects && intersectOverUnion > MAX_OVERLAP) {
+      if (intersectOverUnion > MAX_OVERLAP) {
         if (potential.getSecond() < trackedRecognition.detectionConfidence
             && trackedRecognition.trackedObject.getCurrentCorrelation() > MARGINAL_CORRELATION) {
           // If track for the existing object is still going strong and the detection score was
@@ -588,6 +918,11 @@ public class MultiBoxTracker {
       }
     }
 
+    // Without an intersection, the replaced object is a different one that may come back.
+    if (recogToReplace != null && maxIntersect == 0.0f) {
+      rememberLostTrack(recogToReplace);
+    }
+
     if (recogToReplace == null && availableColors.isEmpty()) {
       logger.e("No room to track this object, aborting.");
       potentialObject.stopTracking();
@@ -604,7 +939,22 @@ public class MultiBoxTracker {
     final TrackedRecognition trackedRecognition = new TrackedRecognition();
     trackedRecognition.detectionConfidence = potential.getSecond();
     trackedRecognition.trackedObject = potentialObject;
+    trackedRecognition.location = new RectF(potential.getThird().getLocation());
     trackedRecognition.title = potential.getThird().getTitle();
+    // The tracked position has already been moved to the latest frame.
+    trackedRecognition.filter.reset(
+        b, lastFrameTimestamp, FLOW_STD / potentialCorrelation, INITIAL_VELOCITY_STD);
+    trackedRecognition.filter.getBox(trackedRecognition.position);
+    if (recogToReplace != null && maxIntersect > 0.0f) {
+      // A new detection of an object already tracked.
+      trackedRecognition.id = recogToReplace.id;
+      trackedRecognition.hasAppearance =
+          AppearanceGallery.describe(
+              frameCopy, frameWidth, frameHeight, frameRowStride, trackedRecognition.location,
+              trackedRecognition.appearance);
+    } else {
+      identify(trackedRecognition, frameCopy, timestamp);
+    }
 
     // Use the color from a replaced object before taking one from the color queue.
     trackedRecognition.color =
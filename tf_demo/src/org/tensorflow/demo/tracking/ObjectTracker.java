@@ -19,13 +19,9 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.PointF;
 import android.graphics.RectF;
 import android.graphics.Typeface;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 import javax.microedition.khronos.opengles.GL10;
@@ -76,133 +72,68 @@ public class ObjectTracker {
    */
   private static final int MAX_FRAME_HISTORY_SIZE = 200;
 
+  // kMaxKeypoints and kKeypointStep in config.h.
+  private static final int MAX_KEYPOINTS = 76;
+  private static final int KEYPOINT_STEP = 7;
+
+  // Two pairs of 16-bit coordinates per keypoint, as packed by getKeypointsPackedNative().
+  private static final int PACKED_KEYPOINT_BYTES = 8;
+
   private static final int DOWNSAMPLE_FACTOR = 2;
 
+  /**
+   * Floats getTrackedStatesNative() writes per object: left, top, right, bottom, correlation,
+   * visibility (0 or 1) and match score. Must match kTrackedStateSize in object_tracker_jni.cc.
+   */
+  private static final int STATE_SIZE = 7;
+
   private final byte[] downsampledFrame;
 
   protected static ObjectTracker instance;
 
   private final Map<String, TrackedObject> trackedObjects;
 
-  private long lastTimestamp;
+  private int nextHandle;
 
-  private FrameChange lastKeypoints;
+  // Scratch space for querying the state of all tracked objects in one native call.
+  private TrackedObject[] stateObjects = new TrackedObject[0];
+  private int[] stateHandles = new int[0];
+  private float[] states = new float[0];
 
-  private final Vector<PointF> debugHistory;
+  private long lastTimestamp;
 
-  private final LinkedList<TimestampedDeltas> timestampedDeltas;
+  // The keypoints of the last frame, KEYPOINT_STEP floats each in downsampled coordinates:
+  // x1, y1, found, x2, y2, score, type.
+  private final float[] keypoints = new float[MAX_KEYPOINTS * KEYPOINT_STEP];
+  private int numKeypoints;
+  private float minKeypointScore;
+  private float maxKeypointScore;
+
+  // The frame-to-frame motion of the frame center, as x, y pairs in a ring of
+  // MAX_DEBUG_HISTORY_SIZE entries.
+  private final float[] debugHistory = new float[MAX_DEBUG_HISTORY_SIZE * 2];
+  private int debugHistoryFirst;
+  private int debugHistorySize;
+
+  private final float[] positionDelta = new float[4];
+
+  private final KeypointHistory keypointHistory =
+      new KeypointHistory(MAX_FRAME_HISTORY_SIZE, MAX_KEYPOINTS * PACKED_KEYPOINT_BYTES);
+
+  /** Receives optical flow data polled with {@link #pollAccumulatedFlowData}. */
+  public interface FlowDataConsumer {
+    /**
+     * Called with the packed keypoint deltas of one frame, which are only valid for the duration
+     * of the call: the array is the history's own, and is reused.
+     */
+    void onFlowData(long timestamp, byte[] data, int offset, int length);
+  }
 
   protected final int frameWidth;
   protected final int frameHeight;
   private final int rowStride;
   protected final boolean alwaysTrack;
 
-  private static class TimestampedDeltas {
-    final long timestamp;
-    final byte[] deltas;
-
-    public TimestampedDeltas(final long timestamp, final byte[] deltas) {
-      this.timestamp = timestamp;
-      this.deltas = deltas;
-    }
-  }
-
-  /**
-   * A simple class that records keypoint information, which includes
-   * local location, score and type. This will be used in calculating
-   * FrameChange.
-   */
-  public static class Keypoint {
-    public final float x;
-    public final float y;
-    public final float score;
-    public final int type;
-
-    public Keypoint(final float x, final float y) {
-      this.x = x;
-      this.y = y;
-      this.score = 0;
-      this.type = -1;
-    }
-
-    public Keypoint(final float x, final float y, final float score, final int type) {
-      this.x = x;
-      this.y = y;
-      this.score = score;
-      this.type = type;
-    }
-
-    Keypoint delta(final Keypoint other) {
-      return new Keypoint(this.x - other.x, this.y - other.y);
-    }
-  }
-
-  /**
-   * A simple class that could calculate Keypoint delta.
-   * This class will be used in calculating frame translation delta
-   * for optical flow.
-   */
-  public static class PointChange {
-    public final Keypoint keypointA;
-    public final Keypoint keypointB;
-    Keypoint pointDelta;
-    private final boolean wasFound;
-
-    public PointChange(final float x1, final float y1,
-                       final float x2, final float y2,
-                       final float score, final int type,
-                       final boolean wasFound) {
-      this.wasFound = wasFound;
-
-      keypointA = new Keypoint(x1, y1, score, type);
-      keypointB = new Keypoint(x2, y2);
-    }
-
-    public Keypoint getDelta() {
-      if (pointDelta == null) {
-        pointDelta = keypointB.delta(keypointA);
-      }
-      return pointDelta;
-    }
-  }
-
-  /** A class that records a timestamped frame translation delta for optical flow. */
-  public static class FrameChange {
-    public static final int KEYPOINT_STEP = 7;
-
-    public final Vector<PointChange> pointDeltas;
-
-    private final float minScore;
-    private final float maxScore;
-
-    public FrameChange(final float[] framePoints) {
-      float minScore = 100.0f;
-      float maxScore = -100.0f;
-
-      pointDeltas = new Vector<PointChange>(framePoints.length / KEYPOINT_STEP);
-
-      for (int i = 0; i < framePoints.length; i += KEYPOINT_STEP) {
-        final float x1 = framePoints[i + 0] * DOWNSAMPLE_FACTOR;
-        final float y1 = framePoints[i + 1] * DOWNSAMPLE_FACTOR;
-
-        final boolean wasFound = framePoints[i + 2] > 0.0f;
-
-        final float x2 = framePoints[i + 3] * DOWNSAMPLE_FACTOR;
-        final float y2 = framePoints[i + 4] * DOWNSAMPLE_FACTOR;
-        final float score = framePoints[i + 5];
-        final int type = (int) framePoints[i + 6];
-
-        minScore = Math.min(minScore, score);
-        maxScore = Math.max(maxScore, score);
-
-        pointDeltas.add(new PointChange(x1, y1, x2, y2, score, type, wasFound));
-      }
-
-      this.minScore = minScore;
-      this.maxScore = maxScore;
-    }
-  }
-
   public static synchronized ObjectTracker getInstance(
       final int frameWidth, final int frameHeight, final int rowStride, final boolean alwaysTrack) {
     if (!libraryFound) {
@@ -234,12 +165,9 @@ public class ObjectTracker {
     this.frameHeight = frameHeight;
     this.rowStride = rowStride;
     this.alwaysTrack = alwaysTrack;
-    this.timestampedDeltas = new LinkedList<TimestampedDeltas>();
 
     trackedObjects = new HashMap<String, TrackedObject>();
 
-    debugHistory = new Vector<PointF>(MAX_DEBUG_HISTORY_SIZE);
-
     downsampledFrame =
         new byte
             [(frameWidth + DOWNSAMPLE_FACTOR - 1)
@@ -256,6 +184,10 @@ public class ObjectTracker {
 
   private final float[] matrixValues = new float[9];
 
+  // Scratch space for refreshing a single object's state, used with this tracker locked.
+  private final int[] singleStateHandle = new int[1];
+  private final float[] singleState = new float[STATE_SIZE];
+
   private long downsampledTimestamp;
 
   @SuppressWarnings("unused")
@@ -267,6 +199,11 @@ public class ObjectTracker {
     drawNative(cameraViewSize.width, cameraViewSize.height, matrixValues);
   }
 
+  /** Returns how much smaller than the frames it is given the tracker's working images are. */
+  public static int getDownsampleFactor() {
+    return DOWNSAMPLE_FACTOR;
+  }
+
   public synchronized void nextFrame(
       final byte[] frameData, final byte[] uvData,
       final long timestamp, final float[] transformationMatrix,
@@ -277,17 +214,41 @@ public class ObjectTracker {
       downsampledTimestamp = timestamp;
     }
 
+    trackDownsampledFrame(uvData, timestamp, transformationMatrix, updateDebugInfo);
+  }
+
+  /**
+   * Like {@link #nextFrame}, for a frame that has already been downsampled by
+   * {@link #getDownsampleFactor()}, such as a level of an ImagePyramid. The frame is copied, so
+   * the caller may reuse it afterwards.
+   */
+  public synchronized void nextDownsampledFrame(
+      final byte[] downsampledData, final int downsampledRowStride, final byte[] uvData,
+      final long timestamp, final float[] transformationMatrix,
+      final boolean updateDebugInfo) {
+    final int width = frameWidth / DOWNSAMPLE_FACTOR;
+    final int height = frameHeight / DOWNSAMPLE_FACTOR;
+    for (int y = 0; y < height; ++y) {
+      System.arraycopy(
+          downsampledData, y * downsampledRowStride, downsampledFrame, y * width, width);
+    }
+    downsampledTimestamp = timestamp;
+
+    trackDownsampledFrame(uvData, timestamp, transformationMatrix, updateDebugInfo);
+  }
+
+  private void trackDownsampledFrame(
+      final byte[] uvData, final long timestamp, final float[] transformationMatrix,
+      final boolean updateDebugInfo) {
     // Do Lucas Kanade using the fullframe initializer.
     nextFrameNative(downsampledFrame, uvData, timestamp, transformationMatrix);
 
-    timestampedDeltas.add(new TimestampedDeltas(timestamp, getKeypointsPacked(DOWNSAMPLE_FACTOR)));
-    while (timestampedDeltas.size() > MAX_FRAME_HISTORY_SIZE) {
-      timestampedDeltas.removeFirst();
-    }
+    final int numPacked =
+        getKeypointsPackedNative(
+            DOWNSAMPLE_FACTOR, keypointHistory.getData(), keypointHistory.getNextOffset());
+    keypointHistory.commit(timestamp, numPacked * PACKED_KEYPOINT_BYTES);
 
-    for (final TrackedObject trackedObject : trackedObjects.values()) {
-      trackedObject.updateTrackedPosition();
-    }
+    updateTrackedStates();
 
     if (updateDebugInfo) {
       updateDebugHistory();
@@ -296,6 +257,32 @@ public class ObjectTracker {
     lastTimestamp = timestamp;
   }
 
+  /** Refreshes the cached state of every tracked object with a single native call. */
+  private void updateTrackedStates() {
+    final int count = trackedObjects.size();
+    if (count == 0) {
+      return;
+    }
+    if (stateHandles.length < count) {
+      stateObjects = new TrackedObject[count * 2];
+      stateHandles = new int[count * 2];
+      states = new float[count * 2 * STATE_SIZE];
+    }
+    int i = 0;
+    for (final TrackedObject trackedObject : trackedObjects.values()) {
+      stateObjects[i] = trackedObject;
+      stateHandles[i] = trackedObject.handle;
+      ++i;
+    }
+
+    getTrackedStatesNative(stateHandles, count, states);
+
+    for (i = 0; i < count; ++i) {
+      stateObjects[i].setState(states, i * STATE_SIZE);
+      stateObjects[i] = null;
+    }
+  }
+
   public synchronized void release() {
     releaseMemoryNative();
     synchronized (ObjectTracker.class) {
@@ -323,18 +310,15 @@ public class ObjectTracker {
     p.setColor(Color.RED);
 
     // Iterate through in backwards order.
-    synchronized (debugHistory) {
-      final int numPoints = debugHistory.size();
-      float lastX = startX;
-      float lastY = startY;
-      for (int keypointNum = 0; keypointNum < numPoints; ++keypointNum) {
-        final PointF delta = debugHistory.get(numPoints - keypointNum - 1);
-        final float newX = lastX + delta.x;
-        final float newY = lastY + delta.y;
-        canvas.drawLine(lastX, lastY, newX, newY, p);
-        lastX = newX;
-        lastY = newY;
-      }
+    float lastX = startX;
+    float lastY = startY;
+    for (int keypointNum = debugHistorySize - 1; keypointNum >= 0; --keypointNum) {
+      final int index = (debugHistoryFirst + keypointNum) % MAX_DEBUG_HISTORY_SIZE * 2;
+      final float newX = lastX + debugHistory[index];
+      final float newY = lastY + debugHistory[index + 1];
+      canvas.drawLine(lastX, lastY, newX, newY, p);
+      lastX = newX;
+      lastY = newY;
     }
   }
 
@@ -344,55 +328,48 @@ public class ObjectTracker {
 
   private void drawKeypointsDebug(final Canvas canvas) {
     final Paint p = new Paint();
-    if (lastKeypoints == null) {
-      return;
-    }
     final int keypointSize = 3;
 
-    final float minScore = lastKeypoints.minScore;
-    final float maxScore = lastKeypoints.maxScore;
+    final float minScore = minKeypointScore;
+    final float maxScore = maxKeypointScore;
+
+    for (int i = 0; i < numKeypoints * KEYPOINT_STEP; i += KEYPOINT_STEP) {
+      final float x1 = keypoints[i + 0] * DOWNSAMPLE_FACTOR;
+      final float y1 = keypoints[i + 1] * DOWNSAMPLE_FACTOR;
+      final boolean wasFound = keypoints[i + 2] > 0.0f;
+      final float score = keypoints[i + 5];
 
-    for (final PointChange keypoint : lastKeypoints.pointDeltas) {
-      if (keypoint.wasFound) {
-        final int r =
-            floatToChar((keypoint.keypointA.score - minScore) / (maxScore - minScore));
-        final int b =
-            floatToChar(1.0f - (keypoint.keypointA.score - minScore) / (maxScore - minScore));
+      if (wasFound) {
+        final float x2 = keypoints[i + 3] * DOWNSAMPLE_FACTOR;
+        final float y2 = keypoints[i + 4] * DOWNSAMPLE_FACTOR;
+
+        final int r = floatToChar((score - minScore) / (maxScore - minScore));
+        final int b = floatToChar(1.0f - (score - minScore) / (maxScore - minScore));
 
         final int color = 0xFF000000 | (r << 16) | b;
         p.setColor(color);
 
-        final float[] screenPoints = {keypoint.keypointA.x, keypoint.keypointA.y,
-                                      keypoint.keypointB.x, keypoint.keypointB.y};
-        canvas.drawRect(screenPoints[2] - keypointSize,
-                        screenPoints[3] - keypointSize,
-                        screenPoints[2] + keypointSize,
-                        screenPoints[3] + keypointSize, p);
+        canvas.drawRect(
+            x2 - keypointSize, y2 - keypointSize, x2 + keypointSize, y2 + keypointSize, p);
         p.setColor(Color.CYAN);
-        canvas.drawLine(screenPoints[2], screenPoints[3],
-                        screenPoints[0], screenPoints[1], p);
+        canvas.drawLine(x2, y2, x1, y1, p);
 
         if (DRAW_TEXT) {
           p.setColor(Color.WHITE);
-          canvas.drawText(keypoint.keypointA.type + ": " + keypoint.keypointA.score,
-              keypoint.keypointA.x, keypoint.keypointA.y, p);
+          canvas.drawText((int) keypoints[i + 6] + ": " + score, x1, y1, p);
         }
       } else {
         p.setColor(Color.YELLOW);
-        final float[] screenPoint = {keypoint.keypointA.x, keypoint.keypointA.y};
-        canvas.drawCircle(screenPoint[0], screenPoint[1], 5.0f, p);
+        canvas.drawCircle(x1, y1, 5.0f, p);
       }
     }
   }
 
-  private synchronized PointF getAccumulatedDelta(final long timestamp, final float positionX,
-      final float positionY, final float radius) {
-    final RectF currPosition = getCurrentPosition(timestamp,
-        new RectF(positionX - radius, positionY - radius, positionX + radius, positionY + radius));
-    return new PointF(currPosition.centerX() - positionX, currPosition.centerY() - positionY);
-  }
-
-  private synchronized RectF getCurrentPosition(final long timestamp, final RectF
+  /**
+   * Returns where the optical flow since the frame with the given timestamp has moved a box from
+   * that frame, in the current frame.
+   */
+  synchronized RectF getCurrentPosition(final long timestamp, final RectF
       oldPosition) {
     final RectF downscaledFrameRect = downscaleRect(oldPosition);
 
@@ -406,23 +383,45 @@ public class ObjectTracker {
   }
 
   private void updateDebugHistory() {
-    lastKeypoints = new FrameChange(getKeypointsNative(false));
+    numKeypoints = getKeypointsNative(false, keypoints);
+    float minScore = 100.0f;
+    float maxScore = -100.0f;
+    for (int i = 0; i < numKeypoints * KEYPOINT_STEP; i += KEYPOINT_STEP) {
+      minScore = Math.min(minScore, keypoints[i + 5]);
+      maxScore = Math.max(maxScore, keypoints[i + 5]);
+    }
+    minKeypointScore = minScore;
+    maxKeypointScore = maxScore;
 
     if (lastTimestamp == 0) {
       return;
     }
 
-    final PointF delta =
-        getAccumulatedDelta(
-            lastTimestamp, frameWidth / DOWNSAMPLE_FACTOR, frameHeight / DOWNSAMPLE_FACTOR, 100);
-
-    synchronized (debugHistory) {
-      debugHistory.add(delta);
-
-      while (debugHistory.size() > MAX_DEBUG_HISTORY_SIZE) {
-        debugHistory.remove(0);
-      }
+    // How far a box of radius 100 around (frameWidth / 2, frameHeight / 2) moved since the last
+    // frame. This is getCurrentPosition() without its allocations, so it works in downsampled
+    // coordinates and scales the result back up.
+    final float positionX = frameWidth / DOWNSAMPLE_FACTOR;
+    final float positionY = frameHeight / DOWNSAMPLE_FACTOR;
+    final float radius = 100;
+    getCurrentPositionNative(
+        lastTimestamp,
+        (positionX - radius) / DOWNSAMPLE_FACTOR,
+        (positionY - radius) / DOWNSAMPLE_FACTOR,
+        (positionX + radius) / DOWNSAMPLE_FACTOR,
+        (positionY + radius) / DOWNSAMPLE_FACTOR,
+        positionDelta);
+
+    final int index;
+    if (debugHistorySize < MAX_DEBUG_HISTORY_SIZE) {
+      index = (debugHistoryFirst + debugHistorySize++) % MAX_DEBUG_HISTORY_SIZE * 2;
+    } else {
+      index = debugHistoryFirst * 2;
+      debugHistoryFirst = (debugHistoryFirst + 1) % MAX_DEBUG_HISTORY_SIZE;
     }
+    debugHistory[index] =
+        (positionDelta[0] + positionDelta[2]) / 2 * DOWNSAMPLE_FACTOR - positionX;
+    debugHistory[index + 1] =
+        (positionDelta[1] + positionDelta[3]) / 2 * DOWNSAMPLE_FACTOR - positionY;
   }
 
   public synchronized void drawDebug(final Canvas canvas, final Matrix frameToCanvas) {
@@ -435,31 +434,27 @@ public class ObjectTracker {
     canvas.restore();
   }
 
-  public Vector<String> getDebugText() {
+  public synchronized Vector<String> getDebugText() {
     final Vector<String> lines = new Vector<String>();
 
-    if (lastKeypoints != null) {
-      lines.add("Num keypoints " + lastKeypoints.pointDeltas.size());
-      lines.add("Min score: " + lastKeypoints.minScore);
-      lines.add("Max score: " + lastKeypoints.maxScore);
+    if (numKeypoints > 0) {
+      lines.add("Num keypoints " + numKeypoints);
+      lines.add("Min score: " + minKeypointScore);
+      lines.add("Max score: " + maxKeypointScore);
     }
 
     return lines;
   }
 
-  public synchronized List<byte[]> pollAccumulatedFlowData(final long endFrameTime) {
-    final List<byte[]> frameDeltas = new ArrayList<byte[]>();
-    while (timestampedDeltas.size() > 0) {
-      final TimestampedDeltas currentDeltas = timestampedDeltas.peek();
-      if (currentDeltas.timestamp <= endFrameTime) {
-        frameDeltas.add(currentDeltas.deltas);
-        timestampedDeltas.removeFirst();
-      } else {
-        break;
-      }
-    }
-
-    return frameDeltas;
+  /**
+   * Hands the packed keypoint deltas of every frame up to and including endFrameTime to the
+   * consumer, oldest first, and drops them. The consumer runs with the tracker locked.
+   *
+   * @return The number of frames consumed.
+   */
+  public synchronized int pollAccumulatedFlowData(
+      final long endFrameTime, final FlowDataConsumer consumer) {
+    return keypointHistory.poll(endFrameTime, consumer);
   }
 
   private RectF downscaleRect(final RectF fullFrameRect) {
@@ -487,19 +482,27 @@ public class ObjectTracker {
    * @author andrewharp@google.com (Andrew Harp)
    */
   public class TrackedObject {
+    // Identifies the object to native code, which keys it by the string form of the handle.
+    private final int handle;
     private final String id;
 
     private long lastExternalPositionTime;
 
-    private RectF lastTrackedPosition;
+    // As of the last frame, or the last position set from outside. Updated in place.
+    private final RectF lastTrackedPosition = new RectF();
+    private boolean hasTrackedPosition;
     private boolean visibleInLastFrame;
+    private float correlation;
+    private float matchScore;
 
     private boolean isDead;
 
     TrackedObject(final RectF position, final long timestamp, final byte[] data) {
       isDead = false;
 
-      id = Integer.toString(this.hashCode());
+      // Sequential rather than hashCode(), which is not guaranteed to be unique.
+      handle = nextHandle++;
+      id = Integer.toString(handle);
 
       lastExternalPositionTime = timestamp;
 
@@ -520,9 +523,14 @@ public class ObjectTracker {
       }
     }
 
-    public float getCurrentCorrelation() {
+    public synchronized float getCurrentCorrelation() {
+      checkValidObject();
+      return correlation;
+    }
+
+    public synchronized float getMatchScore() {
       checkValidObject();
-      return ObjectTracker.this.getCurrentCorrelation(id);
+      return matchScore;
     }
 
     void registerInitialAppearance(final RectF position, final byte[] data) {
@@ -562,23 +570,46 @@ public class ObjectTracker {
       }
     }
 
+    // Called with the tracker locked.
     private synchronized void updateTrackedPosition() {
       checkValidObject();
 
-      final float[] delta = new float[4];
-      getTrackedPositionNative(id, delta);
-      lastTrackedPosition = new RectF(delta[0], delta[1], delta[2], delta[3]);
+      singleStateHandle[0] = handle;
+      getTrackedStatesNative(singleStateHandle, 1, singleState);
+      setState(singleState, 0);
+    }
 
-      visibleInLastFrame = isObjectVisible(id);
+    private synchronized void setState(final float[] state, final int offset) {
+      lastTrackedPosition.set(
+          state[offset], state[offset + 1], state[offset + 2], state[offset + 3]);
+      hasTrackedPosition = true;
+      correlation = state[offset + 4];
+      visibleInLastFrame = state[offset + 5] != 0.0f;
+      matchScore = state[offset + 6];
     }
 
     public synchronized RectF getTrackedPositionInPreviewFrame() {
+      return getTrackedPositionInPreviewFrame(new RectF());
+    }
+
+    /**
+     * Like {@link #getTrackedPositionInPreviewFrame()}, but fills in the given rect rather than
+     * allocating one, for callers going through every object on every frame.
+     *
+     * @return The given rect, or null if the object has no tracked position yet.
+     */
+    public synchronized RectF getTrackedPositionInPreviewFrame(final RectF position) {
       checkValidObject();
 
-      if (lastTrackedPosition == null) {
+      if (!hasTrackedPosition) {
         return null;
       }
-      return upscaleRect(lastTrackedPosition);
+      position.set(
+          lastTrackedPosition.left * DOWNSAMPLE_FACTOR,
+          lastTrackedPosition.top * DOWNSAMPLE_FACTOR,
+          lastTrackedPosition.right * DOWNSAMPLE_FACTOR,
+          lastTrackedPosition.bottom * DOWNSAMPLE_FACTOR);
+      return position;
     }
 
     synchronized long getLastExternalPositionTime() {
@@ -640,6 +671,12 @@ public class ObjectTracker {
 
   protected native void getTrackedPositionNative(String key, float[] points);
 
+  /**
+   * Writes STATE_SIZE floats per object, in downsampled frame coordinates, for the first count
+   * handles into states.
+   */
+  protected native void getTrackedStatesNative(int[] handles, int count, float[] states);
+
   protected native void nextFrameNative(
       byte[] frameData, byte[] uvData, long timestamp, float[] frameAlignMatrix);
 
@@ -650,9 +687,9 @@ public class ObjectTracker {
       final float positionX2, final float positionY2,
       final float[] delta);
 
-  protected native byte[] getKeypointsPacked(float scaleFactor);
+  protected native int getKeypointsPackedNative(float scaleFactor, byte[] out, int offset);
 
-  protected native float[] getKeypointsNative(boolean onlyReturnCorrespondingKeypoints);
+  protected native int getKeypointsNative(boolean onlyReturnCorrespondingKeypoints, float[] out);
 
   protected native void drawNative(int viewWidth, int viewHeight, float[] frameToCanvas);
 